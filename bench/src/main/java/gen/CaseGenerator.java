@@ -0,0 +1,89 @@
+package gen;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * A generator for one homework's test case format. Operations are streamed
+ * to the case file as they are generated, and a reference model computes
+ * each expected output at the same time. The expected outputs go to a
+ * temporary file next to the case, because the format puts their count
+ * first; the file is appended once the count is known. Memory is therefore
+ * bounded by the reference model, never by the number of operations.
+ */
+abstract class CaseGenerator {
+    protected final SplittableRandom random;
+    protected final int operations;
+    private int outputs;
+
+    CaseGenerator(long seed, int operations) {
+        if (operations < 0) {
+            throw new IllegalArgumentException("Operation count must not be negative: " + operations);
+        }
+        this.random = new SplittableRandom(seed);
+        this.operations = operations;
+    }
+
+    void generate(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path expectedFile = Files.createTempFile(directory, file.getFileName().toString(), ".expected");
+        try {
+            try (CaseWriter out = new CaseWriter(file)) {
+                try (CaseWriter expected = new CaseWriter(expectedFile)) {
+                    writeOperations(out, expected);
+                }
+                out.newLine().newLine().write(outputs).newLine();
+                out.append(expectedFile);
+                out.newLine();
+            }
+        } finally {
+            Files.deleteIfExists(expectedFile);
+        }
+    }
+
+    /**
+     * Writes everything before the expected outputs to out, and the expected
+     * outputs to expected, calling output() once for each
+     */
+    abstract void writeOperations(CaseWriter out, CaseWriter expected) throws IOException;
+
+    /**
+     * Counts one expected output, writing the separator before every output
+     * but the first
+     */
+    protected void output(CaseWriter expected, char separator) throws IOException {
+        if (outputs++ > 0) {
+            expected.write(separator);
+        }
+    }
+
+    /**
+     * A bijection on ints, so that scramble(i) for distinct i gives distinct,
+     * evenly spread values without having to remember the ones handed out
+     */
+    protected static int scramble(int i) {
+        int h = i * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    /**
+     * Splits a family name such as dense-updates-large-range into the part
+     * before suffix and checks that the rest is one of choices
+     */
+    protected static String suffixOf(String family, String... choices) {
+        for (String choice : choices) {
+            if (family.endsWith("-" + choice)) {
+                return choice;
+            }
+        }
+        throw new IllegalArgumentException("Unknown family: " + family);
+    }
+
+    protected static String prefixOf(String family, String suffix) {
+        return family.substring(0, family.length() - suffix.length() - 1);
+    }
+}
@@ -0,0 +1,91 @@
+package gen;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A buffered ASCII writer for test case files. Integers are formatted
+ * straight into the buffer, so writing a case allocates nothing per
+ * operation however large it is.
+ */
+final class CaseWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+    private final byte[] digits = new byte[11];
+
+    CaseWriter(Path file) throws IOException {
+        this.out = Files.newOutputStream(file);
+    }
+
+    CaseWriter write(char c) throws IOException {
+        if (length == BUFFER_SIZE) {
+            flush();
+        }
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    CaseWriter write(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+        return this;
+    }
+
+    CaseWriter write(int value) throws IOException {
+        if (length + digits.length > BUFFER_SIZE) {
+            flush();
+        }
+        if (value == Integer.MIN_VALUE) {
+            return write(Integer.toString(value));
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            buffer[length++] = digits[--count];
+        }
+        return this;
+    }
+
+    CaseWriter space() throws IOException {
+        return write(' ');
+    }
+
+    CaseWriter newLine() throws IOException {
+        return write('\n');
+    }
+
+    /**
+     * Copies the whole of a file to the output
+     */
+    void append(Path file) throws IOException {
+        flush();
+        try (InputStream in = Files.newInputStream(file)) {
+            in.transferTo(out);
+        }
+    }
+
+    void flush() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
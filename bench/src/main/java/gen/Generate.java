@@ -0,0 +1,48 @@
+package gen;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes one seeded test case in an Evaluator's format, with its expected
+ * outputs. The same arguments always produce the same file.
+ *
+ * Usage: Generate hw1|hw2|hw3 family operations seed file [landscape size]
+ *
+ * hw1 families: random, ascending, descending, zigzag
+ * hw2 families: descent-heavy or valley-churn, then -get-and-insert,
+ *   -remove or -all-operations
+ * hw3 families: linear, disconnected, outdegree-bound or dense, then
+ *   -updates or -no-updates, then -medium-range or -large-range
+ *
+ * The landscape size defaults to the number of operations and is ignored
+ * for hw3.
+ */
+public class Generate {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5 || args.length > 6) {
+            System.err.println("Usage: Generate hw1|hw2|hw3 family operations seed file [landscape size]");
+            System.exit(2);
+        }
+        int operations = Integer.parseInt(args[2]);
+        long seed = Long.parseLong(args[3]);
+        Path file = Path.of(args[4]);
+        int landscapeSize = (args.length == 6) ? Integer.parseInt(args[5]) : Math.max(operations, 1);
+
+        CaseGenerator generator;
+        switch (args[0]) {
+            case "hw1":
+                generator = new ValleyCaseGenerator(args[1], seed, operations, landscapeSize);
+                break;
+            case "hw2":
+                generator = new TreasureValleyCaseGenerator(args[1], seed, operations, landscapeSize);
+                break;
+            case "hw3":
+                generator = new TaskCaseGenerator(args[1], seed, operations);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown homework: " + args[0]);
+        }
+        generator.generate(file);
+    }
+}
@@ -0,0 +1,102 @@
+package gen;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressed set of ints, used to keep heights distinct. Removal
+ * shifts the rest of the probe run back, so the table never fills up with
+ * tombstones however much the landscape churns. Integer.MIN_VALUE marks an
+ * empty slot and cannot be stored.
+ */
+final class IntSet {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] table;
+    private int mask;
+    private int size;
+
+    IntSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(2 * expected, 16) - 1) << 1;
+        table = newTable(capacity);
+        mask = capacity - 1;
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private int slotOf(int value) {
+        int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    boolean contains(int value) {
+        int slot = slotOf(value);
+        while (table[slot] != EMPTY) {
+            if (table[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the value was already present
+     */
+    boolean add(int value) {
+        if (value == EMPTY) {
+            throw new IllegalArgumentException("IntSet cannot hold Integer.MIN_VALUE");
+        }
+        int slot = slotOf(value);
+        while (table[slot] != EMPTY) {
+            if (table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        if (++size > table.length / 2) {
+            grow();
+        }
+        return true;
+    }
+
+    void remove(int value) {
+        int slot = slotOf(value);
+        while (table[slot] != value) {
+            if (table[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        size--;
+        // Move back every later entry of the run that may sit in the hole
+        int hole = slot;
+        for (int next = (hole + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slotOf(table[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+
+    private void grow() {
+        int[] old = table;
+        table = newTable(old.length * 2);
+        mask = table.length - 1;
+        for (int value : old) {
+            if (value != EMPTY) {
+                int slot = slotOf(value);
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = value;
+            }
+        }
+    }
+}
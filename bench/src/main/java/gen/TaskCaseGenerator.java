@@ -0,0 +1,302 @@
+package gen;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Generates hw3 cases in the shape of the committed test families, named
+ * like the test files without their size: for example
+ * dense-updates-large-range.
+ *
+ * As in the tests, the first half of the tasks are added before anything
+ * is resolved, then adds and resolves alternate, and the case ends by
+ * resolving every task that is left, so each task is resolved exactly
+ * once. Updates, about one in seven operations when the family has them,
+ * are spread over the whole case and target a random task that has
+ * already been added, resolved or not.
+ *
+ * The reference model numbers tasks by add order and keeps the ready ones
+ * in a binary heap of packed (urgency, order) keys. Updates push a fresh
+ * key instead of moving the old one, and stale keys are skipped when they
+ * reach the top.
+ */
+final class TaskCaseGenerator extends CaseGenerator {
+    enum Shape {
+        LINEAR, DISCONNECTED, OUTDEGREE_BOUND, DENSE
+    }
+
+    // Dependencies are drawn from the tasks added just before
+    private static final int OUTDEGREE_WINDOW = 64;
+    private static final int DENSE_WINDOW = 256;
+    private static final int MAX_OUTDEGREE = 4;
+    // Updates per operation when the family has updates
+    private static final int UPDATE_SHARE = 7;
+
+    private final Shape shape;
+    private final boolean updates;
+    private final int urgencyBound;
+    private final int tasks;
+    private final int updateCount;
+
+    // Reference model, indexed by add order
+    private final int[] urgency;
+    private final int[] remaining;
+    private final boolean[] resolved;
+    private final byte[] outdegree;
+    private final int[] firstDependent;
+    private int[] dependent;
+    private int[] nextDependent;
+    private int edges;
+    private long[] heap = new long[1024];
+    private int heapSize;
+
+    // taskId of task i is "T" + (idMultiplier * i mod tasks + 1), a
+    // permutation of 1..tasks; the linear family numbers tasks in order as
+    // its test files do
+    private final long idMultiplier;
+    private final int[] chosen = new int[24];
+
+    TaskCaseGenerator(String family, long seed, int operations) {
+        super(seed, operations);
+        String range = suffixOf(family, "medium-range", "large-range");
+        String rest = prefixOf(family, range);
+        String mode = suffixOf(rest, "no-updates", "updates");
+        String shapeName = prefixOf(rest, mode);
+        this.shape = Shape.valueOf(shapeName.toUpperCase().replace('-', '_'));
+        this.updates = mode.equals("updates");
+        this.urgencyBound = range.equals("medium-range") ? 11 : 1001;
+
+        // Every task is added once and resolved once
+        int u = updates ? operations / UPDATE_SHARE : 0;
+        if ((operations - u) % 2 != 0) {
+            u++;
+        }
+        this.updateCount = u;
+        this.tasks = (operations - u) / 2;
+        if (tasks == 0 && u > 0) {
+            throw new IllegalArgumentException("Too few operations for a case with updates: " + operations);
+        }
+
+        this.urgency = new int[tasks];
+        this.remaining = new int[tasks];
+        this.resolved = new boolean[tasks];
+        this.outdegree = new byte[shape == Shape.OUTDEGREE_BOUND ? tasks : 0];
+        this.firstDependent = new int[tasks];
+        Arrays.fill(firstDependent, -1);
+        this.dependent = new int[Math.max(16, tasks)];
+        this.nextDependent = new int[dependent.length];
+        this.idMultiplier = (shape == Shape.LINEAR) ? 1 : coprimeMultiplier(tasks);
+    }
+
+    private long coprimeMultiplier(int n) {
+        if (n < 2) {
+            return 1;
+        }
+        long m = (n / 2 + random.nextInt(n / 2 + 1)) | 1;
+        while (gcd(m % n, n) != 1) {
+            m += 2;
+        }
+        return m % n;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private void writeId(CaseWriter out, int task) throws IOException {
+        out.write('T').write((int) (idMultiplier * task % tasks) + 1);
+    }
+
+    void writeOperations(CaseWriter out, CaseWriter expected) throws IOException {
+        out.write(operations).newLine();
+        int firstHalf = tasks / 2;
+        int added = 0;
+        int resolves = 0;
+        int updatesLeft = updateCount;
+        // Adds and resolves are written in a fixed pattern; updates are
+        // slotted in at random with the right overall count
+        int structural = 0;
+        for (int left = operations; left > 0; left--) {
+            if (updatesLeft > 0 && added > 0 && random.nextInt(left) < updatesLeft) {
+                updatesLeft--;
+                writeUpdate(out, added);
+                continue;
+            }
+            boolean add = (structural < firstHalf)
+                    || (structural < 2 * tasks - firstHalf && (structural - firstHalf) % 2 == 0);
+            structural++;
+            if (add) {
+                writeAdd(out, added++);
+            } else {
+                out.write('3').newLine();
+                output(expected, ' ');
+                writeId(expected, resolveNext());
+                resolves++;
+            }
+        }
+        if (added != tasks || resolves != tasks) {
+            throw new IllegalStateException("Generated " + added + " adds and " + resolves + " resolves for "
+                    + tasks + " tasks");
+        }
+    }
+
+    private void writeAdd(CaseWriter out, int task) throws IOException {
+        urgency[task] = random.nextInt(urgencyBound);
+        int count = chooseDependencies(task);
+        out.write('1').space();
+        writeId(out, task);
+        out.space().write(urgency[task]);
+        for (int j = 0; j < count; j++) {
+            int dependency = chosen[j];
+            out.space();
+            writeId(out, dependency);
+            if (!resolved[dependency]) {
+                remaining[task]++;
+                addDependent(dependency, task);
+            }
+        }
+        out.newLine();
+        if (remaining[task] == 0) {
+            push(task);
+        }
+    }
+
+    /**
+     * Fills chosen with the dependencies of a new task
+     *
+     * @return The number of dependencies
+     */
+    private int chooseDependencies(int task) {
+        switch (shape) {
+            case LINEAR:
+                if (task == 0) {
+                    return 0;
+                }
+                chosen[0] = task - 1;
+                return 1;
+            case OUTDEGREE_BOUND: {
+                // 1 to 4 dependencies, none of which already has 4 dependents
+                int window = Math.min(task, OUTDEGREE_WINDOW);
+                int want = Math.min(window, 1 + random.nextInt(4));
+                int count = 0;
+                for (int attempt = 0; attempt < 2 * want && count < want; attempt++) {
+                    int candidate = task - 1 - random.nextInt(window);
+                    if (outdegree[candidate] < MAX_OUTDEGREE && !isChosen(candidate, count)) {
+                        outdegree[candidate]++;
+                        chosen[count++] = candidate;
+                    }
+                }
+                return count;
+            }
+            case DENSE: {
+                // Usually a handful, now and then up to 24 dependencies
+                int window = Math.min(task, DENSE_WINDOW);
+                int want = Math.min(window, random.nextInt(random.nextInt(4) == 0 ? 25 : 9));
+                int count = 0;
+                while (count < want) {
+                    int candidate = task - 1 - random.nextInt(window);
+                    if (!isChosen(candidate, count)) {
+                        chosen[count++] = candidate;
+                    }
+                }
+                return count;
+            }
+            default:
+                return 0;
+        }
+    }
+
+    private boolean isChosen(int candidate, int count) {
+        for (int j = 0; j < count; j++) {
+            if (chosen[j] == candidate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addDependent(int dependency, int task) {
+        if (edges == dependent.length) {
+            dependent = Arrays.copyOf(dependent, edges * 2);
+            nextDependent = Arrays.copyOf(nextDependent, edges * 2);
+        }
+        dependent[edges] = task;
+        nextDependent[edges] = firstDependent[dependency];
+        firstDependent[dependency] = edges++;
+    }
+
+    private void writeUpdate(CaseWriter out, int added) throws IOException {
+        // Mostly recent tasks, which are the ones still likely to be pending
+        int task = (random.nextBoolean())
+                ? added - 1 - random.nextInt(Math.min(added, DENSE_WINDOW))
+                : random.nextInt(added);
+        int newUrgency = random.nextInt(urgencyBound);
+        out.write('2').space();
+        writeId(out, task);
+        out.space().write(newUrgency).newLine();
+        if (resolved[task]) {
+            return;
+        }
+        urgency[task] = newUrgency;
+        if (remaining[task] == 0) {
+            push(task);
+        }
+    }
+
+    private int resolveNext() {
+        while (heapSize > 0) {
+            long key = pop();
+            int task = ~(int) key;
+            if (resolved[task] || (int) (key >>> 32) != urgency[task]) {
+                continue;
+            }
+            resolved[task] = true;
+            for (int e = firstDependent[task]; e != -1; e = nextDependent[e]) {
+                int released = dependent[e];
+                if (--remaining[released] == 0) {
+                    push(released);
+                }
+            }
+            return task;
+        }
+        throw new IllegalStateException("Nothing left to resolve");
+    }
+
+    // Higher urgency first, then earlier add
+    private void push(int task) {
+        long key = ((long) urgency[task] << 32) | (~task & 0xFFFFFFFFL);
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        int k = heapSize++;
+        while (k > 0 && heap[(k - 1) / 2] < key) {
+            heap[k] = heap[(k - 1) / 2];
+            k = (k - 1) / 2;
+        }
+        heap[k] = key;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long key = heap[--heapSize];
+        int k = 0;
+        while (2 * k + 1 < heapSize) {
+            int child = 2 * k + 1;
+            if (child + 1 < heapSize && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (key >= heap[child]) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = key;
+        return top;
+    }
+}
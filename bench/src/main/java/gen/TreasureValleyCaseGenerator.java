@@ -0,0 +1,387 @@
+package gen;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Generates hw2 cases, named landscape-mix: for example
+ * descent-heavy-all-operations.
+ *
+ * Landscapes:
+ * - descent-heavy: long descents of 16 to 256 landforms, so valleys are
+ *   deep and removing one shifts the depth of a whole descent. Inserts
+ *   continue the descent they land in.
+ * - valley-churn: random heights, so valleys are shallow and plentiful,
+ *   and inserts at random heights keep creating and destroying them.
+ *
+ * Operation mixes, as in the hw2 test files:
+ * - get-and-insert: inserts at, and queries of, the most and least
+ *   valuable valleys, plus valley counts
+ * - remove: mostly removals, with some queries
+ * - all-operations: every operation equally often
+ * Each mix also has an occasional isEmpty. Nine in ten depths are taken
+ * from depths that currently have a valley; the rest are likely misses.
+ * Heights stay distinct and treasure values are unique.
+ *
+ * The reference model is a doubly linked list over int arrays with each
+ * landform's depth, and for each depth a TreeMap from value to valley. A
+ * change recomputes its neighbours and then walks forward only while
+ * depths keep changing.
+ */
+final class TreasureValleyCaseGenerator extends CaseGenerator {
+    enum Landscape {
+        DESCENT_HEAVY, VALLEY_CHURN
+    }
+
+    enum Mix {
+        GET_AND_INSERT(new int[] {1, 2, 5, 6, 7}, new int[] {1, 1, 1, 1, 1}),
+        REMOVE(new int[] {3, 4, 5, 6, 7}, new int[] {4, 4, 1, 1, 1}),
+        ALL_OPERATIONS(new int[] {1, 2, 3, 4, 5, 6, 7}, new int[] {1, 1, 1, 1, 1, 1, 1});
+
+        private final int[] types;
+        private final int[] cumulative;
+
+        Mix(int[] types, int[] weights) {
+            this.types = types;
+            this.cumulative = new int[weights.length];
+            int total = 0;
+            for (int i = 0; i < weights.length; i++) {
+                total += weights[i];
+                cumulative[i] = total;
+            }
+        }
+    }
+
+    private static final int NONE = -1;
+    private static final int HEIGHT_BOUND = 1 << 30;
+    private static final int MIN_DESCENT = 16;
+    private static final int MAX_DESCENT = 256;
+    // Percent of operations that are isEmpty
+    private static final int IS_EMPTY_PERCENT = 2;
+
+    private final Landscape landscape;
+    private final Mix mix;
+    private final int landscapeSize;
+    private final IntSet heights;
+    private int nextValue;
+
+    private int[] height;
+    private int[] value;
+    private int[] depth;
+    private boolean[] valley;
+    private int[] previous;
+    private int[] next;
+    private int nodes;
+    private int head = NONE;
+    private int size;
+
+    private final Map<Integer, TreeMap<Integer, Integer>> valleysByDepth = new HashMap<>();
+    // The depths that have a valley, for picking operation depths
+    private int[] activeDepths = new int[64];
+    private int activeCount;
+    private final Map<Integer, Integer> activeSlot = new HashMap<>();
+    private int deepest;
+
+    TreasureValleyCaseGenerator(String family, long seed, int operations, int landscapeSize) {
+        super(seed, operations);
+        if (landscapeSize < 1) {
+            throw new IllegalArgumentException("Landscape size must be positive: " + landscapeSize);
+        }
+        String mixName = suffixOf(family, "get-and-insert", "remove", "all-operations");
+        this.mix = Mix.valueOf(mixName.toUpperCase().replace('-', '_'));
+        this.landscape = Landscape.valueOf(prefixOf(family, mixName).toUpperCase().replace('-', '_'));
+        this.landscapeSize = landscapeSize;
+        this.heights = new IntSet(landscapeSize);
+        int capacity = landscapeSize + Math.min(operations, 1 << 20);
+        this.height = new int[capacity];
+        this.value = new int[capacity];
+        this.depth = new int[capacity];
+        this.valley = new boolean[capacity];
+        this.previous = new int[capacity];
+        this.next = new int[capacity];
+    }
+
+    void writeOperations(CaseWriter out, CaseWriter expected) throws IOException {
+        int[] initial = initialHeights();
+        out.write(landscapeSize).newLine();
+        for (int i = 0; i < landscapeSize; i++) {
+            if (i > 0) {
+                out.space();
+            }
+            out.write(initial[i]);
+        }
+        out.newLine();
+        int tail = NONE;
+        for (int i = 0; i < landscapeSize; i++) {
+            int node = newNode(initial[i], scramble(nextValue++));
+            if (i > 0) {
+                out.space();
+            }
+            out.write(value[node]);
+            previous[node] = tail;
+            if (tail == NONE) {
+                head = node;
+            } else {
+                next[tail] = node;
+            }
+            tail = node;
+        }
+        size = landscapeSize;
+        initial = null;
+        for (int node = head; node != NONE; node = next[node]) {
+            refresh(node);
+        }
+        out.newLine().newLine();
+
+        out.write(operations).newLine();
+        for (int i = 0; i < operations; i++) {
+            int type = nextType();
+            out.write(type);
+            if (type == 8) {
+                out.newLine();
+                output(expected, ' ');
+                expected.write(size == 0 ? 't' : 'f');
+                continue;
+            }
+            int d = nextDepth();
+            TreeMap<Integer, Integer> valleys = valleysByDepth.get(d);
+            int target = NONE;
+            if (valleys != null) {
+                target = (type % 2 == 1) ? valleys.lastEntry().getValue() : valleys.firstEntry().getValue();
+            }
+            if (type <= 2) {
+                int h = insertHeight(target);
+                int v = scramble(nextValue++);
+                out.space().write(h).space().write(v).space().write(d).newLine();
+                output(expected, ' ');
+                if (target == NONE) {
+                    expected.write('f');
+                } else {
+                    heights.add(h);
+                    insertBefore(target, h, v);
+                    expected.write('t');
+                }
+                continue;
+            }
+            out.space().write(d).newLine();
+            output(expected, ' ');
+            if (type == 7) {
+                expected.write(valleys == null ? 0 : valleys.size());
+            } else if (target == NONE) {
+                expected.write('n');
+            } else {
+                expected.write('(').write(height[target]).write(',').write(value[target]).write(')');
+                if (type <= 4) {
+                    remove(target);
+                }
+            }
+        }
+    }
+
+    private int[] initialHeights() {
+        int[] result = new int[landscapeSize];
+        if (landscape == Landscape.VALLEY_CHURN) {
+            for (int i = 0; i < landscapeSize; i++) {
+                result[i] = freshHeight();
+                heights.add(result[i]);
+            }
+            return result;
+        }
+        int i = 0;
+        while (i < landscapeSize) {
+            // A descent from a random top, in steps wide enough to leave
+            // room for the inserts that will lengthen it
+            int length = MIN_DESCENT + random.nextInt(MAX_DESCENT - MIN_DESCENT + 1);
+            int h = random.nextInt(-HEIGHT_BOUND / 2, HEIGHT_BOUND);
+            for (int j = 0; j < length && i < landscapeSize; j++, i++) {
+                while (!heights.add(h)) {
+                    h--;
+                }
+                result[i] = h;
+                h -= 256 + random.nextInt(768);
+            }
+        }
+        return result;
+    }
+
+    private int freshHeight() {
+        int h;
+        do {
+            h = random.nextInt(-HEIGHT_BOUND, HEIGHT_BOUND);
+        } while (heights.contains(h));
+        return h;
+    }
+
+    /**
+     * On descent-heavy landscapes, a height between the target valley and
+     * the landform before it, so the insert lengthens that descent
+     */
+    private int insertHeight(int target) {
+        if (landscape == Landscape.DESCENT_HEAVY && target != NONE && previous[target] != NONE) {
+            int low = height[target];
+            int high = height[previous[target]];
+            if (high - low >= 2) {
+                int h = low + (high - low) / 2;
+                if (!heights.contains(h)) {
+                    return h;
+                }
+            }
+        }
+        return freshHeight();
+    }
+
+    private int nextType() {
+        if (random.nextInt(100) < IS_EMPTY_PERCENT) {
+            return 8;
+        }
+        int[] cumulative = mix.cumulative;
+        int pick = random.nextInt(cumulative[cumulative.length - 1]);
+        int i = 0;
+        while (pick >= cumulative[i]) {
+            i++;
+        }
+        return mix.types[i];
+    }
+
+    private int nextDepth() {
+        if (activeCount > 0 && random.nextInt(10) != 0) {
+            return activeDepths[random.nextInt(activeCount)];
+        }
+        return random.nextInt(deepest + 2);
+    }
+
+    private int newNode(int h, int v) {
+        if (nodes == height.length) {
+            int capacity = nodes * 2;
+            height = Arrays.copyOf(height, capacity);
+            value = Arrays.copyOf(value, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+            valley = Arrays.copyOf(valley, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        height[nodes] = h;
+        value[nodes] = v;
+        previous[nodes] = NONE;
+        next[nodes] = NONE;
+        return nodes++;
+    }
+
+    private void insertBefore(int target, int h, int v) {
+        int node = newNode(h, v);
+        int before = previous[target];
+        previous[node] = before;
+        next[node] = target;
+        previous[target] = node;
+        if (before == NONE) {
+            head = node;
+        } else {
+            next[before] = node;
+        }
+        size++;
+        settle((before == NONE) ? node : before, target);
+    }
+
+    private void remove(int target) {
+        int before = previous[target];
+        int after = next[target];
+        if (before == NONE) {
+            head = after;
+        } else {
+            next[before] = after;
+        }
+        if (after != NONE) {
+            previous[after] = before;
+        }
+        size--;
+        heights.remove(height[target]);
+        if (valley[target]) {
+            unindex(target);
+        }
+        if (before != NONE) {
+            settle(before, (after == NONE) ? before : after);
+        } else if (after != NONE) {
+            settle(after, after);
+        }
+    }
+
+    /**
+     * Recomputes every landform from first to last, whose neighbours may
+     * have changed, then the ones after last for as long as their depth
+     * keeps changing
+     */
+    private void settle(int first, int last) {
+        int node = first;
+        while (true) {
+            refresh(node);
+            if (node == last) {
+                break;
+            }
+            node = next[node];
+        }
+        for (node = next[last]; node != NONE && refresh(node); node = next[node]) {
+        }
+    }
+
+    /**
+     * Recomputes the depth and valley status of one landform and reindexes it
+     *
+     * @return true if its depth changed
+     */
+    private boolean refresh(int node) {
+        int before = previous[node];
+        int after = next[node];
+        int newDepth = (before != NONE && height[node] < height[before]) ? depth[before] + 1 : 0;
+        boolean newValley = (before == NONE || height[node] < height[before])
+                && (after == NONE || height[node] < height[after]);
+        boolean depthChanged = newDepth != depth[node];
+        if (!depthChanged && newValley == valley[node]) {
+            // A fresh landform starts at depth 0 and not a valley, so this
+            // also covers one whose status is already right
+            return false;
+        }
+        if (valley[node]) {
+            unindex(node);
+        }
+        depth[node] = newDepth;
+        valley[node] = newValley;
+        if (newValley) {
+            index(node);
+        }
+        return depthChanged;
+    }
+
+    private void index(int node) {
+        int d = depth[node];
+        TreeMap<Integer, Integer> valleys = valleysByDepth.get(d);
+        if (valleys == null) {
+            valleys = new TreeMap<>();
+            valleysByDepth.put(d, valleys);
+            if (activeCount == activeDepths.length) {
+                activeDepths = Arrays.copyOf(activeDepths, activeCount * 2);
+            }
+            activeSlot.put(d, activeCount);
+            activeDepths[activeCount++] = d;
+            deepest = Math.max(deepest, d);
+        }
+        valleys.put(value[node], node);
+    }
+
+    private void unindex(int node) {
+        int d = depth[node];
+        TreeMap<Integer, Integer> valleys = valleysByDepth.get(d);
+        valleys.remove(value[node]);
+        if (valleys.isEmpty()) {
+            valleysByDepth.remove(d);
+            int slot = activeSlot.remove(d);
+            int moved = activeDepths[--activeCount];
+            if (moved != d) {
+                activeDepths[slot] = moved;
+                activeSlot.put(moved, slot);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package gen;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Generates hw1 cases: an initial landscape of the given shape (random,
+ * ascending, descending or zigzag) followed by an even mix of getFirst,
+ * remove and insert. A remove or getFirst is never issued on an empty
+ * landscape. Heights stay distinct for the whole case. On the ascending and
+ * descending shapes every insert is lower than anything before it, which
+ * keeps the first valley at the front or at the very end respectively.
+ *
+ * The reference model is a doubly linked list over int arrays plus a scan
+ * cursor: no landform before the cursor is a valley, and since a change
+ * only affects its neighbours, the cursor steps back one place at most per
+ * operation, so finding the first valley costs amortized constant time.
+ */
+final class ValleyCaseGenerator extends CaseGenerator {
+    enum Shape {
+        RANDOM, ASCENDING, DESCENDING, ZIGZAG
+    }
+
+    private static final int NONE = -1;
+    private static final int HEIGHT_BOUND = 1 << 30;
+
+    private final Shape shape;
+    private final int landscapeSize;
+    private final IntSet heights;
+    private int nextLow;
+
+    private int[] height;
+    private int[] previous;
+    private int[] next;
+    private int nodes;
+    private int head = NONE;
+    private int size;
+    private int cursor = NONE;
+
+    ValleyCaseGenerator(String family, long seed, int operations, int landscapeSize) {
+        super(seed, operations);
+        if (landscapeSize < 1) {
+            throw new IllegalArgumentException("Landscape size must be positive: " + landscapeSize);
+        }
+        this.shape = Shape.valueOf(family.toUpperCase());
+        this.landscapeSize = landscapeSize;
+        this.heights = new IntSet(landscapeSize);
+        int capacity = landscapeSize + Math.min(operations, 1 << 20);
+        this.height = new int[capacity];
+        this.previous = new int[capacity];
+        this.next = new int[capacity];
+    }
+
+    void writeOperations(CaseWriter out, CaseWriter expected) throws IOException {
+        out.write(landscapeSize).newLine();
+        int tail = NONE;
+        for (int i = 0; i < landscapeSize; i++) {
+            int h = initialHeight(i);
+            heights.add(h);
+            int node = newNode(h);
+            previous[node] = tail;
+            if (tail == NONE) {
+                head = node;
+            } else {
+                next[tail] = node;
+            }
+            tail = node;
+            size++;
+            if (i > 0) {
+                out.space();
+            }
+            out.write(h);
+        }
+        out.newLine().newLine();
+        nextLow = -landscapeSize - 1;
+        cursor = head;
+
+        out.write(operations).newLine();
+        for (int i = 0; i < operations; i++) {
+            int op = (size == 0) ? 3 : 1 + random.nextInt(3);
+            switch (op) {
+                case 1:
+                    out.write('1').newLine();
+                    output(expected, '\n');
+                    expected.write(height[firstValley()]);
+                    break;
+                case 2:
+                    out.write('2').newLine();
+                    output(expected, '\n');
+                    expected.write(height[removeFirstValley()]);
+                    break;
+                default:
+                    int h = insertHeight();
+                    out.write('3').space().write(h).newLine();
+                    insert(h);
+            }
+        }
+    }
+
+    private int initialHeight(int i) {
+        switch (shape) {
+            case ASCENDING:
+                return i;
+            case DESCENDING:
+                return landscapeSize - i;
+            case ZIGZAG:
+                return (i % 2 == 0) ? i : landscapeSize + i;
+            default:
+                return freshHeight();
+        }
+    }
+
+    private int freshHeight() {
+        int h;
+        do {
+            h = random.nextInt(-HEIGHT_BOUND, HEIGHT_BOUND);
+        } while (heights.contains(h));
+        return h;
+    }
+
+    private int insertHeight() {
+        int h;
+        if (shape == Shape.ASCENDING || shape == Shape.DESCENDING) {
+            h = nextLow--;
+        } else {
+            h = freshHeight();
+        }
+        heights.add(h);
+        return h;
+    }
+
+    private int newNode(int h) {
+        if (nodes == height.length) {
+            int capacity = nodes * 2;
+            height = Arrays.copyOf(height, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        height[nodes] = h;
+        previous[nodes] = NONE;
+        next[nodes] = NONE;
+        return nodes++;
+    }
+
+    private boolean isValley(int node) {
+        return (previous[node] == NONE || height[node] < height[previous[node]])
+                && (next[node] == NONE || height[node] < height[next[node]]);
+    }
+
+    private int firstValley() {
+        while (!isValley(cursor)) {
+            cursor = next[cursor];
+        }
+        return cursor;
+    }
+
+    private int removeFirstValley() {
+        int valley = firstValley();
+        int before = previous[valley];
+        int after = next[valley];
+        if (before == NONE) {
+            head = after;
+        } else {
+            next[before] = after;
+        }
+        if (after != NONE) {
+            previous[after] = before;
+        }
+        size--;
+        heights.remove(height[valley]);
+        cursor = (before == NONE) ? head : before;
+        return valley;
+    }
+
+    private void insert(int h) {
+        int node = newNode(h);
+        size++;
+        if (head == NONE) {
+            head = node;
+            cursor = node;
+            return;
+        }
+        int valley = firstValley();
+        int before = previous[valley];
+        previous[node] = before;
+        next[node] = valley;
+        previous[valley] = node;
+        if (before == NONE) {
+            head = node;
+        } else {
+            next[before] = node;
+        }
+        cursor = (before == NONE) ? head : before;
+    }
+}
@@ -0,0 +1,114 @@
+package hw1;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks every public operation of ValleyTraveler. Mutating operations
+ * are paired with their inverse so that the landscape keeps its size and
+ * roughly its shape for the whole iteration.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class ValleyTravelerBenchmark {
+    /**
+     * ASCENDING puts the first valley at the front and DESCENDING at the very
+     * end; ZIGZAG makes every other landform a valley
+     */
+    public enum Shape {
+        RANDOM,
+        ASCENDING,
+        DESCENDING,
+        ZIGZAG
+    }
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"RANDOM", "ASCENDING", "DESCENDING", "ZIGZAG"})
+    public Shape shape;
+
+    private int[] landscape;
+    private ValleyTraveler traveler;
+    private int nextHeight;
+
+    @Setup(Level.Trial)
+    public void buildLandscape() {
+        landscape = new int[size];
+        for (int i = 0; i < size; i++) {
+            switch (shape) {
+                case ASCENDING:
+                    landscape[i] = i;
+                    break;
+                case DESCENDING:
+                    landscape[i] = size - i;
+                    break;
+                case ZIGZAG:
+                    landscape[i] = (i % 2 == 0) ? i : size + i;
+                    break;
+                default:
+                    landscape[i] = i;
+            }
+        }
+        if (shape == Shape.RANDOM) {
+            Random random = new Random(size);
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = landscape[i];
+                landscape[i] = landscape[j];
+                landscape[j] = swap;
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void buildTraveler() {
+        traveler = new ValleyTraveler(landscape);
+        // Above every height in the landscape, so inserts stay distinct
+        nextHeight = 3 * size;
+    }
+
+    @Benchmark
+    public ValleyTraveler construct() {
+        return new ValleyTraveler(landscape);
+    }
+
+    @Benchmark
+    public int getFirst() {
+        return traveler.getFirst();
+    }
+
+    @Benchmark
+    public boolean isEmpty() {
+        return traveler.isEmpty();
+    }
+
+    @Benchmark
+    public int removeThenInsert() {
+        int height = traveler.remove();
+        traveler.insert(height);
+        return height;
+    }
+
+    @Benchmark
+    public int insertThenRemove() {
+        traveler.insert(nextHeight++);
+        return traveler.remove();
+    }
+}
@@ -0,0 +1,165 @@
+package hw2;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks every public operation of TreasureValleyExplorer. Queries
+ * cycle through the depths at which the initial landscape has valleys.
+ * Inserts are paired with a removal at the same depth. The inserted
+ * landform is lower than any other and the most (or least) valuable, so
+ * the pair normally takes back out what it put in.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class TreasureValleyExplorerBenchmark {
+    /**
+     * RANDOM has mostly shallow valleys; DESCENTS is a sawtooth of long
+     * descents, each ending in a valley DESCENT_LENGTH - 1 steps deep
+     */
+    public enum Shape {
+        RANDOM,
+        DESCENTS
+    }
+
+    private static final int DESCENT_LENGTH = 64;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"RANDOM", "DESCENTS"})
+    public Shape shape;
+
+    private int[] heights;
+    private int[] values;
+    private int[] depths;
+    private TreasureValleyExplorer explorer;
+    private int depthIndex;
+    private int nextHeight;
+    private int nextValue;
+
+    @Setup(Level.Trial)
+    public void buildLandscape() {
+        Random random = new Random(size);
+        heights = new int[size];
+        values = new int[size];
+        for (int i = 0; i < size; i++) {
+            heights[i] = (shape == Shape.DESCENTS)
+                    ? (i / DESCENT_LENGTH) * DESCENT_LENGTH + (DESCENT_LENGTH - 1 - i % DESCENT_LENGTH)
+                    : i;
+            values[i] = i;
+        }
+        if (shape == Shape.RANDOM) {
+            shuffle(heights, random);
+        }
+        shuffle(values, random);
+        depths = valleyDepths(heights);
+    }
+
+    private static void shuffle(int[] array, Random random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+
+    /**
+     * The distinct depths of the valleys in a landscape, where depth counts
+     * the consecutive downward steps since the last ascent
+     */
+    private static int[] valleyDepths(int[] heights) {
+        boolean[] seen = new boolean[heights.length + 1];
+        int count = 0;
+        int depth = 0;
+        for (int i = 0; i < heights.length; i++) {
+            if (i > 0) {
+                depth = (heights[i] < heights[i - 1]) ? depth + 1 : 0;
+            }
+            boolean valley = (i == 0 || heights[i] < heights[i - 1])
+                    && (i == heights.length - 1 || heights[i] < heights[i + 1]);
+            if (valley && !seen[depth]) {
+                seen[depth] = true;
+                count++;
+            }
+        }
+        int[] result = new int[Math.max(count, 1)];
+        int next = 0;
+        for (int d = 0; d < seen.length; d++) {
+            if (seen[d]) {
+                result[next++] = d;
+            }
+        }
+        return result;
+    }
+
+    @Setup(Level.Iteration)
+    public void buildExplorer() {
+        explorer = new TreasureValleyExplorer(heights, values);
+        depthIndex = 0;
+        nextHeight = -1;
+        nextValue = size;
+    }
+
+    private int nextDepth() {
+        int depth = depths[depthIndex];
+        depthIndex = (depthIndex + 1 == depths.length) ? 0 : depthIndex + 1;
+        return depth;
+    }
+
+    @Benchmark
+    public TreasureValleyExplorer construct() {
+        return new TreasureValleyExplorer(heights, values);
+    }
+
+    @Benchmark
+    public boolean isEmpty() {
+        return explorer.isEmpty();
+    }
+
+    @Benchmark
+    public Object getMostValuableValley() {
+        return explorer.getMostValuableValley(nextDepth());
+    }
+
+    @Benchmark
+    public Object getLeastValuableValley() {
+        return explorer.getLeastValuableValley(nextDepth());
+    }
+
+    @Benchmark
+    public int getValleyCount() {
+        return explorer.getValleyCount(nextDepth());
+    }
+
+    @Benchmark
+    public Object insertAtMostThenRemoveMost() {
+        int depth = nextDepth();
+        explorer.insertAtMostValuableValley(nextHeight--, nextValue++, depth);
+        return explorer.removeMostValuableValley(depth);
+    }
+
+    @Benchmark
+    public Object insertAtLeastThenRemoveLeast() {
+        int depth = nextDepth();
+        explorer.insertAtLeastValuableValley(nextHeight--, -nextValue++, depth);
+        return explorer.removeLeastValuableValley(depth);
+    }
+}
@@ -0,0 +1,88 @@
+package hw3;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what the metrics histograms cost the hot operations of
+ * TaskPrioritizer, by running them with latency and fan-out sampling on
+ * and off. Each iteration starts from a prioritizer holding size tasks
+ * that depend on up to 3 of the WINDOW tasks added just before them, and
+ * each task added is resolved, leased or cancelled in the same call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class MetricsBenchmark {
+    private static final int WINDOW = 1024;
+    private static final int URGENCY_RANGE = 1000;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean sampling;
+
+    private TaskPrioritizer prioritizer;
+    private Random random;
+    // The taskIds of the last WINDOW tasks added, indexed by add count
+    private String[] recent;
+    private int added;
+
+    @Setup(Level.Iteration)
+    public void buildPrioritizer() {
+        random = new Random(size);
+        recent = new String[WINDOW];
+        prioritizer = new TaskPrioritizer();
+        prioritizer.setMetricsSampling(sampling);
+        added = 0;
+        while (added < size) {
+            addNext();
+        }
+    }
+
+    private String addNext() {
+        int window = Math.min(added, WINDOW);
+        String[] dependencies = new String[random.nextInt(Math.min(window, 3) + 1)];
+        for (int j = 0; j < dependencies.length; j++) {
+            dependencies[j] = recent[(added - 1 - random.nextInt(window)) % WINDOW];
+        }
+        String taskId = "T" + added;
+        prioritizer.add(taskId, random.nextInt(URGENCY_RANGE), dependencies);
+        recent[added++ % WINDOW] = taskId;
+        return taskId;
+    }
+
+    @Benchmark
+    public String addThenResolve() {
+        addNext();
+        return prioritizer.resolve();
+    }
+
+    @Benchmark
+    public boolean addThenLeaseAndComplete() {
+        addNext();
+        String taskId = prioritizer.lease();
+        return taskId != null && prioritizer.complete(taskId);
+    }
+
+    @Benchmark
+    public int addThenCancel() {
+        return prioritizer.cancel(addNext(), false);
+    }
+}
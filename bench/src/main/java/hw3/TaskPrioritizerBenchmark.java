@@ -0,0 +1,234 @@
+package hw3;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks every public operation of TaskPrioritizer on the graph shapes
+ * of the test families, on each ready queue engine, with and without
+ * aging. Each iteration starts from a prioritizer holding size tasks.
+ * Operations that add or remove tasks come in pairs, such as an add
+ * followed by a resolve, so the number of pending tasks stays the same.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class TaskPrioritizerBenchmark {
+    /**
+     * The dependency shapes of the test families: LINEAR is a single chain,
+     * DISCONNECTED has no dependencies, OUTDEGREE_BOUND gives each task up
+     * to 3 and DENSE up to 16 dependencies among the WINDOW tasks added
+     * just before it
+     */
+    public enum Shape {
+        LINEAR,
+        DISCONNECTED,
+        OUTDEGREE_BOUND,
+        DENSE
+    }
+
+    private static final int WINDOW = 1024;
+    private static final int URGENCY_RANGE = 1000;
+    private static final int BATCH = 16;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"LINEAR", "DISCONNECTED", "OUTDEGREE_BOUND", "DENSE"})
+    public Shape shape;
+
+    @Param({"BINARY_HEAP", "PAIRING_HEAP"})
+    public TaskPrioritizer.Engine engine;
+
+    // Resolutions per urgency level gained by waiting tasks, or 0 for no
+    // aging
+    @Param({"0", "1024"})
+    public long agingPeriod;
+
+    private String[] taskIds;
+    private int[] urgencyLevels;
+    private String[][] dependencies;
+    private TaskPrioritizer prioritizer;
+    private Random random;
+    // The taskIds of the last WINDOW tasks added, indexed by add count
+    private String[] recent;
+    private int added;
+    private final String[] resolved = new String[BATCH];
+
+    @Setup(Level.Trial)
+    public void buildGraph() {
+        random = new Random(size);
+        recent = new String[WINDOW];
+        taskIds = new String[size];
+        urgencyLevels = new int[size];
+        dependencies = new String[size][];
+        for (int i = 0; i < size; i++) {
+            taskIds[i] = "T" + i;
+            urgencyLevels[i] = random.nextInt(URGENCY_RANGE);
+            dependencies[i] = nextDependencies(i);
+            recent[i % WINDOW] = taskIds[i];
+        }
+    }
+
+    private String[] nextDependencies(int index) {
+        int window = Math.min(index, WINDOW);
+        int count;
+        switch (shape) {
+            case LINEAR:
+                count = Math.min(index, 1);
+                break;
+            case OUTDEGREE_BOUND:
+                count = random.nextInt(Math.min(window, 3) + 1);
+                break;
+            case DENSE:
+                count = random.nextInt(Math.min(window, 16) + 1);
+                break;
+            default:
+                count = 0;
+        }
+        String[] result = new String[count];
+        for (int j = 0; j < count; j++) {
+            int back = (shape == Shape.LINEAR) ? 1 : 1 + random.nextInt(window);
+            result[j] = recent[(index - back) % WINDOW];
+        }
+        return result;
+    }
+
+    @Setup(Level.Iteration)
+    public void buildPrioritizer() {
+        prioritizer = newPrioritizer();
+        prioritizer.addAll(taskIds, urgencyLevels, dependencies);
+        for (int i = Math.max(0, size - WINDOW); i < size; i++) {
+            recent[i % WINDOW] = taskIds[i];
+        }
+        added = size;
+    }
+
+    TaskPrioritizer newPrioritizer() {
+        TaskPrioritizer result = new TaskPrioritizer(engine);
+        if (agingPeriod != 0) {
+            result.setAgingByResolves(agingPeriod);
+        }
+        return result;
+    }
+
+    private String addNext() {
+        String taskId = "T" + added;
+        prioritizer.add(taskId, random.nextInt(URGENCY_RANGE), nextDependencies(added));
+        recent[added++ % WINDOW] = taskId;
+        return taskId;
+    }
+
+    @Benchmark
+    public TaskPrioritizer addAll() {
+        TaskPrioritizer fresh = newPrioritizer();
+        fresh.addAll(taskIds, urgencyLevels, dependencies);
+        return fresh;
+    }
+
+    @Benchmark
+    public int[] computeSchedule() {
+        return TaskPrioritizer.computeSchedule(taskIds, urgencyLevels, dependencies);
+    }
+
+    @Benchmark
+    public String addThenResolve() {
+        addNext();
+        return prioritizer.resolve();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int addThenResolveBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            addNext();
+        }
+        return prioritizer.resolve(BATCH, resolved);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int addThenDrain() {
+        for (int i = 0; i < BATCH; i++) {
+            addNext();
+        }
+        return prioritizer.drainTo(taskId -> { }, BATCH);
+    }
+
+    @Benchmark
+    public boolean addThenLeaseAndComplete() {
+        addNext();
+        String taskId = prioritizer.lease();
+        return taskId != null && prioritizer.complete(taskId);
+    }
+
+    @Benchmark
+    public int addThenCancel() {
+        return prioritizer.cancel(addNext(), false);
+    }
+
+    @Benchmark
+    public void update() {
+        int index = Math.max(0, added - 1 - random.nextInt(Math.min(added, WINDOW)));
+        prioritizer.update(recent[index % WINDOW], random.nextInt(URGENCY_RANGE));
+    }
+
+    @Benchmark
+    public String peek() {
+        return prioritizer.peek();
+    }
+
+    @Benchmark
+    public String[] peekTop100() {
+        return prioritizer.peek(100);
+    }
+
+    @Benchmark
+    public boolean hasReadyTasks() {
+        return prioritizer.hasReadyTasks();
+    }
+
+    @Benchmark
+    public TaskPrioritizer.Metrics metrics() {
+        return prioritizer.metrics();
+    }
+
+    /**
+     * countReadyAtLeast() needs ready counting, which costs every other
+     * operation, so it gets a prioritizer of its own
+     */
+    @State(Scope.Thread)
+    public static class CountingState {
+        TaskPrioritizer prioritizer;
+        Random random;
+
+        @Setup(Level.Iteration)
+        public void buildPrioritizer(TaskPrioritizerBenchmark benchmark) {
+            prioritizer = benchmark.newPrioritizer();
+            prioritizer.setReadyCounting(true);
+            prioritizer.addAll(benchmark.taskIds, benchmark.urgencyLevels, benchmark.dependencies);
+            random = new Random(benchmark.size);
+        }
+    }
+
+    @Benchmark
+    public int countReadyAtLeast(CountingState state) {
+        return state.prioritizer.countReadyAtLeast(state.random.nextInt(URGENCY_RANGE));
+    }
+}
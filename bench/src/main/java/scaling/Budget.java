@@ -0,0 +1,30 @@
+package scaling;
+
+/**
+ * The time complexity each homework's README allows for a whole test case,
+ * as a function of its size
+ */
+enum Budget {
+    // hw1: O(N + Q)
+    LINEAR("O(N + Q)"),
+    // hw2 and hw3: O((N + Q) log N) and O((N + E) log N)
+    N_LOG_N("O(N log N)");
+
+    private final String label;
+
+    Budget(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return The allowed cost of a case of the given size, up to a constant
+     */
+    double cost(int size) {
+        return (this == LINEAR) ? size : size * (Math.log(size) / Math.log(2));
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
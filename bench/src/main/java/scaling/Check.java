@@ -0,0 +1,163 @@
+package scaling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks each structure against the time complexity its README allows.
+ * Every workload is run at doubling sizes, taking the fastest of a few runs
+ * at each, and the slope of log(time) against log(size) is fitted by least
+ * squares. That slope is the measured exponent: about 1 for linear work and
+ * 2 for quadratic. The budget's own exponent over the same sizes is fitted
+ * the same way, which is slightly above 1 for N log N, and a workload fails
+ * when its exponent exceeds the budget's by more than the tolerance. The
+ * tolerance absorbs cache and GC effects, which make linear work measure
+ * up to about N^1.4 once the structure outgrows the caches, while a
+ * regression to N^2 is far outside it. A workload whose run takes longer
+ * than a few seconds stops growing there and is fitted on the sizes it
+ * reached, so a quadratic one fails quickly instead of running for hours.
+ *
+ * Usage: Check [--min=size] [--max=size] [--repeats=n] [--tolerance=t] [filter...]
+ *
+ * Sizes default to 2^14 through 2^20. A filter, such as hw2 or fan-out,
+ * keeps only the workloads whose name contains it. Exits with status 1 if
+ * any workload fails.
+ */
+public class Check {
+    private static final int WARMUP_RUNS = 5;
+    // No larger size is run once a run takes this long
+    private static final long TIME_LIMIT_NANOS = 5_000_000_000L;
+
+    // Keeps the checksums alive so that no run can be optimized away
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int min = 1 << 14;
+        int max = 1 << 20;
+        int repeats = 3;
+        double tolerance = 0.5;
+        List<String> filters = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--min=")) {
+                min = Integer.parseInt(arg.substring("--min=".length()));
+            } else if (arg.startsWith("--max=")) {
+                max = Integer.parseInt(arg.substring("--max=".length()));
+            } else if (arg.startsWith("--repeats=")) {
+                repeats = Integer.parseInt(arg.substring("--repeats=".length()));
+            } else if (arg.startsWith("--tolerance=")) {
+                tolerance = Double.parseDouble(arg.substring("--tolerance=".length()));
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                filters.add(arg);
+            }
+        }
+        if (min < 16 || max < 4 * min || repeats < 1) {
+            throw new IllegalArgumentException("Need --min of at least 16, --max of at least 4 * --min"
+                    + " and --repeats of at least 1");
+        }
+
+        List<Workload> workloads = new ArrayList<>();
+        for (ValleyWorkload.Shape shape : ValleyWorkload.Shape.values()) {
+            workloads.add(new ValleyWorkload(shape));
+        }
+        for (TreasureValleyWorkload.Shape shape : TreasureValleyWorkload.Shape.values()) {
+            workloads.add(new TreasureValleyWorkload(shape));
+        }
+        for (TaskWorkload.Shape shape : TaskWorkload.Shape.values()) {
+            workloads.add(new TaskWorkload(shape));
+        }
+
+        int failures = 0;
+        int checked = 0;
+        for (Workload workload : workloads) {
+            if (!filters.isEmpty() && filters.stream().noneMatch(workload.name::contains)) {
+                continue;
+            }
+            checked++;
+            if (!check(workload, min, max, repeats, tolerance)) {
+                failures++;
+            }
+        }
+        if (checked == 0) {
+            throw new IllegalArgumentException("No workload matches " + filters);
+        }
+        System.out.println(String.format("%d of %d workloads within budget", checked - failures, checked));
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Times one workload at every size and compares its fitted exponent to
+     * the budget's
+     *
+     * @return true if the workload is within budget
+     */
+    private static boolean check(Workload workload, int min, int max, int repeats, double tolerance) {
+        System.out.println(workload.name + ", budget " + workload.budget);
+        System.out.println(String.format("%12s %12s %12s", "size", "time (ms)", "ns/call"));
+        for (int size = min; size <= 2 * min; size *= 2) {
+            workload.prepare(size);
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                sink += workload.run();
+            }
+        }
+
+        List<Double> logSizes = new ArrayList<>();
+        List<Double> logTimes = new ArrayList<>();
+        List<Double> logCosts = new ArrayList<>();
+        for (long size = min; size <= max; size *= 2) {
+            workload.prepare((int) size);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < repeats; i++) {
+                // Start every run from an empty heap, so that one run does
+                // not pay for collecting the garbage of the last
+                System.gc();
+                long start = System.nanoTime();
+                sink += workload.run();
+                best = Math.min(best, System.nanoTime() - start);
+                if (best >= TIME_LIMIT_NANOS) {
+                    break;
+                }
+            }
+            System.out.println(String.format("%12d %12.1f %12.1f", size, best / 1e6,
+                    (double) best / workload.calls()));
+            logSizes.add(Math.log(size));
+            logTimes.add(Math.log(best));
+            logCosts.add(Math.log(workload.budget.cost((int) size)));
+            if (best >= TIME_LIMIT_NANOS && logSizes.size() >= 3) {
+                System.out.println(String.format("%12s stopped after %.1f s", "", best / 1e9));
+                break;
+            }
+        }
+
+        double exponent = slope(logSizes, logTimes);
+        double allowed = slope(logSizes, logCosts);
+        boolean passed = exponent <= allowed + tolerance;
+        System.out.println(String.format("exponent %.2f, budget %.2f + %.2f: %s%n", exponent, allowed, tolerance,
+                passed ? "PASS" : "FAIL"));
+        return passed;
+    }
+
+    /**
+     * @return The least-squares slope of y against x
+     */
+    private static double slope(List<Double> x, List<Double> y) {
+        int n = x.size();
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < n; i++) {
+            meanX += x.get(i) / n;
+            meanY += y.get(i) / n;
+        }
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = x.get(i) - meanX;
+            covariance += dx * (y.get(i) - meanY);
+            variance += dx * dx;
+        }
+        return covariance / variance;
+    }
+}
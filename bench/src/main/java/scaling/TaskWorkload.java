@@ -0,0 +1,104 @@
+package scaling;
+
+import hw3.TaskPrioritizer;
+import java.util.SplittableRandom;
+
+/**
+ * hw3 workloads: N tasks with about N dependencies between them, all added
+ * and then all resolved, so each case makes about 2N calls plus any updates.
+ *
+ * - chain: every task depends on the one before it, so each resolve makes
+ *   exactly one task ready.
+ * - fan-out: every task depends on the first, so its resolve makes all the
+ *   others ready at once.
+ * - fan-in: the last task depends on all the others, in one dependency
+ *   array of N - 1 ids.
+ * - updates: independent tasks whose urgencies are then changed N times,
+ *   alternately up and down, before they are resolved.
+ */
+final class TaskWorkload extends Workload {
+    enum Shape {
+        CHAIN, FAN_OUT, FAN_IN, UPDATES
+    }
+
+    private static final String[] NO_DEPENDENCIES = new String[0];
+
+    private final Shape shape;
+    private String[] ids;
+    private int[] urgencies;
+    private String[][] dependencies;
+    // updates: the task and new urgency of each update
+    private int[] updateTasks;
+    private int[] updateUrgencies;
+
+    TaskWorkload(Shape shape) {
+        super("hw3 " + shape.name().toLowerCase().replace('_', '-'), Budget.N_LOG_N);
+        this.shape = shape;
+    }
+
+    @Override
+    void prepare(int size) {
+        SplittableRandom random = new SplittableRandom(size);
+        ids = new String[size];
+        urgencies = new int[size];
+        dependencies = new String[size][];
+        for (int i = 0; i < size; i++) {
+            ids[i] = "task-" + i;
+            urgencies[i] = random.nextInt(size);
+            dependencies[i] = NO_DEPENDENCIES;
+        }
+        updateTasks = new int[0];
+        updateUrgencies = new int[0];
+        switch (shape) {
+            case CHAIN:
+                for (int i = 1; i < size; i++) {
+                    dependencies[i] = new String[] {ids[i - 1]};
+                }
+                break;
+            case FAN_OUT:
+                String[] first = {ids[0]};
+                for (int i = 1; i < size; i++) {
+                    dependencies[i] = first;
+                }
+                break;
+            case FAN_IN:
+                String[] others = new String[size - 1];
+                System.arraycopy(ids, 0, others, 0, size - 1);
+                dependencies[size - 1] = others;
+                break;
+            default:
+                updateTasks = new int[size];
+                updateUrgencies = new int[size];
+                for (int i = 0; i < size; i++) {
+                    updateTasks[i] = random.nextInt(size);
+                    updateUrgencies[i] = (i % 2 == 0) ? size + i : -1 - i;
+                }
+        }
+    }
+
+    @Override
+    long run() {
+        TaskPrioritizer prioritizer = new TaskPrioritizer();
+        int size = ids.length;
+        for (int i = 0; i < size; i++) {
+            prioritizer.add(ids[i], urgencies[i], dependencies[i]);
+        }
+        for (int i = 0; i < updateTasks.length; i++) {
+            prioritizer.update(ids[updateTasks[i]], updateUrgencies[i]);
+        }
+        long checksum = 0;
+        for (int i = 0; i < size; i++) {
+            String id = prioritizer.resolve();
+            if (id == null) {
+                throw new IllegalStateException("Resolved only " + i + " of " + size + " tasks");
+            }
+            checksum += id.length();
+        }
+        return checksum;
+    }
+
+    @Override
+    long calls() {
+        return 2L * ids.length + updateTasks.length + 1;
+    }
+}
@@ -0,0 +1,171 @@
+package scaling;
+
+import hw2.TreasureValleyExplorer;
+import java.util.SplittableRandom;
+
+/**
+ * hw2 workloads: a landscape of N landforms followed by N operations.
+ *
+ * - random: shuffled heights, so valleys are shallow. Operations cycle
+ *   through every method at the depths that have valleys initially, and
+ *   inserts are lower than every other landform.
+ * - long-descents: sqrt(N) descents of sqrt(N) landforms, each higher than
+ *   the next except for its last landform, which dips below them all. The
+ *   first descent's valley is removed, merging the next descent into it,
+ *   which shifts the depth of every landform in it; the merged valley is
+ *   then queried, and inserted before and removed from, until the next
+ *   merge. The valley ends up N deep, so an operation that walks back to
+ *   the top of its descent is quadratic here, and so is a merge that is
+ *   not proportional to the descent merged in.
+ */
+final class TreasureValleyWorkload extends Workload {
+    enum Shape {
+        RANDOM, LONG_DESCENTS
+    }
+
+    private final Shape shape;
+    private int[] heights;
+    private int[] values;
+    // random: the depths operations cycle through
+    private int[] depths;
+    // long-descents: the length of each descent
+    private int descent;
+
+    TreasureValleyWorkload(Shape shape) {
+        super("hw2 " + shape.name().toLowerCase().replace('_', '-'), Budget.N_LOG_N);
+        this.shape = shape;
+    }
+
+    @Override
+    void prepare(int size) {
+        heights = new int[size];
+        values = new int[size];
+        if (shape == Shape.RANDOM) {
+            SplittableRandom random = new SplittableRandom(size);
+            for (int i = 0; i < size; i++) {
+                heights[i] = i;
+                values[i] = i;
+            }
+            shuffle(heights, random);
+            shuffle(values, random);
+            depths = valleyDepths(heights);
+            return;
+        }
+        descent = Math.max(2, (int) Math.sqrt(size));
+        for (int i = 0; i < size; i++) {
+            boolean dip = (i % descent == descent - 1) || (i == size - 1);
+            heights[i] = dip ? -1 - i / descent : 4 * (size - i);
+            values[i] = i;
+        }
+        // The first dip is the most valuable valley at its depth
+        values[descent - 1] = size;
+    }
+
+    private static void shuffle(int[] array, SplittableRandom random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+
+    /**
+     * The distinct depths of the valleys in a landscape
+     */
+    private static int[] valleyDepths(int[] heights) {
+        boolean[] seen = new boolean[heights.length + 1];
+        int count = 0;
+        int depth = 0;
+        for (int i = 0; i < heights.length; i++) {
+            if (i > 0) {
+                depth = (heights[i] < heights[i - 1]) ? depth + 1 : 0;
+            }
+            boolean valley = (i == 0 || heights[i] < heights[i - 1])
+                    && (i == heights.length - 1 || heights[i] < heights[i + 1]);
+            if (valley && !seen[depth]) {
+                seen[depth] = true;
+                count++;
+            }
+        }
+        int[] result = new int[Math.max(count, 1)];
+        int next = 0;
+        for (int d = 0; d < seen.length; d++) {
+            if (seen[d]) {
+                result[next++] = d;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    long run() {
+        return (shape == Shape.RANDOM) ? runRandom() : runLongDescents();
+    }
+
+    private long runRandom() {
+        TreasureValleyExplorer explorer = new TreasureValleyExplorer(heights, values);
+        int size = heights.length;
+        long checksum = 0;
+        for (int i = 0; i < size; i++) {
+            int depth = depths[(i / 7) % depths.length];
+            switch (i % 7) {
+                case 0:
+                    checksum += explorer.insertAtMostValuableValley(-1 - i, size + i, depth) ? 1 : 0;
+                    break;
+                case 1:
+                    checksum += (explorer.getMostValuableValley(depth) != null) ? 1 : 0;
+                    break;
+                case 2:
+                    checksum += (explorer.removeMostValuableValley(depth) != null) ? 1 : 0;
+                    break;
+                case 3:
+                    checksum += explorer.insertAtLeastValuableValley(-1 - i, -1 - i, depth) ? 1 : 0;
+                    break;
+                case 4:
+                    checksum += (explorer.getLeastValuableValley(depth) != null) ? 1 : 0;
+                    break;
+                case 5:
+                    checksum += (explorer.removeLeastValuableValley(depth) != null) ? 1 : 0;
+                    break;
+                default:
+                    checksum += explorer.getValleyCount(depth);
+            }
+        }
+        return checksum;
+    }
+
+    private long runLongDescents() {
+        TreasureValleyExplorer explorer = new TreasureValleyExplorer(heights, values);
+        int size = heights.length;
+        int merges = (size - 1) / descent - 1;
+        // Operations between merges, in rounds of four
+        int rounds = (size - merges) / Math.max(merges, 1) / 4;
+        int depth = descent - 1;
+        int low = Integer.MIN_VALUE;
+        int value = size + 1;
+        long checksum = 0;
+        for (int merge = 0; merge < merges; merge++) {
+            if (explorer.removeMostValuableValley(depth) == null) {
+                throw new IllegalStateException("No valley to merge at depth " + depth);
+            }
+            depth += descent - 1;
+            for (int round = 0; round < rounds; round++) {
+                // The insert is lower than everything, so it becomes the only
+                // valley at this depth and the remove takes it straight back
+                if (!explorer.insertAtMostValuableValley(low++, value++, depth)) {
+                    throw new IllegalStateException("No valley to insert at depth " + depth);
+                }
+                checksum += explorer.getValleyCount(depth);
+                checksum += (explorer.getLeastValuableValley(depth) != null) ? 1 : 0;
+                checksum += (explorer.removeMostValuableValley(depth) != null) ? 1 : 0;
+            }
+        }
+        return checksum;
+    }
+
+    @Override
+    long calls() {
+        return heights.length + 1;
+    }
+}
@@ -0,0 +1,101 @@
+package scaling;
+
+import hw1.ValleyTraveler;
+import java.util.SplittableRandom;
+
+/**
+ * hw1 workloads: a landscape of N landforms followed by N operations, an
+ * even mix of getFirst, remove and insert so the landscape keeps its size.
+ *
+ * - random: shuffled heights, with inserts above every other height.
+ * - descending: the only valley is the last landform, and each insert is
+ *   lower than every other, so the first valley stays at the far end. A
+ *   getFirst or remove that searches from the head is quadratic here.
+ * - ascending-runs: a peak followed by ascending runs of sqrt(N)
+ *   landforms, each starting below the end of the one before, so removes
+ *   eat their way along the runs. Inserts are higher than every landform
+ *   but the peak and fall one by one, so they build a long descent between
+ *   the peak and the first valley. A getFirst that rescans it is quadratic.
+ */
+final class ValleyWorkload extends Workload {
+    enum Shape {
+        RANDOM, DESCENDING, ASCENDING_RUNS
+    }
+
+    private final Shape shape;
+    private int[] landscape;
+    // The height of each insert, in order
+    private int[] inserts;
+
+    ValleyWorkload(Shape shape) {
+        super("hw1 " + shape.name().toLowerCase().replace('_', '-'), Budget.LINEAR);
+        this.shape = shape;
+    }
+
+    @Override
+    void prepare(int size) {
+        landscape = new int[size];
+        inserts = new int[size / 3 + 1];
+        switch (shape) {
+            case RANDOM:
+                for (int i = 0; i < size; i++) {
+                    landscape[i] = i;
+                }
+                SplittableRandom random = new SplittableRandom(size);
+                for (int i = size - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int swap = landscape[i];
+                    landscape[i] = landscape[j];
+                    landscape[j] = swap;
+                }
+                for (int i = 0; i < inserts.length; i++) {
+                    inserts[i] = size + i;
+                }
+                break;
+            case DESCENDING:
+                for (int i = 0; i < size; i++) {
+                    landscape[i] = size - i;
+                }
+                for (int i = 0; i < inserts.length; i++) {
+                    inserts[i] = -i;
+                }
+                break;
+            default:
+                int run = Math.max(1, (int) Math.sqrt(size));
+                int runs = (size + run - 1) / run;
+                int top = (runs + 1) * 2 * run + inserts.length;
+                landscape[0] = top;
+                for (int i = 1; i < size; i++) {
+                    landscape[i] = (runs - (i - 1) / run) * 2 * run + (i - 1) % run;
+                }
+                for (int i = 0; i < inserts.length; i++) {
+                    inserts[i] = top - 1 - i;
+                }
+        }
+    }
+
+    @Override
+    long run() {
+        ValleyTraveler traveler = new ValleyTraveler(landscape);
+        long checksum = 0;
+        int next = 0;
+        for (int i = 0; i < landscape.length; i++) {
+            switch (i % 3) {
+                case 0:
+                    checksum += traveler.getFirst();
+                    break;
+                case 1:
+                    traveler.insert(inserts[next++]);
+                    break;
+                default:
+                    checksum += traveler.remove();
+            }
+        }
+        return checksum;
+    }
+
+    @Override
+    long calls() {
+        return landscape.length + 1;
+    }
+}
@@ -0,0 +1,38 @@
+package scaling;
+
+/**
+ * One workload shape for one structure, which can be built at any size.
+ * prepare() builds the inputs, such as the landscape and the operation
+ * arguments, outside the timed region; run() then constructs a fresh
+ * structure and runs every operation on it, which is what gets timed. A
+ * workload that finds the structure answering differently than its shape
+ * predicts throws an IllegalStateException, since its timings would no
+ * longer mean what its name says.
+ */
+abstract class Workload {
+    final String name;
+    final Budget budget;
+
+    Workload(String name, Budget budget) {
+        this.name = name;
+        this.budget = budget;
+    }
+
+    /**
+     * Builds the inputs of a case of the given size
+     */
+    abstract void prepare(int size);
+
+    /**
+     * Runs the prepared case from scratch
+     *
+     * @return A checksum of the results, so that none of the work can be
+     *         optimized away
+     */
+    abstract long run();
+
+    /**
+     * @return The number of calls run() makes, including construction
+     */
+    abstract long calls();
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Bytes allocated by each operation type over one test case, with the
+ * garbage collections that ran meanwhile. The thread's allocation counter
+ * (com.sun.management.ThreadMXBean) is only read when the operation type
+ * changes, so a run of operations of one type is measured as one batch and
+ * long runs cost nothing per operation. Everything the thread allocates
+ * inside a batch counts towards its type, including what the Evaluator
+ * allocates to hold the results. Type 0 is the structure's constructor.
+ * Collections are counted from the first operation to finish(), so loading
+ * the test case beforehand does not count.
+ *
+ * Every homework directory carries an identical copy of this file, so that
+ * each compiles on its own; the bench build fails if the copies differ.
+ */
+class AllocationProfile {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final String testCase;
+    private final String[] names;
+    private final long[] counts;
+    private final long[] bytes;
+    private int current = -1;
+    private boolean started;
+    private long batchStart;
+    private long collections;
+    private long collectionMillis;
+
+    /**
+     * @param testCase The path of the test case being profiled
+     * @param names    The name of each operation type, indexed by type
+     */
+    AllocationProfile(String testCase, String[] names) {
+        if (!THREADS.isThreadAllocatedMemorySupported() || !THREADS.isThreadAllocatedMemoryEnabled()) {
+            throw new IllegalStateException("This JVM does not count allocated bytes per thread");
+        }
+        this.testCase = testCase;
+        this.names = names;
+        this.counts = new long[names.length];
+        this.bytes = new long[names.length];
+    }
+
+    private static long totalCollections() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(collector.getCollectionCount(), 0);
+        }
+        return total;
+    }
+
+    private static long totalCollectionMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(collector.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    /**
+     * Counts the next operation, which is of the given type
+     */
+    void enter(int type) {
+        counts[type]++;
+        if (type == current) {
+            return;
+        }
+        if (!started) {
+            started = true;
+            collections = -totalCollections();
+            collectionMillis = -totalCollectionMillis();
+        }
+        long now = THREADS.getCurrentThreadAllocatedBytes();
+        if (current >= 0) {
+            bytes[current] += now - batchStart;
+        }
+        current = type;
+        batchStart = now;
+    }
+
+    /**
+     * Ends the last batch, after the last operation of the test case
+     */
+    void finish() {
+        if (current < 0) {
+            return;
+        }
+        bytes[current] += THREADS.getCurrentThreadAllocatedBytes() - batchStart;
+        current = -1;
+        collections += totalCollections();
+        collectionMillis += totalCollectionMillis();
+    }
+
+    private String toJson() {
+        StringBuilder json = new StringBuilder();
+        long total = 0;
+        for (long b : bytes) {
+            total += b;
+        }
+        json.append("  {\"testCase\": ").append(quote(testCase))
+                .append(", \"allocatedBytes\": ").append(total)
+                .append(", \"gcCount\": ").append(collections)
+                .append(", \"gcMillis\": ").append(collectionMillis)
+                .append(", \"operations\": [");
+        boolean first = true;
+        for (int type = 0; type < names.length; type++) {
+            if (counts[type] == 0) {
+                continue;
+            }
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append("    {\"name\": ").append(quote(type == 0 ? "constructor" : names[type]))
+                    .append(", \"count\": ").append(counts[type])
+                    .append(", \"bytes\": ").append(bytes[type])
+                    .append(", \"bytesPerOperation\": ")
+                    .append(String.format("%.1f", (double) bytes[type] / counts[type]))
+                    .append("}");
+        }
+        return json.append(first ? "]}" : "\n  ]}").toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Writes the profiles as a JSON array, one object per test case
+     */
+    static void write(String filepath, List<AllocationProfile> profiles) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < profiles.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n").append(profiles.get(i).toJson());
+        }
+        json.append(profiles.isEmpty() ? "]\n" : "\n]\n");
+        try {
+            Files.write(Path.of(filepath), json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,7 +1,10 @@
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Represents an operation that can be performed on a landscape.
@@ -11,7 +14,7 @@ import java.util.Arrays;
  */
 class Operation {
     int type; // Type of operation (1 for getFirst, 2 for remove, 3 for insert)
-    Integer arg; // Argument for the operation (null for getFirst and remove, height for insert)
+    int arg; // Argument for the operation (height for insert, unused for getFirst and remove)
 
     /**
      * Constructs an Operation object with the given type and argument.
@@ -19,7 +22,7 @@ class Operation {
      * @param type The type of operation.
      * @param arg  The argument for the operation.
      */
-    Operation(int type, Integer arg) {
+    Operation(int type, int arg) {
         this.type = type;
         this.arg = arg;
     }
@@ -50,9 +53,17 @@ class Operation {
  */
 class TestCase {
     int[] landscape; // The initial landscape
-    Operation[] operations; // The operations to be performed on the landscape
+    // The operations to be performed on the landscape, one entry per
+    // operation: its type, 0 if invalid, and its argument. Plain arrays
+    // rather than an Operation each, so that loading millions of them
+    // creates no objects for the garbage collector to copy.
+    int[] operationTypes;
+    int[] operationArgs;
     int[] expected; // The expected results after performing the operations
 
+    // The most entries of each list that toString() prints
+    static final int PRINT_LIMIT = 1000;
+
     /**
      * Constructs a TestCase object with the given landscape, operations, and
      * expected results.
@@ -63,7 +74,14 @@ class TestCase {
      */
     TestCase(int[] landscape, Operation[] operations, int[] expected) {
         this.landscape = landscape;
-        this.operations = operations;
+        this.operationTypes = new int[operations.length];
+        this.operationArgs = new int[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            if (operations[i] != null) {
+                operationTypes[i] = operations[i].type;
+                operationArgs[i] = operations[i].arg;
+            }
+        }
         this.expected = expected;
     }
 
@@ -79,54 +97,136 @@ class TestCase {
      * K (number of expected results)
      * [expected results separated by spaces]
      * 
+     * The file may also be a binary trace (see TraceWriter) with the
+     * counts N, M and K, then the landscape as signed varints, then each
+     * operation as its type followed, for insert, by the height as a signed
+     * varint, then the expected results as signed varints.
+     * 
      * @param filepath The path to the file containing the test case.
      */
     TestCase(String filepath) {
-        try {
-            Scanner scanner = new Scanner(new File(filepath));
-            int N = scanner.nextInt();
+        try (CaseParser parser = new CaseParser(filepath)) {
+            if (parser.startsWith(TraceWriter.MAGIC)) {
+                readTrace(parser);
+                return;
+            }
+            int N = parser.nextInt();
             landscape = new int[N];
             for (int i = 0; i < N; i++) {
-                landscape[i] = scanner.nextInt();
+                landscape[i] = parser.nextInt();
             }
-            int M = scanner.nextInt();
-            operations = new Operation[M];
+            int M = parser.nextInt();
+            operationTypes = new int[M];
+            operationArgs = new int[M];
             for (int i = 0; i < M; i++) {
-                int type = scanner.nextInt();
-                if (type == 1) {
-                    operations[i] = new Operation(type, null);
-                } else if (type == 2) {
-                    operations[i] = new Operation(type, null);
+                int type = parser.nextInt();
+                if (type == 1 || type == 2) {
+                    operationTypes[i] = type;
                 } else if (type == 3) {
-                    operations[i] = new Operation(type, scanner.nextInt());
+                    operationTypes[i] = type;
+                    operationArgs[i] = parser.nextInt();
                 }
             }
-            int K = scanner.nextInt();
+            int K = parser.nextInt();
             expected = new int[K];
             for (int i = 0; i < K; i++) {
-                expected[i] = scanner.nextInt();
+                expected[i] = parser.nextInt();
             }
-            scanner.close();
         } catch (FileNotFoundException e) {
             System.out.println("Testcase file not found: " + filepath);
             throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
+    private void readTrace(CaseParser parser) {
+        parser.expectTrace(1);
+        int N = parser.nextVarint();
+        int M = parser.nextVarint();
+        int K = parser.nextVarint();
+        landscape = new int[N];
+        parser.nextSignedVarints(landscape, N);
+        operationTypes = new int[M];
+        operationArgs = new int[M];
+        for (int i = 0; i < M; i++) {
+            int type = parser.nextVarint();
+            if (type >= 1 && type <= 3) {
+                operationTypes[i] = type;
+            }
+            if (type == 3) {
+                operationArgs[i] = parser.nextSignedVarint();
+            }
+        }
+        expected = new int[K];
+        parser.nextSignedVarints(expected, K);
+    }
+
     /**
-     * Returns a string representation of the test case.
+     * Writes the test case as a binary trace, in the layout the constructor
+     * reads
+     * 
+     * @param filepath The path to write the trace to.
+     */
+    void writeTrace(String filepath) throws IOException {
+        try (TraceWriter out = new TraceWriter(filepath, 1)) {
+            out.writeVarint(landscape.length);
+            out.writeVarint(operationTypes.length);
+            out.writeVarint(expected.length);
+            for (int height : landscape) {
+                out.writeSignedVarint(height);
+            }
+            for (int i = 0; i < operationTypes.length; i++) {
+                // Invalid operations were read as type 0, and read back so
+                out.writeVarint(operationTypes[i]);
+                if (operationTypes[i] == 3) {
+                    out.writeSignedVarint(operationArgs[i]);
+                }
+            }
+            for (int result : expected) {
+                out.writeSignedVarint(result);
+            }
+        }
+    }
+
+    /**
+     * Returns a string representation of the test case. Each list is cut off
+     * after its first PRINT_LIMIT entries, so that printing a large test case
+     * costs no more than printing a small one.
      * 
      * @return A string indicating the landscape, operations, and expected results.
      */
     public String toString() {
-        String result = "Landscape[" + landscape.length + "]:{" + Arrays.toString(landscape) + "}\n";
-        result += "Operations[" + operations.length + "]:{\n";
-        for (Operation op : operations) {
-            result += "  " + op.toString() + "\n";
+        StringBuilder result = new StringBuilder();
+        result.append("Landscape[").append(landscape.length).append("]:{");
+        appendInts(result, landscape);
+        result.append("}\n");
+        result.append("Operations[").append(operationTypes.length).append("]:{\n");
+        for (int i = 0; i < Math.min(operationTypes.length, PRINT_LIMIT); i++) {
+            result.append("  ").append(new Operation(operationTypes[i], operationArgs[i])).append('\n');
         }
-        result += "}\n";
-        result += "Expected[" + expected.length + "]:{" + Arrays.toString(expected) + "}\n";
-        return result;
+        if (operationTypes.length > PRINT_LIMIT) {
+            result.append("  ... ").append(operationTypes.length - PRINT_LIMIT).append(" more\n");
+        }
+        result.append("}\n");
+        result.append("Expected[").append(expected.length).append("]:{");
+        appendInts(result, expected);
+        result.append("}\n");
+        return result.toString();
+    }
+
+    private static void appendInts(StringBuilder result, int[] values) {
+        result.append('[');
+        for (int i = 0; i < Math.min(values.length, PRINT_LIMIT); i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(values[i]);
+        }
+        if (values.length > PRINT_LIMIT) {
+            result.append(", ... ").append(values.length - PRINT_LIMIT).append(" more");
+        }
+        result.append(']');
     }
 }
 
@@ -136,36 +236,102 @@ class TestCase {
  * @author Maharshi Gor
  */
 public class Evaluator {
+    // Names of the operation types, indexed by type
+    private static final String[] OPERATION_NAMES = { null, "getFirst", "remove", "insert" };
+
+    // Latency of each operation type, indexed by type; null unless
+    // --latency was given
+    private static LatencyHistogram[] latencies;
+
+    /**
+     * Records the time since start against an operation type, if latencies
+     * are being recorded
+     */
+    private static void recordLatency(int type, long start) {
+        if (latencies != null) {
+            latencies[type].record(System.nanoTime() - start);
+        }
+    }
+
+    // Where --alloc=FILE writes the allocation profile of each test case;
+    // null unless it was given
+    private static String allocationReport;
+    private static final List<AllocationProfile> allocationProfiles = new ArrayList<>();
+    // The profile of the running test case, if allocations are being profiled
+    private static AllocationProfile allocations;
+
+    /**
+     * Counts the next operation towards its type's allocations, if
+     * allocations are being profiled; type 0 is the constructor
+     */
+    private static void countAllocation(int type) {
+        if (allocations != null) {
+            allocations.enter(type);
+        }
+    }
+
+    private static void finishAllocations() {
+        if (allocations != null) {
+            allocations.finish();
+        }
+    }
+
+    private static long startTime() {
+        return (latencies != null) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Starts a fresh set of histograms for the next test case, if latencies
+     * are being recorded
+     */
+    private static void resetLatencies() {
+        if (latencies != null) {
+            for (int type = 1; type < latencies.length; type++) {
+                latencies[type] = new LatencyHistogram();
+            }
+        }
+    }
     /**
      * Executes the operations on the initial landscape and returns the results.
      * 
-     * @param initLandscape The initial landscape.
-     * @param operations    The operations to be performed on the landscape.
+     * @param initLandscape  The initial landscape.
+     * @param operationTypes The type of each operation to be performed.
+     * @param operationArgs  The argument of each operation.
      * @return An array of results after performing the operations.
      */
-    public static int[] getResults(int[] initLandscape, Operation[] operations) {
-        ValleyTraveler valleyTraveler = new ValleyTraveler(initLandscape);
-
-        // Count the number of operations that are not insert
+    public static int[] getResults(int[] initLandscape, int[] operationTypes, int[] operationArgs) {
+        // Count the number of operations that are not insert; invalid
+        // operations, of type 0, are skipped
         int resultSize = 0;
-        for (Operation op : operations) {
-            if (op.type != 3) {
+        for (int type : operationTypes) {
+            if (type == 1 || type == 2) {
                 resultSize++;
             }
         }
         int[] result = new int[resultSize];
+
+        countAllocation(0);
+        ValleyTraveler valleyTraveler = new ValleyTraveler(initLandscape);
         int i = 0;
-        for (Operation op : operations) {
-            if (op.type == 1) {
+        for (int k = 0; k < operationTypes.length; k++) {
+            int type = operationTypes[k];
+            if (type == 0) {
+                continue;
+            }
+            countAllocation(type);
+            long start = startTime();
+            if (type == 1) {
                 int firstValley = valleyTraveler.getFirst();
                 result[i++] = firstValley;
-            } else if (op.type == 2) {
+            } else if (type == 2) {
                 int removedValley = valleyTraveler.remove();
                 result[i++] = removedValley;
-            } else if (op.type == 3) {
-                valleyTraveler.insert(op.arg);
+            } else if (type == 3) {
+                valleyTraveler.insert(operationArgs[k]);
             }
+            recordLatency(type, start);
         }
+        finishAllocations();
         return result;
     }
 
@@ -176,7 +342,7 @@ public class Evaluator {
      * @return True if the test case passes, false otherwise.
      */
     public static boolean runTestCase(TestCase testCase) {
-        int[] results = getResults(testCase.landscape, testCase.operations);
+        int[] results = getResults(testCase.landscape, testCase.operationTypes, testCase.operationArgs);
         boolean passed = true;
         // Check if the results array has the same length as the expected array
         if (results.length != testCase.expected.length) {
@@ -195,23 +361,270 @@ public class Evaluator {
         return passed;
     }
 
+    /**
+     * Reads past the landscape and operations of a test case to the number
+     * of expected results, which the parser returns next.
+     *
+     * @param parser A parser at the start of the test case.
+     * @return The number of expected results.
+     */
+    static int skipToExpected(CaseParser parser) {
+        int N = parser.nextInt();
+        for (int i = 0; i < N; i++) {
+            parser.skipToken();
+        }
+        int M = parser.nextInt();
+        for (int i = 0; i < M; i++) {
+            if (parser.nextInt() == 3) {
+                parser.skipToken();
+            }
+        }
+        return parser.nextInt();
+    }
+
+    /**
+     * Reads past the landscape and operations of a binary trace to its
+     * expected results, which the parser returns next as signed varints.
+     *
+     * @param parser A parser at the start of the trace.
+     * @return The number of expected results.
+     */
+    static int skipTraceToExpected(CaseParser parser) {
+        parser.expectTrace(1);
+        int N = parser.nextVarint();
+        int M = parser.nextVarint();
+        int K = parser.nextVarint();
+        for (int i = 0; i < N; i++) {
+            parser.nextSignedVarint();
+        }
+        for (int i = 0; i < M; i++) {
+            if (parser.nextVarint() == 3) {
+                parser.nextSignedVarint();
+            }
+        }
+        return K;
+    }
+
+    /**
+     * Runs a test case while reading it, without building a TestCase, so that
+     * memory does not grow with the number of operations. Reading a file, a
+     * second parser follows the expected results and each result is checked
+     * as soon as it is produced. Reading System.in, the expected results only
+     * arrive after the last operation, so both sides are compared through an
+     * OutputDigest instead. Binary traces are streamed the same way.
+     *
+     * @param filepath The path to the test case file, or "-" for System.in.
+     * @return True if the test case passes, false otherwise.
+     */
+    public static boolean runStreaming(String filepath) {
+        boolean fromStdin = filepath.equals("-");
+        try (CaseParser parser = fromStdin ? new CaseParser(System.in) : new CaseParser(filepath);
+                CaseParser expected = fromStdin ? null : new CaseParser(filepath)) {
+            boolean trace = parser.startsWith(TraceWriter.MAGIC);
+            int expectedCount = -1;
+            if (expected != null) {
+                expectedCount = trace ? skipTraceToExpected(expected) : skipToExpected(expected);
+            }
+            int N;
+            int M;
+            int K = 0;
+            int[] landscape;
+            if (trace) {
+                parser.expectTrace(1);
+                N = parser.nextVarint();
+                M = parser.nextVarint();
+                K = parser.nextVarint();
+                landscape = new int[N];
+                parser.nextSignedVarints(landscape, N);
+            } else {
+                N = parser.nextInt();
+                landscape = new int[N];
+                for (int i = 0; i < N; i++) {
+                    landscape[i] = parser.nextInt();
+                }
+                M = parser.nextInt();
+            }
+            countAllocation(0);
+            ValleyTraveler valleyTraveler = new ValleyTraveler(landscape);
+            landscape = null;
+
+            OutputDigest produced = new OutputDigest();
+            boolean passed = true;
+            int count = 0;
+            for (int i = 0; i < M; i++) {
+                int type = trace ? parser.nextVarint() : parser.nextInt();
+                int height = (type != 3) ? 0 : trace ? parser.nextSignedVarint() : parser.nextInt();
+                countAllocation(type);
+                long start = startTime();
+                int result = 0;
+                if (type == 1) {
+                    result = valleyTraveler.getFirst();
+                } else if (type == 2) {
+                    result = valleyTraveler.remove();
+                } else {
+                    valleyTraveler.insert(height);
+                }
+                recordLatency(type, start);
+                if (type == 3) {
+                    continue;
+                }
+                if (expected == null) {
+                    produced.add(result);
+                } else if (count < expectedCount) {
+                    int expectedResult = trace ? expected.nextSignedVarint() : expected.nextInt();
+                    if (result != expectedResult) {
+                        System.out.println("Test failed at operation " + count + ": expected " + expectedResult
+                                + " but got " + result);
+                        passed = false;
+                    }
+                }
+                count++;
+            }
+
+            if (!trace) {
+                K = parser.nextInt();
+            }
+            if (count != K) {
+                System.out.println("Test failed: results array length does not match expected array length. Expected length: "
+                        + K + ", but got " + count);
+                return false;
+            }
+            if (expected == null) {
+                OutputDigest wanted = new OutputDigest();
+                for (int i = 0; i < K; i++) {
+                    wanted.add(trace ? parser.nextSignedVarint() : parser.nextInt());
+                }
+                if (!produced.matches(wanted)) {
+                    System.out.println("Test failed: results do not match the expected results");
+                    return false;
+                }
+            }
+            return passed;
+        } catch (FileNotFoundException e) {
+            System.out.println("Testcase file not found: " + filepath);
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs one test case and prints its result
+     *
+     * @param filepath The path to the test case file, or "-" for System.in
+     * @param stream   Whether to run the case with runStreaming()
+     * @return true if the test case passed
+     */
+    private static boolean runCase(String filepath, boolean stream) {
+        resetLatencies();
+        if (allocationReport != null) {
+            allocations = new AllocationProfile(filepath, OPERATION_NAMES);
+        }
+        boolean passed;
+        try {
+            if (stream || filepath.equals("-")) {
+                passed = runStreaming(filepath);
+            } else {
+                TestCase testCase = new TestCase(filepath);
+                System.out.println(testCase.toString());
+                passed = runTestCase(testCase);
+            }
+        } finally {
+            if (allocations != null) {
+                allocationProfiles.add(allocations);
+                allocations = null;
+            }
+        }
+        if (passed)
+            System.out.println("Test passed!");
+        if (latencies != null) {
+            System.out.print(LatencyHistogram.table(OPERATION_NAMES, latencies));
+        }
+        return passed;
+    }
+
+    /**
+     * Converts a text test case into a binary trace
+     * 
+     * @param textPath  The path to the text test case.
+     * @param tracePath The path to write the trace to.
+     */
+    private static void convert(String textPath, String tracePath) {
+        try {
+            new TestCase(textPath).writeTrace(tracePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println(String.format("Wrote %s: %.1f MB from %.1f MB of text", tracePath,
+                new File(tracePath).length() / 1e6, new File(textPath).length() / 1e6));
+    }
+
     /**
      * Main method to run the Evaluator.
      * 
-     * @param args The command line arguments. The first argument should be the path
-     *             to the test case file.
+     * @param args The command line arguments: paths to test case files, or
+     *             to directories of them. A test case loaded whole is
+     *             printed before it runs, cut off after PRINT_LIMIT entries
+     *             of each list. Files after --stream are run with
+     *             runStreaming() instead of being loaded whole or printed,
+     *             and "-" streams a test case from System.in. After
+     *             --latency, each
+     *             test case is followed by a table of latency percentiles
+     *             for each operation type, and --alloc=FILE writes the bytes
+     *             each operation type allocated in every test case to FILE
+     *             as JSON. Files after --jobs=N are run N at
+     *             a time, each with its own ValleyTraveler, and followed by
+     *             a summary of every case. Binary traces are read like text
+     *             files, and "--convert case.txt case.trace" writes one.
      */
     public static void main(String[] args) {
         if (args.length < 1) {
             System.out.println("No testcase file provided");
             return;
+        } else if (args[0].equals("--convert")) {
+            if (args.length != 3) {
+                System.out.println("Usage: java Evaluator --convert case.txt case.trace");
+                return;
+            }
+            convert(args[1], args[2]);
         } else {
+            boolean stream = false;
+            CaseRunner runner = null;
             for (String filepath : args) {
-                TestCase testCase = new TestCase(filepath);
-                System.out.println(testCase.toString());
-                boolean passed = runTestCase(testCase);
-                if (passed)
-                    System.out.println("Test passed!");
+                if (filepath.equals("--stream")) {
+                    stream = true;
+                    continue;
+                }
+                if (filepath.equals("--latency")) {
+                    latencies = new LatencyHistogram[OPERATION_NAMES.length];
+                    continue;
+                }
+                if (filepath.startsWith("--alloc=")) {
+                    allocationReport = filepath.substring("--alloc=".length());
+                    continue;
+                }
+                if (filepath.startsWith("--jobs=")) {
+                    runner = new CaseRunner(Integer.parseInt(filepath.substring("--jobs=".length())));
+                    continue;
+                }
+                for (String path : CaseRunner.expand(filepath)) {
+                    boolean streamed = stream;
+                    if (runner != null) {
+                        runner.add(path, p -> runCase(p, streamed));
+                    } else {
+                        runCase(path, streamed);
+                    }
+                }
+            }
+            if (runner != null) {
+                if ((latencies != null || allocationReport != null) && runner.threads() > 1) {
+                    throw new IllegalArgumentException("--latency and --alloc need --jobs=1");
+                }
+                runner.runAll();
+            }
+            if (allocationReport != null) {
+                AllocationProfile.write(allocationReport, allocationProfiles);
+                System.out.println("Wrote allocation profile to " + allocationReport);
             }
         }
     }
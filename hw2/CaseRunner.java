@@ -0,0 +1,203 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Runs test cases on a fixed pool of threads. Each case runs on one thread
+ * from start to finish, and whatever it prints to System.out is held back
+ * and printed once every case before it has been printed, so the output is
+ * the same as a sequential run whatever order the cases finish in. The
+ * cases are followed by a summary of each one's status, wall time and the
+ * bytes its thread allocated.
+ *
+ * Cases only share what the Evaluator keeps in static fields, so settings
+ * must not change while they run, and options that record into static
+ * state, such as --latency, need a single thread.
+ *
+ * Every homework directory carries an identical copy of this file, so that
+ * each compiles on its own; the bench build fails if the copies differ.
+ */
+class CaseRunner {
+    private static final String RULE = "+" + "-".repeat(62) + "+" + "-".repeat(8) + "+" + "-".repeat(12) + "+"
+            + "-".repeat(14) + "+";
+
+    private final int threads;
+    private final List<String> paths = new ArrayList<>();
+    private final List<Predicate<String>> tests = new ArrayList<>();
+
+    /**
+     * @param threads The number of cases to run at a time
+     */
+    CaseRunner(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    int threads() {
+        return threads;
+    }
+
+    /**
+     * @return The test case files under path in name order if it is a
+     *         directory, and otherwise path itself
+     */
+    static List<String> expand(String path) {
+        File file = new File(path);
+        if (!file.isDirectory()) {
+            return List.of(path);
+        }
+        File[] files = file.listFiles(File::isFile);
+        if (files == null) {
+            return List.of();
+        }
+        Arrays.sort(files);
+        List<String> result = new ArrayList<>(files.length);
+        for (File f : files) {
+            result.add(f.getPath());
+        }
+        return result;
+    }
+
+    /**
+     * Queues a test case
+     *
+     * @param path The path of the case, as shown in the summary
+     * @param test Runs the case at path, returning true if it passed
+     */
+    void add(String path, Predicate<String> test) {
+        paths.add(path);
+        tests.add(test);
+    }
+
+    /**
+     * Runs every queued case, then prints the summary
+     *
+     * @return true if every case passed
+     */
+    boolean runAll() {
+        PrintStream console = System.out;
+        RoutedOutput routed = new RoutedOutput(console);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        System.setOut(new PrintStream(routed, true));
+        Result[] results = new Result[paths.size()];
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < paths.size(); i++) {
+                String path = paths.get(i);
+                Predicate<String> test = tests.get(i);
+                futures.add(pool.submit(() -> run(path, test, routed)));
+            }
+            for (int i = 0; i < results.length; i++) {
+                results[i] = futures.get(i).get();
+                results[i].output.writeTo(console);
+                console.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running test cases", e);
+        } catch (ExecutionException | IOException e) {
+            throw new IllegalStateException("Could not run test cases", e);
+        } finally {
+            System.setOut(console);
+            pool.shutdownNow();
+        }
+        return summarize(results);
+    }
+
+    private static Result run(String path, Predicate<String> test, RoutedOutput routed) {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Result result = new Result();
+        routed.capture(result.output);
+        long allocatedBefore = threadBean.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        try {
+            result.passed = test.test(path);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            System.out.println("Error in " + path + ": " + e);
+        } finally {
+            result.nanos = System.nanoTime() - start;
+            long allocatedAfter = threadBean.getCurrentThreadAllocatedBytes();
+            result.allocated = (allocatedBefore < 0) ? -1 : allocatedAfter - allocatedBefore;
+            System.out.flush();
+            routed.release();
+        }
+        return result;
+    }
+
+    private boolean summarize(Result[] results) {
+        int passed = 0;
+        System.out.println(RULE);
+        System.out.println(String.format("| %-60s | %-6s | %10s | %12s |", "Test case", "Status", "Wall time",
+                "Allocated"));
+        System.out.println(RULE);
+        for (int i = 0; i < results.length; i++) {
+            Result result = results[i];
+            passed += result.passed ? 1 : 0;
+            String allocated = (result.allocated < 0) ? "-"
+                    : String.format("%.1f MB", result.allocated / (1024.0 * 1024.0));
+            System.out.println(String.format("| %-60s | %-6s | %8dms | %12s |", new File(paths.get(i)).getName(),
+                    result.passed ? "PASS" : "FAIL", result.nanos / 1_000_000, allocated));
+        }
+        System.out.println(RULE);
+        System.out.println(String.format("%d of %d test cases passed, %d at a time", passed, results.length,
+                threads));
+        return passed == results.length;
+    }
+
+    private static final class Result {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        boolean passed;
+        long nanos;
+        long allocated;
+    }
+
+    /**
+     * Sends each thread's writes to the buffer it is capturing into, if any,
+     * and otherwise to the console
+     */
+    private static final class RoutedOutput extends OutputStream {
+        private final PrintStream console;
+        private final ThreadLocal<ByteArrayOutputStream> buffers = new ThreadLocal<>();
+
+        RoutedOutput(PrintStream console) {
+            this.console = console;
+        }
+
+        void capture(ByteArrayOutputStream buffer) {
+            buffers.set(buffer);
+        }
+
+        void release() {
+            buffers.remove();
+        }
+
+        private OutputStream target() {
+            ByteArrayOutputStream buffer = buffers.get();
+            return (buffer != null) ? buffer : console;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+    }
+}
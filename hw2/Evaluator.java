@@ -1,7 +1,11 @@
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
 
 class OperationType {
     public static final int INSERT_AT_MOST_VALUABLE_VALLEY = 1;
@@ -16,11 +20,11 @@ class OperationType {
 
 class Operation {
     int type;
-    Integer height;
-    Integer value;
-    Integer depth;
+    int height;
+    int value;
+    int depth;
 
-    Operation(int type, Integer height, Integer value, Integer depth) {
+    Operation(int type, int height, int value, int depth) {
         this.type = type;
         this.height = height;
         this.value = value;
@@ -54,95 +58,323 @@ class Operation {
 class TestCase {
     int[] heights;
     int[] values;
-    Operation[] operations;
-    Output[] expected;
+    // The operations, one entry per operation: its type and its height,
+    // value and depth arguments, 0 where it takes none. Plain arrays rather
+    // than an Operation each, so that loading millions of them creates no
+    // objects for the garbage collector to copy.
+    int[] operationTypes;
+    int[] operationHeights;
+    int[] operationValues;
+    int[] operationDepths;
+    // The expected outputs, one entry per output: its tag as in a trace, and
+    // the height and value of a pair or the value of an integer
+    int[] expectedTags;
+    int[] expectedFirsts;
+    int[] expectedSeconds;
 
-    private Output readOutput(Scanner scanner) {
-        String token = scanner.next();
-        if (token.equals("n")) {
+    // The most entries of each list that toString() prints
+    static final int PRINT_LIMIT = 1000;
+
+    static Output readOutput(CaseParser parser) {
+        parser.skipWhitespace();
+        int first = parser.peek();
+        if (first == 'n') {
+            parser.expect('n');
             return new Output();
-        } else if (token.equals("t")) {
+        } else if (first == 't') {
+            parser.expect('t');
             return new Output(true);
-        } else if (token.equals("f")) {
+        } else if (first == 'f') {
+            parser.expect('f');
             return new Output(false);
-        } else if (token.startsWith("(")) {
-            if (!token.endsWith(")")) {
-                throw new IllegalArgumentException("Invalid output format: " + token);
-            }
-            String[] parts = token.substring(1, token.length() - 1).split(",");
-            if (parts.length != 2) {
-                throw new IllegalArgumentException("Invalid output format: " + token);
-            }
-            return new Output(new IntPair(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())));
+        } else if (first == '(') {
+            parser.expect('(');
+            int height = parser.nextInt();
+            parser.expect(',');
+            int value = parser.nextInt();
+            parser.expect(')');
+            return new Output(new IntPair(height, value));
         } else {
-            return new Output(Integer.parseInt(token));
+            return new Output(parser.nextInt());
         }
     }
 
-    int[] readIntArray(Scanner scanner, int N) {
+    static int[] readIntArray(CaseParser parser, int N) {
         int[] arr = new int[N];
         for (int i = 0; i < N; i++) {
-            arr[i] = scanner.nextInt();
+            arr[i] = parser.nextInt();
         }
         return arr;
     }
 
-    Operation readOperation(Scanner scanner) {
-        int type = scanner.nextInt();
-        Integer height = null, value = null, depth = null;
+    static Operation readOperation(CaseParser parser) {
+        int type = parser.nextInt();
+        int height = 0, value = 0, depth = 0;
         switch (type) {
             case 1:
             case 2:
-                height = scanner.nextInt();
-                value = scanner.nextInt();
-                depth = scanner.nextInt();
+                height = parser.nextInt();
+                value = parser.nextInt();
+                depth = parser.nextInt();
                 break;
             case 3:
             case 4:
             case 5:
             case 6:
             case 7:
-                depth = scanner.nextInt();
+                depth = parser.nextInt();
                 break;
         }
         return new Operation(type, height, value, depth);
     }
 
+    /**
+     * Reads a test case from a text file, or from a binary trace (see
+     * TraceWriter) with the counts N, M and K, then the heights and the
+     * values as signed varints, then each operation as its type followed by
+     * its arguments as signed varints, then the expected outputs. An output
+     * is a tag, 0 for null, 1 for true, 2 for false, 3 for a pair followed
+     * by its height and value, or 4 for an integer followed by its value.
+     */
     TestCase(String filepath) {
-        try (Scanner scanner = new Scanner(new File(filepath))) {
-            int N = scanner.nextInt();
-            heights = readIntArray(scanner, N);
-            values = readIntArray(scanner, N);
-            int M = scanner.nextInt();
-            operations = new Operation[M];
+        try (CaseParser parser = new CaseParser(filepath)) {
+            if (parser.startsWith(TraceWriter.MAGIC)) {
+                readTrace(parser, filepath);
+                return;
+            }
+            int N = parser.nextInt();
+            heights = readIntArray(parser, N);
+            values = readIntArray(parser, N);
+            int M = parser.nextInt();
+            allocateOperations(M);
             for (int i = 0; i < M; i++) {
-                operations[i] = readOperation(scanner);
+                Operation operation = readOperation(parser);
+                operationTypes[i] = operation.type;
+                operationHeights[i] = operation.height;
+                operationValues[i] = operation.value;
+                operationDepths[i] = operation.depth;
             }
-            int K = scanner.nextInt();
-            expected = new Output[K];
+            int K = parser.nextInt();
+            allocateExpected(K);
             for (int i = 0; i < K; i++) {
-                expected[i] = readOutput(scanner);
+                Output output = readOutput(parser);
+                if (output.isBoolean()) {
+                    expectedTags[i] = output.success ? 1 : 2;
+                } else if (output.isPair()) {
+                    expectedTags[i] = 3;
+                    expectedFirsts[i] = output.pair.first;
+                    expectedSeconds[i] = output.pair.second;
+                } else if (output.isInteger()) {
+                    expectedTags[i] = 4;
+                    expectedFirsts[i] = output.count;
+                }
             }
         } catch (FileNotFoundException e) {
             System.out.println("Testcase file not found: " + filepath);
             throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void allocateOperations(int M) {
+        operationTypes = new int[M];
+        operationHeights = new int[M];
+        operationValues = new int[M];
+        operationDepths = new int[M];
+    }
+
+    private void allocateExpected(int K) {
+        expectedTags = new int[K];
+        expectedFirsts = new int[K];
+        expectedSeconds = new int[K];
+    }
+
+    /**
+     * @return The ith operation
+     */
+    Operation operation(int i) {
+        return new Operation(operationTypes[i], operationHeights[i], operationValues[i], operationDepths[i]);
+    }
+
+    // Outputs that carry no value of their own are shared; none is ever
+    // changed once made
+    private static final Output NULL_OUTPUT = new Output();
+    private static final Output TRUE_OUTPUT = new Output(true);
+    private static final Output FALSE_OUTPUT = new Output(false);
+
+    /**
+     * @return The ith expected output
+     */
+    Output expected(int i) {
+        switch (expectedTags[i]) {
+            case 1:
+                return TRUE_OUTPUT;
+            case 2:
+                return FALSE_OUTPUT;
+            case 3:
+                return new Output(new IntPair(expectedFirsts[i], expectedSeconds[i]));
+            case 4:
+                return new Output(expectedFirsts[i]);
+            default:
+                return NULL_OUTPUT;
+        }
+    }
+
+    private void readTrace(CaseParser parser, String filepath) {
+        parser.expectTrace(2);
+        int N = parser.nextVarint();
+        int M = parser.nextVarint();
+        int K = parser.nextVarint();
+        heights = new int[N];
+        parser.nextSignedVarints(heights, N);
+        values = new int[N];
+        parser.nextSignedVarints(values, N);
+        allocateOperations(M);
+        for (int i = 0; i < M; i++) {
+            int type = parser.nextVarint();
+            operationTypes[i] = type;
+            if (type == 1 || type == 2) {
+                operationHeights[i] = parser.nextSignedVarint();
+                operationValues[i] = parser.nextSignedVarint();
+                operationDepths[i] = parser.nextSignedVarint();
+            } else if (type >= 3 && type <= 7) {
+                operationDepths[i] = parser.nextSignedVarint();
+            }
+        }
+        allocateExpected(K);
+        for (int i = 0; i < K; i++) {
+            int tag = parser.nextVarint();
+            expectedTags[i] = tag;
+            if (tag == 3) {
+                expectedFirsts[i] = parser.nextSignedVarint();
+                expectedSeconds[i] = parser.nextSignedVarint();
+            } else if (tag == 4) {
+                expectedFirsts[i] = parser.nextSignedVarint();
+            } else if (tag < 0 || tag > 4) {
+                throw new IllegalArgumentException("Unknown output tag " + tag + " in trace " + filepath);
+            }
+        }
+    }
+
+    /**
+     * Reads one operation of a binary trace
+     */
+    static Operation readTraceOperation(CaseParser parser) {
+        int type = parser.nextVarint();
+        int height = 0, value = 0, depth = 0;
+        if (type == 1 || type == 2) {
+            height = parser.nextSignedVarint();
+            value = parser.nextSignedVarint();
+            depth = parser.nextSignedVarint();
+        } else if (type >= 3 && type <= 7) {
+            depth = parser.nextSignedVarint();
+        }
+        return new Operation(type, height, value, depth);
+    }
+
+    /**
+     * Reads one expected output of a binary trace
+     */
+    static Output readTraceOutput(CaseParser parser) {
+        int tag = parser.nextVarint();
+        switch (tag) {
+            case 0:
+                return NULL_OUTPUT;
+            case 1:
+                return TRUE_OUTPUT;
+            case 2:
+                return FALSE_OUTPUT;
+            case 3:
+                int first = parser.nextSignedVarint();
+                return new Output(new IntPair(first, parser.nextSignedVarint()));
+            case 4:
+                return new Output(parser.nextSignedVarint());
+            default:
+                throw new IllegalArgumentException("Unknown output tag " + tag + " in trace");
+        }
+    }
+
+    /**
+     * Writes the test case as a binary trace, in the layout the constructor
+     * reads
+     */
+    void writeTrace(String filepath) throws IOException {
+        try (TraceWriter out = new TraceWriter(filepath, 2)) {
+            out.writeVarint(heights.length);
+            out.writeVarint(operationTypes.length);
+            out.writeVarint(expectedTags.length);
+            for (int height : heights) {
+                out.writeSignedVarint(height);
+            }
+            for (int value : values) {
+                out.writeSignedVarint(value);
+            }
+            for (int i = 0; i < operationTypes.length; i++) {
+                int type = operationTypes[i];
+                out.writeVarint(type);
+                if (type == 1 || type == 2) {
+                    out.writeSignedVarint(operationHeights[i]);
+                    out.writeSignedVarint(operationValues[i]);
+                    out.writeSignedVarint(operationDepths[i]);
+                } else if (type >= 3 && type <= 7) {
+                    out.writeSignedVarint(operationDepths[i]);
+                }
+            }
+            for (int i = 0; i < expectedTags.length; i++) {
+                out.writeVarint(expectedTags[i]);
+                if (expectedTags[i] == 3) {
+                    out.writeSignedVarint(expectedFirsts[i]);
+                    out.writeSignedVarint(expectedSeconds[i]);
+                } else if (expectedTags[i] == 4) {
+                    out.writeSignedVarint(expectedFirsts[i]);
+                }
+            }
         }
     }
 
+    /**
+     * Returns a string representation of the test case, with each list cut
+     * off after its first PRINT_LIMIT entries
+     */
     public String toString() {
-        String result = "Heights[" + heights.length + "]:{" + Arrays.toString(heights) + "}\n";
-        result += "Values[" + values.length + "]:{" + Arrays.toString(values) + "}\n";
-        result += "Operations[" + operations.length + "]:{\n";
-        for (Operation op : operations) {
-            result += "  " + op.toString() + "\n";
-        }
-        result += "}\n";
-        result += "Expected[" + expected.length + "]:{\n";
-        for (Output output : expected) {
-            result += "  " + output.toString() + "\n";
-        }
-        result += "}\n";
-        return result;
+        StringBuilder result = new StringBuilder();
+        result.append("Heights[").append(heights.length).append("]:{");
+        appendInts(result, heights);
+        result.append("}\n");
+        result.append("Values[").append(values.length).append("]:{");
+        appendInts(result, values);
+        result.append("}\n");
+        result.append("Operations[").append(operationTypes.length).append("]:{\n");
+        appendLines(result, operationTypes.length, this::operation);
+        result.append("}\n");
+        result.append("Expected[").append(expectedTags.length).append("]:{\n");
+        appendLines(result, expectedTags.length, this::expected);
+        result.append("}\n");
+        return result.toString();
+    }
+
+    private static void appendInts(StringBuilder result, int[] values) {
+        result.append('[');
+        for (int i = 0; i < Math.min(values.length, PRINT_LIMIT); i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(values[i]);
+        }
+        if (values.length > PRINT_LIMIT) {
+            result.append(", ... ").append(values.length - PRINT_LIMIT).append(" more");
+        }
+        result.append(']');
+    }
+
+    private static void appendLines(StringBuilder result, int count, IntFunction<Object> line) {
+        for (int i = 0; i < Math.min(count, PRINT_LIMIT); i++) {
+            result.append("  ").append(line.apply(i)).append('\n');
+        }
+        if (count > PRINT_LIMIT) {
+            result.append("  ... ").append(count - PRINT_LIMIT).append(" more\n");
+        }
     }
 }
 
@@ -228,9 +460,52 @@ class Output {
 }
 
 public class Evaluator {
+    // Names of the operation types, indexed by type
+    private static final String[] OPERATION_NAMES = { null, "insertAtMostValuableValley",
+            "insertAtLeastValuableValley", "removeMostValuableValley", "removeLeastValuableValley",
+            "getMostValuableValley", "getLeastValuableValley", "getValleyCount", "isEmpty" };
+
+    // Latency of each operation type, indexed by type; null unless
+    // --latency was given
+    private static LatencyHistogram[] latencies;
+
+    // Where --alloc=FILE writes the allocation profile of each test case;
+    // null unless it was given
+    private static String allocationReport;
+    private static final List<AllocationProfile> allocationProfiles = new ArrayList<>();
+    // The profile of the running test case, if allocations are being profiled
+    private static AllocationProfile allocations;
 
     private TreasureValleyExplorer explorer;
 
+    /**
+     * Creates the explorer, counting it as the constructor if allocations
+     * are being profiled
+     */
+    private void createExplorer(int[] heights, int[] values) {
+        if (allocations != null) {
+            allocations.enter(0);
+        }
+        explorer = new TreasureValleyExplorer(heights, values);
+    }
+
+    /**
+     * Runs an operation, recording its latency if latencies are being
+     * recorded and counting its allocations if those are being profiled
+     */
+    private Output timedOperate(Operation op) {
+        if (allocations != null) {
+            allocations.enter(op.type);
+        }
+        if (latencies == null) {
+            return operate(op);
+        }
+        long start = System.nanoTime();
+        Output result = operate(op);
+        latencies[op.type].record(System.nanoTime() - start);
+        return result;
+    }
+
     public Output operate(Operation op) {
         switch (op.type) {
             case 1:
@@ -254,31 +529,34 @@ public class Evaluator {
         }
     }
 
-    public Output[] runOperations(Operation[] operations) {
+    public Output[] runOperations(TestCase testCase) {
 
-        Output[] results = new Output[operations.length];
-        int i = 0;
-        for (Operation op : operations) {
-            results[i++] = operate(op);
+        Output[] results = new Output[testCase.operationTypes.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = timedOperate(testCase.operation(i));
+        }
+        if (allocations != null) {
+            allocations.finish();
         }
         return results;
     }
 
     public boolean runTestCase(TestCase testCase) {
-        explorer = new TreasureValleyExplorer(testCase.heights, testCase.values);
-        Output[] results = runOperations(testCase.operations);
+        createExplorer(testCase.heights, testCase.values);
+        Output[] results = runOperations(testCase);
         boolean passed = true;
-        if (results.length != testCase.expected.length) {
+        if (results.length != testCase.expectedTags.length) {
             System.out
                     .println("Test failed: results array length does not match expected array length. Expected length: "
-                            + testCase.expected.length + ", but got " + results.length);
+                            + testCase.expectedTags.length + ", but got " + results.length);
             return false;
         }
-        for (int i = 0; i < testCase.expected.length; i++) {
-            if (results[i].isNull() && testCase.expected[i].isNull())
+        for (int i = 0; i < results.length; i++) {
+            Output expected = testCase.expected(i);
+            if (results[i].isNull() && expected.isNull())
                 continue;
-            if (!results[i].equals(testCase.expected[i])) {
-                String message = "Test failed at operation " + i + ": expected " + testCase.expected[i].toString()
+            if (!results[i].equals(expected)) {
+                String message = "Test failed at operation " + i + ": expected " + expected.toString()
                         + " but got " + results[i].toString();
                 System.out.println(message);
                 passed = false;
@@ -287,17 +565,253 @@ public class Evaluator {
         return passed;
     }
 
+    /**
+     * Reads past the landscape and operations of a binary trace to its
+     * expected outputs, which the parser returns next
+     *
+     * @return The number of expected outputs
+     */
+    static int skipTraceToExpected(CaseParser parser) {
+        parser.expectTrace(2);
+        int N = parser.nextVarint();
+        int M = parser.nextVarint();
+        int K = parser.nextVarint();
+        for (int i = 0; i < 2 * N; i++) {
+            parser.nextSignedVarint();
+        }
+        for (int i = 0; i < M; i++) {
+            TestCase.readTraceOperation(parser);
+        }
+        return K;
+    }
+
+    /**
+     * Reads past the landscape and operations of a test case to the number
+     * of expected outputs, which the parser returns next
+     */
+    static int skipToExpected(CaseParser parser) {
+        int N = parser.nextInt();
+        for (int i = 0; i < 2 * N; i++) {
+            parser.skipToken();
+        }
+        int M = parser.nextInt();
+        for (int i = 0; i < M; i++) {
+            int type = parser.nextInt();
+            int arguments = (type <= 2) ? 3 : (type <= 7) ? 1 : 0;
+            for (int j = 0; j < arguments; j++) {
+                parser.skipToken();
+            }
+        }
+        return parser.nextInt();
+    }
+
+    private static long digestOf(Output output) {
+        int kind = output.isNull() ? 0 : output.isPair() ? 1 : output.isBoolean() ? 2 : 3;
+        return 4L * output.hashCode() + kind;
+    }
+
+    /**
+     * Runs a test case while reading it, without building a TestCase, so that
+     * memory does not grow with the number of operations. Reading a file, a
+     * second parser follows the expected outputs and each output is checked
+     * as soon as it is produced. Reading System.in ("-"), the expected
+     * outputs only arrive after the last operation, so both sides are
+     * compared through an OutputDigest instead. Binary traces are streamed
+     * the same way.
+     */
+    public boolean runStreaming(String filepath) {
+        boolean fromStdin = filepath.equals("-");
+        try (CaseParser parser = fromStdin ? new CaseParser(System.in) : new CaseParser(filepath);
+                CaseParser expected = fromStdin ? null : new CaseParser(filepath)) {
+            boolean trace = parser.startsWith(TraceWriter.MAGIC);
+            int expectedCount = -1;
+            if (expected != null) {
+                expectedCount = trace ? skipTraceToExpected(expected) : skipToExpected(expected);
+            }
+            int N;
+            int M;
+            int K = 0;
+            int[] heights;
+            int[] values;
+            if (trace) {
+                parser.expectTrace(2);
+                N = parser.nextVarint();
+                M = parser.nextVarint();
+                K = parser.nextVarint();
+                heights = new int[N];
+                parser.nextSignedVarints(heights, N);
+                values = new int[N];
+                parser.nextSignedVarints(values, N);
+            } else {
+                N = parser.nextInt();
+                heights = TestCase.readIntArray(parser, N);
+                values = TestCase.readIntArray(parser, N);
+                M = parser.nextInt();
+            }
+            createExplorer(heights, values);
+            heights = null;
+            values = null;
+
+            OutputDigest produced = new OutputDigest();
+            boolean passed = true;
+            for (int i = 0; i < M; i++) {
+                Operation operation = trace ? TestCase.readTraceOperation(parser) : TestCase.readOperation(parser);
+                Output result = timedOperate(operation);
+                if (expected == null) {
+                    produced.add(digestOf(result));
+                } else if (i < expectedCount) {
+                    Output expectedOutput = trace ? TestCase.readTraceOutput(expected) : TestCase.readOutput(expected);
+                    if (!result.equals(expectedOutput)) {
+                        String message = "Test failed at operation " + i + ": expected " + expectedOutput.toString()
+                                + " but got " + result.toString();
+                        System.out.println(message);
+                        passed = false;
+                    }
+                }
+            }
+            if (allocations != null) {
+                allocations.finish();
+            }
+
+            if (!trace) {
+                K = parser.nextInt();
+            }
+            if (M != K) {
+                System.out
+                        .println("Test failed: results array length does not match expected array length. Expected length: "
+                                + K + ", but got " + M);
+                return false;
+            }
+            if (expected == null) {
+                OutputDigest wanted = new OutputDigest();
+                for (int i = 0; i < K; i++) {
+                    Output output = trace ? TestCase.readTraceOutput(parser) : TestCase.readOutput(parser);
+                    wanted.add(digestOf(output));
+                }
+                if (!produced.matches(wanted)) {
+                    System.out.println("Test failed: outputs do not match the expected outputs");
+                    return false;
+                }
+            }
+            return passed;
+        } catch (FileNotFoundException e) {
+            System.out.println("Testcase file not found: " + filepath);
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs one test case and prints its result
+     *
+     * @param filepath The path to the test case file, or "-" for System.in
+     * @param stream   Whether to run the case with runStreaming()
+     * @return true if the test case passed
+     */
+    private static boolean runCase(String filepath, boolean stream) {
+        if (latencies != null) {
+            for (int type = 1; type < latencies.length; type++) {
+                latencies[type] = new LatencyHistogram();
+            }
+        }
+        if (allocationReport != null) {
+            allocations = new AllocationProfile(filepath, OPERATION_NAMES);
+        }
+        boolean passed;
+        try {
+            if (stream || filepath.equals("-")) {
+                passed = new Evaluator().runStreaming(filepath);
+            } else {
+                TestCase testCase = new TestCase(filepath);
+                System.out.println(testCase.toString());
+                passed = new Evaluator().runTestCase(testCase);
+            }
+        } finally {
+            if (allocations != null) {
+                allocationProfiles.add(allocations);
+                allocations = null;
+            }
+        }
+        if (passed)
+            System.out.println("Test passed!");
+        if (latencies != null) {
+            System.out.print(LatencyHistogram.table(OPERATION_NAMES, latencies));
+        }
+        return passed;
+    }
+
+    /**
+     * Converts a text test case into a binary trace
+     */
+    private static void convert(String textPath, String tracePath) {
+        try {
+            new TestCase(textPath).writeTrace(tracePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println(String.format("Wrote %s: %.1f MB from %.1f MB of text", tracePath,
+                new File(tracePath).length() / 1e6, new File(textPath).length() / 1e6));
+    }
+
     public static void main(String[] args) {
         if (args.length < 1) {
             System.out.println("No testcase file provided");
             return;
+        } else if (args[0].equals("--convert")) {
+            if (args.length != 3) {
+                System.out.println("Usage: java Evaluator --convert case.txt case.trace");
+                return;
+            }
+            convert(args[1], args[2]);
         } else {
+            // Arguments are test case files or directories of them. Files
+            // after --stream, and "-" for System.in, are run with
+            // runStreaming() instead of being loaded whole. After --latency,
+            // each test case is followed by a table of latency percentiles
+            // for each operation type, and --alloc=FILE writes the bytes
+            // each operation type allocated in every test case to FILE as
+            // JSON. Files after --jobs=N are run N at a time, each with its
+            // own TreasureValleyExplorer, and followed by a summary of every
+            // case. Binary traces are read like text files, and
+            // "--convert case.txt case.trace" writes one.
+            boolean stream = false;
+            CaseRunner runner = null;
             for (String filepath : args) {
-                TestCase testCase = new TestCase(filepath);
-                System.out.println(testCase.toString());
-                boolean passed = new Evaluator().runTestCase(testCase);
-                if (passed)
-                    System.out.println("Test passed!");
+                if (filepath.equals("--stream")) {
+                    stream = true;
+                    continue;
+                }
+                if (filepath.equals("--latency")) {
+                    latencies = new LatencyHistogram[OPERATION_NAMES.length];
+                    continue;
+                }
+                if (filepath.startsWith("--alloc=")) {
+                    allocationReport = filepath.substring("--alloc=".length());
+                    continue;
+                }
+                if (filepath.startsWith("--jobs=")) {
+                    runner = new CaseRunner(Integer.parseInt(filepath.substring("--jobs=".length())));
+                    continue;
+                }
+                for (String path : CaseRunner.expand(filepath)) {
+                    boolean streamed = stream;
+                    if (runner != null) {
+                        runner.add(path, p -> runCase(p, streamed));
+                    } else {
+                        runCase(path, streamed);
+                    }
+                }
+            }
+            if (runner != null) {
+                if ((latencies != null || allocationReport != null) && runner.threads() > 1) {
+                    throw new IllegalArgumentException("--latency and --alloc need --jobs=1");
+                }
+                runner.runAll();
+            }
+            if (allocationReport != null) {
+                AllocationProfile.write(allocationReport, allocationProfiles);
+                System.out.println("Wrote allocation profile to " + allocationReport);
             }
         }
     }
@@ -0,0 +1,36 @@
+/**
+ * A running fingerprint of a sequence of outputs, for streamed test cases
+ * whose expected outputs can only be read after every operation has run,
+ * such as a case piped through System.in. The outputs a run produces and
+ * the expected outputs at the end of the case are each folded into a
+ * digest as they go by, and the two digests are compared at the end, so
+ * checking takes constant memory however long the case is.
+ *
+ * A mismatch shows that the outputs differ, but not where; run the case
+ * from a file to find the first operation that fails.
+ *
+ * Every homework directory carries an identical copy of this file, so that
+ * each compiles on its own; the bench build fails if the copies differ.
+ */
+class OutputDigest {
+    private long hash;
+    private long count;
+
+    /**
+     * Folds in the next output, given as a hash of its value
+     */
+    void add(long outputHash) {
+        // Position-dependent, so that reordered outputs do not match
+        long h = ((hash + count) ^ outputHash) * 0x9E3779B97F4A7C15L;
+        hash = h ^ (h >>> 29);
+        count++;
+    }
+
+    long count() {
+        return count;
+    }
+
+    boolean matches(OutputDigest other) {
+        return count == other.count && hash == other.hash;
+    }
+}
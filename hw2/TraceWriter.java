@@ -0,0 +1,153 @@
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a test case as a binary trace, which holds the same case as the
+ * text format in a fraction of the bytes and decodes without any number
+ * parsing. A trace starts with the magic bytes "NMTR", the format version
+ * and the homework number, followed by the homework's counts, so a reader
+ * can size every array before filling it. Everything after the magic bytes
+ * is a varint: seven bits per byte, low bits first, with the top bit set on
+ * every byte but the last. Values that may be negative, such as heights,
+ * are zigzag-encoded first, so that small negative numbers stay short too.
+ * Strings are a varint byte length followed by their UTF-8 bytes. Each
+ * Evaluator documents the layout of its own traces, and CaseParser reads
+ * them.
+ *
+ * Every homework directory carries an identical copy of this file, so that
+ * each compiles on its own; the bench build fails if the copies differ.
+ */
+class TraceWriter implements Closeable {
+    static final byte[] MAGIC = { 'N', 'M', 'T', 'R' };
+    static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private long written;
+
+    /**
+     * Creates the trace file and writes its magic bytes, version and
+     * homework number
+     *
+     * @param filepath The path to write the trace to
+     * @param homework The homework whose format follows the header
+     */
+    TraceWriter(String filepath, int homework) throws IOException {
+        this(filepath, MAGIC, VERSION);
+        writeVarint(homework);
+    }
+
+    /**
+     * Creates a file in a varint format of its own, such as the call traces
+     * of RecordingTaskPrioritizer, and writes its magic bytes and version
+     *
+     * @param filepath The path to write to
+     * @param magic    The bytes that identify the format
+     * @param version  The version of the format
+     */
+    TraceWriter(String filepath, byte[] magic, int version) throws IOException {
+        this.out = new FileOutputStream(filepath);
+        for (byte b : magic) {
+            writeByte(b);
+        }
+        writeVarint(version);
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        written += position;
+        position = 0;
+    }
+
+    /**
+     * Writes a value that is never negative, such as a count, an operation
+     * type or a dictionary index
+     */
+    void writeVarint(int value) throws IOException {
+        if (value < 0) {
+            throw new IllegalArgumentException("Unsigned varint must not be negative: " + value);
+        }
+        if (BUFFER_SIZE - position < 5) {
+            flushBuffer();
+        }
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Writes a value of either sign, zigzag-encoded
+     */
+    void writeSignedVarint(int value) throws IOException {
+        if (BUFFER_SIZE - position < 5) {
+            flushBuffer();
+        }
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        buffer[position++] = (byte) zigzag;
+    }
+
+    void writeString(String value) throws IOException {
+        // Fast path: a short ASCII string is its own UTF-8, and is copied
+        // straight into the buffer without encoding it to an array first
+        int length = value.length();
+        if (length < 0x80 && BUFFER_SIZE - position > length) {
+            int start = position + 1;
+            int i = 0;
+            while (i < length && value.charAt(i) < 0x80) {
+                buffer[start + i] = (byte) value.charAt(i);
+                i++;
+            }
+            if (i == length) {
+                buffer[position] = (byte) length;
+                position = start + length;
+                return;
+            }
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        for (byte b : bytes) {
+            writeByte(b);
+        }
+    }
+
+    /**
+     * Writes out everything buffered so far
+     */
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * @return The number of bytes written so far
+     */
+    long size() {
+        return written + position;
+    }
+
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
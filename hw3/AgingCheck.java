@@ -0,0 +1,245 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * AgingCheck runs a seeded mix of adds, updates and resolves on an aging
+ * prioritizer, and checks every resolve against a plain model that scans
+ * the ready tasks. A ready task's aged urgency is its urgency plus the
+ * resolves, or nanoseconds, it has waited divided by the period; the model
+ * picks the highest aged urgency, then the task that has been ready
+ * longest, then the earliest added. The clock moves on between calls when
+ * aging by time.
+ *
+ * It also feeds a prioritizer two urgent tasks for every resolve, after
+ * one task of urgency 0, and checks that the low task still resolves
+ * within the bound aging promises, while it would wait forever without
+ * aging.
+ *
+ * Usage: AgingCheck [seed] [operations]
+ *
+ * The seed defaults to 1 and the number of operations to 6000. Exits with
+ * status 1 if any check fails.
+ */
+public class AgingCheck {
+    private static final int RECENT = 48;
+    private static final int URGENCY_RANGE = 40;
+    private static final long PERIOD = 16;
+    // Nanoseconds the clock moves per step when aging by time
+    private static final long STEP = 1000;
+
+    private final long seed;
+    private final int operations;
+    private int failures;
+    private long now;
+
+    private AgingCheck(long seed, int operations) {
+        this.seed = seed;
+        this.operations = operations;
+    }
+
+    private TaskPrioritizer open(TaskPrioritizer.Engine engine, boolean byTime) {
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine);
+        if (byTime) {
+            prioritizer.setAgingByTime(PERIOD * STEP);
+        } else {
+            prioritizer.setAgingByResolves(PERIOD);
+        }
+        prioritizer.setClock(() -> now);
+        return prioritizer;
+    }
+
+    /**
+     * The graph as plain arrays, indexed by add order
+     */
+    private static final class Model {
+        final int[] urgencyLevels;
+        final List<List<Integer>> dependents = new ArrayList<>();
+        final int[] unresolvedCounts;
+        final long[] readyTicks;
+        final boolean[] resolved;
+        final long period;
+        int size;
+
+        Model(int capacity, long period) {
+            urgencyLevels = new int[capacity];
+            unresolvedCounts = new int[capacity];
+            readyTicks = new long[capacity];
+            resolved = new boolean[capacity];
+            this.period = period;
+        }
+
+        void add(int urgencyLevel, int[] dependencies, long tick) {
+            int task = size++;
+            urgencyLevels[task] = urgencyLevel;
+            dependents.add(new ArrayList<>());
+            for (int dependency : dependencies) {
+                if (!resolved[dependency]) {
+                    dependents.get(dependency).add(task);
+                    unresolvedCounts[task]++;
+                }
+            }
+            readyTicks[task] = tick;
+        }
+
+        /**
+         * Compares aged urgencies exactly:
+         * urgency + (tick - readyTick) / period orders tasks as
+         * urgency * period - readyTick does
+         */
+        private boolean outranks(int a, int b) {
+            long rankA = urgencyLevels[a] * period - readyTicks[a];
+            long rankB = urgencyLevels[b] * period - readyTicks[b];
+            return rankA > rankB || (rankA == rankB && a < b);
+        }
+
+        /**
+         * @param tick The resolves so far, or the time, when the call starts
+         *
+         * @return The add index of the resolved task, or -1 if none is ready
+         */
+        int resolve(long tick) {
+            int best = -1;
+            for (int task = 0; task < size; task++) {
+                if (!resolved[task] && unresolvedCounts[task] == 0 && (best < 0 || outranks(task, best))) {
+                    best = task;
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+            resolved[best] = true;
+            for (int dependent : dependents.get(best)) {
+                if (--unresolvedCounts[dependent] == 0) {
+                    readyTicks[dependent] = tick;
+                }
+            }
+            return best;
+        }
+    }
+
+    private void checkOrder(TaskPrioritizer.Engine engine, boolean byTime) {
+        String name = engine.name().toLowerCase() + ", aging by " + (byTime ? "time" : "resolves");
+        Random random = new Random(seed);
+        now = 1_000_000L;
+        TaskPrioritizer prioritizer = open(engine, byTime);
+        Model model = new Model(operations, byTime ? PERIOD * STEP : PERIOD);
+        int[] recent = new int[RECENT];
+        int resolves = 0;
+        int aged = 0;
+        for (int i = 0; i < operations; i++) {
+            if (byTime) {
+                now += random.nextInt(4) * STEP + random.nextInt((int) STEP);
+            }
+            long tick = byTime ? now : resolves;
+            int choice = random.nextInt(100);
+            int added = model.size;
+            if (choice < 50 || added == 0) {
+                int urgencyLevel = random.nextInt(URGENCY_RANGE);
+                int[] dependencies = new int[Math.min(added, random.nextInt(3))];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencies[j] = recent[(added - 1 - random.nextInt(Math.min(added, RECENT))) % RECENT];
+                }
+                // A repeated dependency would count twice in the model
+                dependencies = Arrays.stream(dependencies).distinct().toArray();
+                String[] dependencyIds = new String[dependencies.length];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencyIds[j] = "T" + dependencies[j];
+                }
+                model.add(urgencyLevel, dependencies, tick);
+                prioritizer.add("T" + added, urgencyLevel, dependencyIds);
+                recent[added % RECENT] = added;
+            } else if (choice < 60) {
+                int target = recent[random.nextInt(Math.min(added, RECENT))];
+                int urgencyLevel = random.nextInt(URGENCY_RANGE);
+                if (!model.resolved[target]) {
+                    model.urgencyLevels[target] = urgencyLevel;
+                }
+                prioritizer.update("T" + target, urgencyLevel);
+            } else {
+                int want = model.resolve(tick);
+                String got = prioritizer.resolve();
+                String wantId = (want < 0) ? null : "T" + want;
+                if (wantId == null ? got != null : !wantId.equals(got)) {
+                    fail(name + ": resolve " + resolves + " returned " + got + " instead of " + wantId);
+                    return;
+                }
+                if (want >= 0) {
+                    // Count the picks that a higher plain urgency would have beaten
+                    for (int task = 0; task < model.size; task++) {
+                        if (!model.resolved[task] && model.unresolvedCounts[task] == 0
+                                && model.urgencyLevels[task] > model.urgencyLevels[want]) {
+                            aged++;
+                            break;
+                        }
+                    }
+                    resolves++;
+                }
+            }
+        }
+        System.out.println("PASS " + name + ": " + resolves + " resolves matched the model, " + aged
+                + " of them over a task of higher plain urgency");
+    }
+
+    /**
+     * Adds one task of urgency 0, then two of the highest urgency for every
+     * resolve. A task added at resolve c has aged urgency above the low
+     * task's only while c < top * period, and the urgent tasks added by
+     * then are gone after twice that many resolves.
+     */
+    private void checkStarvation(TaskPrioritizer.Engine engine, boolean byTime, boolean aging) {
+        String name = engine.name().toLowerCase() + ", "
+                + (aging ? "aging by " + (byTime ? "time" : "resolves") : "no aging") + ", steady urgent inflow";
+        int top = URGENCY_RANGE - 1;
+        long bound = 2 * (top + 1) * PERIOD + 2;
+        now = 1_000_000L;
+        TaskPrioritizer prioritizer = aging ? open(engine, byTime) : new TaskPrioritizer(engine);
+        prioritizer.add("low", 0, null);
+        int urgent = 0;
+        for (long resolves = 0; resolves < 2 * bound; resolves++) {
+            prioritizer.add("U" + urgent++, top, null);
+            prioritizer.add("U" + urgent++, top, null);
+            now += STEP;
+            if ("low".equals(prioritizer.resolve())) {
+                if (!aging) {
+                    fail(name + ": the low task resolved after " + resolves + " resolves");
+                } else if (resolves > bound) {
+                    fail(name + ": the low task waited " + resolves + " resolves, more than " + bound);
+                } else {
+                    System.out.println("PASS " + name + ": the low task resolved after " + resolves
+                            + " resolves, within " + bound);
+                }
+                return;
+            }
+        }
+        if (aging) {
+            fail(name + ": the low task was still waiting after " + 2 * bound + " resolves");
+        } else {
+            System.out.println("PASS " + name + ": the low task was still waiting after " + 2 * bound
+                    + " resolves");
+        }
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 6000;
+        AgingCheck check = new AgingCheck(seed, operations);
+        for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+            for (boolean byTime : new boolean[] { false, true }) {
+                check.checkOrder(engine, byTime);
+                check.checkStarvation(engine, byTime, true);
+            }
+            check.checkStarvation(engine, false, false);
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * BatchResolveCheck runs a seeded mix of adds, updates and batched
+ * resolves, and checks every batch against a plain model of the graph that
+ * picks each task by scanning every ready one: highest urgency first, then
+ * earliest added. With aging by resolves, the model ranks by urgency plus
+ * the resolves waited divided by the period instead, and then by the time
+ * since becoming ready. Each batch goes through resolve(max, out),
+ * sometimes with an array shorter than max, or through drainTo() with or
+ * without a limit. Tasks depend on recent ones, so a batch keeps releasing
+ * dependents that must compete with what was already ready. This runs for
+ * each engine, plain, with aging by resolves and shared through ready
+ * stripes.
+ *
+ * Usage: BatchResolveCheck [seed] [operations]
+ *
+ * The seed defaults to 1 and the number of operations to 20000. Exits with
+ * status 1 if any check fails.
+ */
+public class BatchResolveCheck {
+    private static final int RECENT = 64;
+    private static final int AGING_PERIOD = 8;
+
+    private final long seed;
+    private final int operations;
+    private int failures;
+
+    private BatchResolveCheck(long seed, int operations) {
+        this.seed = seed;
+        this.operations = operations;
+    }
+
+    private static TaskPrioritizer open(TaskPrioritizer.Engine engine, int mode) {
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine, (mode == 2) ? 2 : 0);
+        if (mode == 1) {
+            prioritizer.setAgingByResolves(AGING_PERIOD);
+        }
+        return prioritizer;
+    }
+
+    /**
+     * The graph as plain arrays, indexed by add order
+     */
+    private static final class Model {
+        final int[] urgencyLevels;
+        final int[][] dependents;
+        final int[] dependentCounts;
+        final int[] unresolvedCounts;
+        final long[] readyTicks;
+        final boolean[] resolved;
+        final boolean aging;
+        int size;
+        long resolvedCount;
+
+        Model(int capacity, boolean aging) {
+            urgencyLevels = new int[capacity];
+            dependents = new int[capacity][];
+            dependentCounts = new int[capacity];
+            unresolvedCounts = new int[capacity];
+            readyTicks = new long[capacity];
+            resolved = new boolean[capacity];
+            this.aging = aging;
+        }
+
+        void add(int urgencyLevel, int[] dependencies) {
+            int task = size++;
+            urgencyLevels[task] = urgencyLevel;
+            dependents[task] = new int[4];
+            for (int dependency : dependencies) {
+                if (!resolved[dependency]) {
+                    if (dependentCounts[dependency] == dependents[dependency].length) {
+                        dependents[dependency] = Arrays.copyOf(dependents[dependency],
+                                dependentCounts[dependency] * 2);
+                    }
+                    dependents[dependency][dependentCounts[dependency]++] = task;
+                    unresolvedCounts[task]++;
+                }
+            }
+            readyTicks[task] = resolvedCount;
+        }
+
+        /**
+         * urgency + (resolvedCount - readyTick) / period, compared between
+         * tasks, orders them as urgency * period - readyTick does
+         */
+        private long rank(int task) {
+            return aging ? (long) urgencyLevels[task] * AGING_PERIOD - readyTicks[task] : urgencyLevels[task];
+        }
+
+        /**
+         * @return The add index of the resolved task, or -1 if none is ready
+         */
+        int resolve() {
+            int best = -1;
+            for (int task = 0; task < size; task++) {
+                if (!resolved[task] && unresolvedCounts[task] == 0 && (best < 0 || rank(task) > rank(best))) {
+                    best = task;
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+            resolved[best] = true;
+            for (int i = 0; i < dependentCounts[best]; i++) {
+                if (--unresolvedCounts[dependents[best][i]] == 0) {
+                    readyTicks[dependents[best][i]] = resolvedCount;
+                }
+            }
+            resolvedCount++;
+            return best;
+        }
+    }
+
+    /**
+     * Takes up to max tasks from the batched prioritizer, in the way the
+     * choice selects
+     */
+    private static List<String> takeBatch(TaskPrioritizer prioritizer, int max, int way, int[] returned) {
+        List<String> taken = new ArrayList<>();
+        if (way == 0) {
+            String[] out = new String[max];
+            returned[0] = prioritizer.resolve(max, out);
+            for (int i = 0; i < returned[0]; i++) {
+                taken.add(out[i]);
+            }
+        } else if (way == 1) {
+            // An array shorter than max limits the batch instead
+            String[] out = new String[Math.max(0, max - 3)];
+            returned[0] = prioritizer.resolve(max, out);
+            for (int i = 0; i < returned[0]; i++) {
+                taken.add(out[i]);
+            }
+        } else if (way == 2) {
+            returned[0] = prioritizer.drainTo(taken::add, max);
+        } else {
+            returned[0] = prioritizer.drainTo(taken::add);
+        }
+        return taken;
+    }
+
+    private void check(TaskPrioritizer.Engine engine, int mode) {
+        String name = engine.name().toLowerCase() + ", "
+                + new String[] { "plain", "aging by resolves", "ready stripes" }[mode];
+        Random random = new Random(seed);
+        Model model = new Model(operations, mode == 1);
+        TaskPrioritizer batched = open(engine, mode);
+        int[] recent = new int[RECENT];
+        int added = 0;
+        int batches = 0;
+        long resolved = 0;
+        int[] returned = new int[1];
+        for (int i = 0; i < operations; i++) {
+            int choice = random.nextInt(100);
+            if (choice < 70 || added == 0) {
+                int urgencyLevel = random.nextInt(40);
+                int[] dependencies = new int[Math.min(added, random.nextInt(4))];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencies[j] = recent[(added - 1 - random.nextInt(Math.min(added, RECENT))) % RECENT];
+                }
+                // A repeated dependency would count twice in the model
+                dependencies = Arrays.stream(dependencies).distinct().toArray();
+                String[] dependencyIds = new String[dependencies.length];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencyIds[j] = "T" + dependencies[j];
+                }
+                model.add(urgencyLevel, dependencies);
+                batched.add("T" + added, urgencyLevel, dependencyIds);
+                recent[added % RECENT] = added;
+                added++;
+            } else if (choice < 80) {
+                int task = recent[random.nextInt(Math.min(added, RECENT))];
+                int urgencyLevel = random.nextInt(40);
+                if (!model.resolved[task]) {
+                    model.urgencyLevels[task] = urgencyLevel;
+                }
+                batched.update("T" + task, urgencyLevel);
+            } else {
+                // Draining everything is rare, so the graph keeps growing
+                int way = (random.nextInt(50) == 0) ? 3 : random.nextInt(3);
+                int max = random.nextInt(12);
+                List<String> got = takeBatch(batched, max, way, returned);
+                int limit = (way == 3) ? Integer.MAX_VALUE : (way == 1) ? Math.max(0, max - 3) : max;
+                List<String> want = new ArrayList<>();
+                for (int task; want.size() < limit && (task = model.resolve()) >= 0; ) {
+                    want.add("T" + task);
+                }
+                if (!want.equals(got) || returned[0] != got.size()) {
+                    fail(name + ": batch " + batches + " of " + max + " returned " + returned[0] + ", " + got
+                            + " instead of " + want);
+                    return;
+                }
+                batches++;
+                resolved += got.size();
+            }
+        }
+        List<String> rest = new ArrayList<>();
+        int count = batched.drainTo(rest::add);
+        List<String> want = new ArrayList<>();
+        for (int task = model.resolve(); task >= 0; task = model.resolve()) {
+            want.add("T" + task);
+        }
+        if (!want.equals(rest) || count != rest.size()) {
+            fail(name + ": the final drainTo() returned " + count + " tasks that differ from the model");
+            return;
+        }
+        System.out.println("PASS " + name + ": " + batches + " batches of " + resolved
+                + " tasks matched the model, then " + count + " drained");
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        BatchResolveCheck check = new BatchResolveCheck(seed, operations);
+        for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+            for (int mode = 0; mode < 3; mode++) {
+                check.check(engine, mode);
+            }
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
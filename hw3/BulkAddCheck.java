@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * BulkAddCheck loads seeded random task graphs with addAll() and checks
+ * that the tasks resolve in exactly the order that calling add() for each
+ * task would give. The graphs repeat some taskIds, name some dependencies
+ * that are never added, and leave some dependency arrays null. They are
+ * loaded in one call, in chunks of random sizes, and after part of the
+ * graph has already been added and partly resolved, so that addAll() also
+ * meets resolved and waiting tasks. This runs for each engine, plain, with
+ * aging by resolves and with urgency inheritance.
+ *
+ * Usage: BulkAddCheck [seed] [tasks]
+ *
+ * The seed defaults to 1 and the number of tasks to 20000. Exits with
+ * status 1 if any check fails.
+ */
+public class BulkAddCheck {
+    private final long seed;
+    private final int size;
+    private int failures;
+
+    private BulkAddCheck(long seed, int size) {
+        this.seed = seed;
+        this.size = size;
+    }
+
+    /**
+     * A random graph in which each task depends on up to 3 of the 64 tasks
+     * before it, with a few repeated taskIds and missing dependencies
+     */
+    private static final class Graph {
+        final String[] taskIds;
+        final int[] urgencyLevels;
+        final String[][] dependencies;
+
+        Graph(Random random, int size) {
+            taskIds = new String[size];
+            urgencyLevels = new int[size];
+            dependencies = new String[size][];
+            for (int i = 0; i < size; i++) {
+                taskIds[i] = (i > 0 && random.nextInt(100) == 0) ? taskIds[random.nextInt(i)] : "T" + i;
+                urgencyLevels[i] = random.nextInt(50);
+                int count = Math.min(i, random.nextInt(4));
+                if (count == 0 && random.nextBoolean()) {
+                    continue;
+                }
+                dependencies[i] = new String[count];
+                for (int j = 0; j < count; j++) {
+                    dependencies[i][j] = (random.nextInt(200) == 0) ? "missing" + i
+                            : taskIds[i - 1 - random.nextInt(Math.min(i, 64))];
+                }
+            }
+        }
+    }
+
+    private static TaskPrioritizer open(TaskPrioritizer.Engine engine, int mode) {
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine);
+        if (mode == 1) {
+            prioritizer.setAgingByResolves(16);
+        } else if (mode == 2) {
+            prioritizer.setUrgencyInheritance(true);
+        }
+        return prioritizer;
+    }
+
+    private static List<String> drain(TaskPrioritizer prioritizer, List<String> order) {
+        for (String taskId = prioritizer.resolve(); taskId != null; taskId = prioritizer.resolve()) {
+            order.add(taskId);
+        }
+        return order;
+    }
+
+    private static void addEach(TaskPrioritizer prioritizer, Graph graph, int from, int to) {
+        for (int i = from; i < to; i++) {
+            prioritizer.add(graph.taskIds[i], graph.urgencyLevels[i], graph.dependencies[i]);
+        }
+    }
+
+    private static void addAll(TaskPrioritizer prioritizer, Graph graph, int from, int to) {
+        prioritizer.addAll(Arrays.copyOfRange(graph.taskIds, from, to),
+                Arrays.copyOfRange(graph.urgencyLevels, from, to), Arrays.copyOfRange(graph.dependencies, from, to));
+    }
+
+    /**
+     * Adds the first tasks one by one and resolves some of them, then adds
+     * the rest, one by one or in chunks of random sizes
+     *
+     * @return The full resolve order
+     */
+    private List<String> load(TaskPrioritizer prioritizer, Graph graph, int prefix, boolean bulk, Random chunks) {
+        List<String> order = new ArrayList<>();
+        addEach(prioritizer, graph, 0, prefix);
+        for (int i = 0; i < prefix / 2; i++) {
+            String taskId = prioritizer.resolve();
+            if (taskId == null) {
+                break;
+            }
+            order.add(taskId);
+        }
+        if (!bulk) {
+            addEach(prioritizer, graph, prefix, size);
+        } else if (chunks == null) {
+            addAll(prioritizer, graph, prefix, size);
+        } else {
+            for (int from = prefix; from < size; ) {
+                int to = Math.min(size, from + 1 + chunks.nextInt(size / 8));
+                addAll(prioritizer, graph, from, to);
+                from = to;
+            }
+        }
+        return drain(prioritizer, order);
+    }
+
+    private void check(TaskPrioritizer.Engine engine, int mode) {
+        String name = engine.name().toLowerCase() + ", "
+                + new String[] { "plain", "aging by resolves", "urgency inheritance" }[mode];
+        Graph graph = new Graph(new Random(seed), size);
+        String[] ways = { "in one call", "in chunks", "after a partly resolved prefix" };
+        for (int way = 0; way < ways.length; way++) {
+            int prefix = (way == 2) ? size / 3 : 0;
+            Random chunks = (way == 1) ? new Random(seed) : null;
+            TaskPrioritizer sequential = open(engine, mode);
+            TaskPrioritizer bulk = open(engine, mode);
+            List<String> want = load(sequential, graph, prefix, false, null);
+            List<String> got = load(bulk, graph, prefix, true, chunks);
+            if (!want.equals(got)) {
+                int at = 0;
+                while (at < Math.min(want.size(), got.size()) && want.get(at).equals(got.get(at))) {
+                    at++;
+                }
+                fail(name + ", " + ways[way] + ": resolve " + at + " of " + want.size() + " returned "
+                        + (at < got.size() ? got.get(at) : "nothing") + " instead of "
+                        + (at < want.size() ? want.get(at) : "nothing"));
+                return;
+            }
+            TaskPrioritizer.Metrics wantMetrics = sequential.metrics();
+            TaskPrioritizer.Metrics gotMetrics = bulk.metrics();
+            if (wantMetrics.blockedTasks != gotMetrics.blockedTasks
+                    || wantMetrics.placeholderTasks != gotMetrics.placeholderTasks) {
+                fail(name + ", " + ways[way] + ": " + gotMetrics.blockedTasks + " blocked and "
+                        + gotMetrics.placeholderTasks + " placeholders left instead of " + wantMetrics.blockedTasks
+                        + " and " + wantMetrics.placeholderTasks);
+                return;
+            }
+        }
+        System.out.println("PASS " + name + ": addAll() resolved like add() in all " + ways.length + " ways");
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        BulkAddCheck check = new BulkAddCheck(seed, size);
+        for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+            for (int mode = 0; mode < 3; mode++) {
+                check.check(engine, mode);
+            }
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
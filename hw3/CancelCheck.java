@@ -0,0 +1,268 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * CancelCheck runs a seeded mix of adds, resolves, leases, completions and
+ * cancels, with and without cascade, and checks each against a plain model
+ * of the graph. A cancel must report the number of tasks the model
+ * cancels: the task alone, or the task and every pending transitive
+ * dependent, and none for a task that is unknown, leased, resolved or
+ * already cancelled. Every resolve and lease must pick the ready task the
+ * model picks by scanning, so a cancelled ready task must have left the
+ * ready queue, and the dependents of a task cancelled without cascade must
+ * be released. Some tasks are added depending on cancelled ones, which
+ * counts as resolved.
+ *
+ * It also cancels a large cascade and keeps adding, and checks that the
+ * cancelled tasks are compacted out of the task table.
+ *
+ * Usage: CancelCheck [seed] [operations]
+ *
+ * The seed defaults to 1 and the number of operations to 8000. Exits with
+ * status 1 if any check fails.
+ */
+public class CancelCheck {
+    private static final int RECENT = 48;
+    private static final int MAX_LEASED = 3;
+
+    private final long seed;
+    private final int operations;
+    private int failures;
+
+    private CancelCheck(long seed, int operations) {
+        this.seed = seed;
+        this.operations = operations;
+    }
+
+    /**
+     * The graph as plain arrays, indexed by add order
+     */
+    private static final class Model {
+        final int[] urgencyLevels;
+        final List<List<Integer>> dependents = new ArrayList<>();
+        final int[] unresolvedCounts;
+        // Resolved or cancelled
+        final boolean[] done;
+        final boolean[] leased;
+        int size;
+        long cancelled;
+
+        Model(int capacity) {
+            urgencyLevels = new int[capacity];
+            unresolvedCounts = new int[capacity];
+            done = new boolean[capacity];
+            leased = new boolean[capacity];
+        }
+
+        void add(int urgencyLevel, int[] dependencies) {
+            int task = size++;
+            urgencyLevels[task] = urgencyLevel;
+            dependents.add(new ArrayList<>());
+            for (int dependency : dependencies) {
+                if (!done[dependency]) {
+                    dependents.get(dependency).add(task);
+                    unresolvedCounts[task]++;
+                }
+            }
+        }
+
+        void release(int task) {
+            done[task] = true;
+            leased[task] = false;
+            for (int dependent : dependents.get(task)) {
+                if (!done[dependent]) {
+                    unresolvedCounts[dependent]--;
+                }
+            }
+        }
+
+        int cancel(int task, boolean cascade) {
+            if (done[task] || leased[task]) {
+                return 0;
+            }
+            if (!cascade) {
+                release(task);
+                cancelled++;
+                return 1;
+            }
+            int count = 0;
+            List<Integer> stack = new ArrayList<>();
+            stack.add(task);
+            done[task] = true;
+            while (!stack.isEmpty()) {
+                int current = stack.remove(stack.size() - 1);
+                count++;
+                for (int dependent : dependents.get(current)) {
+                    if (!done[dependent]) {
+                        done[dependent] = true;
+                        stack.add(dependent);
+                    }
+                }
+            }
+            cancelled += count;
+            return count;
+        }
+
+        /**
+         * @return The add index of the most urgent ready task, or -1
+         */
+        int best() {
+            int best = -1;
+            for (int task = 0; task < size; task++) {
+                if (!done[task] && !leased[task] && unresolvedCounts[task] == 0
+                        && (best < 0 || urgencyLevels[task] > urgencyLevels[best])) {
+                    best = task;
+                }
+            }
+            return best;
+        }
+    }
+
+    private void checkModel(TaskPrioritizer.Engine engine) {
+        String name = engine.name().toLowerCase();
+        Random random = new Random(seed);
+        Model model = new Model(operations);
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine);
+        int[] recent = new int[RECENT];
+        List<Integer> leased = new ArrayList<>();
+        int cancels = 0;
+        int refused = 0;
+        for (int i = 0; i < operations; i++) {
+            int choice = random.nextInt(100);
+            int added = model.size;
+            if (choice < 45 || added == 0) {
+                int urgencyLevel = random.nextInt(30);
+                int[] dependencies = new int[Math.min(added, random.nextInt(4))];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencies[j] = recent[(added - 1 - random.nextInt(Math.min(added, RECENT))) % RECENT];
+                }
+                // A repeated dependency would count twice in the model
+                dependencies = Arrays.stream(dependencies).distinct().toArray();
+                String[] dependencyIds = new String[dependencies.length];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencyIds[j] = "T" + dependencies[j];
+                }
+                model.add(urgencyLevel, dependencies);
+                prioritizer.add("T" + added, urgencyLevel, dependencyIds);
+                recent[added % RECENT] = added;
+            } else if (choice < 65) {
+                boolean cascade = random.nextBoolean();
+                boolean unknown = random.nextInt(20) == 0;
+                int target = recent[random.nextInt(Math.min(added, RECENT))];
+                int want = unknown ? 0 : model.cancel(target, cascade);
+                int got = prioritizer.cancel(unknown ? "unknown" + i : "T" + target, cascade);
+                if (got != want) {
+                    fail(name + ": cancel(" + (unknown ? "an unknown taskId" : "T" + target) + ", " + cascade
+                            + ") cancelled " + got + " tasks instead of " + want);
+                    return;
+                }
+                if (want == 0) {
+                    refused++;
+                }
+                cancels++;
+            } else if (choice < 75 && leased.size() < MAX_LEASED) {
+                int want = model.best();
+                String got = prioritizer.lease();
+                if (!check(name + ": lease", want, got)) {
+                    return;
+                }
+                if (want >= 0) {
+                    model.leased[want] = true;
+                    leased.add(want);
+                }
+            } else if (choice < 85 && !leased.isEmpty()) {
+                int task = leased.remove(random.nextInt(leased.size()));
+                model.release(task);
+                if (!prioritizer.complete("T" + task)) {
+                    fail(name + ": complete(T" + task + ") returned false");
+                    return;
+                }
+            } else {
+                int want = model.best();
+                String got = prioritizer.resolve();
+                if (!check(name + ": resolve", want, got)) {
+                    return;
+                }
+                if (want >= 0) {
+                    model.release(want);
+                }
+            }
+        }
+        if (prioritizer.metrics().cancelledTasks != model.cancelled) {
+            fail(name + ": the metrics count " + prioritizer.metrics().cancelledTasks + " cancelled tasks instead of "
+                    + model.cancelled);
+            return;
+        }
+        System.out.println("PASS " + name + ": " + cancels + " cancels matched the model, " + refused
+                + " of them refused, and every pick after them");
+    }
+
+    private boolean check(String name, int want, String got) {
+        String wantId = (want < 0) ? null : "T" + want;
+        if (wantId == null ? got != null : !wantId.equals(got)) {
+            fail(name + " returned " + got + " instead of " + wantId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cancels chains of tasks through their roots, then keeps adding until
+     * compaction has run, and counts the entries left in the task table
+     */
+    private void checkReclaimed(TaskPrioritizer.Engine engine) {
+        String name = engine.name().toLowerCase() + ", reclaiming";
+        int chains = 1000;
+        int length = 200;
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine);
+        for (int c = 0; c < chains; c++) {
+            prioritizer.add("C" + c + "_0", 1, null);
+            for (int j = 1; j < length; j++) {
+                prioritizer.add("C" + c + "_" + j, 1, new String[] { "C" + c + "_" + (j - 1) });
+            }
+        }
+        long cancelled = 0;
+        for (int c = 0; c < chains; c++) {
+            cancelled += prioritizer.cancel("C" + c + "_0", true);
+        }
+        int live = chains * length / 2;
+        for (int i = 0; i < live; i++) {
+            prioritizer.add("L" + i, 1, null);
+        }
+        long[] chainLengths = prioritizer.metrics().chainLengthCounts;
+        long entries = 0;
+        for (int i = 1; i < chainLengths.length; i++) {
+            entries += i * chainLengths[i];
+        }
+        if (cancelled != (long) chains * length) {
+            fail(name + ": the cascades cancelled " + cancelled + " tasks instead of " + chains * length);
+        } else if (entries > live + live / 10) {
+            fail(name + ": the task table still holds at least " + entries + " entries for " + live
+                    + " live tasks after " + cancelled + " cancels");
+        } else {
+            System.out.println("PASS " + name + ": " + cancelled + " cancelled tasks left " + entries
+                    + " entries for " + live + " live tasks");
+        }
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 8000;
+        CancelCheck check = new CancelCheck(seed, operations);
+        for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+            check.checkModel(engine);
+            check.checkReclaimed(engine);
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,605 @@
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the tokens of a test case file straight from a memory-mapped view of
+ * its bytes. Integers are parsed digit by digit and punctuation is matched
+ * byte by byte, so the only objects created while reading are the Strings
+ * returned by next(). Files larger than a single mapping are read through a
+ * window that is remapped as the reader moves past its end. A parser can
+ * also read from a stream such as System.in, which cannot be mapped; it is
+ * then filled with plain reads instead.
+ *
+ * The same parser reads binary traces written by TraceWriter: startsWith()
+ * tells the two formats apart. Once the header of a mapped trace has been
+ * read, the varint methods decode straight from the mapping instead of the
+ * copied block, eight bytes at a time: one little-endian read takes in a
+ * whole varint, its length comes from the first byte with a clear high bit,
+ * and its seven-bit groups are packed together with shifts and masks, with
+ * no branch per byte. Only the last few bytes of a window are decoded a byte
+ * at a time. Streams are decoded from the copied block as before.
+ *
+ * Every homework directory carries an identical copy of this file, so that
+ * each compiles on its own; the bench build fails if the copies differ.
+ */
+class CaseParser implements Closeable {
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    // Set instead of the file when reading a stream
+    private final InputStream in;
+    private MappedByteBuffer window;
+    // File offset of the first byte of the window
+    private long windowStart;
+    // Bytes are copied out of the window a block at a time, since reading
+    // a plain array is much cheaper than reading the mapping byte by byte
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    // File offset of buffer[0]
+    private long bufferStart;
+    private int position;
+    private int limit;
+    private byte[] token = new byte[64];
+    // Set once the header of a mapped trace has been read; from then on
+    // cursor is the file offset of the next byte, and buffer is unused
+    private boolean direct;
+    private long cursor;
+
+    /**
+     * @param filepath The path to the test case file
+     *
+     * @throws FileNotFoundException if the file does not exist
+     */
+    CaseParser(String filepath) throws IOException {
+        this.file = new RandomAccessFile(filepath, "r");
+        this.channel = file.getChannel();
+        this.length = channel.size();
+        this.in = null;
+        map(0);
+    }
+
+    /**
+     * @param in The stream to read the test case from, which is not closed
+     *           with the parser
+     */
+    CaseParser(InputStream in) {
+        this.file = null;
+        this.channel = null;
+        this.length = -1;
+        this.in = in;
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, length - start));
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return The next byte of a mapped trace, consuming it, or -1 at the
+     *         end of the file
+     */
+    private int readDirect() {
+        if (cursor >= length) {
+            return -1;
+        }
+        if (cursor >= windowStart + window.limit()) {
+            try {
+                map(cursor);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not map trace file at byte " + cursor, e);
+            }
+        }
+        return window.get((int) (cursor++ - windowStart)) & 0xFF;
+    }
+
+    /**
+     * Packs the seven-bit groups of a varint of at most 5 bytes, held in the
+     * low bytes of word with every byte after it cleared
+     */
+    private static int packVarint(long word) {
+        return (int) ((word & 0x7FL) | ((word >>> 1) & 0x3F80L) | ((word >>> 2) & 0x1FC000L)
+                | ((word >>> 3) & 0xFE00000L) | ((word >>> 4) & 0xF0000000L));
+    }
+
+    /**
+     * Moves the buffer on to the bytes after it
+     *
+     * @return false at the end of the file
+     */
+    private boolean fill() {
+        long next = bufferStart + limit;
+        if (in != null) {
+            return fillFromStream(next);
+        }
+        if (next >= length) {
+            return false;
+        }
+        if (next >= windowStart + window.limit()) {
+            try {
+                map(next);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not map test case file at byte " + next, e);
+            }
+        }
+        int from = (int) (next - windowStart);
+        int count = Math.min(BUFFER_SIZE, window.limit() - from);
+        window.get(from, buffer, 0, count);
+        bufferStart = next;
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private boolean fillFromStream(long next) {
+        int count;
+        try {
+            count = in.read(buffer, 0, BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (count < 0) {
+            return false;
+        }
+        bufferStart = next;
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    /**
+     * @return The next byte without consuming it, or -1 at the end of the file
+     */
+    int peek() {
+        if (direct) {
+            if (cursor >= length) {
+                return -1;
+            }
+            int b = readDirect();
+            cursor--;
+            return b;
+        }
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private int read() {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private long offset() {
+        return direct ? cursor : bufferStart + position;
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+
+    /**
+     * Skips whitespace, including line breaks
+     */
+    void skipWhitespace() {
+        do {
+            byte[] bytes = buffer;
+            int p = position;
+            int end = limit;
+            while (p < end && isWhitespace(bytes[p])) {
+                p++;
+            }
+            position = p;
+            if (p < end) {
+                return;
+            }
+        } while (fill());
+    }
+
+    /**
+     * Skips whitespace up to the end of the current line
+     *
+     * @return true if nothing but whitespace is left on the line
+     */
+    boolean atLineEnd() {
+        int b;
+        while ((b = peek()) != -1 && b != '\n' && isWhitespace(b)) {
+            position++;
+        }
+        return b == -1 || b == '\n';
+    }
+
+    /**
+     * @return true if there is another token in the file
+     */
+    boolean hasNext() {
+        skipWhitespace();
+        return peek() != -1;
+    }
+
+    /**
+     * Reads an optionally signed decimal integer, skipping whitespace before it
+     */
+    int nextInt() {
+        skipWhitespace();
+        long start = offset();
+        boolean negative = false;
+        int b = peek();
+        if (b == '-' || b == '+') {
+            negative = (b == '-');
+            position++;
+            b = peek();
+        }
+        if (b < '0' || b > '9') {
+            throw new NoSuchElementException("Expected an integer at byte " + start);
+        }
+        // Accumulate negatively so that Integer.MIN_VALUE parses
+        long result = 0;
+        do {
+            byte[] bytes = buffer;
+            int p = position;
+            int end = limit;
+            while (p < end) {
+                int digit = bytes[p] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                result = result * 10 - digit;
+                if (result < Integer.MIN_VALUE) {
+                    throw new NumberFormatException("Integer out of range at byte " + start);
+                }
+                p++;
+            }
+            position = p;
+            if (p < end) {
+                break;
+            }
+        } while (fill());
+        b = peek();
+        if (b != -1 && !isWhitespace(b) && b != ',' && b != ')') {
+            throw new NoSuchElementException("Expected an integer at byte " + start);
+        }
+        if (!negative) {
+            if (result == Integer.MIN_VALUE) {
+                throw new NumberFormatException("Integer out of range at byte " + start);
+            }
+            result = -result;
+        }
+        return (int) result;
+    }
+
+    /**
+     * Reads the next whitespace-delimited token, skipping whitespace before it
+     */
+    String next() {
+        skipWhitespace();
+        byte[] bytes = buffer;
+        int from = position;
+        int p = from;
+        int end = limit;
+        boolean ascii = true;
+        while (p < end && !isWhitespace(bytes[p])) {
+            ascii &= bytes[p] >= 0;
+            p++;
+        }
+        if (p < end || (in == null && bufferStart + end == length)) {
+            // The whole token is in the buffer
+            if (p == from) {
+                throw new NoSuchElementException("Expected a token at byte " + offset());
+            }
+            position = p;
+            return new String(bytes, from, p - from, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        }
+        // The token runs past the buffer, so gather it a byte at a time
+        int count = 0;
+        int b;
+        while ((b = peek()) != -1 && !isWhitespace(b)) {
+            if (count == token.length) {
+                token = Arrays.copyOf(token, count * 2);
+            }
+            token[count++] = (byte) b;
+            ascii &= b < 0x80;
+            position++;
+        }
+        return new String(token, 0, count, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks whether the next bytes are the given ones, without consuming
+     * them. Only the bytes already buffered are looked at, which at the
+     * start of a file is always enough for a magic number.
+     */
+    boolean startsWith(byte[] prefix) {
+        if (peek() == -1 || limit - position < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[position + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consumes the header of a binary trace
+     *
+     * @param homework The homework the trace must be for
+     * @throws IllegalArgumentException if this is not a trace of the current
+     *                                  version for that homework
+     */
+    void expectTrace(int homework) {
+        expectHeader(TraceWriter.MAGIC, TraceWriter.VERSION);
+        int traceHomework = nextVarint();
+        if (traceHomework != homework) {
+            throw new IllegalArgumentException("Trace is for hw" + traceHomework + ", not hw" + homework);
+        }
+    }
+
+    /**
+     * Consumes the magic bytes and version that start a file in one of the
+     * varint formats TraceWriter writes
+     *
+     * @throws IllegalArgumentException if the file does not start with magic
+     *                                  or is of another version
+     */
+    void expectHeader(byte[] magic, int version) {
+        String format = new String(magic, StandardCharsets.US_ASCII);
+        if (!startsWith(magic)) {
+            throw new IllegalArgumentException("Not a binary " + format + " file");
+        }
+        position += magic.length;
+        if (in == null) {
+            cursor = offset();
+            direct = true;
+        }
+        int fileVersion = nextVarint();
+        if (fileVersion != version) {
+            throw new IllegalArgumentException("Unsupported " + format + " version " + fileVersion);
+        }
+    }
+
+    /**
+     * Reads a varint written by TraceWriter.writeVarint()
+     */
+    int nextVarint() {
+        if (direct) {
+            return nextVarintDirect();
+        }
+        byte[] bytes = buffer;
+        int p = position;
+        if (limit - p >= 5) {
+            // Fast path: the whole varint is buffered
+            int b = bytes[p++];
+            if (b >= 0) {
+                position = p;
+                return b;
+            }
+            int result = b & 0x7F;
+            int shift = 7;
+            do {
+                b = bytes[p++];
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0 && shift < 35);
+            if (b < 0) {
+                throw new NoSuchElementException("Malformed varint at byte " + (bufferStart + position));
+            }
+            position = p;
+            return result;
+        }
+        long start = offset();
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = read();
+            if (b == -1) {
+                throw new NoSuchElementException("Trace ends inside the varint at byte " + start);
+            }
+            result |= (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+        }
+        throw new NoSuchElementException("Malformed varint at byte " + start);
+    }
+
+    private int nextVarintDirect() {
+        MappedByteBuffer w = window;
+        int p = (int) (cursor - windowStart);
+        if (p <= w.limit() - 8) {
+            long word = w.getLong(p);
+            // One bit per byte that ends a varint; the lowest is this one's
+            // last byte
+            int bits = Long.numberOfTrailingZeros(~word & 0x8080808080808080L) + 1;
+            if (bits > 40) {
+                throw new NoSuchElementException("Malformed varint at byte " + cursor);
+            }
+            cursor += bits >>> 3;
+            return packVarint(word & (-1L >>> (64 - bits)));
+        }
+        long start = cursor;
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readDirect();
+            if (b == -1) {
+                throw new NoSuchElementException("Trace ends inside the varint at byte " + start);
+            }
+            result |= (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+        }
+        throw new NoSuchElementException("Malformed varint at byte " + start);
+    }
+
+    /**
+     * Reads a varint written by TraceWriter.writeSignedVarint()
+     */
+    int nextSignedVarint() {
+        int zigzag = nextVarint();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * Reads count varints written by TraceWriter.writeSignedVarint() into
+     * the start of values. Decoding a run of them in one loop keeps the
+     * buffer and position in registers, which roughly doubles throughput
+     * over calling nextSignedVarint() for each.
+     */
+    void nextSignedVarints(int[] values, int count) {
+        if (direct) {
+            nextSignedVarintsDirect(values, count);
+            return;
+        }
+        int i = 0;
+        while (i < count) {
+            byte[] bytes = buffer;
+            int p = position;
+            // Every varint is at most 5 bytes, so stop 5 short of the end
+            int safe = limit - 5;
+            while (i < count && p <= safe) {
+                int b = bytes[p++];
+                int zigzag = b & 0x7F;
+                if (b < 0) {
+                    int shift = 7;
+                    do {
+                        b = bytes[p++];
+                        zigzag |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0 && shift < 35);
+                    if (b < 0) {
+                        throw new NoSuchElementException("Malformed varint at byte " + (bufferStart + p));
+                    }
+                }
+                values[i++] = (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            position = p;
+            if (i < count) {
+                // Near the end of the buffer, where nextVarint() refills it
+                values[i++] = nextSignedVarint();
+            }
+        }
+    }
+
+    private void nextSignedVarintsDirect(int[] values, int count) {
+        int i = 0;
+        while (i < count) {
+            MappedByteBuffer w = window;
+            int p = (int) (cursor - windowStart);
+            // Every read takes 8 bytes, so stop 8 short of the end
+            int safe = w.limit() - 8;
+            while (i < count && p <= safe) {
+                long word = w.getLong(p);
+                int bits = Long.numberOfTrailingZeros(~word & 0x8080808080808080L) + 1;
+                if (bits > 40) {
+                    throw new NoSuchElementException("Malformed varint at byte " + (windowStart + p));
+                }
+                p += bits >>> 3;
+                int zigzag = packVarint(word & (-1L >>> (64 - bits)));
+                values[i++] = (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            cursor = windowStart + p;
+            if (i < count) {
+                // Near the end of the window, where nextVarint() remaps it
+                values[i++] = nextSignedVarint();
+            }
+        }
+    }
+
+    /**
+     * Reads a string written by TraceWriter.writeString()
+     */
+    String nextString() {
+        if (direct) {
+            return nextStringDirect();
+        }
+        int length = nextVarint();
+        if (limit - position >= length) {
+            String result = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return result;
+        }
+        if (token.length < length) {
+            token = new byte[Math.max(length, token.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            int b = read();
+            if (b == -1) {
+                throw new NoSuchElementException("Trace ends inside a string at byte " + offset());
+            }
+            token[i] = (byte) b;
+        }
+        return new String(token, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String nextStringDirect() {
+        int length = nextVarint();
+        if (token.length < length) {
+            token = new byte[Math.max(length, token.length * 2)];
+        }
+        int p = (int) (cursor - windowStart);
+        if (window.limit() - p >= length) {
+            window.get(p, token, 0, length);
+            cursor += length;
+        } else {
+            for (int i = 0; i < length; i++) {
+                int b = readDirect();
+                if (b == -1) {
+                    throw new NoSuchElementException("Trace ends inside a string at byte " + cursor);
+                }
+                token[i] = (byte) b;
+            }
+        }
+        return new String(token, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Consumes the given character, skipping whitespace before it
+     */
+    void expect(char c) {
+        skipWhitespace();
+        if (read() != c) {
+            throw new NoSuchElementException("Expected '" + c + "' at byte " + (offset() - 1));
+        }
+    }
+
+    /**
+     * Skips the next whitespace-delimited token
+     */
+    void skipToken() {
+        skipWhitespace();
+        int b;
+        while ((b = peek()) != -1 && !isWhitespace(b)) {
+            position++;
+        }
+    }
+
+    /**
+     * Skips the rest of the current line, including the line break
+     */
+    void skipLine() {
+        int b;
+        while ((b = read()) != -1 && b != '\n') {
+        }
+    }
+
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConcurrencyCheck stresses a TaskPrioritizer shared through ready stripes.
+ * One thread adds a seeded random task graph while worker threads lease and
+ * complete tasks, so adds take the graph lock exclusively while leases and
+ * completions hold it shared. Optionally the adding thread also cancels
+ * earlier tasks with cascade, and some tasks are delayed on a clock that a
+ * ticker thread advances, so they pass through the timing wheel. It checks
+ * that every task is leased at most once, never before its dependencies
+ * have completed nor before its start time, that every task not cancelled
+ * is leased, and that the metrics agree with what the threads saw.
+ *
+ * Before that, it checks on one thread that leasing and completing from a
+ * striped queue hands out tasks in exactly the order resolve() does on an
+ * unshared prioritizer, since lease() must stay strict.
+ *
+ * Usage: ConcurrencyCheck [seed] [tasks]
+ *
+ * The seed defaults to 1 and the number of tasks to 20000. Thread
+ * interleavings differ from run to run, but the graph, the urgencies, the
+ * cancellations and the start times depend on the seed alone. Exits with
+ * status 1 if any check fails.
+ */
+public class ConcurrencyCheck {
+    private static final int WORKERS = 4;
+    private static final int STRIPES = 4;
+    private static final long TIMEOUT_SECONDS = 60;
+    // Ticks of the manual clock are 1000 ns; delayed tasks start up to
+    // this far after they are added
+    private static final long MAX_DELAY = 200_000;
+
+    private final long seed;
+    private final int size;
+    private int failures;
+
+    private ConcurrencyCheck(long seed, int size) {
+        this.seed = seed;
+        this.size = size;
+    }
+
+    /**
+     * A random graph in which each task depends on up to 3 of the 64 tasks
+     * before it, with some tasks delayed and some cancelled after others
+     * are added
+     */
+    private static final class Graph {
+        final String[] taskIds;
+        final int[] urgencyLevels;
+        final String[][] dependencies;
+        // The delay after its add at which each task may start, or -1
+        final long[] delays;
+        // The task cancelled with cascade after each add, or -1
+        final int[] cancels;
+
+        Graph(Random random, int size, boolean delayed, boolean cancelling) {
+            taskIds = new String[size];
+            urgencyLevels = new int[size];
+            dependencies = new String[size][];
+            delays = new long[size];
+            cancels = new int[size];
+            for (int i = 0; i < size; i++) {
+                taskIds[i] = "T" + i;
+                urgencyLevels[i] = random.nextInt(100);
+                dependencies[i] = new String[Math.min(i, random.nextInt(4))];
+                for (int j = 0; j < dependencies[i].length; j++) {
+                    dependencies[i][j] = taskIds[i - 1 - random.nextInt(Math.min(i, 64))];
+                }
+                delays[i] = (delayed && random.nextInt(5) == 0) ? random.nextInt((int) MAX_DELAY) : -1;
+                cancels[i] = (cancelling && i > 0 && random.nextInt(50) == 0) ? random.nextInt(i) : -1;
+            }
+        }
+    }
+
+    /**
+     * Leases and completes a graph on one thread from a striped prioritizer
+     * and checks the order against resolve() on an unshared one
+     */
+    private void checkStrictOrder(TaskPrioritizer.Engine engine) {
+        String name = "strict lease order, " + engine.name().toLowerCase();
+        Graph graph = new Graph(new Random(seed), size, false, false);
+        TaskPrioritizer striped = new TaskPrioritizer(engine, STRIPES);
+        TaskPrioritizer single = new TaskPrioritizer(engine);
+        for (int i = 0; i < size; i++) {
+            striped.add(graph.taskIds[i], graph.urgencyLevels[i], graph.dependencies[i]);
+            single.add(graph.taskIds[i], graph.urgencyLevels[i], graph.dependencies[i]);
+        }
+        for (int i = 0; ; i++) {
+            String want = single.resolve();
+            String got = striped.lease();
+            if (want == null ? got != null : !want.equals(got)) {
+                fail(name + ": lease " + i + " returned " + got + " but resolve() returned " + want);
+                return;
+            }
+            if (want == null) {
+                break;
+            }
+            striped.complete(got);
+        }
+        System.out.println("PASS " + name + ": " + size + " tasks leased in resolve() order");
+    }
+
+    /**
+     * Runs the adding thread, the workers and, for delayed tasks, the
+     * ticker against one shared prioritizer, then checks what they saw
+     */
+    private void checkConcurrent(TaskPrioritizer.Engine engine, boolean delayed, boolean cancelling)
+            throws InterruptedException {
+        String name = "concurrent lease and complete, " + engine.name().toLowerCase()
+                + (delayed ? ", delayed tasks" : "") + (cancelling ? ", cascading cancels" : "");
+        Graph graph = new Graph(new Random(seed), size, delayed, cancelling);
+        Map<String, Integer> index = new ConcurrentHashMap<>();
+        for (int i = 0; i < size; i++) {
+            index.put(graph.taskIds[i], i);
+        }
+
+        AtomicLong now = new AtomicLong(1_000_000L);
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine, STRIPES);
+        prioritizer.setClock(now::get);
+        prioritizer.setTimerResolution(1000);
+
+        long[] notBefore = new long[size];
+        Set<String> leased = ConcurrentHashMap.newKeySet();
+        Set<String> finished = ConcurrentHashMap.newKeySet();
+        // Per leased task, the dependencies that had not completed when it
+        // was leased; only cancelled tasks may appear here
+        Map<String, List<String>> unfinishedDependencies = new ConcurrentHashMap<>();
+        List<String> problems = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger cancelled = new AtomicInteger();
+        AtomicBoolean added = new AtomicBoolean();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        Thread adder = new Thread(() -> {
+            for (int i = 0; i < size; i++) {
+                if (graph.delays[i] >= 0) {
+                    notBefore[i] = now.get() + graph.delays[i];
+                    prioritizer.add(graph.taskIds[i], graph.urgencyLevels[i], graph.dependencies[i], notBefore[i]);
+                } else {
+                    prioritizer.add(graph.taskIds[i], graph.urgencyLevels[i], graph.dependencies[i]);
+                }
+                if (graph.cancels[i] >= 0) {
+                    cancelled.addAndGet(prioritizer.cancel(graph.taskIds[graph.cancels[i]], true));
+                }
+            }
+            added.set(true);
+        }, "concurrency-check-adder");
+
+        Thread ticker = new Thread(() -> {
+            while (!stop.get()) {
+                now.addAndGet(1000);
+                Thread.yield();
+            }
+        }, "concurrency-check-ticker");
+
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < WORKERS; w++) {
+            workers.add(new Thread(() -> {
+                while (!stop.get()) {
+                    String taskId = prioritizer.lease();
+                    if (taskId == null) {
+                        if (added.get() && completed.get() + cancelled.get() == size) {
+                            return;
+                        }
+                        Thread.yield();
+                        continue;
+                    }
+                    // The clock only moves forward, so a task released on
+                    // time leaves it at or past the task's start
+                    long leasedAt = now.get();
+                    int i = index.get(taskId);
+                    if (!leased.add(taskId)) {
+                        problems.add(taskId + " was leased twice");
+                    }
+                    if (graph.delays[i] >= 0 && leasedAt < notBefore[i]) {
+                        problems.add(taskId + " was leased at " + leasedAt + ", before its start " + notBefore[i]);
+                    }
+                    for (String dependency : graph.dependencies[i]) {
+                        if (!finished.contains(dependency)) {
+                            unfinishedDependencies.computeIfAbsent(taskId, k -> new ArrayList<>()).add(dependency);
+                        }
+                    }
+                    finished.add(taskId);
+                    if (!prioritizer.complete(taskId)) {
+                        problems.add("complete(" + taskId + ") returned false");
+                    }
+                    completed.incrementAndGet();
+                }
+            }, "concurrency-check-worker-" + w));
+        }
+
+        adder.start();
+        if (delayed) {
+            ticker.start();
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        boolean timedOut = workers.stream().anyMatch(Thread::isAlive);
+        stop.set(true);
+        adder.join();
+        ticker.join();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (timedOut) {
+            fail(name + ": only " + completed.get() + " completed and " + cancelled.get() + " cancelled of " + size
+                    + " tasks after " + TIMEOUT_SECONDS + " s");
+            return;
+        }
+
+        // A dependency that had not completed when its dependent was leased
+        // is only allowed if it was cancelled before the dependent was
+        // added; had the dependent been added first, the cascade would have
+        // cancelled it too
+        int[] cancelledAt = cancelledAt(graph);
+        for (Map.Entry<String, List<String>> entry : unfinishedDependencies.entrySet()) {
+            for (String dependency : entry.getValue()) {
+                int d = index.get(dependency);
+                if (leased.contains(dependency) || cancelledAt[d] < 0 || cancelledAt[d] >= index.get(entry.getKey())) {
+                    problems.add(entry.getKey() + " was leased before its dependency " + dependency + " completed");
+                }
+            }
+        }
+        TaskPrioritizer.Metrics metrics = prioritizer.metrics();
+        if (metrics.resolvedTasks != completed.get() || metrics.cancelledTasks != cancelled.get()
+                || metrics.readyTasks != 0 || metrics.leasedTasks != 0 || metrics.blockedTasks != 0
+                || metrics.delayedTasks != 0) {
+            problems.add("the metrics show " + metrics.resolvedTasks + " resolved, " + metrics.cancelledTasks
+                    + " cancelled, " + metrics.readyTasks + " ready, " + metrics.leasedTasks + " leased, "
+                    + metrics.blockedTasks + " blocked and " + metrics.delayedTasks + " delayed after "
+                    + completed.get() + " completions and " + cancelled.get() + " cancellations");
+        }
+        if (!problems.isEmpty()) {
+            fail(name + ": " + problems.get(0) + " (" + problems.size() + " problems)");
+        } else {
+            System.out.println("PASS " + name + ": " + completed.get() + " completed, " + cancelled.get()
+                    + " cancelled");
+        }
+    }
+
+    /**
+     * @return For each task, the first add after which a cascading cancel
+     *         could have reached it through tasks added by then, or -1
+     */
+    private static int[] cancelledAt(Graph graph) {
+        int size = graph.taskIds.length;
+        int[] cancelledAt = new int[size];
+        Arrays.fill(cancelledAt, -1);
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            index.put(graph.taskIds[i], i);
+        }
+        boolean[] reached = new boolean[size];
+        for (int k = 0; k < size; k++) {
+            int target = graph.cancels[k];
+            if (target < 0) {
+                continue;
+            }
+            Arrays.fill(reached, target, k + 1, false);
+            reached[target] = true;
+            for (int j = target; j <= k; j++) {
+                for (String dependency : graph.dependencies[j]) {
+                    reached[j] |= reached[index.get(dependency)];
+                }
+                if (reached[j] && cancelledAt[j] < 0) {
+                    cancelledAt[j] = k;
+                }
+            }
+        }
+        return cancelledAt;
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        ConcurrencyCheck check = new ConcurrencyCheck(seed, size);
+        for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+            check.checkStrictOrder(engine);
+            check.checkConcurrent(engine, false, false);
+            check.checkConcurrent(engine, false, true);
+            check.checkConcurrent(engine, true, false);
+            check.checkConcurrent(engine, true, true);
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
@@ -1,8 +1,13 @@
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
 
 class OperationType {
     public static final int ADD = 1;
@@ -12,11 +17,11 @@ class OperationType {
 
 class Operation {
     int type;
-    Integer urgency;
+    int urgency;
     String taskId;
     String[] dependencies;
 
-    Operation(int type, String taskId, Integer urgency, String[] dependencies) {
+    Operation(int type, String taskId, int urgency, String[] dependencies) {
         this.type = type;
         this.urgency = urgency;
         this.taskId = taskId;
@@ -51,119 +56,493 @@ class Operation {
 }
 
 class TestCase {
-    Operation[] operations;
+    // The operations, one entry per operation: its type, 0 if invalid, its
+    // taskId and urgency for adds and updates, and its dependencies for
+    // adds. Plain arrays rather than an Operation each, so that loading
+    // millions of them creates no objects for the garbage collector to copy.
+    int[] operationTypes;
+    String[] operationTaskIds;
+    int[] operationUrgencies;
+    String[][] operationDependencies;
     String[] expected;
+    // The most entries of each list that toString() prints
+    static final int PRINT_LIMIT = 1000;
+    // Reused across adds, which copy out just the dependencies they read
+    private String[] dependencyBuffer = new String[16];
 
-    Operation readAdd(Scanner scanner) {
-        String[] lineStrings = scanner.nextLine().split(" ");
-        String taskId = lineStrings[1];
-        Integer urgency = Integer.parseInt(lineStrings[2]);
+    // Reads operations one at a time, for Evaluator.runStreaming()
+    TestCase() {
+    }
 
-        String[] dependencies = new String[lineStrings.length - 3];
+    Operation readAdd(CaseParser parser) {
+        String taskId = parser.next();
+        int urgency = parser.nextInt();
 
-        for (int i = 3; i < lineStrings.length; i++) {
-            dependencies[i - 3] = lineStrings[i];
+        int count = 0;
+        while (!parser.atLineEnd()) {
+            if (count == dependencyBuffer.length) {
+                dependencyBuffer = Arrays.copyOf(dependencyBuffer, 2 * count);
+            }
+            dependencyBuffer[count++] = parser.next();
         }
 
-        return new Operation(1, taskId, urgency, dependencies);
+        return new Operation(1, taskId, urgency, Arrays.copyOf(dependencyBuffer, count));
     }
 
-    Operation readUpdate(Scanner scanner) {
-        String[] lineStrings = scanner.nextLine().split(" ");
-        String taskId = lineStrings[1];
-        Integer urgency = Integer.parseInt(lineStrings[2]);
+    Operation readUpdate(CaseParser parser) {
+        String taskId = parser.next();
+        int urgency = parser.nextInt();
         return new Operation(2, taskId, urgency, null);
     }
 
-    Operation readOperation(Scanner scanner) {
-        int type = scanner.nextInt();
+    Operation readOperation(CaseParser parser) {
+        int type = parser.nextInt();
         switch (type) {
             case 1:
-                return readAdd(scanner);
+                return readAdd(parser);
             case 2:
-                return readUpdate(scanner);
+                return readUpdate(parser);
             case 3:
-                return new Operation(type, null, null, null);
+                return new Operation(type, null, 0, null);
             default:
                 return null;
         }
     }
 
+    /**
+     * Reads a test case from a text file, or from a binary trace (see
+     * TraceWriter) with the counts M, K and D, then a dictionary of the D
+     * distinct strings in the case, then each operation as its type followed
+     * by its arguments, then the K expected outputs. Task ids and outputs
+     * are written as their index in the dictionary, so each is decoded once
+     * however often it appears, and urgencies as signed varints. An add
+     * writes its dependency count before the dependencies.
+     */
     TestCase(String filepath) {
-        try (Scanner scanner = new Scanner(new File(filepath))) {
-            int numOps = scanner.nextInt();
-            operations = new Operation[numOps];
+        try (CaseParser parser = new CaseParser(filepath)) {
+            if (parser.startsWith(TraceWriter.MAGIC)) {
+                readTrace(parser);
+                return;
+            }
+            int numOps = parser.nextInt();
+            allocateOperations(numOps);
             for (int i = 0; i < numOps; i++) {
-                operations[i] = readOperation(scanner);
+                Operation operation = readOperation(parser);
+                if (operation != null) {
+                    operationTypes[i] = operation.type;
+                    operationTaskIds[i] = operation.taskId;
+                    operationUrgencies[i] = operation.urgency;
+                    operationDependencies[i] = operation.dependencies;
+                }
             }
-            int numOutputs = scanner.nextInt();
+            int numOutputs = parser.nextInt();
             expected = new String[numOutputs];
-            int k = 0;
-            while (k < numOutputs) {
-                String line = scanner.nextLine();
-                String[] lineStrings = scanner.nextLine().split(" ");
-                for (int i = 0; i < lineStrings.length; i++) {
-                    expected[k++] = lineStrings[i];
-                }
+            for (int k = 0; k < numOutputs; k++) {
+                expected[k] = parser.next();
             }
         } catch (FileNotFoundException e) {
             System.out.println("Testcase file not found: " + filepath);
             throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    public String toString() {
-        String result = "";
-        result += "Operations[" + operations.length + "]:{\n";
-        for (Operation op : operations) {
-            result += "  " + op.toString() + "\n";
+    // Adds without dependencies share one empty array; nothing changes the
+    // dependencies of an add once read
+    private static final String[] NO_DEPENDENCIES = new String[0];
+
+    private void allocateOperations(int numOps) {
+        operationTypes = new int[numOps];
+        operationTaskIds = new String[numOps];
+        operationUrgencies = new int[numOps];
+        operationDependencies = new String[numOps][];
+    }
+
+    /**
+     * @return The ith operation
+     */
+    Operation operation(int i) {
+        return new Operation(operationTypes[i], operationTaskIds[i], operationUrgencies[i], operationDependencies[i]);
+    }
+
+    /**
+     * Reads the dictionary of a binary trace, which follows the counts
+     */
+    static String[] readDictionary(CaseParser parser) {
+        String[] dictionary = new String[parser.nextVarint()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = parser.nextString();
+        }
+        return dictionary;
+    }
+
+    /**
+     * Reads one operation of a binary trace, resolving its strings through
+     * the dictionary
+     *
+     * @return The operation, or null if it is not valid
+     */
+    static Operation readTraceOperation(CaseParser parser, String[] dictionary) {
+        int type = parser.nextVarint();
+        if (type == 3) {
+            return new Operation(3, null, 0, null);
+        }
+        if (type != 1 && type != 2) {
+            return null;
+        }
+        String taskId = dictionary[parser.nextVarint()];
+        int urgency = parser.nextSignedVarint();
+        String[] dependencies = null;
+        if (type == 1) {
+            int count = parser.nextVarint();
+            dependencies = (count == 0) ? NO_DEPENDENCIES : new String[count];
+            for (int j = 0; j < count; j++) {
+                dependencies[j] = dictionary[parser.nextVarint()];
+            }
+        }
+        return new Operation(type, taskId, urgency, dependencies);
+    }
+
+    private void readTrace(CaseParser parser) {
+        parser.expectTrace(3);
+        int numOps = parser.nextVarint();
+        int numOutputs = parser.nextVarint();
+        String[] dictionary = readDictionary(parser);
+        allocateOperations(numOps);
+        for (int i = 0; i < numOps; i++) {
+            int type = parser.nextVarint();
+            if (type == 1 || type == 2) {
+                operationTypes[i] = type;
+                operationTaskIds[i] = dictionary[parser.nextVarint()];
+                operationUrgencies[i] = parser.nextSignedVarint();
+            } else if (type == 3) {
+                operationTypes[i] = type;
+            }
+            if (type == 1) {
+                int count = parser.nextVarint();
+                String[] dependencies = (count == 0) ? NO_DEPENDENCIES : new String[count];
+                for (int j = 0; j < count; j++) {
+                    dependencies[j] = dictionary[parser.nextVarint()];
+                }
+                operationDependencies[i] = dependencies;
+            }
+        }
+        expected = new String[numOutputs];
+        for (int k = 0; k < numOutputs; k++) {
+            expected[k] = dictionary[parser.nextVarint()];
+        }
+    }
+
+    /**
+     * Writes the test case as a binary trace, in the layout the constructor
+     * reads
+     */
+    void writeTrace(String filepath) throws IOException {
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        for (int i = 0; i < operationTypes.length; i++) {
+            if (operationTaskIds[i] != null) {
+                index(operationTaskIds[i], indexes, dictionary);
+                if (operationDependencies[i] != null) {
+                    for (String dependency : operationDependencies[i]) {
+                        index(dependency, indexes, dictionary);
+                    }
+                }
+            }
         }
-        result += "}\n";
-        result += "Expected[" + expected.length + "]:{\n";
         for (String output : expected) {
-            result += "  " + output + "\n";
+            index(output, indexes, dictionary);
+        }
+        try (TraceWriter out = new TraceWriter(filepath, 3)) {
+            out.writeVarint(operationTypes.length);
+            out.writeVarint(expected.length);
+            out.writeVarint(dictionary.size());
+            for (String string : dictionary) {
+                out.writeString(string);
+            }
+            for (int i = 0; i < operationTypes.length; i++) {
+                // Invalid operations were read as type 0, and read back so
+                int type = operationTypes[i];
+                out.writeVarint(type);
+                if (type == 0 || type == 3) {
+                    continue;
+                }
+                out.writeVarint(indexes.get(operationTaskIds[i]));
+                out.writeSignedVarint(operationUrgencies[i]);
+                if (type == 1) {
+                    out.writeVarint(operationDependencies[i].length);
+                    for (String dependency : operationDependencies[i]) {
+                        out.writeVarint(indexes.get(dependency));
+                    }
+                }
+            }
+            for (String output : expected) {
+                out.writeVarint(indexes.get(output));
+            }
+        }
+    }
+
+    private static void index(String string, Map<String, Integer> indexes, List<String> dictionary) {
+        if (indexes.putIfAbsent(string, dictionary.size()) == null) {
+            dictionary.add(string);
+        }
+    }
+
+    /**
+     * Returns a string representation of the test case, with each list cut
+     * off after its first PRINT_LIMIT entries
+     */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("Operations[").append(operationTypes.length).append("]:{\n");
+        appendLines(result, operationTypes.length, this::operation);
+        result.append("}\n");
+        result.append("Expected[").append(expected.length).append("]:{\n");
+        appendLines(result, expected.length, i -> expected[i]);
+        result.append("}\n");
+        return result.toString();
+    }
+
+    private static void appendLines(StringBuilder result, int count, IntFunction<Object> line) {
+        for (int i = 0; i < Math.min(count, PRINT_LIMIT); i++) {
+            result.append("  ").append(line.apply(i)).append('\n');
+        }
+        if (count > PRINT_LIMIT) {
+            result.append("  ... ").append(count - PRINT_LIMIT).append(" more\n");
         }
-        result += "}\n";
-        return result;
     }
 }
 
 public class Evaluator {
 
+    private static TaskPrioritizer.Engine engine = TaskPrioritizer.Engine.BINARY_HEAP;
+    private static boolean stream = false;
+
+    // Names of the operation types, indexed by type
+    private static final String[] OPERATION_NAMES = { null, "add", "update", "resolve" };
+    // Latency of each operation type, indexed by type; null unless
+    // --latency was given
+    private static LatencyHistogram[] latencies;
+    // Where --alloc=FILE writes the allocation profile of each test case;
+    // null unless it was given
+    private static String allocationReport;
+    private static final List<AllocationProfile> allocationProfiles = new ArrayList<>();
+    // The profile of the running test case, if allocations are being profiled
+    private static AllocationProfile allocations;
+
     private TaskPrioritizer taskPrioritizer;
 
-    public boolean runOperations(Operation[] operations, String[] expected) {
-        ArrayList<String> results = new ArrayList<String>();
-        int i = 0;
-        for (Operation op : operations) {
-            switch (op.type) {
+    /**
+     * Counts the next operation towards its type's allocations, if
+     * allocations are being profiled; type 0 is the constructor
+     */
+    private static void countAllocation(int type) {
+        if (allocations != null) {
+            allocations.enter(type);
+        }
+    }
+
+    private static long startTime() {
+        return (latencies != null) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since start against an operation type, if latencies
+     * are being recorded
+     */
+    private static void recordLatency(int type, long start) {
+        if (latencies != null) {
+            latencies[type].record(System.nanoTime() - start);
+        }
+    }
+
+    public boolean runOperations(TestCase testCase) {
+        int[] types = testCase.operationTypes;
+        String[] taskIds = testCase.operationTaskIds;
+        int[] urgencies = testCase.operationUrgencies;
+        String[] expected = testCase.expected;
+        int resolves = 0;
+        for (int i = 0; i < types.length; i++) {
+            countAllocation(types[i]);
+            long start = startTime();
+            switch (types[i]) {
                 case 1:
-                    taskPrioritizer.add(op.taskId, op.urgency, op.dependencies);
+                    taskPrioritizer.add(taskIds[i], urgencies[i], testCase.operationDependencies[i]);
+                    recordLatency(1, start);
                     break;
                 case 2:
-                    taskPrioritizer.update(op.taskId, op.urgency);
+                    taskPrioritizer.update(taskIds[i], urgencies[i]);
+                    recordLatency(2, start);
                     break;
                 case 3:
-                    results.add(taskPrioritizer.resolve());
-
-                    if (!results.get(results.size() - 1).equals(expected[results.size() - 1])) {
-                        String message = "Test failed at operation " + i + ": expected " + expected[results.size() - 1]
-                                + " but got " + results.get(results.size() - 1);
-                        System.out.println(message);
+                    // A null result prints as "null", as in runStreaming()
+                    String result = String.valueOf(taskPrioritizer.resolve());
+                    recordLatency(3, start);
+                    if (resolves < expected.length && !result.equals(expected[resolves])) {
+                        System.out.println("Test failed at operation " + i + ": expected " + expected[resolves]
+                                + " but got " + result);
                         return false;
                     }
+                    resolves++;
                     break;
                 default:
-                    throw new IllegalArgumentException("Invalid operation type: " + op.type);
+                    throw new IllegalArgumentException("Invalid operation type: " + types[i]);
             }
-            i++;
+        }
+        if (resolves != expected.length) {
+            System.out.println("Test failed: expected " + expected.length + " outputs but got " + resolves);
+            return false;
         }
         return true;
     }
 
     public boolean runTestCase(TestCase testCase) {
-        taskPrioritizer = new TaskPrioritizer();
-        return runOperations(testCase.operations, testCase.expected);
+        countAllocation(0);
+        taskPrioritizer = new TaskPrioritizer(engine);
+        return runOperations(testCase);
+    }
+
+    /**
+     * Reads past the operations of a test case to the number of expected
+     * outputs, which the parser returns next
+     */
+    static int skipToExpected(CaseParser parser) {
+        int numOps = parser.nextInt();
+        for (int i = 0; i < numOps; i++) {
+            if (parser.nextInt() != 3) {
+                parser.skipLine();
+            }
+        }
+        return parser.nextInt();
+    }
+
+    /**
+     * Reads past the dictionary and operations of a binary trace to its
+     * expected outputs, which the parser returns next as dictionary indexes
+     */
+    static void skipTraceToExpected(CaseParser parser, String[] dictionary) {
+        parser.expectTrace(3);
+        int numOps = parser.nextVarint();
+        parser.nextVarint();
+        int size = parser.nextVarint();
+        for (int i = 0; i < size; i++) {
+            parser.nextString();
+        }
+        for (int i = 0; i < numOps; i++) {
+            TestCase.readTraceOperation(parser, dictionary);
+        }
+    }
+
+    /**
+     * Runs a test case while reading it, without building a TestCase, so that
+     * memory does not grow with the number of operations. Reading a file, a
+     * second parser follows the expected outputs and each resolve is checked
+     * as soon as it returns. Reading System.in ("-"), the expected outputs
+     * only arrive after the last operation, so both sides are compared
+     * through an OutputDigest instead. Binary traces are streamed too; only
+     * their dictionary is held in memory.
+     */
+    public boolean runStreaming(String path) {
+        countAllocation(0);
+        taskPrioritizer = new TaskPrioritizer(engine);
+        boolean fromStdin = path.equals("-");
+        try (CaseParser parser = fromStdin ? new CaseParser(System.in) : new CaseParser(path);
+                CaseParser expected = fromStdin ? null : new CaseParser(path)) {
+            String[] dictionary = null;
+            int numOps;
+            int numOutputs = 0;
+            int expectedCount = -1;
+            if (parser.startsWith(TraceWriter.MAGIC)) {
+                parser.expectTrace(3);
+                numOps = parser.nextVarint();
+                numOutputs = parser.nextVarint();
+                dictionary = TestCase.readDictionary(parser);
+                if (expected != null) {
+                    skipTraceToExpected(expected, dictionary);
+                    expectedCount = numOutputs;
+                }
+            } else {
+                expectedCount = (expected == null) ? -1 : skipToExpected(expected);
+                numOps = parser.nextInt();
+            }
+            TestCase reader = new TestCase();
+            OutputDigest produced = new OutputDigest();
+            int resolves = 0;
+            for (int i = 0; i < numOps; i++) {
+                Operation op = (dictionary != null) ? TestCase.readTraceOperation(parser, dictionary)
+                        : reader.readOperation(parser);
+                if (op == null) {
+                    throw new IllegalArgumentException("Invalid operation at index " + i);
+                }
+                countAllocation(op.type);
+                long start = startTime();
+                switch (op.type) {
+                    case 1:
+                        taskPrioritizer.add(op.taskId, op.urgency, op.dependencies);
+                        recordLatency(1, start);
+                        break;
+                    case 2:
+                        taskPrioritizer.update(op.taskId, op.urgency);
+                        recordLatency(2, start);
+                        break;
+                    case 3:
+                        String result = String.valueOf(taskPrioritizer.resolve());
+                        recordLatency(3, start);
+                        if (expected == null) {
+                            produced.add(result.hashCode());
+                        } else if (resolves < expectedCount) {
+                            String expectedResult = (dictionary != null) ? dictionary[expected.nextVarint()]
+                                    : expected.next();
+                            if (!result.equals(expectedResult)) {
+                                System.out.println("Test failed at operation " + i + ": expected " + expectedResult
+                                        + " but got " + result);
+                                return false;
+                            }
+                        }
+                        resolves++;
+                        break;
+                }
+            }
+
+            if (dictionary == null) {
+                numOutputs = parser.nextInt();
+            }
+            if (resolves != numOutputs) {
+                System.out.println("Test failed: expected " + numOutputs + " outputs but got " + resolves);
+                return false;
+            }
+            if (expected == null) {
+                OutputDigest wanted = new OutputDigest();
+                for (int k = 0; k < numOutputs; k++) {
+                    String output = (dictionary != null) ? dictionary[parser.nextVarint()] : parser.next();
+                    wanted.add(output.hashCode());
+                }
+                if (!produced.matches(wanted)) {
+                    System.out.println("Test failed: outputs do not match the expected outputs");
+                    return false;
+                }
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            System.out.println("Testcase file not found: " + path);
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Converts a text test case into a binary trace
+     */
+    private static void convert(String textPath, String tracePath) {
+        try {
+            new TestCase(textPath).writeTrace(tracePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println(String.format("Wrote %s: %.1f MB from %.1f MB of text", tracePath,
+                new File(tracePath).length() / 1e6, new File(textPath).length() / 1e6));
     }
 
     public static void main(String[] args) {
@@ -171,10 +550,82 @@ public class Evaluator {
             System.out.println("No testcase file provided");
             return;
         }
+        // Binary traces are read like text files, and
+        // "--convert case.txt case.trace" writes one
+        if (args[0].equals("--convert")) {
+            if (args.length != 3) {
+                System.out.println("Usage: java Evaluator --convert case.txt case.trace");
+                return;
+            }
+            convert(args[1], args[2]);
+            return;
+        }
 
+        CaseRunner runner = null;
         for (String path : args) {
+            if (path.startsWith("--engine=")) {
+                engine = TaskPrioritizer.Engine.valueOf(path.substring("--engine=".length()).toUpperCase());
+                continue;
+            }
+            // Files after --stream, and "-" for System.in, are run with
+            // runStreaming() instead of being loaded whole
+            if (path.equals("--stream")) {
+                stream = true;
+                continue;
+            }
+            // After --latency, each test case is followed by a table of
+            // latency percentiles for each operation type
+            if (path.equals("--latency")) {
+                latencies = new LatencyHistogram[OPERATION_NAMES.length];
+                continue;
+            }
+            // --alloc=FILE writes the bytes each operation type allocated in
+            // every test case to FILE as JSON
+            if (path.startsWith("--alloc=")) {
+                allocationReport = path.substring("--alloc=".length());
+                continue;
+            }
+            // Files after --jobs=N are run N at a time, each with its own
+            // TaskPrioritizer, and followed by a summary of every case
+            if (path.startsWith("--jobs=")) {
+                runner = new CaseRunner(Integer.parseInt(path.substring("--jobs=".length())));
+                continue;
+            }
             File file = new File(path);
-            processTestFile(file);
+            if (runner != null) {
+                queueTestFile(file, runner);
+            } else {
+                processTestFile(file);
+            }
+        }
+        if (runner != null) {
+            if ((latencies != null || allocationReport != null) && runner.threads() > 1) {
+                throw new IllegalArgumentException("--latency and --alloc need --jobs=1");
+            }
+            runner.runAll();
+        }
+        if (allocationReport != null) {
+            AllocationProfile.write(allocationReport, allocationProfiles);
+            System.out.println("Wrote allocation profile to " + allocationReport);
+        }
+    }
+
+    private static void queueTestFile(File file, CaseRunner runner) {
+        List<String> paths = CaseRunner.expand(file.getPath());
+        if (paths.isEmpty()) {
+            System.out.println("Processing file: " + file.getPath());
+            System.out.println("No files found in directory: " + file.getPath());
+            return;
+        }
+        boolean verbose = !file.isDirectory();
+        for (int i = 0; i < paths.size(); i++) {
+            boolean first = (i == 0);
+            runner.add(paths.get(i), p -> {
+                if (first) {
+                    System.out.println("Processing file: " + file.getPath());
+                }
+                return runSingleTest(p, verbose);
+            });
         }
     }
 
@@ -195,13 +646,40 @@ public class Evaluator {
         }
     }
 
-    private static void runSingleTest(String path, boolean verbose) {
-        TestCase testCase = new TestCase(path);
-        if (verbose) {
-            System.out.println(testCase.toString());
+    /**
+     * @return true if the test case passed
+     */
+    private static boolean runSingleTest(String path, boolean verbose) {
+        if (latencies != null) {
+            for (int type = 1; type < latencies.length; type++) {
+                latencies[type] = new LatencyHistogram();
+            }
+        }
+        if (allocationReport != null) {
+            allocations = new AllocationProfile(path, OPERATION_NAMES);
+        }
+        boolean passed;
+        long startTime;
+        try {
+            if (stream || path.equals("-")) {
+                // Parsing is part of the run, so it is part of the runtime too
+                startTime = System.currentTimeMillis();
+                passed = new Evaluator().runStreaming(path);
+            } else {
+                TestCase testCase = new TestCase(path);
+                if (verbose) {
+                    System.out.println(testCase.toString());
+                }
+                startTime = System.currentTimeMillis();
+                passed = new Evaluator().runTestCase(testCase);
+            }
+        } finally {
+            if (allocations != null) {
+                allocations.finish();
+                allocationProfiles.add(allocations);
+                allocations = null;
+            }
         }
-        long startTime = System.currentTimeMillis();
-        boolean passed = new Evaluator().runTestCase(testCase);
         long endTime = System.currentTimeMillis();
         long runtime = endTime - startTime;
         String fileName = new File(path).getName();
@@ -210,5 +688,9 @@ public class Evaluator {
 
         System.out.println(String.format("| %-60s | %-10s | %-8dms |", fileName, status, runtime));
         System.out.println("+" + "-".repeat(62) + "+" + "-".repeat(12) + "+" + "-".repeat(12) + "+");
+        if (latencies != null) {
+            System.out.print(LatencyHistogram.table(OPERATION_NAMES, latencies));
+        }
+        return passed;
     }
 }
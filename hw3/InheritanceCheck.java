@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * InheritanceCheck runs a seeded mix of adds, updates, cancels and
+ * resolves on a prioritizer with urgency inheritance, and checks every
+ * resolve against a plain model of the graph. Before each pick, the model
+ * recomputes every task's effective urgency from scratch as the greatest
+ * urgency among the task and all of its transitive dependents that are
+ * still pending, then scans the ready tasks: highest effective urgency
+ * first, then earliest added. Updates both raise and lower urgencies, and
+ * cancels with and without cascade remove dependents, so inherited
+ * urgencies must spread along new edges and fall back when their source
+ * goes away. It also checks the number of tasks each cancel reports.
+ *
+ * Usage: InheritanceCheck [seed] [operations]
+ *
+ * The seed defaults to 1 and the number of operations to 6000. Exits with
+ * status 1 if any check fails.
+ */
+public class InheritanceCheck {
+    private static final int RECENT = 48;
+
+    private final long seed;
+    private final int operations;
+    private int failures;
+
+    private InheritanceCheck(long seed, int operations) {
+        this.seed = seed;
+        this.operations = operations;
+    }
+
+    /**
+     * The graph as plain arrays, indexed by add order
+     */
+    private static final class Model {
+        final int[] urgencyLevels;
+        final List<List<Integer>> dependents = new ArrayList<>();
+        final int[] unresolvedCounts;
+        // Resolved or cancelled
+        final boolean[] done;
+        final int[] effective;
+        int size;
+
+        Model(int capacity) {
+            urgencyLevels = new int[capacity];
+            unresolvedCounts = new int[capacity];
+            done = new boolean[capacity];
+            effective = new int[capacity];
+        }
+
+        void add(int urgencyLevel, int[] dependencies) {
+            int task = size++;
+            urgencyLevels[task] = urgencyLevel;
+            dependents.add(new ArrayList<>());
+            for (int dependency : dependencies) {
+                if (!done[dependency]) {
+                    dependents.get(dependency).add(task);
+                    unresolvedCounts[task]++;
+                }
+            }
+        }
+
+        void release(int task) {
+            done[task] = true;
+            for (int dependent : dependents.get(task)) {
+                if (!done[dependent]) {
+                    unresolvedCounts[dependent]--;
+                }
+            }
+        }
+
+        int cancel(int task, boolean cascade) {
+            if (done[task]) {
+                return 0;
+            }
+            if (!cascade) {
+                release(task);
+                return 1;
+            }
+            int cancelled = 0;
+            int[] stack = { task };
+            int top = 1;
+            done[task] = true;
+            while (top > 0) {
+                int current = stack[--top];
+                cancelled++;
+                for (int dependent : dependents.get(current)) {
+                    if (!done[dependent]) {
+                        done[dependent] = true;
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = dependent;
+                    }
+                }
+            }
+            return cancelled;
+        }
+
+        /**
+         * Dependents are always added after their dependencies, so one pass
+         * from the newest task back gives every transitive maximum
+         */
+        private void computeEffective() {
+            for (int task = size - 1; task >= 0; task--) {
+                int urgency = urgencyLevels[task];
+                for (int dependent : dependents.get(task)) {
+                    if (!done[dependent]) {
+                        urgency = Math.max(urgency, effective[dependent]);
+                    }
+                }
+                effective[task] = urgency;
+            }
+        }
+
+        /**
+         * @return The add index of the resolved task, or -1 if none is ready
+         */
+        int resolve() {
+            computeEffective();
+            int best = -1;
+            for (int task = 0; task < size; task++) {
+                if (!done[task] && unresolvedCounts[task] == 0 && (best < 0 || effective[task] > effective[best])) {
+                    best = task;
+                }
+            }
+            if (best >= 0) {
+                release(best);
+            }
+            return best;
+        }
+    }
+
+    private void check(TaskPrioritizer.Engine engine) {
+        String name = engine.name().toLowerCase();
+        Random random = new Random(seed);
+        Model model = new Model(operations);
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine);
+        prioritizer.setUrgencyInheritance(true);
+        int[] recent = new int[RECENT];
+        int resolves = 0;
+        int inherited = 0;
+        int cancels = 0;
+        for (int i = 0; i < operations; i++) {
+            int choice = random.nextInt(100);
+            int added = model.size;
+            if (choice < 45 || added == 0) {
+                int urgencyLevel = random.nextInt(30);
+                int[] dependencies = new int[Math.min(added, random.nextInt(4))];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencies[j] = recent[(added - 1 - random.nextInt(Math.min(added, RECENT))) % RECENT];
+                }
+                // A repeated dependency would count twice in the model
+                dependencies = Arrays.stream(dependencies).distinct().toArray();
+                String[] dependencyIds = new String[dependencies.length];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencyIds[j] = "T" + dependencies[j];
+                }
+                model.add(urgencyLevel, dependencies);
+                prioritizer.add("T" + added, urgencyLevel, dependencyIds);
+                recent[added % RECENT] = added;
+                continue;
+            }
+            int target = recent[random.nextInt(Math.min(added, RECENT))];
+            if (choice < 65) {
+                // Mostly small moves, so lowered urgencies are often still
+                // covered by what a dependent passes down
+                int urgencyLevel = Math.max(0, model.urgencyLevels[target] + random.nextInt(21) - 10);
+                if (!model.done[target]) {
+                    model.urgencyLevels[target] = urgencyLevel;
+                }
+                prioritizer.update("T" + target, urgencyLevel);
+            } else if (choice < 70) {
+                boolean cascade = random.nextBoolean();
+                int want = model.cancel(target, cascade);
+                int got = prioritizer.cancel("T" + target, cascade);
+                if (got != want) {
+                    fail(name + ": cancel(T" + target + ", " + cascade + ") cancelled " + got + " tasks instead of "
+                            + want);
+                    return;
+                }
+                cancels++;
+            } else {
+                int want = model.resolve();
+                String got = prioritizer.resolve();
+                String wantId = (want < 0) ? null : "T" + want;
+                if (wantId == null ? got != null : !wantId.equals(got)) {
+                    fail(name + ": resolve " + resolves + " returned " + got + " instead of " + wantId
+                            + ((want < 0) ? "" : ", whose effective urgency is " + model.effective[want]));
+                    return;
+                }
+                if (want >= 0 && model.effective[want] > model.urgencyLevels[want]) {
+                    inherited++;
+                }
+                resolves++;
+            }
+        }
+        System.out.println("PASS " + name + ": " + resolves + " resolves matched the model, " + inherited
+                + " of them by an inherited urgency, with " + cancels + " cancels");
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 6000;
+        InheritanceCheck check = new InheritanceCheck(seed, operations);
+        for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+            check.check(engine);
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
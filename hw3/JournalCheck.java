@@ -0,0 +1,477 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * JournalCheck runs a journaled TaskPrioritizer through a seeded workload
+ * of every mutating call, with a snapshot part way through, then recovers
+ * a second prioritizer from a copy of the journal directory and checks
+ * that both resolve the same tasks in the same order from there on. It
+ * repeats this for each engine, with and without ready stripes, and with
+ * no aging, aging by resolves and aging by time on a manually advanced
+ * clock.
+ *
+ * From the same journal it also checks that recovering from a fresh
+ * snapshot matches replaying the log after the older one, that a log torn
+ * part way through a batch or with a corrupted batch recovers to the last
+ * good batch and takes new records after it, and, once, that records are
+ * written in CRC-checked batches of recordsPerCommit records, and that
+ * taskIds compacted out of the task table survive a snapshot as resolved.
+ *
+ * Usage: JournalCheck [seed] [operations]
+ *
+ * The seed defaults to 1 and the number of operations to 20000. Exits with
+ * status 1 if any check fails.
+ */
+public class JournalCheck {
+    private static final int URGENCY_RANGE = 64;
+    private static final int RECENT = 256;
+
+    private final long seed;
+    private final int operations;
+    private final Path root;
+    private int failures;
+    // The manual clock shared by every prioritizer of a check
+    private long now;
+
+    private JournalCheck(long seed, int operations, Path root) {
+        this.seed = seed;
+        this.operations = operations;
+        this.root = root;
+    }
+
+    /**
+     * The settings a prioritizer of one check is built with; recovery must
+     * use the same ones
+     */
+    private static final class Setup {
+        final TaskPrioritizer.Engine engine;
+        final int stripes;
+        final long agingPeriod;
+        final boolean agingByTime;
+
+        Setup(TaskPrioritizer.Engine engine, int stripes, long agingPeriod, boolean agingByTime) {
+            this.engine = engine;
+            this.stripes = stripes;
+            this.agingPeriod = agingPeriod;
+            this.agingByTime = agingByTime;
+        }
+
+        public String toString() {
+            String aging = (agingPeriod == 0) ? "no aging"
+                    : "aging by " + (agingByTime ? "time" : "resolves") + " every " + agingPeriod;
+            return engine.name().toLowerCase() + ", " + stripes + " stripes, " + aging;
+        }
+    }
+
+    private TaskPrioritizer open(Setup setup, TaskJournal journal) throws IOException {
+        TaskPrioritizer prioritizer = new TaskPrioritizer(setup.engine, setup.stripes);
+        prioritizer.setClock(() -> now);
+        prioritizer.setTimerResolution(1000);
+        if (setup.agingPeriod != 0) {
+            if (setup.agingByTime) {
+                prioritizer.setAgingByTime(setup.agingPeriod);
+            } else {
+                prioritizer.setAgingByResolves(setup.agingPeriod);
+            }
+        }
+        prioritizer.attachJournal(journal);
+        return prioritizer;
+    }
+
+    /**
+     * Runs the workload against a journaled prioritizer, recovers a copy and
+     * compares what both resolve afterwards
+     */
+    private void checkRecovery(Setup setup) throws IOException {
+        now = 1_000_000L;
+        Path original = Files.createTempDirectory(root, "original");
+        try (TaskJournal journal = new TaskJournal(original, 16, -1)) {
+            TaskPrioritizer prioritizer = open(setup, journal);
+            List<String> leased = run(prioritizer, new Random(seed));
+            // Leased tasks come back ready, so finish them before the copy
+            for (String taskId : leased) {
+                prioritizer.complete(taskId);
+            }
+            journal.flush();
+
+            Path logged = copyDirectory(original);
+            Path replayed = copyDirectory(original);
+            checkTornTail(setup, original);
+            prioritizer.snapshot();
+            Path snapshotted = copyDirectory(original);
+            try (TaskJournal copyJournal = new TaskJournal(logged, 16, -1)) {
+                compare("recovery with " + setup, prioritizer, open(setup, copyJournal));
+            }
+            try (TaskJournal replayedJournal = new TaskJournal(replayed, 16, -1);
+                    TaskJournal snapshotJournal = new TaskJournal(snapshotted, 16, -1)) {
+                compare("snapshot then replay with " + setup, open(setup, replayedJournal),
+                        open(setup, snapshotJournal));
+            }
+        }
+    }
+
+    /**
+     * Recovers copies of a flushed journal whose log is cut part way through
+     * its last batch, cut to a few header bytes, or has a byte of a middle
+     * batch flipped, and checks each against a copy cut where its first bad
+     * batch starts. A task added after recovery must survive the next one,
+     * so each torn copy is recovered twice.
+     */
+    private void checkTornTail(Setup setup, Path original) throws IOException {
+        List<Long> boundaries = batchBoundaries(walFile(original));
+        int batches = boundaries.size() - 1;
+        if (batches < 3) {
+            fail("torn tail with " + setup + ": only " + batches + " batches were written");
+            return;
+        }
+        Random random = new Random(seed);
+        long lastStart = boundaries.get(batches - 1);
+        long lastEnd = boundaries.get(batches);
+        checkTornCopy("log torn inside its last batch with " + setup, setup, original, lastStart,
+                log -> log.truncate(lastStart + 1 + random.nextInt((int) (lastEnd - lastStart - 1))));
+        checkTornCopy("log torn inside a batch header with " + setup, setup, original, lastStart,
+                log -> log.truncate(lastStart + 1 + random.nextInt(7)));
+        int middle = batches / 2;
+        long middleStart = boundaries.get(middle);
+        long middleEnd = boundaries.get(middle + 1);
+        checkTornCopy("corrupted middle batch with " + setup, setup, original, middleStart, log -> {
+            // Flip a byte past the header, so the length still reads right
+            // and only the checksum catches it
+            long at = middleStart + 8 + random.nextInt((int) (middleEnd - middleStart - 8));
+            ByteBuffer b = ByteBuffer.allocate(1);
+            log.read(b, at);
+            b.put(0, (byte) (b.get(0) ^ 0x10));
+            b.rewind();
+            log.write(b, at);
+        });
+    }
+
+    private interface LogDamage {
+        void apply(FileChannel log) throws IOException;
+    }
+
+    private void checkTornCopy(String name, Setup setup, Path original, long goodEnd, LogDamage damage)
+            throws IOException {
+        Path reference = copyDirectory(original);
+        try (FileChannel log = FileChannel.open(walFile(reference), StandardOpenOption.WRITE)) {
+            log.truncate(goodEnd);
+        }
+        Path torn = copyDirectory(original);
+        try (FileChannel log = FileChannel.open(walFile(torn), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            damage.apply(log);
+        }
+        try (TaskJournal referenceJournal = new TaskJournal(reference, 16, -1)) {
+            TaskPrioritizer expected = open(setup, referenceJournal);
+            try (TaskJournal tornJournal = new TaskJournal(torn, 16, -1)) {
+                TaskPrioritizer actual = open(setup, tornJournal);
+                if (Files.size(walFile(torn)) != goodEnd) {
+                    fail(name + ": recovery left " + Files.size(walFile(torn)) + " bytes of log instead of "
+                            + goodEnd);
+                    return;
+                }
+                expected.add("after-recovery", URGENCY_RANGE, null);
+                actual.add("after-recovery", URGENCY_RANGE, null);
+            }
+            try (TaskJournal againJournal = new TaskJournal(torn, 16, -1)) {
+                compare(name, expected, open(setup, againJournal));
+            }
+        }
+    }
+
+    /**
+     * Checks, on a journal of its own, that records reach the log only in
+     * whole batches of recordsPerCommit records, each with a good checksum,
+     * and that flush() writes a partial batch. With stripes, batches are
+     * written after the graph lock is let go, but still before the call
+     * that sealed them returns.
+     */
+    private void checkGroupCommit(int stripes) throws IOException {
+        Path directory = Files.createTempDirectory(root, "group");
+        Setup setup = new Setup(TaskPrioritizer.Engine.BINARY_HEAP, stripes, 0, false);
+        try (TaskJournal journal = new TaskJournal(directory, 16, -1)) {
+            TaskPrioritizer prioritizer = open(setup, journal);
+            for (int i = 0; i < 15; i++) {
+                prioritizer.add("G" + i, i, null);
+            }
+            int after15 = batchBoundaries(walFile(directory)).size() - 1;
+            prioritizer.add("G15", 15, null);
+            int after16 = batchBoundaries(walFile(directory)).size() - 1;
+            for (int i = 16; i < 19; i++) {
+                prioritizer.add("G" + i, i, null);
+            }
+            journal.flush();
+            List<Long> boundaries = batchBoundaries(walFile(directory));
+            if (after15 != 0 || after16 != 1 || boundaries.size() - 1 != 2) {
+                fail("group commit with " + stripes + " stripes: " + after15 + ", " + after16 + " and " + (boundaries.size() - 1)
+                        + " batches after 15, 16 and 19 records and a flush, instead of 0, 1 and 2");
+                return;
+            }
+            if (boundaries.get(2) != Files.size(walFile(directory))) {
+                fail("group commit with " + stripes + " stripes: the log has bytes past its last batch");
+                return;
+            }
+            try (TaskJournal copyJournal = new TaskJournal(copyDirectory(directory), 16, -1)) {
+                compare("group commit with " + stripes + " stripes", prioritizer, open(setup, copyJournal));
+            }
+        }
+    }
+
+    /**
+     * Resolves enough tasks for the task table to compact them away, then
+     * snapshots and recovers a copy. In both, a re-added taskId that was
+     * compacted must be ignored and a dependency on one must count as
+     * resolved, and no unknown taskId may be taken for a compacted one.
+     */
+    private void checkCompactedKeys() throws IOException {
+        Path directory = Files.createTempDirectory(root, "compacted");
+        Setup setup = new Setup(TaskPrioritizer.Engine.BINARY_HEAP, 0, 0, false);
+        int count = 150_000;
+        // Long and non-Latin-1 taskIds take other paths through the key store
+        char[] longId = new char[70_000];
+        Arrays.fill(longId, 'L');
+        String[] odd = { new String(longId), "\u4efb\u52a1-1", "" };
+        try (TaskJournal journal = new TaskJournal(directory, 16, -1)) {
+            TaskPrioritizer prioritizer = open(setup, journal);
+            for (String taskId : odd) {
+                prioritizer.add(taskId, 0, null);
+            }
+            for (int i = 0; i < count; i++) {
+                prioritizer.add("K" + i, 0, null);
+            }
+            for (int i = 0; i < count + odd.length; i++) {
+                prioritizer.resolve();
+            }
+            prioritizer.snapshot();
+            try (TaskJournal copyJournal = new TaskJournal(copyDirectory(directory), 16, -1)) {
+                TaskPrioritizer recovered = open(setup, copyJournal);
+                String[] probes = { "K0", "K" + (count - 1), odd[0], odd[1], odd[2], "K" + count, "L", "K01" };
+                for (TaskPrioritizer p : new TaskPrioritizer[] { prioritizer, recovered }) {
+                    for (int i = 0; i < probes.length; i++) {
+                        p.add(probes[i], URGENCY_RANGE, null);
+                        p.add("D" + i, 0, new String[] { probes[i] });
+                    }
+                }
+                // Only the new taskIds are added, and they release their
+                // dependents; the rest are ready at once
+                String[] expected = { "K" + count, "L", "K01", "D0", "D1", "D2", "D3", "D4", "D5", "D6", "D7" };
+                expectOrder("compacted keys", prioritizer, expected);
+                expectOrder("compacted keys after recovery", recovered, expected);
+            }
+        }
+    }
+
+    private void expectOrder(String name, TaskPrioritizer prioritizer, String[] expected) {
+        List<String> resolved = new ArrayList<>();
+        for (String taskId = prioritizer.resolve(); taskId != null; taskId = prioritizer.resolve()) {
+            resolved.add(taskId);
+        }
+        for (int i = 0; i <= expected.length; i++) {
+            String want = (i < expected.length) ? expected[i] : null;
+            String got = (i < resolved.size()) ? resolved.get(i) : null;
+            if (want == null ? got != null : !want.equals(got)) {
+                fail(name + ": resolve " + i + " returned " + shorten(got) + " instead of " + shorten(want));
+                return;
+            }
+        }
+        System.out.println("PASS " + name + ": " + resolved.size() + " tasks resolved in the expected order");
+    }
+
+    private static String shorten(String taskId) {
+        return (taskId == null || taskId.length() <= 20) ? taskId : taskId.substring(0, 20) + "...";
+    }
+
+    /**
+     * @return The offset of every batch in a log, then the end of the last
+     *         one, stopping at the first batch that is cut short or fails
+     *         its checksum
+     */
+    private static List<Long> batchBoundaries(Path log) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(log));
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        CRC32 crc = new CRC32();
+        while (bytes.remaining() >= 8) {
+            int length = bytes.getInt();
+            int checksum = bytes.getInt();
+            if (length < 0 || length > bytes.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(bytes.array(), bytes.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            bytes.position(bytes.position() + length);
+            boundaries.add((long) bytes.position());
+        }
+        return boundaries;
+    }
+
+    /**
+     * @return The log of the newest generation in a journal directory
+     */
+    private static Path walFile(Path directory) throws IOException {
+        Path newest = null;
+        long generation = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long g = Long.parseLong(name.substring(4, name.length() - 4));
+                if (g > generation) {
+                    generation = g;
+                    newest = file;
+                }
+            }
+        }
+        if (newest == null) {
+            throw new IOException("No log in " + directory);
+        }
+        return newest;
+    }
+
+    /**
+     * Makes every mutating call in proportions loosely like a task queue's,
+     * advancing the clock between calls and taking a snapshot half way
+     *
+     * @return The taskIds leased and not yet completed
+     */
+    private List<String> run(TaskPrioritizer prioritizer, Random random) throws IOException {
+        String[] recent = new String[RECENT];
+        List<String> leased = new ArrayList<>();
+        int added = 0;
+        for (int i = 0; i < operations; i++) {
+            now += random.nextInt(5000);
+            if (i == operations / 2) {
+                prioritizer.snapshot();
+            }
+            int choice = random.nextInt(100);
+            if (choice < 45 || added == 0) {
+                String taskId = "T" + added;
+                String[] dependencies = new String[Math.min(added, random.nextInt(4))];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencies[j] = recent[(added - 1 - random.nextInt(Math.min(added, RECENT))) % RECENT];
+                }
+                // A taskId that is never added leaves a placeholder that
+                // blocks its dependents for good, so a task that waits on
+                // one is kept out of the recent tasks others depend on
+                boolean blocked = dependencies.length > 0 && random.nextInt(50) == 0;
+                if (blocked) {
+                    dependencies[0] = "P" + added;
+                }
+                if (random.nextInt(20) == 0) {
+                    prioritizer.add(taskId, random.nextInt(URGENCY_RANGE), dependencies,
+                            now + random.nextInt(50_000));
+                } else {
+                    prioritizer.add(taskId, random.nextInt(URGENCY_RANGE), dependencies);
+                }
+                recent[added % RECENT] = blocked ? recent[(added - 1) % RECENT] : taskId;
+                added++;
+            } else if (choice < 55) {
+                prioritizer.update(recent[random.nextInt(Math.min(added, RECENT))], random.nextInt(URGENCY_RANGE));
+            } else if (choice < 72) {
+                prioritizer.resolve();
+            } else if (choice < 84) {
+                String taskId = prioritizer.lease();
+                if (taskId != null) {
+                    leased.add(taskId);
+                }
+            } else if (choice < 97) {
+                if (!leased.isEmpty()) {
+                    prioritizer.complete(leased.remove(random.nextInt(leased.size())));
+                }
+            } else {
+                prioritizer.cancel(recent[random.nextInt(Math.min(added, RECENT))], random.nextBoolean());
+            }
+        }
+        return leased;
+    }
+
+    /**
+     * Resolves everything left in both prioritizers and records a failure
+     * at the first taskId where they differ
+     */
+    private void compare(String name, TaskPrioritizer expected, TaskPrioritizer actual) {
+        int resolved = 0;
+        while (true) {
+            String want = expected.resolve();
+            String got = actual.resolve();
+            if (want == null ? got != null : !want.equals(got)) {
+                fail(name + ": resolve " + resolved + " returned " + got + " but the original returned " + want);
+                return;
+            }
+            if (want == null) {
+                break;
+            }
+            resolved++;
+        }
+        TaskPrioritizer.Metrics want = expected.metrics();
+        TaskPrioritizer.Metrics got = actual.metrics();
+        if (want.blockedTasks != got.blockedTasks || want.delayedTasks != got.delayedTasks
+                || want.placeholderTasks != got.placeholderTasks || want.resolvedTasks != got.resolvedTasks
+                || want.cancelledTasks != got.cancelledTasks) {
+            fail(name + ": metrics differ after resolving " + resolved + " tasks");
+            return;
+        }
+        System.out.println("PASS " + name + ": " + resolved + " tasks resolved in the same order");
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    private Path copyDirectory(Path from) throws IOException {
+        Path to = Files.createTempDirectory(root, "copy");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(from)) {
+            for (Path file : files) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+        return to;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        Path root = Files.createTempDirectory("journal-check");
+        JournalCheck check = new JournalCheck(seed, operations, root);
+        try {
+            check.checkGroupCommit(0);
+            check.checkGroupCommit(2);
+            check.checkCompactedKeys();
+            for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+                for (int stripes : new int[] { 0, 2 }) {
+                    check.checkRecovery(new Setup(engine, stripes, 0, false));
+                    check.checkRecovery(new Setup(engine, stripes, 8, false));
+                    check.checkRecovery(new Setup(engine, stripes, 20_000, true));
+                }
+            }
+        } finally {
+            deleteDirectory(root);
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
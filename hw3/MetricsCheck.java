@@ -0,0 +1,354 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * MetricsCheck checks the task counts TaskPrioritizer.metrics() reports.
+ * It first walks a small graph with a placeholder, a delayed task, a lease
+ * and both kinds of cancel through known states and checks every count
+ * against the values worked out by hand. It then runs a seeded mix of
+ * adds, resolves, leases, completions and cancels, some naming
+ * dependencies that are never added, and after each operation checks the
+ * ready, blocked, leased, resolved, cancelled and placeholder counts
+ * against a plain model of the graph. Both runs use the plain and the
+ * striped ready queue.
+ *
+ * Finally it checks that the latency and fan-out histograms sample one
+ * call in every Metrics.SAMPLE_INTERVAL, and stay empty once sampling is
+ * turned off, without changing any count.
+ *
+ * Usage: MetricsCheck [seed] [operations]
+ *
+ * The seed defaults to 1 and the number of operations to 6000. Exits with
+ * status 1 if any check fails.
+ */
+public class MetricsCheck {
+    private static final int RECENT = 48;
+    private static final int MAX_LEASED = 3;
+    private static final long RESOLUTION = 1000;
+
+    private final long seed;
+    private final int operations;
+    private int failures;
+    private long now;
+
+    private MetricsCheck(long seed, int operations) {
+        this.seed = seed;
+        this.operations = operations;
+    }
+
+    /**
+     * Compares ready, blocked, delayed, placeholder, leased, resolved and
+     * cancelled counts, in that order
+     */
+    private boolean expect(String name, TaskPrioritizer prioritizer, long... want) {
+        TaskPrioritizer.Metrics metrics = prioritizer.metrics();
+        long[] got = { metrics.readyTasks, metrics.blockedTasks, metrics.delayedTasks, metrics.placeholderTasks,
+                metrics.leasedTasks, metrics.resolvedTasks, metrics.cancelledTasks };
+        String[] labels = { "ready", "blocked", "delayed", "placeholder", "leased", "resolved", "cancelled" };
+        for (int i = 0; i < got.length; i++) {
+            if (got[i] != want[i]) {
+                fail(name + ": " + got[i] + " " + labels[i] + " tasks instead of " + want[i] + " in " + metrics);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A(5) is ready; B(3) and C(4) wait on A, C also on the placeholder X;
+     * D(1) waits for its start time; E(2) waits on B
+     */
+    private void checkKnownGraph(boolean striped) {
+        String name = "known graph" + (striped ? ", ready stripes" : "");
+        now = 10 * RESOLUTION;
+        TaskPrioritizer prioritizer = new TaskPrioritizer(TaskPrioritizer.Engine.BINARY_HEAP, striped ? 2 : 0);
+        prioritizer.setClock(() -> now);
+        prioritizer.setTimerResolution(RESOLUTION);
+        prioritizer.add("A", 5, null);
+        prioritizer.add("B", 3, new String[] { "A" });
+        prioritizer.add("C", 4, new String[] { "A", "X" });
+        prioritizer.add("D", 1, null, now + 5 * RESOLUTION);
+        prioritizer.add("E", 2, new String[] { "B" });
+        if (!expect(name + ", after the adds", prioritizer, 1, 4, 1, 1, 0, 0, 0)) {
+            return;
+        }
+        prioritizer.lease();
+        if (!expect(name + ", after leasing A", prioritizer, 0, 4, 1, 1, 1, 0, 0)) {
+            return;
+        }
+        prioritizer.complete("A");
+        if (!expect(name + ", after completing A", prioritizer, 1, 3, 1, 1, 0, 1, 0)) {
+            return;
+        }
+        // A placeholder is not a task, so cancelling it only releases C
+        prioritizer.cancel("X", false);
+        if (!expect(name + ", after cancelling X", prioritizer, 2, 2, 1, 0, 0, 1, 0)) {
+            return;
+        }
+        prioritizer.cancel("E", true);
+        if (!expect(name + ", after cancelling E", prioritizer, 2, 1, 1, 0, 0, 1, 1)) {
+            return;
+        }
+        now += 5 * RESOLUTION;
+        String first = prioritizer.resolve();
+        if (!"C".equals(first)) {
+            fail(name + ": resolve returned " + first + " instead of C");
+            return;
+        }
+        if (!expect(name + ", after D's start time", prioritizer, 2, 0, 0, 0, 0, 2, 1)) {
+            return;
+        }
+        prioritizer.resolve();
+        prioritizer.resolve();
+        if (!expect(name + ", after resolving the rest", prioritizer, 0, 0, 0, 0, 0, 4, 1)) {
+            return;
+        }
+        System.out.println("PASS " + name + ": every count matched at 7 known states");
+    }
+
+    /**
+     * The graph as plain lists, indexed by first mention. A placeholder is
+     * a dependency named before, and never, added.
+     */
+    private static final class Model {
+        final Map<String, Integer> indexes = new HashMap<>();
+        final List<String> taskIds = new ArrayList<>();
+        final List<List<Integer>> dependents = new ArrayList<>();
+        final List<Integer> unresolvedCounts = new ArrayList<>();
+        final List<Boolean> placeholders = new ArrayList<>();
+        // Resolved or cancelled
+        final List<Boolean> done = new ArrayList<>();
+        final List<Boolean> leased = new ArrayList<>();
+        long resolved;
+        long cancelled;
+
+        private int node(String taskId, boolean placeholder) {
+            Integer index = indexes.get(taskId);
+            if (index != null) {
+                return index;
+            }
+            indexes.put(taskId, taskIds.size());
+            taskIds.add(taskId);
+            dependents.add(new ArrayList<>());
+            unresolvedCounts.add(0);
+            placeholders.add(placeholder);
+            done.add(false);
+            leased.add(false);
+            return taskIds.size() - 1;
+        }
+
+        void add(String taskId, String[] dependencies) {
+            int task = node(taskId, false);
+            for (String dependencyId : dependencies) {
+                int dependency = node(dependencyId, true);
+                if (!done.get(dependency)) {
+                    dependents.get(dependency).add(task);
+                    unresolvedCounts.set(task, unresolvedCounts.get(task) + 1);
+                }
+            }
+        }
+
+        void release(int task) {
+            done.set(task, true);
+            leased.set(task, false);
+            for (int dependent : dependents.get(task)) {
+                if (!done.get(dependent)) {
+                    unresolvedCounts.set(dependent, unresolvedCounts.get(dependent) - 1);
+                }
+            }
+        }
+
+        private void count(int task) {
+            if (!placeholders.get(task)) {
+                cancelled++;
+            }
+        }
+
+        void cancel(String taskId, boolean cascade) {
+            Integer index = indexes.get(taskId);
+            if (index == null || done.get(index) || leased.get(index)) {
+                return;
+            }
+            if (!cascade) {
+                release(index);
+                count(index);
+                return;
+            }
+            List<Integer> stack = new ArrayList<>();
+            stack.add(index);
+            done.set(index, true);
+            while (!stack.isEmpty()) {
+                int current = stack.remove(stack.size() - 1);
+                count(current);
+                for (int dependent : dependents.get(current)) {
+                    if (!done.get(dependent)) {
+                        done.set(dependent, true);
+                        stack.add(dependent);
+                    }
+                }
+            }
+        }
+
+        boolean isReady(int task) {
+            return !placeholders.get(task) && !done.get(task) && !leased.get(task) && unresolvedCounts.get(task) == 0;
+        }
+
+        long[] counts() {
+            long ready = 0;
+            long blocked = 0;
+            long placeholderCount = 0;
+            long leasedCount = 0;
+            for (int task = 0; task < taskIds.size(); task++) {
+                if (done.get(task)) {
+                    continue;
+                }
+                if (placeholders.get(task)) {
+                    placeholderCount++;
+                } else if (leased.get(task)) {
+                    leasedCount++;
+                } else if (unresolvedCounts.get(task) == 0) {
+                    ready++;
+                } else {
+                    blocked++;
+                }
+            }
+            return new long[] { ready, blocked, 0, placeholderCount, leasedCount, resolved, cancelled };
+        }
+    }
+
+    private void checkModel(boolean striped) {
+        String name = "random graph" + (striped ? ", ready stripes" : "");
+        Random random = new Random(seed);
+        Model model = new Model();
+        TaskPrioritizer prioritizer = new TaskPrioritizer(TaskPrioritizer.Engine.BINARY_HEAP, striped ? 2 : 0);
+        String[] recent = new String[RECENT];
+        List<String> leased = new ArrayList<>();
+        int added = 0;
+        int missing = 0;
+        for (int i = 0; i < operations; i++) {
+            int choice = random.nextInt(100);
+            String operation;
+            if (choice < 45 || added == 0) {
+                String taskId = "T" + added;
+                String[] dependencies = new String[Math.min(added, random.nextInt(4))];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencies[j] = (random.nextInt(30) == 0) ? "X" + missing++
+                            : recent[(added - 1 - random.nextInt(Math.min(added, RECENT))) % RECENT];
+                }
+                // A repeated dependency would count twice in the model
+                dependencies = Arrays.stream(dependencies).distinct().toArray(String[]::new);
+                model.add(taskId, dependencies);
+                prioritizer.add(taskId, random.nextInt(30), dependencies);
+                recent[added++ % RECENT] = taskId;
+                operation = "add(" + taskId + ")";
+            } else if (choice < 60) {
+                boolean cascade = random.nextBoolean();
+                String taskId = (random.nextInt(4) == 0 && missing > 0) ? "X" + random.nextInt(missing)
+                        : recent[random.nextInt(Math.min(added, RECENT))];
+                model.cancel(taskId, cascade);
+                prioritizer.cancel(taskId, cascade);
+                operation = "cancel(" + taskId + ", " + cascade + ")";
+            } else if (choice < 70 && leased.size() < MAX_LEASED) {
+                String taskId = prioritizer.lease();
+                if (taskId != null) {
+                    model.leased.set(model.indexes.get(taskId), true);
+                    leased.add(taskId);
+                }
+                operation = "lease() of " + taskId;
+            } else if (choice < 80 && !leased.isEmpty()) {
+                String taskId = leased.remove(random.nextInt(leased.size()));
+                model.release(model.indexes.get(taskId));
+                model.resolved++;
+                prioritizer.complete(taskId);
+                operation = "complete(" + taskId + ")";
+            } else {
+                String taskId = prioritizer.resolve();
+                if (taskId != null) {
+                    int index = model.indexes.get(taskId);
+                    if (!model.isReady(index)) {
+                        fail(name + ": resolve returned " + taskId + ", which is not ready");
+                        return;
+                    }
+                    model.release(index);
+                    model.resolved++;
+                }
+                operation = "resolve() of " + taskId;
+            }
+            if (!expect(name + ", after operation " + i + ", " + operation, prioritizer, model.counts())) {
+                return;
+            }
+        }
+        long[] counts = model.counts();
+        System.out.println("PASS " + name + ": every count matched the model after " + operations
+                + " operations, ending with " + counts[0] + " ready, " + counts[1] + " blocked and " + counts[3]
+                + " placeholders");
+    }
+
+    private static long sum(long[] histogram) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Runs the same chain with sampling on and off, and compares the
+     * histogram totals with the calls each one samples
+     */
+    private void checkSampling() {
+        String name = "sampling";
+        int calls = 10 * TaskPrioritizer.Metrics.SAMPLE_INTERVAL + 3;
+        long wantSamples = (calls + TaskPrioritizer.Metrics.SAMPLE_INTERVAL - 1) / TaskPrioritizer.Metrics.SAMPLE_INTERVAL;
+        TaskPrioritizer.Metrics[] results = new TaskPrioritizer.Metrics[2];
+        for (int run = 0; run < 2; run++) {
+            TaskPrioritizer prioritizer = new TaskPrioritizer();
+            prioritizer.setMetricsSampling(run == 0);
+            for (int i = 0; i < calls; i++) {
+                prioritizer.add("T" + i, i % 7, (i == 0) ? null : new String[] { "T" + (i - 1) });
+                prioritizer.resolve();
+            }
+            results[run] = prioritizer.metrics();
+        }
+        TaskPrioritizer.Metrics on = results[0];
+        TaskPrioritizer.Metrics off = results[1];
+        if (sum(on.addLatencyCounts) != wantSamples || sum(on.resolveLatencyCounts) != wantSamples) {
+            fail(name + ": " + sum(on.addLatencyCounts) + " add and " + sum(on.resolveLatencyCounts)
+                    + " resolve samples from " + calls + " calls each instead of " + wantSamples);
+        } else if (sum(on.fanOutCounts) != calls) {
+            fail(name + ": " + sum(on.fanOutCounts) + " fan-out samples from " + calls + " resolves");
+        } else if (sum(off.addLatencyCounts) + sum(off.resolveLatencyCounts) + sum(off.fanOutCounts) != 0) {
+            fail(name + ": the histograms are not empty with sampling off: " + off);
+        } else if (on.readyTasks != off.readyTasks || on.blockedTasks != off.blockedTasks
+                || on.resolvedTasks != off.resolvedTasks) {
+            fail(name + ": the counts differ with sampling off: " + on + " and " + off);
+        } else {
+            System.out.println("PASS " + name + ": " + wantSamples + " of " + calls
+                    + " calls sampled with sampling on, none with it off");
+        }
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 6000;
+        MetricsCheck check = new MetricsCheck(seed, operations);
+        for (boolean striped : new boolean[] { false, true }) {
+            check.checkKnownGraph(striped);
+            check.checkModel(striped);
+        }
+        check.checkSampling();
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * PeekCheck runs a seeded mix of adds, delayed adds, updates, resolves and
+ * cancels on a manually advanced clock, and at checkpoints compares what
+ * the read-only queries report against a second prioritizer rebuilt from
+ * the same calls. The rebuilt one leases every ready task, which lists the
+ * ready set best first; peek(k) must list its first k, peek() its first,
+ * and countReadyAtLeast() must count it by urgency. The clock moves on
+ * without a mutating call before each checkpoint, so delayed tasks whose
+ * start time has passed are still in the timing wheel when the queries
+ * run.
+ *
+ * The queries must not change state, so a third prioritizer that makes the
+ * same calls without ever being queried must resolve everything left in
+ * the same order, with the same metrics. This runs for each engine, with
+ * no aging, aging by resolves and aging by time.
+ *
+ * Usage: PeekCheck [seed] [operations]
+ *
+ * The seed defaults to 1 and the number of operations to 4000. Exits with
+ * status 1 if any check fails.
+ */
+public class PeekCheck {
+    private static final int URGENCY_RANGE = 32;
+    private static final int RECENT = 64;
+    private static final int CHECKPOINTS = 40;
+
+    private final long seed;
+    private final int operations;
+    private int failures;
+    // The manual clock shared by every prioritizer of a check
+    private long now;
+
+    private PeekCheck(long seed, int operations) {
+        this.seed = seed;
+        this.operations = operations;
+    }
+
+    /**
+     * One mutating call, kept so that it can be made again on another
+     * prioritizer
+     */
+    private static final class Call {
+        final int kind;
+        final String taskId;
+        final int urgencyLevel;
+        final String[] dependencies;
+        final long notBefore;
+        final long now;
+
+        Call(int kind, String taskId, int urgencyLevel, String[] dependencies, long notBefore, long now) {
+            this.kind = kind;
+            this.taskId = taskId;
+            this.urgencyLevel = urgencyLevel;
+            this.dependencies = dependencies;
+            this.notBefore = notBefore;
+            this.now = now;
+        }
+    }
+
+    private static final int ADD = 0;
+    private static final int ADD_DELAYED = 1;
+    private static final int UPDATE = 2;
+    private static final int RESOLVE = 3;
+    private static final int CANCEL = 4;
+
+    private TaskPrioritizer open(TaskPrioritizer.Engine engine, int aging) {
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine);
+        prioritizer.setClock(() -> now);
+        prioritizer.setTimerResolution(1000);
+        prioritizer.setReadyCounting(true);
+        if (aging == 1) {
+            prioritizer.setAgingByResolves(8);
+        } else if (aging == 2) {
+            prioritizer.setAgingByTime(20_000);
+        }
+        return prioritizer;
+    }
+
+    private void apply(TaskPrioritizer prioritizer, Call call) {
+        now = call.now;
+        switch (call.kind) {
+            case ADD:
+                prioritizer.add(call.taskId, call.urgencyLevel, call.dependencies);
+                break;
+            case ADD_DELAYED:
+                prioritizer.add(call.taskId, call.urgencyLevel, call.dependencies, call.notBefore);
+                break;
+            case UPDATE:
+                prioritizer.update(call.taskId, call.urgencyLevel);
+                break;
+            case RESOLVE:
+                prioritizer.resolve();
+                break;
+            default:
+                prioritizer.cancel(call.taskId, false);
+        }
+    }
+
+    private Call nextCall(Random random, String[] recent, int added) {
+        now += random.nextInt(3000);
+        int choice = random.nextInt(100);
+        if (choice < 50 || added == 0) {
+            String[] dependencies = new String[Math.min(added, random.nextInt(3))];
+            for (int j = 0; j < dependencies.length; j++) {
+                dependencies[j] = recent[(added - 1 - random.nextInt(Math.min(added, RECENT))) % RECENT];
+            }
+            int kind = (random.nextInt(4) == 0) ? ADD_DELAYED : ADD;
+            return new Call(kind, "T" + added, random.nextInt(URGENCY_RANGE), dependencies,
+                    now + random.nextInt(40_000), now);
+        }
+        String target = recent[random.nextInt(Math.min(added, RECENT))];
+        if (choice < 65) {
+            return new Call(UPDATE, target, random.nextInt(URGENCY_RANGE), null, 0, now);
+        } else if (choice < 97) {
+            return new Call(RESOLVE, null, 0, null, 0, now);
+        }
+        return new Call(CANCEL, target, 0, null, 0, now);
+    }
+
+    private void check(TaskPrioritizer.Engine engine, int aging) {
+        String name = engine.name().toLowerCase() + ", "
+                + new String[] { "no aging", "aging by resolves", "aging by time" }[aging];
+        now = 1_000_000L;
+        Random random = new Random(seed);
+        TaskPrioritizer queried = open(engine, aging);
+        TaskPrioritizer untouched = open(engine, aging);
+        List<Call> calls = new ArrayList<>();
+        String[] recent = new String[RECENT];
+        int added = 0;
+        int checked = 0;
+        for (int i = 0; i < operations; i++) {
+            Call call = nextCall(random, recent, added);
+            if (call.kind == ADD || call.kind == ADD_DELAYED) {
+                recent[added++ % RECENT] = call.taskId;
+            }
+            calls.add(call);
+            apply(queried, call);
+            apply(untouched, call);
+            if ((i + 1) % (operations / CHECKPOINTS) == 0) {
+                // Let start times pass with no mutating call to promote them
+                now += 20_000;
+                if (!checkQueries(name + " at call " + i, queried, calls, engine, aging)) {
+                    return;
+                }
+                checked++;
+            }
+        }
+        TaskPrioritizer.Metrics want = untouched.metrics();
+        TaskPrioritizer.Metrics got = queried.metrics();
+        if (want.delayedTasks != got.delayedTasks || want.readyTasks != got.readyTasks
+                || want.resolvedTasks != got.resolvedTasks) {
+            fail(name + ": queries changed the metrics");
+            return;
+        }
+        for (int resolved = 0; ; resolved++) {
+            String wantId = untouched.resolve();
+            String gotId = queried.resolve();
+            if (wantId == null ? gotId != null : !wantId.equals(gotId)) {
+                fail(name + ": after the queries, resolve " + resolved + " returned " + gotId + " instead of "
+                        + wantId);
+                return;
+            }
+            if (wantId == null) {
+                break;
+            }
+        }
+        System.out.println("PASS " + name + ": " + checked + " checkpoints matched and queries changed nothing");
+    }
+
+    /**
+     * Rebuilds the prioritizer from the calls so far and leases its whole
+     * ready set, then compares the queries against it
+     */
+    private boolean checkQueries(String name, TaskPrioritizer queried, List<Call> calls,
+            TaskPrioritizer.Engine engine, int aging) {
+        long checkpoint = now;
+        TaskPrioritizer reference = open(engine, aging);
+        for (Call call : calls) {
+            apply(reference, call);
+        }
+        now = checkpoint;
+        String[] top3 = queried.peek(3);
+        String first = queried.peek();
+        String[] all = queried.peek(Integer.MAX_VALUE);
+        int[] counts = new int[URGENCY_RANGE + 1];
+        for (int u = 0; u <= URGENCY_RANGE; u++) {
+            counts[u] = queried.countReadyAtLeast(u);
+        }
+
+        List<String> ready = new ArrayList<>();
+        for (String taskId = reference.lease(); taskId != null; taskId = reference.lease()) {
+            ready.add(taskId);
+        }
+        String[] expected = ready.toArray(new String[0]);
+        if (!Arrays.equals(all, expected)) {
+            fail(name + ": peek(all) listed " + all.length + " tasks, " + Arrays.toString(head(all))
+                    + ", but the ready set is " + expected.length + ", " + Arrays.toString(head(expected)));
+            return false;
+        }
+        if (!Arrays.equals(top3, head(expected)) || (first == null ? expected.length != 0
+                : expected.length == 0 || !first.equals(expected[0]))) {
+            fail(name + ": peek(3) " + Arrays.toString(top3) + " and peek() " + first + " disagree with "
+                    + Arrays.toString(head(expected)));
+            return false;
+        }
+        int[] urgencies = currentUrgencies(calls);
+        for (int u = 0; u <= URGENCY_RANGE; u++) {
+            int count = 0;
+            for (String taskId : expected) {
+                if (urgencies[Integer.parseInt(taskId.substring(1))] >= u) {
+                    count++;
+                }
+            }
+            if (counts[u] != count) {
+                fail(name + ": countReadyAtLeast(" + u + ") returned " + counts[u] + " instead of " + count);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The urgency each task was last given, indexed by add order
+     */
+    private static int[] currentUrgencies(List<Call> calls) {
+        int[] urgencies = new int[calls.size()];
+        for (Call call : calls) {
+            if (call.kind == ADD || call.kind == ADD_DELAYED || call.kind == UPDATE) {
+                urgencies[Integer.parseInt(call.taskId.substring(1))] = call.urgencyLevel;
+            }
+        }
+        return urgencies;
+    }
+
+    private static String[] head(String[] taskIds) {
+        return Arrays.copyOf(taskIds, Math.min(3, taskIds.length));
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 4000;
+        PeekCheck check = new PeekCheck(seed, operations);
+        for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+            for (int aging = 0; aging < 3; aging++) {
+                check.check(engine, aging);
+            }
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * RecordingTaskPrioritizer wraps a TaskPrioritizer and records every add,
+ * update and resolve made through it, with the taskId each resolve
+ * returned, to a call trace that TraceReplayer can run again against any
+ * engine.
+ *
+ * The calling thread only copies each call's arguments into a chunk of
+ * plain arrays, which costs a few percent of the call itself; full chunks
+ * are handed to a background thread, which encodes them and writes the
+ * file. The writer may fall a few chunks behind, after which calls wait
+ * for it, so memory stays bounded however fast calls arrive. A call that
+ * throws is not recorded, and calls made on the wrapped prioritizer
+ * directly are not seen at all.
+ *
+ * Like a TaskPrioritizer without ready stripes, a RecordingTaskPrioritizer
+ * is meant for one thread at a time. Threads that share one must lock
+ * around each call, which also fixes the order the calls are recorded in;
+ * taking a lock inside every call would cost as much as the recording.
+ *
+ * A call trace is a TraceWriter file with the magic bytes "NMCR". Each
+ * call is its type as a varint, 1 for add, 2 for update and 3 for resolve,
+ * followed by its arguments: add writes the taskId, the zigzag urgency,
+ * the number of dependencies and each dependency; update the taskId and
+ * the zigzag urgency; resolve the taskId it returned. TaskIds are mostly
+ * ones seen a few calls earlier, so both ends keep a table of recent ones,
+ * where each taskId has a single slot picked by its hash code. A taskId is
+ * written as 0 for null, as its slot plus 2 if the slot holds it, and
+ * otherwise as 1 followed by the string, which then takes over its slot.
+ * Unlike a dictionary of every taskId, the table stays in the cache
+ * however long the trace grows. close() ends the trace with a 0, so a
+ * trace cut short by a crash can be told apart from a finished one.
+ */
+public class RecordingTaskPrioritizer implements AutoCloseable {
+    static final byte[] MAGIC = { 'N', 'M', 'C', 'R' };
+    static final int VERSION = 1;
+    static final int END = 0;
+    static final int ADD = 1;
+    static final int UPDATE = 2;
+    static final int RESOLVE = 3;
+    static final int RECENT_TASK_IDS = 1 << 12;
+
+    private static final int CHUNK_CALLS = 8192;
+    // The number of full chunks the writer may fall behind by
+    private static final int CHUNKS_IN_FLIGHT = 8;
+    private static final Chunk LAST = new Chunk();
+
+    /**
+     * The calls recorded between two hand-offs. Every call appends its type,
+     * and then its urgency and dependency count if it has them, to ints,
+     * and its taskIds to strings.
+     */
+    private static final class Chunk {
+        int[] ints = new int[CHUNK_CALLS * 3];
+        String[] strings = new String[CHUNK_CALLS * 2];
+        int calls;
+        int intCount;
+        int stringCount;
+
+        void ensureCapacity(int moreInts, int moreStrings) {
+            if (intCount + moreInts > ints.length) {
+                ints = Arrays.copyOf(ints, Math.max(ints.length * 2, intCount + moreInts));
+            }
+            if (stringCount + moreStrings > strings.length) {
+                strings = Arrays.copyOf(strings, Math.max(strings.length * 2, stringCount + moreStrings));
+            }
+        }
+
+    }
+
+    private final TaskPrioritizer prioritizer;
+    private final TraceWriter out;
+    private final BlockingQueue<Chunk> written = new ArrayBlockingQueue<>(CHUNKS_IN_FLIGHT);
+    private final Thread writer;
+    private volatile IOException failure;
+    private Chunk chunk = new Chunk();
+    private long calls;
+    private boolean closed;
+
+    /**
+     * Constructor to start recording the calls made to a TaskPrioritizer
+     *
+     * @param prioritizer The TaskPrioritizer the calls are passed on to
+     * @param filepath    The path to write the call trace to
+     */
+    public RecordingTaskPrioritizer(TaskPrioritizer prioritizer, String filepath) throws IOException {
+        this.prioritizer = prioritizer;
+        this.out = new TraceWriter(filepath, MAGIC, VERSION);
+        this.writer = new Thread(this::writeChunks, "call-trace-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return The wrapped TaskPrioritizer, whose calls are not recorded
+     */
+    public TaskPrioritizer prioritizer() {
+        return prioritizer;
+    }
+
+    /**
+     * @return The number of calls recorded so far
+     */
+    public long calls() {
+        return calls;
+    }
+
+    /**
+     * A method to add a new task, as TaskPrioritizer.add() does
+     */
+    public void add(String taskId, int urgencyLevel, String[] dependencies) {
+        ensureOpen();
+        prioritizer.add(taskId, urgencyLevel, dependencies);
+        int count = (dependencies == null) ? 0 : dependencies.length;
+        Chunk c = chunk;
+        c.ensureCapacity(3, count + 1);
+        int[] ints = c.ints;
+        int i = c.intCount;
+        ints[i] = ADD;
+        ints[i + 1] = urgencyLevel;
+        ints[i + 2] = count;
+        c.intCount = i + 3;
+        c.strings[c.stringCount++] = taskId;
+        if (count > 0) {
+            System.arraycopy(dependencies, 0, c.strings, c.stringCount, count);
+            c.stringCount += count;
+        }
+        recorded(c);
+    }
+
+    /**
+     * A method to change the urgency of a task, as TaskPrioritizer.update()
+     * does
+     */
+    public void update(String taskId, int newUrgencyLevel) {
+        ensureOpen();
+        prioritizer.update(taskId, newUrgencyLevel);
+        Chunk c = chunk;
+        c.ensureCapacity(2, 1);
+        c.ints[c.intCount++] = UPDATE;
+        c.ints[c.intCount++] = newUrgencyLevel;
+        c.strings[c.stringCount++] = taskId;
+        recorded(c);
+    }
+
+    /**
+     * A method to resolve the greatest urgency ready task, as
+     * TaskPrioritizer.resolve() does
+     *
+     * @return The taskId of the resolved task, or null if no task is ready
+     */
+    public String resolve() {
+        ensureOpen();
+        String taskId = prioritizer.resolve();
+        Chunk c = chunk;
+        c.ensureCapacity(1, 1);
+        c.ints[c.intCount++] = RESOLVE;
+        c.strings[c.stringCount++] = taskId;
+        recorded(c);
+        return taskId;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Recording has been closed");
+        }
+    }
+
+    private void recorded(Chunk c) {
+        calls++;
+        if (++c.calls == CHUNK_CALLS) {
+            handOff(c);
+            // Chunks are not reused: a new one costs little next to the
+            // calls that fill it, and the writer never has to hand it back
+            chunk = new Chunk();
+        }
+    }
+
+    /**
+     * Queues a chunk for the writer, waiting while it is too far behind
+     */
+    private void handOff(Chunk c) {
+        if (failure != null) {
+            throw new UncheckedIOException("Could not write the call trace", failure);
+        }
+        try {
+            written.put(c);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recording a call", e);
+        }
+    }
+
+    /**
+     * Writes out every call recorded so far, ends the trace and waits for
+     * the writer to finish. Further calls throw IllegalStateException.
+     *
+     * @throws IOException if the trace could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (chunk.calls > 0) {
+                written.put(chunk);
+            }
+            written.put(LAST);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finishing the call trace", e);
+        }
+        chunk = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs on the writer thread. After a failure it keeps taking chunks, so
+     * that callers are never left waiting for room, and the next hand-off or
+     * close() reports it.
+     */
+    private void writeChunks() {
+        String[] recent = new String[RECENT_TASK_IDS];
+        while (true) {
+            Chunk c;
+            try {
+                c = written.take();
+            } catch (InterruptedException e) {
+                // Only close() waits for this thread, so nothing interrupts it
+                continue;
+            }
+            if (c == LAST) {
+                finish();
+                return;
+            }
+            if (failure == null) {
+                try {
+                    encode(c, recent);
+                    // Keep the file current whenever the writer catches up
+                    if (written.isEmpty()) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    private void finish() {
+        try {
+            if (failure == null) {
+                out.writeVarint(END);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * @return The slot of taskId in a table of recent taskIds
+     */
+    static int slot(String taskId) {
+        int hash = taskId.hashCode();
+        return (hash ^ (hash >>> 16)) & (RECENT_TASK_IDS - 1);
+    }
+
+    private void encode(Chunk c, String[] recent) throws IOException {
+        int[] ints = c.ints;
+        String[] strings = c.strings;
+        int s = 0;
+        for (int i = 0; i < c.intCount;) {
+            int type = ints[i++];
+            out.writeVarint(type);
+            writeTaskId(strings[s++], recent);
+            if (type == ADD) {
+                out.writeSignedVarint(ints[i++]);
+                int count = ints[i++];
+                out.writeVarint(count);
+                for (int j = 0; j < count; j++) {
+                    writeTaskId(strings[s++], recent);
+                }
+            } else if (type == UPDATE) {
+                out.writeSignedVarint(ints[i++]);
+            }
+        }
+    }
+
+    private void writeTaskId(String taskId, String[] recent) throws IOException {
+        if (taskId == null) {
+            out.writeVarint(0);
+            return;
+        }
+        int slot = slot(taskId);
+        String seen = recent[slot];
+        if (seen == taskId || taskId.equals(seen)) {
+            out.writeVarint(slot + 2);
+            return;
+        }
+        out.writeVarint(1);
+        out.writeString(taskId);
+        recent[slot] = taskId;
+    }
+}
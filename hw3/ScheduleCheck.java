@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ScheduleCheck computes the resolve order of seeded random graphs with
+ * TaskPrioritizer.computeSchedule() and checks it against loading the same
+ * graph into a new TaskPrioritizer with addAll() and calling resolve()
+ * until it returns null. The graphs repeat some taskIds, name some
+ * dependencies that are never added, point some dependencies forward in
+ * the array, and close a few cycles, so some tasks never resolve and must
+ * be left out. Sizes run from a handful of tasks to several fork/join
+ * chunks, with and without dependencies, and with one task that most
+ * others depend on.
+ *
+ * Usage: ScheduleCheck [seed] [tasks]
+ *
+ * The seed defaults to 1 and the largest graph to 100000 tasks. Exits with
+ * status 1 if any check fails.
+ */
+public class ScheduleCheck {
+    private int failures;
+
+    /**
+     * A random graph in which each task depends on up to 3 tasks, mostly
+     * earlier ones
+     */
+    private static final class Graph {
+        final String[] taskIds;
+        final int[] urgencyLevels;
+        final String[][] dependencies;
+
+        Graph(Random random, int size, boolean withDependencies, boolean hub) {
+            taskIds = new String[size];
+            urgencyLevels = new int[size];
+            dependencies = withDependencies ? new String[size][] : null;
+            for (int i = 0; i < size; i++) {
+                taskIds[i] = (i > 0 && random.nextInt(100) == 0) ? taskIds[random.nextInt(i)] : "T" + i;
+                urgencyLevels[i] = random.nextInt(100) - 20;
+            }
+            if (!withDependencies) {
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                int count = Math.min(i, random.nextInt(4));
+                if (count == 0 && random.nextBoolean()) {
+                    continue;
+                }
+                dependencies[i] = new String[count];
+                for (int j = 0; j < count; j++) {
+                    int kind = random.nextInt(4000);
+                    if (kind == 0) {
+                        dependencies[i][j] = "missing" + random.nextInt(size);
+                    } else if (kind < 4) {
+                        // Forward, which may close a cycle
+                        dependencies[i][j] = taskIds[random.nextInt(size)];
+                    } else if (hub && j == 0) {
+                        dependencies[i][j] = taskIds[0];
+                    } else {
+                        dependencies[i][j] = taskIds[i - 1 - random.nextInt(Math.min(i, 64))];
+                    }
+                }
+            }
+        }
+    }
+
+    private void check(String name, Graph graph) {
+        int[] schedule = TaskPrioritizer.computeSchedule(graph.taskIds, graph.urgencyLevels, graph.dependencies);
+        TaskPrioritizer prioritizer = new TaskPrioritizer();
+        prioritizer.addAll(graph.taskIds, graph.urgencyLevels, graph.dependencies);
+        List<String> want = new ArrayList<>();
+        for (String taskId = prioritizer.resolve(); taskId != null; taskId = prioritizer.resolve()) {
+            want.add(taskId);
+        }
+        int at = 0;
+        while (at < Math.min(want.size(), schedule.length) && want.get(at).equals(graph.taskIds[schedule[at]])) {
+            at++;
+        }
+        if (at < want.size() || at < schedule.length) {
+            fail(name + ": position " + at + " of " + want.size() + " holds "
+                    + (at < schedule.length ? graph.taskIds[schedule[at]] : "nothing") + " instead of "
+                    + (at < want.size() ? want.get(at) : "nothing"));
+            return;
+        }
+        boolean[] seen = new boolean[graph.taskIds.length];
+        for (int index : schedule) {
+            if (seen[index]) {
+                fail(name + ": index " + index + " is scheduled twice");
+                return;
+            }
+            seen[index] = true;
+        }
+        System.out.println("PASS " + name + ": " + schedule.length + " of " + graph.taskIds.length
+                + " tasks scheduled as resolve() orders them");
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+        ScheduleCheck check = new ScheduleCheck();
+        Random random = new Random(seed);
+        for (int n : new int[] { 0, 1, 7, 1000, size }) {
+            check.check(n + " tasks", new Graph(random, n, true, false));
+        }
+        check.check(size + " tasks, no dependencies", new Graph(random, size, false, false));
+        check.check(size + " tasks, one shared dependency", new Graph(random, size, true, true));
+        Graph empty = new Graph(random, size, true, false);
+        Arrays.fill(empty.dependencies, new String[0]);
+        check.check(size + " tasks, empty dependency arrays", empty);
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
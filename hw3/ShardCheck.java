@@ -0,0 +1,267 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ShardCheck stresses a ShardedTaskPrioritizer with one worker thread per
+ * shard. One thread adds a seeded random graph made of several components,
+ * a few of whose tasks depend on another component, so that components
+ * merge while their tasks sit on different shards. Meanwhile worker i
+ * leases with index i and completes what it leases. It checks that every
+ * task is leased exactly once and never before its dependencies have
+ * completed, that workers steal from each other's shards, and that no
+ * taskId is still tracked once everything has completed. A task added
+ * afterwards that depends on those dropped taskIds must be ready at once,
+ * and adding a dropped taskId again must be ignored.
+ *
+ * On one thread, it also checks that a task joins the shard of its
+ * dependencies' component, and that lease() never passes over a ready task
+ * more than the slack more urgent than the one it returns.
+ *
+ * Usage: ShardCheck [seed] [tasks]
+ *
+ * The seed defaults to 1 and the number of tasks to 20000. Exits with
+ * status 1 if any check fails.
+ */
+public class ShardCheck {
+    private static final int WORKERS = 4;
+    private static final int COMPONENTS = 16;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private final long seed;
+    private final int size;
+    private int failures;
+
+    private ShardCheck(long seed, int size) {
+        this.seed = seed;
+        this.size = size;
+    }
+
+    /**
+     * A random graph of COMPONENTS interleaved components, in which each
+     * task depends on up to 3 earlier tasks of its component and, now and
+     * then, on an earlier task of another one
+     */
+    private static final class Graph {
+        final String[] taskIds;
+        final int[] urgencyLevels;
+        final String[][] dependencies;
+
+        Graph(Random random, int size) {
+            taskIds = new String[size];
+            urgencyLevels = new int[size];
+            dependencies = new String[size][];
+            for (int i = 0; i < size; i++) {
+                taskIds[i] = "T" + i;
+                urgencyLevels[i] = random.nextInt(100);
+                int earlier = i / COMPONENTS;
+                dependencies[i] = new String[Math.min(earlier, random.nextInt(4))];
+                for (int j = 0; j < dependencies[i].length; j++) {
+                    int back = 1 + random.nextInt(Math.min(earlier, 16));
+                    int other = (random.nextInt(50) == 0) ? random.nextInt(COMPONENTS) : i % COMPONENTS;
+                    dependencies[i][j] = taskIds[(earlier - back) * COMPONENTS + other];
+                }
+            }
+        }
+    }
+
+    private void checkConcurrent(int urgencySlack) throws InterruptedException {
+        String name = "one worker per shard, slack " + urgencySlack;
+        Graph graph = new Graph(new Random(seed), size);
+        Map<String, Integer> index = new ConcurrentHashMap<>();
+        for (int i = 0; i < size; i++) {
+            index.put(graph.taskIds[i], i);
+        }
+        ShardedTaskPrioritizer prioritizer = new ShardedTaskPrioritizer(WORKERS, urgencySlack);
+        Set<String> leased = ConcurrentHashMap.newKeySet();
+        Set<String> finished = ConcurrentHashMap.newKeySet();
+        List<String> problems = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger stolen = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        Thread adder = new Thread(() -> {
+            for (int i = 0; i < size; i++) {
+                prioritizer.add(graph.taskIds[i], graph.urgencyLevels[i], graph.dependencies[i]);
+            }
+        }, "shard-check-adder");
+
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < WORKERS; w++) {
+            int worker = w;
+            workers.add(new Thread(() -> {
+                while (!stop.get() && completed.get() < size) {
+                    String taskId = prioritizer.lease(worker);
+                    if (taskId == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if (prioritizer.shardOf(taskId) != worker) {
+                        stolen.incrementAndGet();
+                    }
+                    if (!leased.add(taskId)) {
+                        problems.add(taskId + " was leased twice");
+                    }
+                    for (String dependency : graph.dependencies[index.get(taskId)]) {
+                        if (!finished.contains(dependency)) {
+                            problems.add(taskId + " was leased before its dependency " + dependency + " completed");
+                        }
+                    }
+                    finished.add(taskId);
+                    if (!prioritizer.complete(taskId)) {
+                        problems.add("complete(" + taskId + ") returned false");
+                    }
+                    completed.incrementAndGet();
+                }
+            }, "shard-check-worker-" + w));
+        }
+
+        adder.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        boolean timedOut = workers.stream().anyMatch(Thread::isAlive);
+        stop.set(true);
+        adder.join();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (timedOut) {
+            fail(name + ": only " + completed.get() + " of " + size + " tasks completed after " + TIMEOUT_SECONDS
+                    + " s");
+            return;
+        }
+
+        if (stolen.get() == 0) {
+            problems.add("no worker ever leased from another worker's shard");
+        }
+        if (prioritizer.trackedTaskCount() != 0) {
+            problems.add(prioritizer.trackedTaskCount() + " taskIds are still tracked after every task completed");
+        }
+        // Every dependency has been dropped by now, and resolved on shards
+        // other than the one the new task goes to
+        String[] dropped = { graph.taskIds[0], graph.taskIds[1], graph.taskIds[2], graph.taskIds[3] };
+        prioritizer.add("late", 1, dropped);
+        prioritizer.add(graph.taskIds[size - 1], 1, null);
+        String late = prioritizer.resolve(0);
+        String again = prioritizer.resolve(0);
+        if (!"late".equals(late) || again != null) {
+            problems.add("after the taskIds were dropped, resolve() returned " + late + " then " + again
+                    + " instead of late then null");
+        }
+        if (!problems.isEmpty()) {
+            fail(name + ": " + problems.get(0) + " (" + problems.size() + " problems)");
+        } else {
+            System.out.println("PASS " + name + ": " + completed.get() + " completed, " + stolen.get()
+                    + " stolen, none still tracked");
+        }
+    }
+
+    /**
+     * Adds two components, then a task depending on both, which merges
+     * them; later tasks of either side must go to the shard of the larger
+     */
+    private void checkPlacement() {
+        ShardedTaskPrioritizer prioritizer = new ShardedTaskPrioritizer(WORKERS);
+        prioritizer.add("A", 1, null);
+        prioritizer.add("B", 1, null);
+        prioritizer.add("A2", 1, new String[] { "A" });
+        prioritizer.add("AB", 1, new String[] { "A2", "B" });
+        prioritizer.add("B2", 1, new String[] { "B" });
+        int a = prioritizer.shardOf("A");
+        int b = prioritizer.shardOf("B");
+        String problem = null;
+        if (a == b) {
+            problem = "A and B share shard " + a + " though they were added apart";
+        } else if (prioritizer.shardOf("A2") != a || prioritizer.shardOf("AB") != a) {
+            problem = "A2 and AB went to shards " + prioritizer.shardOf("A2") + " and " + prioritizer.shardOf("AB")
+                    + " instead of A's shard " + a;
+        } else if (prioritizer.shardOf("B2") != a) {
+            problem = "B2 went to shard " + prioritizer.shardOf("B2") + " instead of the merged component's shard "
+                    + a;
+        }
+        List<String> order = new ArrayList<>();
+        for (String taskId = prioritizer.resolve(b); taskId != null; taskId = prioritizer.resolve(b)) {
+            order.add(taskId);
+        }
+        if (problem == null && (order.size() != 5 || order.indexOf("AB") < order.indexOf("B")
+                || order.indexOf("AB") < order.indexOf("A2"))) {
+            problem = "the tasks resolved as " + order;
+        }
+        if (problem == null && prioritizer.trackedTaskCount() != 0) {
+            problem = prioritizer.trackedTaskCount() + " taskIds are still tracked";
+        }
+        if (problem != null) {
+            fail("placement: " + problem);
+        } else {
+            System.out.println("PASS placement: dependents joined their component's shard across a merge");
+        }
+    }
+
+    /**
+     * Leases independent tasks on one thread, cycling through the workers,
+     * and checks each lease against the most urgent task still ready
+     */
+    private void checkSlack(int urgencySlack) {
+        String name = "slack " + urgencySlack + " on one thread";
+        Random random = new Random(seed);
+        ShardedTaskPrioritizer prioritizer = new ShardedTaskPrioritizer(WORKERS, urgencySlack);
+        int count = Math.min(size, 4000);
+        int[] ready = new int[100];
+        for (int i = 0; i < count; i++) {
+            int urgencyLevel = random.nextInt(ready.length);
+            prioritizer.add("U" + i + "_" + urgencyLevel, urgencyLevel, null);
+            ready[urgencyLevel]++;
+        }
+        for (int i = 0; i < count; i++) {
+            String taskId = prioritizer.lease(i % WORKERS);
+            if (taskId == null) {
+                fail(name + ": lease " + i + " returned null with " + (count - i) + " tasks ready");
+                return;
+            }
+            int urgencyLevel = Integer.parseInt(taskId.substring(taskId.indexOf('_') + 1));
+            int best = ready.length - 1;
+            while (ready[best] == 0) {
+                best--;
+            }
+            if (urgencyLevel + urgencySlack < best) {
+                fail(name + ": lease " + i + " returned urgency " + urgencyLevel + " while " + best + " was ready");
+                return;
+            }
+            ready[urgencyLevel]--;
+            prioritizer.complete(taskId);
+        }
+        System.out.println("PASS " + name + ": " + count + " leases within the slack of the most urgent task");
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        ShardCheck check = new ShardCheck(seed, size);
+        check.checkPlacement();
+        for (int urgencySlack : new int[] { 0, 16 }) {
+            check.checkSlack(urgencySlack);
+            check.checkConcurrent(urgencySlack);
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ShardedTaskPrioritizer spreads a dependency graph over several
+ * independent TaskPrioritizer shards so that worker threads do not all
+ * contend on one ready queue. It starts no threads of its own: the caller
+ * numbers its workers from 0 to shardCount() - 1, and worker i leases from
+ * shard i, stealing from another shard when its own has nothing ready or
+ * when another shard's most urgent task beats its own by more than the
+ * configured slack. The slack is checked against the urgency each shard
+ * published after its last change, so it holds exactly whenever no other
+ * thread is changing a shard, and is best effort while one is.
+ *
+ * Connected components are tracked with union-find as tasks are added, and
+ * a task goes to the shard of its component, so a graph made of disconnected
+ * components needs no coordination between shards at all. A task is placed
+ * for good the first time its taskId is seen, so when an add joins two
+ * components living on different shards the older tasks stay where they are
+ * and the dependency crosses shards: the dependent's shard holds a
+ * placeholder for it, which is cancelled once the dependency completes on
+ * its own shard.
+ *
+ * Once every task of a component has completed, its taskIds are dropped,
+ * so memory does not grow with the number of tasks ever added. Each shard
+ * still knows the taskIds it resolved, and a later add that names one of
+ * them, as its own taskId or as a dependency, asks the shards instead.
+ */
+public class ShardedTaskPrioritizer {
+    private static final class Node {
+        final String taskId;
+        final int shard;
+        // Union-find state, guarded by the prioritizer's monitor
+        Node parent;
+        int size;
+        // The shard that new tasks of the component go to, kept on the root
+        int componentShard;
+        // Also kept on the root: the members not completed yet, and the
+        // list of all members, linked through nextMember, to drop them by
+        Node nextMember;
+        Node lastMember;
+        int pending;
+        // Other shards holding a placeholder for this task, guarded by the
+        // node's own monitor together with completed
+        int[] waiters;
+        int waiterCount;
+        boolean completed;
+
+        Node(String taskId, int shard) {
+            this.taskId = taskId;
+            this.shard = shard;
+            this.parent = this;
+            this.size = 1;
+            this.componentShard = shard;
+            this.lastMember = this;
+            this.pending = 1;
+        }
+    }
+
+    private final TaskPrioritizer[] shards;
+    private final int urgencySlack;
+    private final ConcurrentHashMap<String, Node> nodes;
+    // The last urgency each shard reported for its most urgent ready task,
+    // or Integer.MIN_VALUE if it had none
+    private final AtomicIntegerArray tops;
+    private int nextShard;
+    // Whether any component has been dropped, after which a taskId missing
+    // from nodes may still have been resolved
+    private boolean dropped;
+
+    /**
+     * Constructor to initialize a ShardedTaskPrioritizer with strict urgency
+     * ordering between shards
+     *
+     * @param shardCount The number of shards, one per worker
+     */
+    public ShardedTaskPrioritizer(int shardCount) {
+        this(shardCount, 0);
+    }
+
+    /**
+     * Constructor to initialize a ShardedTaskPrioritizer
+     *
+     * @param shardCount   The number of shards, one per worker
+     * @param urgencySlack How far below the most urgent ready task, among
+     *                     all shards, a worker may still lease from its
+     *                     own shard
+     */
+    public ShardedTaskPrioritizer(int shardCount, int urgencySlack) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        if (urgencySlack < 0) {
+            throw new IllegalArgumentException("urgencySlack must be non-negative: " + urgencySlack);
+        }
+        this.shards = new TaskPrioritizer[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new TaskPrioritizer(TaskPrioritizer.Engine.BINARY_HEAP, 1);
+        }
+        this.urgencySlack = urgencySlack;
+        this.nodes = new ConcurrentHashMap<>();
+        this.tops = new AtomicIntegerArray(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            tops.set(i, Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * A method to get the number of shards, which is also the number of
+     * workers
+     *
+     * @return The number of shards
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * A method to find which shard a task was placed on
+     *
+     * @param taskId The taskId of the task
+     *
+     * @return The shard of the task, or -1 if the taskId has never been seen
+     *         or every task of its component has completed
+     */
+    public int shardOf(String taskId) {
+        Node node = nodes.get(taskId);
+        return (node == null) ? -1 : node.shard;
+    }
+
+    /**
+     * A method to add a new task, which is placed on the shard of the
+     * component its dependencies belong to. Adds are serialized with each
+     * other; lease() never waits for them, and complete() only while it
+     * counts down the component of the completed task.
+     *
+     * @param taskId       The string taskId of the task we want to add
+     * @param urgencyLevel The integer urgencyLevel of the task we want to add
+     * @param dependencies The array of taskIds of tasks the added task depends on
+     */
+    public void add(String taskId, int urgencyLevel, String[] dependencies) {
+        Node node;
+        Node[] remote = null;
+        int remoteCount = 0;
+        synchronized (this) {
+            if (dropped && !nodes.containsKey(taskId) && resolvedOnAnyShard(taskId)) {
+                return;
+            }
+            node = placeDependent(taskId, dependencies);
+            boolean resolvedDependencies = false;
+            if (dependencies != null) {
+                for (String dependencyId : dependencies) {
+                    Node dependency = nodes.get(dependencyId);
+                    if (dependency == null) {
+                        if (dropped && resolvedOnAnyShard(dependencyId)) {
+                            resolvedDependencies = true;
+                            continue;
+                        }
+                        dependency = register(dependencyId, node.shard);
+                    }
+                    union(node, dependency);
+                    if (dependency.shard != node.shard) {
+                        if (remote == null) {
+                            remote = new Node[dependencies.length];
+                        }
+                        remote[remoteCount++] = dependency;
+                    }
+                }
+            }
+            shards[node.shard].add(taskId, urgencyLevel, dependencies);
+            if (resolvedDependencies) {
+                // A dependency resolved on another shard is a placeholder
+                // here, and cancelling it counts it as resolved
+                for (String dependencyId : dependencies) {
+                    if (!nodes.containsKey(dependencyId)) {
+                        shards[node.shard].cancel(dependencyId, false);
+                    }
+                }
+            }
+        }
+        // The placeholder now exists on this shard, so a dependency that
+        // completes from here on will find this shard among its waiters
+        for (int i = 0; i < remoteCount; i++) {
+            if (!await(remote[i], node.shard)) {
+                shards[node.shard].cancel(remote[i].taskId, false);
+            }
+        }
+        publish(node.shard);
+    }
+
+    /**
+     * Picks the shard for a new task: the shard it was given when first
+     * named as a dependency, else the shard of the largest component among
+     * its dependencies, else the next shard in turn
+     */
+    private Node placeDependent(String taskId, String[] dependencies) {
+        Node node = nodes.get(taskId);
+        if (node != null) {
+            return node;
+        }
+        Node largest = null;
+        if (dependencies != null) {
+            for (String dependencyId : dependencies) {
+                Node dependency = nodes.get(dependencyId);
+                if (dependency != null) {
+                    Node root = find(dependency);
+                    if (largest == null || root.size > largest.size) {
+                        largest = root;
+                    }
+                }
+            }
+        }
+        int shard;
+        if (largest != null) {
+            shard = largest.componentShard;
+        } else {
+            shard = nextShard;
+            nextShard = (nextShard + 1) % shards.length;
+        }
+        return register(taskId, shard);
+    }
+
+    private Node register(String taskId, int shard) {
+        Node node = new Node(taskId, shard);
+        nodes.put(taskId, node);
+        return node;
+    }
+
+    private boolean resolvedOnAnyShard(String taskId) {
+        for (TaskPrioritizer shard : shards) {
+            if (shard.isResolved(taskId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Node find(Node node) {
+        while (node.parent != node) {
+            node.parent = node.parent.parent;
+            node = node.parent;
+        }
+        return node;
+    }
+
+    private void union(Node a, Node b) {
+        Node rootA = find(a);
+        Node rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        if (rootA.size < rootB.size) {
+            Node swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        rootB.parent = rootA;
+        rootA.size += rootB.size;
+        rootA.pending += rootB.pending;
+        rootA.lastMember.nextMember = rootB;
+        rootA.lastMember = rootB.lastMember;
+        rootB.lastMember = null;
+    }
+
+    /**
+     * Counts a completed task off its component, and drops the taskIds of
+     * the component once none of its tasks is left
+     */
+    private synchronized void countDown(Node node) {
+        Node root = find(node);
+        if (--root.pending > 0) {
+            return;
+        }
+        Node member = root;
+        while (member != null) {
+            Node next = member.nextMember;
+            nodes.remove(member.taskId);
+            member.nextMember = null;
+            member = next;
+        }
+        root.lastMember = null;
+        dropped = true;
+    }
+
+    /**
+     * A method to count the taskIds still tracked for placement, which are
+     * those of the components with a task not yet completed
+     *
+     * @return The number of taskIds tracked
+     */
+    public int trackedTaskCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Registers a shard as waiting for a dependency on another shard
+     *
+     * @return false if the dependency has already completed
+     */
+    private static boolean await(Node dependency, int shard) {
+        synchronized (dependency) {
+            if (dependency.completed) {
+                return false;
+            }
+            for (int i = 0; i < dependency.waiterCount; i++) {
+                if (dependency.waiters[i] == shard) {
+                    return true;
+                }
+            }
+            if (dependency.waiters == null) {
+                dependency.waiters = new int[2];
+            } else if (dependency.waiterCount == dependency.waiters.length) {
+                dependency.waiters = Arrays.copyOf(dependency.waiters, dependency.waiterCount * 2);
+            }
+            dependency.waiters[dependency.waiterCount++] = shard;
+            return true;
+        }
+    }
+
+    /**
+     * A method to update the urgency level of a task on its shard
+     *
+     * @param taskId          The string taskId of the task we want to change the
+     *                        urgency of
+     * @param newUrgencyLevel The new integer urgencyLevel of the task
+     */
+    public void update(String taskId, int newUrgencyLevel) {
+        Node node = nodes.get(taskId);
+        if (node == null) {
+            return;
+        }
+        shards[node.shard].update(taskId, newUrgencyLevel);
+        publish(node.shard);
+    }
+
+    /**
+     * A method for a worker to claim a ready task. The worker takes the most
+     * urgent task of its own shard, unless another shard last published a
+     * task more than urgencySlack levels more urgent, or its own shard has
+     * nothing ready; then it steals from the shard with the most urgent
+     * task. A shard publishes after every change made through this class,
+     * so a published urgency lags only behind a change still in progress on
+     * another thread. Each worker should be the only thread calling lease()
+     * with its index.
+     *
+     * @param worker The index of the calling worker, which leases from the
+     *               shard of the same index first
+     *
+     * @return The taskId of the leased task
+     * @return null if no shard has a task ready
+     */
+    public String lease(int worker) {
+        int ownTop = shards[worker].peekUrgency();
+        tops.set(worker, ownTop);
+        int threshold = (ownTop == Integer.MIN_VALUE) ? Integer.MIN_VALUE
+                : (int) Math.min((long) ownTop + urgencySlack, Integer.MAX_VALUE);
+        int best = -1;
+        int bestTop = threshold;
+        for (int i = 0; i < shards.length; i++) {
+            int top = tops.get(i);
+            if (i != worker && top > bestTop) {
+                best = i;
+                bestTop = top;
+            }
+        }
+        if (best >= 0) {
+            String taskId = leaseFrom(best);
+            if (taskId != null) {
+                return taskId;
+            }
+        }
+        String taskId = leaseFrom(worker);
+        if (taskId != null) {
+            return taskId;
+        }
+        // Reported tops can be stale, so an idle worker checks every shard
+        // before giving up
+        for (int i = 1; i < shards.length; i++) {
+            taskId = leaseFrom((worker + i) % shards.length);
+            if (taskId != null) {
+                return taskId;
+            }
+        }
+        return null;
+    }
+
+    private String leaseFrom(int shard) {
+        String taskId = shards[shard].lease();
+        publish(shard);
+        return taskId;
+    }
+
+    /**
+     * A method to finish a leased task, resolving it on its shard and
+     * releasing its dependents on every shard
+     *
+     * @param taskId The taskId of a task previously returned by lease()
+     *
+     * @return true if the task was leased and is now resolved, false otherwise
+     */
+    public boolean complete(String taskId) {
+        Node node = nodes.get(taskId);
+        if (node == null || !shards[node.shard].complete(taskId)) {
+            return false;
+        }
+        publish(node.shard);
+        int[] waiters;
+        int waiterCount;
+        synchronized (node) {
+            node.completed = true;
+            waiters = node.waiters;
+            waiterCount = node.waiterCount;
+            node.waiters = null;
+            node.waiterCount = 0;
+        }
+        // Cancelling the placeholder releases its dependents without
+        // handing them a task to resolve
+        for (int i = 0; i < waiterCount; i++) {
+            shards[waiters[i]].cancel(taskId, false);
+            publish(waiters[i]);
+        }
+        countDown(node);
+        return true;
+    }
+
+    /**
+     * A method for a worker to resolve a ready task, choosing it as lease()
+     * does
+     *
+     * @param worker The index of the calling worker
+     *
+     * @return The taskId of the resolved task
+     * @return null if no shard has a task ready
+     */
+    public String resolve(int worker) {
+        String taskId = lease(worker);
+        if (taskId != null) {
+            complete(taskId);
+        }
+        return taskId;
+    }
+
+    /**
+     * A method to check whether any shard has a task ready to be leased
+     *
+     * @return true if at least one task has all of its dependencies resolved
+     */
+    public boolean hasReadyTasks() {
+        for (TaskPrioritizer shard : shards) {
+            if (shard.hasReadyTasks()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void publish(int shard) {
+        tops.set(shard, shards[shard].peekUrgency());
+    }
+}
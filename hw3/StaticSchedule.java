@@ -0,0 +1,285 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * StaticSchedule computes the complete resolve order of a frozen task graph
+ * for TaskPrioritizer.computeSchedule(). It works on primitive arrays only:
+ * tasks are numbered by their index in the input, dependents are kept in
+ * compressed rows, and the ready queue is a binary heap of packed long keys.
+ * Hashing the taskIds and turning each dependency into a task index are
+ * independent per task, so both run on the common fork/join pool; building
+ * the table and the scheduling loop itself are sequential.
+ */
+final class StaticSchedule {
+    // Tasks per fork/join leaf
+    private static final int CHUNK = 1 << 13;
+
+    private final String[] taskIds;
+    private final int[] urgencyLevels;
+    private final String[][] dependencies;
+    private final int n;
+
+    private int[] hashes;
+    // Open-addressed table holding the spread hash of a taskId in the high
+    // half and its task index + 1 in the low half, 0 marking an empty slot,
+    // so that most probes are settled without touching the String
+    private long[] table;
+    private int mask;
+    // Whether each index holds the first occurrence of its taskId
+    private boolean[] live;
+    // Per task: dependencies not yet resolved, counting unknown taskIds,
+    // which are never resolved
+    private int[] remaining;
+    // Dependency indices of task i are dependencyIndex[dependencyStart[i]
+    // .. dependencyStart[i + 1]), with -1 for an unknown taskId
+    private int[] dependencyStart;
+    private int[] dependencyIndex;
+    // Dependents of task i are dependents[dependentStart[i]
+    // .. dependentStart[i + 1]), in input order
+    private int[] dependentStart;
+    private int[] dependents;
+
+    StaticSchedule(String[] taskIds, int[] urgencyLevels, String[][] dependencies) {
+        this.taskIds = taskIds;
+        this.urgencyLevels = urgencyLevels;
+        this.dependencies = dependencies;
+        this.n = taskIds.length;
+    }
+
+    int[] compute() {
+        hashTaskIds();
+        buildTable();
+        resolveDependencies();
+        buildDependents();
+        return schedule();
+    }
+
+    /**
+     * Runs run() over a range of task indices, halving the range until each
+     * piece holds at most CHUNK tasks. Tasks live only as long as one
+     * schedule() call and are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private abstract static class RangeAction extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        RangeAction(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        abstract void run(int from, int to);
+
+        abstract RangeAction split(int from, int to);
+
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(split(from, middle), split(middle, to));
+        }
+    }
+
+    private static int spread(int hashCode) {
+        int h = hashCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void hashTaskIds() {
+        hashes = new int[n];
+        @SuppressWarnings("serial")
+        final class Hash extends RangeAction {
+            Hash(int from, int to) {
+                super(from, to);
+            }
+
+            void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    hashes[i] = spread(taskIds[i].hashCode());
+                }
+            }
+
+            RangeAction split(int from, int to) {
+                return new Hash(from, to);
+            }
+        }
+        ForkJoinPool.commonPool().invoke(new Hash(0, n));
+    }
+
+    /**
+     * Inserts every taskId in input order, so that as with
+     * TaskPrioritizer.addAll the first occurrence of a taskId wins
+     */
+    private void buildTable() {
+        int capacity = Integer.highestOneBit(Math.max(2 * n, 2) - 1) << 1;
+        table = new long[capacity];
+        mask = capacity - 1;
+        live = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int hash = hashes[i];
+            int slot = hash & mask;
+            long entry;
+            while ((entry = table[slot]) != 0
+                    && ((int) (entry >>> 32) != hash || !taskIds[(int) entry - 1].equals(taskIds[i]))) {
+                slot = (slot + 1) & mask;
+            }
+            if (entry == 0) {
+                table[slot] = ((long) hash << 32) | (i + 1);
+                live[i] = true;
+            }
+        }
+        hashes = null;
+    }
+
+    private int indexOf(String taskId) {
+        int hash = spread(taskId.hashCode());
+        int slot = hash & mask;
+        long entry;
+        while ((entry = table[slot]) != 0) {
+            if ((int) (entry >>> 32) == hash && taskIds[(int) entry - 1].equals(taskId)) {
+                return (int) entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resolveDependencies() {
+        dependencyStart = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int count = (live[i] && dependencies != null && dependencies[i] != null) ? dependencies[i].length : 0;
+            dependencyStart[i + 1] = dependencyStart[i] + count;
+        }
+        dependencyIndex = new int[dependencyStart[n]];
+        remaining = new int[n];
+        @SuppressWarnings("serial")
+        final class Resolve extends RangeAction {
+            Resolve(int from, int to) {
+                super(from, to);
+            }
+
+            void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int start = dependencyStart[i];
+                    int count = dependencyStart[i + 1] - start;
+                    for (int j = 0; j < count; j++) {
+                        dependencyIndex[start + j] = indexOf(dependencies[i][j]);
+                    }
+                    remaining[i] = count;
+                }
+            }
+
+            RangeAction split(int from, int to) {
+                return new Resolve(from, to);
+            }
+        }
+        ForkJoinPool.commonPool().invoke(new Resolve(0, n));
+    }
+
+    private void buildDependents() {
+        dependentStart = new int[n + 1];
+        for (int dependency : dependencyIndex) {
+            if (dependency >= 0) {
+                dependentStart[dependency + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            dependentStart[i + 1] += dependentStart[i];
+        }
+        dependents = new int[dependentStart[n]];
+        int[] next = new int[n];
+        System.arraycopy(dependentStart, 0, next, 0, n);
+        for (int i = 0; i < n; i++) {
+            for (int e = dependencyStart[i]; e < dependencyStart[i + 1]; e++) {
+                int dependency = dependencyIndex[e];
+                if (dependency >= 0) {
+                    dependents[next[dependency]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Urgency in the high half and the complement of the index in the low
+     * half, so that a greater key means greater urgency, then earlier add
+     */
+    private long keyOf(int task) {
+        return ((long) urgencyLevels[task] << 32) | (~task & 0xFFFFFFFFL);
+    }
+
+    private int[] schedule() {
+        long[] heap = new long[Math.max(n, 1)];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (live[i] && remaining[i] == 0) {
+                heap[size++] = keyOf(i);
+            }
+        }
+        for (int k = size / 2 - 1; k >= 0; k--) {
+            sinkDown(heap, size, k, heap[k]);
+        }
+
+        int[] order = new int[n];
+        int count = 0;
+        while (size > 0) {
+            int task = ~(int) heap[0];
+            order[count++] = task;
+            // As in resolveHighestPriority, the first released dependent
+            // takes the top's place in a single sift
+            boolean replaced = false;
+            for (int e = dependentStart[task]; e < dependentStart[task + 1]; e++) {
+                int dependent = dependents[e];
+                if (--remaining[dependent] != 0) {
+                    continue;
+                }
+                if (!replaced) {
+                    sinkDown(heap, size, 0, keyOf(dependent));
+                    replaced = true;
+                } else {
+                    size = floatUp(heap, size, keyOf(dependent));
+                }
+            }
+            if (!replaced) {
+                size--;
+                if (size > 0) {
+                    sinkDown(heap, size, 0, heap[size]);
+                }
+            }
+        }
+        return (count == n) ? order : Arrays.copyOf(order, count);
+    }
+
+    private static void sinkDown(long[] heap, int size, int k, long key) {
+        while (2 * k + 1 < size) {
+            int child = 2 * k + 1;
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (key >= heap[child]) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = key;
+    }
+
+    /**
+     * Appends a key and floats it up
+     *
+     * @return The new heap size
+     */
+    private static int floatUp(long[] heap, int size, long key) {
+        int k = size;
+        while (k > 0 && heap[(k - 1) / 2] < key) {
+            heap[k] = heap[(k - 1) / 2];
+            k = (k - 1) / 2;
+        }
+        heap[k] = key;
+        return size + 1;
+    }
+}
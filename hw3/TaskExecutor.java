@@ -0,0 +1,380 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * TaskExecutor runs a dependency graph of task bodies, starting each body
+ * once all of its dependencies have finished. Ready tasks are dispatched
+ * in the same order TaskPrioritizer would resolve them: greatest urgency
+ * first, then earliest submitted.
+ *
+ * Tasks may be submitted before their dependencies. Such a task is held
+ * back until every dependency has been submitted, and counts as submitted
+ * only then for ordering. A task whose dependency is never submitted can
+ * never run, so close() fails its future instead of waiting for it.
+ *
+ * There is no dispatcher thread. Whichever thread submits a task or
+ * finishes a body leases the next ready tasks, up to the in-flight limit,
+ * and hands them to the executor. An executor that runs bodies on the
+ * calling thread, or one that rejects them, is fine: the thread already
+ * dispatching picks up what each body releases in the same loop, so a long
+ * chain does not nest calls. On Java 21 and later, passing
+ * Executors.newVirtualThreadPerTaskExecutor() runs every body on its own
+ * virtual thread, which suits I/O-bound bodies.
+ *
+ * Like TaskPrioritizer, it keeps its own hash table of taskIds rather than
+ * one of java.util's maps, as the homework requires.
+ */
+public class TaskExecutor {
+    private final TaskPrioritizer prioritizer;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight;
+    private final AtomicLong submitted;
+    private final AtomicLong finished;
+    private final AtomicReference<Throwable> firstFailure;
+    private final CompletableFuture<Void> done;
+    private volatile boolean closed;
+    // Guarded by itself: every taskId submitted or waited for so far
+    private final EntryTable entries;
+    private int deferredCount;
+    // Set while this thread runs the dispatch loop, so that a body run
+    // inline leaves what it releases to that loop instead of nesting one
+    private final ThreadLocal<Boolean> dispatching;
+
+    /**
+     * What the executor knows of one taskId
+     */
+    private static final class Entry {
+        final String taskId;
+        Entry next;
+        boolean submitted;
+        // The body until it is handed to the executor
+        Runnable body;
+        // The task while it is held back for a dependency, or null
+        Deferred deferred;
+        // Deferred tasks waiting for this taskId to be added, or null
+        List<Deferred> waiters;
+
+        Entry(String taskId, Entry next) {
+            this.taskId = taskId;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Chained hash table from taskId to Entry, doubled when it is three
+     * quarters full
+     */
+    private static final class EntryTable {
+        private Entry[] buckets = new Entry[64];
+        private int size;
+
+        private static int indexOf(String taskId, int length) {
+            int h = taskId.hashCode();
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        Entry get(String taskId) {
+            for (Entry e = buckets[indexOf(taskId, buckets.length)]; e != null; e = e.next) {
+                if (e.taskId.equals(taskId)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        Entry getOrAdd(String taskId) {
+            Entry entry = get(taskId);
+            if (entry != null) {
+                return entry;
+            }
+            if (size >= buckets.length - (buckets.length >> 2)) {
+                Entry[] old = buckets;
+                buckets = new Entry[old.length * 2];
+                for (Entry head : old) {
+                    while (head != null) {
+                        Entry next = head.next;
+                        int index = indexOf(head.taskId, buckets.length);
+                        head.next = buckets[index];
+                        buckets[index] = head;
+                        head = next;
+                    }
+                }
+            }
+            int index = indexOf(taskId, buckets.length);
+            entry = new Entry(taskId, buckets[index]);
+            buckets[index] = entry;
+            size++;
+            return entry;
+        }
+
+        Entry[] buckets() {
+            return buckets;
+        }
+    }
+
+    /**
+     * A submitted task not yet added to the prioritizer, because some of its
+     * dependencies have not been added themselves
+     */
+    private static final class Deferred {
+        final String taskId;
+        final int urgencyLevel;
+        final String[] dependencies;
+        // The dependencies not yet added to the prioritizer
+        int missing;
+
+        Deferred(String taskId, int urgencyLevel, String[] dependencies) {
+            this.taskId = taskId;
+            this.urgencyLevel = urgencyLevel;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * Constructor to initialize a TaskExecutor backed by a cached pool of
+     * daemon threads
+     *
+     * @param maxInFlight The maximum number of task bodies running at once
+     */
+    public TaskExecutor(int maxInFlight) {
+        this(maxInFlight, defaultExecutor());
+    }
+
+    /**
+     * Constructor to initialize a TaskExecutor that runs bodies on the given
+     * executor
+     *
+     * @param maxInFlight The maximum number of task bodies running at once
+     * @param executor    The executor that runs task bodies
+     */
+    public TaskExecutor(int maxInFlight, Executor executor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.prioritizer = new TaskPrioritizer(TaskPrioritizer.Engine.BINARY_HEAP, 1);
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new AtomicInteger();
+        this.submitted = new AtomicLong();
+        this.finished = new AtomicLong();
+        this.firstFailure = new AtomicReference<>();
+        this.done = new CompletableFuture<>();
+        this.entries = new EntryTable();
+        this.dispatching = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    }
+
+    private static ExecutorService defaultExecutor() {
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "task-executor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A method to submit a task body to run once its dependencies finish.
+     * The dependencies may be submitted before or after the task itself.
+     *
+     * @param taskId       The string taskId of the task
+     * @param urgencyLevel The integer urgencyLevel of the task
+     * @param dependencies The array of taskIds the task depends on
+     * @param body         The work to run for the task
+     *
+     * @throws IllegalArgumentException if taskId has already been submitted
+     */
+    public void submit(String taskId, int urgencyLevel, String[] dependencies, Runnable body) {
+        synchronized (entries) {
+            if (closed) {
+                throw new IllegalStateException("TaskExecutor is closed");
+            }
+            Entry entry = entries.getOrAdd(taskId);
+            if (entry.submitted) {
+                throw new IllegalArgumentException("Task already submitted: " + taskId);
+            }
+            entry.submitted = true;
+            entry.body = body;
+            submitted.incrementAndGet();
+            Deferred task = new Deferred(taskId, urgencyLevel, dependencies);
+            if (dependencies != null) {
+                for (String dependencyId : dependencies) {
+                    // The prioritizer would take an unknown dependency for a
+                    // placeholder, and then ignore its later add
+                    Entry dependency = entries.getOrAdd(dependencyId);
+                    if (!dependency.submitted || dependency.deferred != null) {
+                        if (dependency.waiters == null) {
+                            dependency.waiters = new ArrayList<>();
+                        }
+                        dependency.waiters.add(task);
+                        task.missing++;
+                    }
+                }
+            }
+            if (task.missing > 0) {
+                entry.deferred = task;
+                deferredCount++;
+                return;
+            }
+            addReleasing(task);
+        }
+        dispatch();
+    }
+
+    /**
+     * Adds a task to the prioritizer, followed by every deferred task that
+     * was waiting only for it or for tasks released along with it
+     */
+    private void addReleasing(Deferred task) {
+        List<Deferred> ready = new ArrayList<>();
+        ready.add(task);
+        for (int i = 0; i < ready.size(); i++) {
+            Deferred next = ready.get(i);
+            Entry entry = entries.get(next.taskId);
+            if (entry.deferred != null) {
+                entry.deferred = null;
+                deferredCount--;
+            }
+            prioritizer.add(next.taskId, next.urgencyLevel, next.dependencies);
+            List<Deferred> released = entry.waiters;
+            entry.waiters = null;
+            if (released != null) {
+                for (Deferred waiter : released) {
+                    if (--waiter.missing == 0) {
+                        ready.add(waiter);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A method to stop accepting submissions and obtain a future for the
+     * whole graph. The future completes once every submitted body has run,
+     * or completes exceptionally with the first failure thrown by a body.
+     * A body that fails still counts as finished for its dependents. Tasks
+     * that wait for a taskId that was never submitted, or on a cycle of
+     * dependencies, are dropped, and the future then fails with an
+     * IllegalStateException, once the other bodies have run.
+     *
+     * @return A future that completes when the graph has finished running
+     */
+    public CompletableFuture<Void> close() {
+        synchronized (entries) {
+            closed = true;
+            if (deferredCount > 0) {
+                String missing = null;
+                for (Entry head : entries.buckets()) {
+                    for (Entry e = head; e != null && missing == null; e = e.next) {
+                        if (e.waiters != null && !e.submitted) {
+                            missing = e.taskId;
+                        }
+                    }
+                }
+                // Every taskId waited for was submitted only if they wait in
+                // a cycle
+                String reason = (missing == null) ? "their dependencies form a cycle"
+                        : "they depend on a taskId that was never submitted: " + missing;
+                firstFailure.compareAndSet(null,
+                        new IllegalStateException(deferredCount + " tasks can never run because " + reason));
+                for (Entry head : entries.buckets()) {
+                    for (Entry e = head; e != null; e = e.next) {
+                        if (e.deferred != null) {
+                            e.deferred = null;
+                            e.body = null;
+                        }
+                        e.waiters = null;
+                    }
+                }
+                submitted.addAndGet(-deferredCount);
+                deferredCount = 0;
+            }
+        }
+        checkDone();
+        return done;
+    }
+
+    /**
+     * Leases ready tasks and hands them to the executor until the in-flight
+     * limit is reached or nothing is ready. A body that runs inline finishes
+     * inside this loop, which then leases whatever it released.
+     */
+    private void dispatch() {
+        if (dispatching.get()) {
+            return;
+        }
+        dispatching.set(Boolean.TRUE);
+        try {
+            dispatchLoop();
+        } finally {
+            dispatching.set(Boolean.FALSE);
+        }
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            int running = inFlight.get();
+            if (running >= maxInFlight) {
+                return;
+            }
+            if (!inFlight.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            String taskId = prioritizer.lease();
+            if (taskId == null) {
+                inFlight.decrementAndGet();
+                // A task published after our lease() but before the release
+                // of our slot would otherwise be left for nobody to run
+                if (!prioritizer.hasReadyTasks()) {
+                    return;
+                }
+                continue;
+            }
+            Runnable body;
+            synchronized (entries) {
+                Entry entry = entries.get(taskId);
+                body = entry.body;
+                entry.body = null;
+            }
+            try {
+                executor.execute(() -> run(taskId, body));
+            } catch (RejectedExecutionException e) {
+                run(taskId, () -> {
+                    throw e;
+                });
+            }
+        }
+    }
+
+    private void run(String taskId, Runnable body) {
+        try {
+            body.run();
+        } catch (Throwable t) {
+            firstFailure.compareAndSet(null, t);
+        } finally {
+            prioritizer.complete(taskId);
+            inFlight.decrementAndGet();
+            finished.incrementAndGet();
+            dispatch();
+            checkDone();
+        }
+    }
+
+    private void checkDone() {
+        if (closed && finished.get() == submitted.get()) {
+            Throwable failure = firstFailure.get();
+            if (failure == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(failure);
+            }
+        }
+    }
+}
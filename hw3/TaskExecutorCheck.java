@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TaskExecutorCheck submits seeded random task graphs to a TaskExecutor,
+ * in dependency order, in reverse and shuffled, and checks that every body
+ * runs exactly once and only after all of its dependencies have finished.
+ * It also checks that a long chain submitted in reverse runs to the end on
+ * an executor that runs every body on the calling thread, that a repeated
+ * taskId is rejected and that close() fails instead of hanging when a
+ * dependency is never submitted.
+ *
+ * Usage: TaskExecutorCheck [seed] [tasks]
+ *
+ * The seed defaults to 1 and the number of tasks per graph to 10000.
+ * Exits with status 1 if any check fails.
+ */
+public class TaskExecutorCheck {
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(8, runnable -> {
+        Thread thread = new Thread(runnable, "task-executor-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int failures;
+
+    /**
+     * A random graph in which each task depends on up to 3 earlier ones
+     */
+    private static final class Graph {
+        final String[] taskIds;
+        final int[] urgencyLevels;
+        final String[][] dependencies;
+
+        Graph(Random random, int size) {
+            taskIds = new String[size];
+            urgencyLevels = new int[size];
+            dependencies = new String[size][];
+            for (int i = 0; i < size; i++) {
+                taskIds[i] = "T" + i;
+                urgencyLevels[i] = random.nextInt(100);
+                dependencies[i] = new String[Math.min(i, random.nextInt(4))];
+                for (int j = 0; j < dependencies[i].length; j++) {
+                    dependencies[i][j] = taskIds[i - 1 - random.nextInt(Math.min(i, 64))];
+                }
+            }
+        }
+    }
+
+    /**
+     * Submits a graph in the given order and checks how its bodies ran
+     */
+    private void checkGraph(String name, Graph graph, List<Integer> order, int maxInFlight) {
+        TaskExecutor executor = new TaskExecutor(maxInFlight, pool);
+        Map<String, Boolean> finished = new ConcurrentHashMap<>();
+        AtomicInteger runs = new AtomicInteger();
+        List<String> problems = Collections.synchronizedList(new ArrayList<>());
+        for (int i : order) {
+            String taskId = graph.taskIds[i];
+            String[] dependencies = graph.dependencies[i];
+            executor.submit(taskId, graph.urgencyLevels[i], dependencies, () -> {
+                runs.incrementAndGet();
+                for (String dependency : dependencies) {
+                    if (!finished.containsKey(dependency)) {
+                        problems.add(taskId + " ran before its dependency " + dependency + " finished");
+                    }
+                }
+                if (finished.put(taskId, Boolean.TRUE) != null) {
+                    problems.add(taskId + " ran twice");
+                }
+            });
+        }
+        try {
+            executor.close().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            fail(name + ": close() did not complete, " + runs.get() + " of " + order.size() + " bodies ran");
+            return;
+        } catch (InterruptedException | ExecutionException e) {
+            fail(name + ": close() failed with " + e.getCause());
+            return;
+        }
+        if (!problems.isEmpty()) {
+            fail(name + ": " + problems.get(0) + " (" + problems.size() + " problems)");
+        } else if (runs.get() != order.size()) {
+            fail(name + ": " + runs.get() + " of " + order.size() + " bodies ran");
+        } else {
+            System.out.println("PASS " + name + ": " + runs.get() + " bodies ran in dependency order");
+        }
+    }
+
+    /**
+     * Submits a chain last task first, so that the submit of its head
+     * releases all of it, to an executor that runs bodies inline
+     */
+    private void checkInlineChain(int length) {
+        TaskExecutor executor = new TaskExecutor(1, Runnable::run);
+        int[] next = new int[1];
+        List<String> problems = new ArrayList<>();
+        try {
+            for (int i = length - 1; i >= 0; i--) {
+                int position = i;
+                String[] dependencies = (i == 0) ? null : new String[] { "C" + (i - 1) };
+                executor.submit("C" + i, 1, dependencies, () -> {
+                    if (next[0]++ != position && problems.isEmpty()) {
+                        problems.add("C" + position + " ran as body " + (next[0] - 1));
+                    }
+                });
+            }
+        } catch (StackOverflowError e) {
+            fail("inline chain: the stack overflowed after " + next[0] + " of " + length + " bodies");
+            return;
+        }
+        if (!awaitClose("inline chain", executor, false)) {
+            return;
+        }
+        if (!problems.isEmpty()) {
+            fail("inline chain: " + problems.get(0));
+        } else if (next[0] != length) {
+            fail("inline chain: " + next[0] + " of " + length + " bodies ran");
+        } else {
+            System.out.println("PASS inline chain: " + length + " bodies ran on the submitting thread");
+        }
+    }
+
+    private void checkRepeatedTaskId() {
+        TaskExecutor executor = new TaskExecutor(1, pool);
+        executor.submit("A", 1, null, () -> { });
+        try {
+            executor.submit("A", 1, null, () -> { });
+            fail("repeated taskId: the second submit was accepted");
+            return;
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        if (awaitClose("repeated taskId", executor, false)) {
+            System.out.println("PASS repeated taskId: rejected");
+        }
+    }
+
+    private void checkMissingDependency() {
+        TaskExecutor executor = new TaskExecutor(2, pool);
+        AtomicInteger runs = new AtomicInteger();
+        executor.submit("A", 1, null, runs::incrementAndGet);
+        executor.submit("B", 1, new String[] { "A", "never" }, runs::incrementAndGet);
+        executor.submit("C", 1, new String[] { "B" }, runs::incrementAndGet);
+        if (awaitClose("missing dependency", executor, true) && runs.get() == 1) {
+            System.out.println("PASS missing dependency: close() failed after the runnable body ran");
+        } else if (runs.get() != 1) {
+            fail("missing dependency: " + runs.get() + " bodies ran instead of 1");
+        }
+    }
+
+    /**
+     * @return true if close() completed, exceptionally exactly when expected
+     */
+    private boolean awaitClose(String name, TaskExecutor executor, boolean shouldFail) {
+        CompletableFuture<Void> done = executor.close();
+        try {
+            done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (shouldFail) {
+                fail(name + ": close() completed normally");
+                return false;
+            }
+            return true;
+        } catch (TimeoutException e) {
+            fail(name + ": close() did not complete");
+        } catch (ExecutionException e) {
+            if (shouldFail && e.getCause() instanceof IllegalStateException) {
+                return true;
+            }
+            fail(name + ": close() failed with " + e.getCause());
+        } catch (InterruptedException e) {
+            fail(name + ": interrupted");
+        }
+        return false;
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+        Random random = new Random(seed);
+        Graph graph = new Graph(random, size);
+        List<Integer> forward = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            forward.add(i);
+        }
+        List<Integer> reverse = new ArrayList<>(forward);
+        Collections.reverse(reverse);
+        List<Integer> shuffled = new ArrayList<>(forward);
+        Collections.shuffle(shuffled, random);
+
+        TaskExecutorCheck check = new TaskExecutorCheck();
+        for (int maxInFlight : new int[] { 1, 8 }) {
+            check.checkGraph("in order, " + maxInFlight + " in flight", graph, forward, maxInFlight);
+            check.checkGraph("reversed, " + maxInFlight + " in flight", graph, reverse, maxInFlight);
+            check.checkGraph("shuffled, " + maxInFlight + " in flight", graph, shuffled, maxInFlight);
+        }
+        check.checkInlineChain(Math.max(size, 100_000));
+        check.checkRepeatedTaskId();
+        check.checkMissingDependency();
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,654 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * TaskJournal makes a TaskPrioritizer durable across restarts. Every
+ * mutation is appended to a binary write-ahead log, and snapshots of the
+ * whole prioritizer let recovery skip replaying old history.
+ *
+ * Files live in one directory and are numbered by generation. A snapshot
+ * snapshot-G.bin holds the state at the moment wal-G.log was started, so
+ * recovery maps the newest snapshot and replays only the log of the same
+ * generation. Older generations are deleted once a new snapshot is in
+ * place.
+ *
+ * Records are buffered and written as CRC-checked batches (group commit),
+ * either when recordsPerCommit records are pending or on flush(). A batch
+ * cut short by a crash fails its check and is dropped on recovery, along
+ * with everything after it. Records are durable once flush() returns, or
+ * once a batch has been forced by the fsync interval.
+ *
+ * A prioritizer shared between threads only seals batches while it holds
+ * its graph lock, and writes them once it has let go of the lock, so that
+ * no other thread waits on the disk for it. Batches are written in the
+ * order they were sealed, one writer at a time.
+ */
+public class TaskJournal implements AutoCloseable {
+    static final byte ADD = 1;
+    static final byte UPDATE = 2;
+    static final byte RESOLVE = 3;
+    static final byte COMPLETE = 4;
+    static final byte ADD_ALL = 5;
+    static final byte CANCEL = 6;
+    static final byte ADD_DELAYED = 7;
+    static final byte ADVANCE = 8;
+    // The aging clock's tick for the records that follow it, written only
+    // under aging by time and only when the tick changes
+    static final byte TICK = 9;
+
+    static final int SNAPSHOT_MAGIC = 0x5450534e;
+    static final int SNAPSHOT_VERSION = 1;
+
+    private static final int BATCH_HEADER_BYTES = 8;
+    private static final int MAX_BATCH_BYTES = 1 << 20;
+    private static final int SPARE_BUFFERS = 4;
+
+    private final Path directory;
+    private final int recordsPerCommit;
+    private final long fsyncIntervalNanos;
+    private final CRC32 crc;
+    // Taken before this journal's own monitor by whoever writes to the log
+    // while batches are deferred, and by flush(), snapshot() and close()
+    private final Object writeLock;
+    private ByteBuffer pending;
+    private int pendingRecords;
+    // Batches sealed but not yet written, oldest first, and emptied buffers
+    // kept for reuse
+    private ByteBuffer[] sealed;
+    private int sealedCount;
+    private volatile boolean hasSealed;
+    private ByteBuffer[] spare;
+    private int spareCount;
+    private volatile boolean deferWrites;
+    private long lastSyncNanos;
+    private long generation;
+    private FileChannel wal;
+    // The tick of the last TICK record in the current log, or Long.MIN_VALUE
+    // before the first
+    private long loggedTick = Long.MIN_VALUE;
+
+    /**
+     * Constructor to open a journal directory, creating it if necessary
+     *
+     * @param directory          The directory holding the log and snapshots
+     * @param recordsPerCommit   The number of records gathered into one write
+     * @param fsyncIntervalNanos The minimum time between forced writes, 0 to
+     *                           force every batch, or negative to leave
+     *                           syncing to flush() and the operating system
+     */
+    public TaskJournal(Path directory, int recordsPerCommit, long fsyncIntervalNanos) throws IOException {
+        if (recordsPerCommit < 1) {
+            throw new IllegalArgumentException("recordsPerCommit must be positive: " + recordsPerCommit);
+        }
+        this.directory = directory;
+        this.recordsPerCommit = recordsPerCommit;
+        this.fsyncIntervalNanos = fsyncIntervalNanos;
+        this.crc = new CRC32();
+        this.writeLock = new Object();
+        this.pending = ByteBuffer.allocate(64 * 1024);
+        this.pending.position(BATCH_HEADER_BYTES);
+        this.sealed = new ByteBuffer[4];
+        this.spare = new ByteBuffer[SPARE_BUFFERS];
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Loads the newest snapshot into the given prioritizer, replays the log
+     * written after it, and leaves the log open for appending
+     */
+    void recover(TaskPrioritizer prioritizer) throws IOException {
+        generation = latestSnapshotGeneration();
+        if (generation > 0) {
+            try (FileChannel channel = FileChannel.open(snapshotPath(generation), StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot larger than 2GB cannot be mapped: " + snapshotPath(generation));
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                prioritizer.readSnapshot(buffer);
+            }
+        }
+
+        wal = FileChannel.open(walPath(generation), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long validEnd = 0;
+        if (wal.size() > 0 && wal.size() <= Integer.MAX_VALUE) {
+            MappedByteBuffer log = wal.map(FileChannel.MapMode.READ_ONLY, 0, wal.size());
+            validEnd = replay(log, prioritizer);
+        } else if (wal.size() > 0) {
+            validEnd = replayInChunks(prioritizer);
+        }
+        // Drop a torn tail so new batches follow the last good one
+        wal.truncate(validEnd);
+        wal.position(validEnd);
+        lastSyncNanos = System.nanoTime();
+    }
+
+    private long replay(ByteBuffer log, TaskPrioritizer prioritizer) {
+        long validEnd = 0;
+        while (log.remaining() >= BATCH_HEADER_BYTES) {
+            int start = log.position();
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length < 0 || length > log.remaining()) {
+                break;
+            }
+            ByteBuffer batch = log.slice();
+            batch.limit(length);
+            crc.reset();
+            crc.update(batch.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            prioritizer.replay(batch);
+            log.position(start + BATCH_HEADER_BYTES + length);
+            validEnd = log.position();
+        }
+        return validEnd;
+    }
+
+    private long replayInChunks(TaskPrioritizer prioritizer) throws IOException {
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_BYTES);
+        while (offset + BATCH_HEADER_BYTES <= wal.size()) {
+            header.clear();
+            wal.read(header, offset);
+            header.flip();
+            int length = header.getInt();
+            if (length < 0 || offset + BATCH_HEADER_BYTES + length > wal.size()) {
+                break;
+            }
+            ByteBuffer batch = ByteBuffer.allocate(BATCH_HEADER_BYTES + length);
+            wal.read(batch, offset);
+            batch.flip();
+            if (replay(batch, prioritizer) == 0) {
+                break;
+            }
+            offset += BATCH_HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    private long latestSnapshotGeneration() throws IOException {
+        long latest = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "snapshot-*.bin")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    latest = Math.max(latest, Long.parseLong(name.substring(9, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // Not one of ours; ignore it
+                }
+            }
+        }
+        return latest;
+    }
+
+    private Path snapshotPath(long gen) {
+        return directory.resolve("snapshot-" + gen + ".bin");
+    }
+
+    private Path walPath(long gen) {
+        return directory.resolve("wal-" + gen + ".log");
+    }
+
+    /**
+     * Writes a snapshot of the given prioritizer as the next generation and
+     * starts a fresh log for it. The caller must keep the prioritizer from
+     * changing while this runs.
+     */
+    void snapshot(TaskPrioritizer prioritizer) throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                writeSnapshot(prioritizer);
+            }
+        }
+    }
+
+    private void writeSnapshot(TaskPrioritizer prioritizer) throws IOException {
+        flush();
+        long next = generation + 1;
+        Path temp = directory.resolve("snapshot-" + next + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SnapshotWriter writer = new SnapshotWriter(channel);
+            prioritizer.writeSnapshot(writer);
+            writer.finish();
+            channel.force(true);
+        }
+        Files.move(temp, snapshotPath(next), StandardCopyOption.ATOMIC_MOVE);
+
+        FileChannel nextWal = FileChannel.open(walPath(next), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        wal.close();
+        wal = nextWal;
+        loggedTick = Long.MIN_VALUE;
+        // The rename and the new log must reach the disk before the old
+        // generation goes, or a crash could keep the deletes and lose both
+        syncDirectory();
+        Files.deleteIfExists(walPath(generation));
+        Files.deleteIfExists(snapshotPath(generation));
+        generation = next;
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Leaves sealed batches to be written by writeSealed() instead of as
+     * soon as they are sealed
+     */
+    void deferWrites() {
+        deferWrites = true;
+    }
+
+    synchronized void logAdd(String taskId, int urgencyLevel, String[] dependencies) {
+        ensureRoom(16 + taskId.length() * 3 + byteEstimate(dependencies));
+        pending.put(ADD);
+        putString(pending, taskId);
+        putVarInt(pending, zigZag(urgencyLevel));
+        putDependencies(pending, dependencies);
+        recordAdded();
+    }
+
+    synchronized void logAddAll(String[] taskIds, int[] urgencyLevels, String[][] dependencies) {
+        ensureRoom(8);
+        pending.put(ADD_ALL);
+        putVarInt(pending, taskIds.length);
+        for (int i = 0; i < taskIds.length; i++) {
+            String[] taskDependencies = (dependencies == null) ? null : dependencies[i];
+            ensureRoom(16 + taskIds[i].length() * 3 + byteEstimate(taskDependencies));
+            putString(pending, taskIds[i]);
+            putVarInt(pending, zigZag(urgencyLevels[i]));
+            putDependencies(pending, taskDependencies);
+        }
+        recordAdded();
+    }
+
+    synchronized void logUpdate(String taskId, int urgencyLevel) {
+        ensureRoom(16 + taskId.length() * 3);
+        pending.put(UPDATE);
+        putString(pending, taskId);
+        putVarInt(pending, zigZag(urgencyLevel));
+        recordAdded();
+    }
+
+    synchronized void logResolve(String taskId) {
+        ensureRoom(8 + taskId.length() * 3);
+        pending.put(RESOLVE);
+        putString(pending, taskId);
+        recordAdded();
+    }
+
+    synchronized void logComplete(String taskId) {
+        ensureRoom(8 + taskId.length() * 3);
+        pending.put(COMPLETE);
+        putString(pending, taskId);
+        recordAdded();
+    }
+
+    /**
+     * Writes the complete record of a task together with the aging tick its
+     * dependents were made ready at, so that concurrent completions cannot
+     * come between the two
+     */
+    synchronized void logComplete(String taskId, long tick) {
+        logTick(tick);
+        logComplete(taskId);
+    }
+
+    synchronized void logTick(long tick) {
+        if (tick == loggedTick) {
+            return;
+        }
+        ensureRoom(11);
+        pending.put(TICK);
+        putVarLong(pending, zigZag(tick));
+        loggedTick = tick;
+        recordAdded();
+    }
+
+    synchronized void logAddDelayed(String taskId, int urgencyLevel, String[] dependencies, long notBeforeNanos) {
+        ensureRoom(26 + taskId.length() * 3 + byteEstimate(dependencies));
+        pending.put(ADD_DELAYED);
+        putString(pending, taskId);
+        putVarInt(pending, zigZag(urgencyLevel));
+        putDependencies(pending, dependencies);
+        putVarLong(pending, zigZag(notBeforeNanos));
+        recordAdded();
+    }
+
+    synchronized void logAdvance(long nowNanos) {
+        ensureRoom(11);
+        pending.put(ADVANCE);
+        putVarLong(pending, zigZag(nowNanos));
+        recordAdded();
+    }
+
+    synchronized void logCancel(String taskId, boolean cascade) {
+        ensureRoom(8 + taskId.length() * 3);
+        pending.put(CANCEL);
+        putString(pending, taskId);
+        pending.put((byte) (cascade ? 1 : 0));
+        recordAdded();
+    }
+
+    private static int byteEstimate(String[] dependencies) {
+        int bytes = 5;
+        if (dependencies != null) {
+            for (String dependency : dependencies) {
+                bytes += 5 + dependency.length() * 3;
+            }
+        }
+        return bytes;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+    }
+
+    private void recordAdded() {
+        pendingRecords++;
+        if (pendingRecords >= recordsPerCommit || pending.position() >= MAX_BATCH_BYTES) {
+            seal();
+            if (!deferWrites) {
+                try {
+                    writeBatches();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the pending records into a batch with its header and queues it
+     * for writing
+     */
+    private void seal() {
+        if (pendingRecords == 0) {
+            return;
+        }
+        int length = pending.position() - BATCH_HEADER_BYTES;
+        crc.reset();
+        crc.update(pending.array(), BATCH_HEADER_BYTES, length);
+        pending.putInt(0, length);
+        pending.putInt(4, (int) crc.getValue());
+        pending.flip();
+        if (sealedCount == sealed.length) {
+            sealed = Arrays.copyOf(sealed, sealedCount * 2);
+        }
+        sealed[sealedCount++] = pending;
+        hasSealed = true;
+        pending = (spareCount > 0) ? spare[--spareCount] : ByteBuffer.allocate(64 * 1024);
+        pending.position(BATCH_HEADER_BYTES);
+        pendingRecords = 0;
+    }
+
+    /**
+     * @return true if some sealed batch is waiting for writeSealed()
+     */
+    boolean hasSealed() {
+        return hasSealed;
+    }
+
+    /**
+     * Writes every batch sealed so far. Must be called without the graph
+     * lock of the prioritizer, since it waits for any other writer.
+     */
+    void writeSealed() {
+        synchronized (writeLock) {
+            try {
+                writeBatches();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Takes the sealed batches and writes them. The caller holds writeLock
+     * when writes are deferred, and this journal's monitor otherwise, so
+     * the log has one writer at a time either way.
+     */
+    private void writeBatches() throws IOException {
+        ByteBuffer[] batches;
+        synchronized (this) {
+            if (sealedCount == 0) {
+                return;
+            }
+            batches = Arrays.copyOf(sealed, sealedCount);
+            Arrays.fill(sealed, 0, sealedCount, null);
+            sealedCount = 0;
+            hasSealed = false;
+        }
+        for (ByteBuffer batch : batches) {
+            while (batch.hasRemaining()) {
+                wal.write(batch);
+            }
+        }
+        if (fsyncIntervalNanos >= 0) {
+            long now = System.nanoTime();
+            if (now - lastSyncNanos >= fsyncIntervalNanos) {
+                wal.force(false);
+                lastSyncNanos = now;
+            }
+        }
+        synchronized (this) {
+            for (ByteBuffer batch : batches) {
+                if (spareCount < spare.length) {
+                    batch.clear();
+                    spare[spareCount++] = batch;
+                }
+            }
+        }
+    }
+
+    /**
+     * A method to write all pending records and force them to disk
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                seal();
+                writeBatches();
+                wal.force(false);
+                lastSyncNanos = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * A method to flush pending records and close the log
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (wal != null && wal.isOpen()) {
+                    flush();
+                    wal.close();
+                }
+            }
+        }
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarInt(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = getVarInt(buffer);
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static void putDependencies(ByteBuffer buffer, String[] dependencies) {
+        if (dependencies == null) {
+            putVarInt(buffer, 0);
+            return;
+        }
+        putVarInt(buffer, dependencies.length);
+        for (String dependency : dependencies) {
+            putString(buffer, dependency);
+        }
+    }
+
+    static String[] getDependencies(ByteBuffer buffer) {
+        int count = getVarInt(buffer);
+        String[] dependencies = new String[count];
+        for (int i = 0; i < count; i++) {
+            dependencies[i] = getString(buffer);
+        }
+        return dependencies;
+    }
+
+    /**
+     * Buffered writer for snapshot files, using the same varint and string
+     * encoding as the log
+     */
+    static class SnapshotWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        SnapshotWriter(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(1 << 20);
+        }
+
+        private void ensureRoom(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void writeInt(int value) throws IOException {
+            ensureRoom(4);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            ensureRoom(8);
+            buffer.putLong(value);
+        }
+
+        void writeVarInt(int value) throws IOException {
+            ensureRoom(5);
+            putVarInt(buffer, value);
+        }
+
+        void writeVarLong(long value) throws IOException {
+            ensureRoom(10);
+            putVarLong(buffer, value);
+        }
+
+        void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            if (bytes.length > buffer.capacity()) {
+                drain();
+                channel.write(ByteBuffer.wrap(bytes));
+                return;
+            }
+            ensureRoom(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void finish() throws IOException {
+            drain();
+        }
+    }
+}
@@ -1,5 +1,18 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * TaskPrioritizer class that returns the most urgent
@@ -9,12 +22,38 @@ import java.util.List;
  */
 public class TaskPrioritizer {
     /**
-     * Constructor to initialize the TaskPrioritizer
+     * The priority queue implementation used for ready tasks.
+     * BINARY_HEAP is the array-backed heap; PAIRING_HEAP makes urgency
+     * increases O(1) amortized and is meant for update-heavy workloads.
      */
+    public enum Engine {
+        BINARY_HEAP,
+        PAIRING_HEAP
+    }
 
+    /**
+     * Chained hash map from taskId to Task. Resizing and compaction rebuild
+     * the table incrementally: a rebuild allocates the new table and then
+     * moves a few buckets of the old one on every later mutating call, so
+     * no single call pays for a pass over the whole table. Lookups check
+     * both tables until the old one is empty. Resolved tasks met along the
+     * way are dropped from the table, and only their keys are kept, in a
+     * compact set, so that getTask still reports them as resolved.
+     */
     private class MyHashMap {
         private static final int INITIAL_CAPACITY = 65536;
+        // Buckets of the old table moved per mutating call; at 16, a rebuild
+        // ends well before the new table can fill up
+        private static final int REBUILD_STEP = 16;
         private Entry[] table;
+        // The table being rebuilt from, or null; buckets below rebuildIndex
+        // have already been moved and are null
+        private Entry[] oldTable;
+        private int rebuildIndex;
+        // Entries in both tables, and in the new table alone
+        private int count;
+        private int tableCount;
+        private final ResolvedKeySet resolvedKeys = new ResolvedKeySet();
 
         public MyHashMap() {
             table = new Entry[INITIAL_CAPACITY];
@@ -32,57 +71,363 @@ public class TaskPrioritizer {
             }
         }
 
-        private int hash(String key) {
-            int hashCode = 0;
-            for (char c : key.toCharArray()) {
-                hashCode = 31 * hashCode + c;
+        private int hash(String key, int length) {
+            int h = key.hashCode();
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        private Entry find(Entry[] entries, String key) {
+            for (Entry e = entries[hash(key, entries.length)]; e != null; e = e.next) {
+                if (e.key.equals(key)) {
+                    return e;
+                }
             }
-            return Math.abs(hashCode) % table.length;
+            return null;
         }
 
         public void addTask(String key, Task value) {
-            int index = hash(key);
-            Entry current = table[index];
-            while (current != null) {
-                if (current.key.equals(key)) {
-                    current.value = value;
-                    return;
-                }
-                current = current.next;
+            Entry current = find(table, key);
+            if (current == null && oldTable != null) {
+                current = find(oldTable, key);
+            }
+            if (current != null) {
+                current.value = value;
+                return;
             }
+            int index = hash(key, table.length);
             table[index] = new Entry(key, value, table[index]);
+            count++;
+            tableCount++;
+            if (oldTable != null) {
+                rebuildStep();
+            }
+            if (tableCount > table.length - (table.length >> 2)) {
+                // Only a table filled faster than it could be rebuilt is
+                // still being rebuilt here; finish that one first
+                finishRebuild();
+                startRebuild(table.length * 2);
+            }
         }
 
-        public Task getTask(String key) {
-            int index = hash(key);
-            Entry curr = table[index];
-            while (curr != null) {
-                if (curr.key.equals(key)) {
-                    return curr.value;
+        /**
+         * Grows the table up front so that adding the given number of
+         * additional keys does not trigger repeated rehashing. Bulk callers
+         * pay for the whole rebuild at once, as they pay for every key.
+         */
+        public void ensureCapacity(int additionalKeys) {
+            long needed = (long) (count + additionalKeys) * 4 / 3 + 1;
+            int capacity = table.length;
+            while (capacity < needed && capacity < (1 << 30)) {
+                capacity *= 2;
+            }
+            if (capacity != table.length) {
+                finishRebuild();
+                startRebuild(capacity);
+                finishRebuild();
+            }
+        }
+
+        /**
+         * Starts moving every entry into a new table of the given capacity,
+         * dropping resolved tasks on the way
+         */
+        private void startRebuild(int capacity) {
+            oldTable = table;
+            table = new Entry[capacity];
+            tableCount = 0;
+            rebuildIndex = 0;
+        }
+
+        public boolean rebuilding() {
+            return oldTable != null;
+        }
+
+        /**
+         * Moves the next REBUILD_STEP buckets of the old table
+         */
+        public void rebuildStep() {
+            int end = Math.min(rebuildIndex + REBUILD_STEP, oldTable.length);
+            for (int i = rebuildIndex; i < end; i++) {
+                moveBucket(i);
+            }
+            rebuildIndex = end;
+            if (end == oldTable.length) {
+                oldTable = null;
+            }
+        }
+
+        public void finishRebuild() {
+            while (oldTable != null) {
+                rebuildStep();
+            }
+        }
+
+        private void moveBucket(int i) {
+            Entry head = oldTable[i];
+            oldTable[i] = null;
+            while (head != null) {
+                Entry next = head.next;
+                if (head.value.resolved) {
+                    resolvedKeys.add(head.key);
+                    count--;
+                } else {
+                    int index = hash(head.key, table.length);
+                    head.next = table[index];
+                    table[index] = head;
+                    tableCount++;
                 }
-                curr = curr.next;
+                head = next;
+            }
+        }
+
+        public Task getTask(String key) {
+            Entry entry = find(table, key);
+            if (entry == null && oldTable != null) {
+                entry = find(oldTable, key);
+            }
+            if (entry != null) {
+                return entry.value;
+            }
+            if (resolvedKeys.size() > 0 && resolvedKeys.contains(key)) {
+                return resolvedTask;
             }
             return null;
         }
 
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Starts a rebuild that moves every resolved task out of the table,
+         * into a table sized for the tasks left, at most the current size
+         *
+         * @param live An estimate of the unresolved tasks in the table
+         */
+        public void compactResolved(int live) {
+            finishRebuild();
+            int capacity = table.length;
+            while (capacity > INITIAL_CAPACITY && live < (capacity >> 3)) {
+                capacity >>= 1;
+            }
+            startRebuild(capacity);
+        }
+
+        /**
+         * @return The tables holding entries, the old one first while a
+         *         rebuild is running
+         */
+        public Entry[][] tables() {
+            return (oldTable == null) ? new Entry[][] { table } : new Entry[][] { oldTable, table };
+        }
+
+        public void addResolvedKey(String key) {
+            resolvedKeys.add(key);
+        }
+
+        public int resolvedKeyCount() {
+            return resolvedKeys.size();
+        }
+
+        public void writeResolvedKeys(TaskJournal.SnapshotWriter out) throws IOException {
+            resolvedKeys.writeTo(out);
+        }
+
         public boolean hasTask(String key) {
             return getTask(key) != null;
         }
     }
 
+    /**
+     * The set of taskIds compacted out of the task table. The characters of
+     * each taskId are copied, after a two-char length, into large shared
+     * char arrays, so that membership is exact while the String, its Entry
+     * and its Task can all be collected. An open-addressed array with linear
+     * probing holds each key's position in those arrays, next to its hash.
+     * Like the task table, the probe array grows incrementally: a larger one
+     * is allocated and every add() moves a few slots of the old one into it.
+     */
+    private static final class ResolvedKeySet {
+        // Slots of the old array moved per add; at 4, growing ends before
+        // the new array is half full
+        private static final int GROW_STEP = 4;
+        private static final int CHUNK_CHARS = 1 << 16;
+        // Keys are appended to the last chunk; a key too long for a chunk
+        // gets one of its own
+        private char[][] chunks = new char[4][];
+        private int[] chunkEnds = new int[4];
+        private int chunkCount;
+        // A key's position is its chunk in the high half and its offset in
+        // the low half, plus one so that 0 marks an empty slot
+        private long[] slots = new long[16];
+        private int[] hashes = new int[16];
+        private long[] oldSlots;
+        private int[] oldHashes;
+        private int growIndex;
+        private int count;
+
+        int size() {
+            return count;
+        }
+
+        private static int hash(String key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
+        }
+
+        boolean contains(String key) {
+            int hash = hash(key);
+            return find(slots, hashes, key, hash) >= 0
+                    || (oldSlots != null && find(oldSlots, oldHashes, key, hash) >= 0);
+        }
+
+        private int find(long[] slots, int[] hashes, String key, int hash) {
+            int mask = slots.length - 1;
+            for (int i = hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (hashes[i] == hash && matches(slots[i] - 1, key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean matches(long position, String key) {
+            char[] chunk = chunks[(int) (position >>> 32)];
+            int offset = (int) position;
+            int length = (chunk[offset] << 16) | chunk[offset + 1];
+            if (length != key.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chunk[offset + 2 + i] != key.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(String key) {
+            if (oldSlots != null) {
+                growStep();
+            }
+            int hash = hash(key);
+            if (find(slots, hashes, key, hash) >= 0
+                    || (oldSlots != null && find(oldSlots, oldHashes, key, hash) >= 0)) {
+                return;
+            }
+            insert(slots, hashes, append(key) + 1, hash);
+            count++;
+            if (count > (slots.length >> 1)) {
+                while (oldSlots != null) {
+                    growStep();
+                }
+                oldSlots = slots;
+                oldHashes = hashes;
+                slots = new long[slots.length * 2];
+                hashes = new int[hashes.length * 2];
+                growIndex = 0;
+            }
+        }
+
+        private void growStep() {
+            int end = Math.min(growIndex + GROW_STEP, oldSlots.length);
+            for (int i = growIndex; i < end; i++) {
+                if (oldSlots[i] != 0) {
+                    insert(slots, hashes, oldSlots[i], oldHashes[i]);
+                }
+            }
+            growIndex = end;
+            if (end == oldSlots.length) {
+                oldSlots = null;
+                oldHashes = null;
+            }
+        }
+
+        private static void insert(long[] slots, int[] hashes, long slot, int hash) {
+            int mask = slots.length - 1;
+            int i = hash & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = slot;
+            hashes[i] = hash;
+        }
+
+        /**
+         * Copies a key after the last one
+         *
+         * @return The position of the copy
+         */
+        private long append(String key) {
+            int needed = key.length() + 2;
+            if (chunkCount == 0 || chunkEnds[chunkCount - 1] + needed > chunks[chunkCount - 1].length) {
+                if (chunkCount == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, chunkCount * 2);
+                    chunkEnds = Arrays.copyOf(chunkEnds, chunkCount * 2);
+                }
+                chunks[chunkCount++] = new char[Math.max(CHUNK_CHARS, needed)];
+            }
+            int chunk = chunkCount - 1;
+            char[] chars = chunks[chunk];
+            int offset = chunkEnds[chunk];
+            chars[offset] = (char) (key.length() >>> 16);
+            chars[offset + 1] = (char) key.length();
+            key.getChars(0, key.length(), chars, offset + 2);
+            chunkEnds[chunk] = offset + needed;
+            return ((long) chunk << 32) | offset;
+        }
+
+        /**
+         * Writes every key in the set, in the order they were added
+         */
+        void writeTo(TaskJournal.SnapshotWriter out) throws IOException {
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                char[] chars = chunks[chunk];
+                int offset = 0;
+                while (offset < chunkEnds[chunk]) {
+                    int length = (chars[offset] << 16) | chars[offset + 1];
+                    out.writeString(new String(chars, offset + 2, length));
+                    offset += length + 2;
+                }
+            }
+        }
+    }
+
     private class Task {
         String taskId;
         int urgencyLevel;
+        // The urgency the ready queue orders by: urgencyLevel, raised to the
+        // highest urgency among transitive dependents when inheritance is on
+        int effectiveUrgency;
+        // The ready queue's ordering key: effectiveUrgency, or with aging on,
+        // effectiveUrgency scaled by the aging period minus readyTick
+        long priorityKey;
+        long readyTick;
         List<Task> dependents;
+        // Unresolved dependencies, kept only when inheritance is on
+        List<Task> dependencies;
         int order;
         boolean resolved;
         int unresolvedCount;
         int heapIndex;
+        PairingNode node;
+        boolean leased;
+        int snapshotIndex;
+        // Set while the task waits for its start time, which counts as one
+        // of its unresolved dependencies
+        TimerNode timer;
+        // The urgency the ready counter filed the task under, and its slot in
+        // the counter's pending list, or -1 once that urgency is ranked
+        int countedUrgency;
+        int pendingIndex;
 
         public Task(String taskId, int urgencyLevel, int order, String[] dependencies) {
             this.taskId = taskId;
             this.urgencyLevel = urgencyLevel;
+            this.effectiveUrgency = urgencyLevel;
+            this.priorityKey = urgencyLevel;
             this.dependents = new ArrayList<>();
+            this.dependencies = inheritUrgency ? new ArrayList<>() : null;
             this.order = order;
             this.resolved = false;
             this.heapIndex = -1;
@@ -90,7 +435,131 @@ public class TaskPrioritizer {
         }
     }
 
-    private class MaxHeap {
+    private interface ReadyQueue {
+        void addTask(Task task);
+
+        default void addAll(Task[] tasks, int from, int count) {
+            for (int i = from; i < from + count; i++) {
+                addTask(tasks[i]);
+            }
+        }
+
+        Task removeHighestPriority();
+
+        /**
+         * Removes the highest priority task and adds the given one in its
+         * place, which lets a heap do a single sift instead of two
+         */
+        default Task replaceTop(Task task) {
+            Task max = removeHighestPriority();
+            addTask(task);
+            return max;
+        }
+
+        Task peek();
+
+        /**
+         * Copies up to k of the highest priority tasks into out, in the
+         * order they would be removed, without changing the queue
+         *
+         * @return The number of tasks copied
+         */
+        int peek(int k, Task[] out);
+
+        void remove(Task task);
+
+        void updatePriority(Task task);
+
+        boolean contains(Task task);
+
+        boolean isEmpty();
+
+        int size();
+    }
+
+    private static int compareKeys(long keyA, int orderA, long keyB, int orderB) {
+        int urgencyComparison = Long.compare(keyA, keyB);
+        if (urgencyComparison != 0) {
+            return urgencyComparison;
+        }
+        return Integer.compare(orderB, orderA);
+    }
+
+    /**
+     * The candidates of a best-first walk over a heap-ordered tree, kept in
+     * a small binary max-heap of their own. Popping a node and pushing its
+     * children lists the tree in priority order while only ever touching
+     * the nodes listed and their children.
+     */
+    private static final class Frontier {
+        private Object[] items;
+        private long[] keys;
+        private int[] orders;
+        private int size;
+
+        Frontier(int capacity) {
+            items = new Object[Math.max(capacity, 2)];
+            keys = new long[items.length];
+            orders = new int[items.length];
+        }
+
+        private boolean greater(int i, int j) {
+            return compareKeys(keys[i], orders[i], keys[j], orders[j]) > 0;
+        }
+
+        private void swap(int i, int j) {
+            Object item = items[i];
+            items[i] = items[j];
+            items[j] = item;
+            long key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+            int order = orders[i];
+            orders[i] = orders[j];
+            orders[j] = order;
+        }
+
+        void push(Object item, long key, int order) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+                orders = Arrays.copyOf(orders, size * 2);
+            }
+            items[size] = item;
+            keys[size] = key;
+            orders[size] = order;
+            int k = size++;
+            while (k > 0 && greater(k, (k - 1) / 2)) {
+                swap(k, (k - 1) / 2);
+                k = (k - 1) / 2;
+            }
+        }
+
+        Object pop() {
+            Object max = items[0];
+            swap(0, --size);
+            items[size] = null;
+            int n = 0;
+            while (n * 2 + 1 < size) {
+                int child = n * 2 + 1;
+                if (child + 1 < size && greater(child + 1, child)) {
+                    child++;
+                }
+                if (!greater(child, n)) {
+                    break;
+                }
+                swap(n, child);
+                n = child;
+            }
+            return max;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    private class MaxHeap implements ReadyQueue {
         private Task[] heap;
         private int size;
 
@@ -100,11 +569,7 @@ public class TaskPrioritizer {
         }
 
         private int compare(Task a, Task b) {
-            int urgencyComparison = Integer.compare(a.urgencyLevel, b.urgencyLevel);
-            if (urgencyComparison != 0) {
-                return urgencyComparison;
-            }
-            return Integer.compare(b.order, a.order);
+            return compareKeys(a.priorityKey, a.order, b.priorityKey, b.order);
         }
 
         private void swap(int i, int j) {
@@ -138,12 +603,39 @@ public class TaskPrioritizer {
         }
 
         public void addTask(Task task) {
+            if (size + 1 == heap.length) {
+                heap = Arrays.copyOf(heap, heap.length * 2);
+            }
             size++;
             heap[size] = task;
             task.heapIndex = size;
             floatUp(size);
         }
 
+        public void addAll(Task[] tasks, int from, int count) {
+            if (size + count >= heap.length) {
+                heap = Arrays.copyOf(heap, Math.max(heap.length * 2, size + count + 1));
+            }
+            int first = size + 1;
+            for (int i = from; i < from + count; i++) {
+                size++;
+                heap[size] = tasks[i];
+                tasks[i].heapIndex = size;
+            }
+            // Floyd's bottom-up heapify is O(size); it beats count floatUps
+            // once the batch is a sizeable fraction of the heap
+            int log = 32 - Integer.numberOfLeadingZeros(size);
+            if ((long) count * log >= size) {
+                for (int k = size / 2; k >= 1; k--) {
+                    sinkDown(k);
+                }
+            } else {
+                for (int k = first; k <= size; k++) {
+                    floatUp(k);
+                }
+            }
+        }
+
         public Task removeHighestPriority() {
             Task max = heap[1];
             swap(1, size);
@@ -154,105 +646,2648 @@ public class TaskPrioritizer {
             return max;
         }
 
+        public void remove(Task task) {
+            int index = task.heapIndex;
+            swap(index, size);
+            heap[size] = null;
+            size--;
+            task.heapIndex = -1;
+            if (index <= size) {
+                floatUp(index);
+                sinkDown(index);
+            }
+        }
+
+        public Task replaceTop(Task task) {
+            Task max = heap[1];
+            max.heapIndex = -1;
+            heap[1] = task;
+            task.heapIndex = 1;
+            sinkDown(1);
+            return max;
+        }
+
+        public Task peek() {
+            return (size == 0) ? null : heap[1];
+        }
+
+        /**
+         * Walks the heap best-first from the root. Each step lists one task
+         * and adds at most its two children, so the frontier never exceeds
+         * k + 1 entries and the walk is O(k log k).
+         */
+        public int peek(int k, Task[] out) {
+            if (size == 0 || k <= 0) {
+                return 0;
+            }
+            Frontier frontier = new Frontier(Math.min(k, size) + 1);
+            frontier.push(heap[1], heap[1].priorityKey, heap[1].order);
+            int count = 0;
+            while (count < k && !frontier.isEmpty()) {
+                Task task = (Task) frontier.pop();
+                out[count++] = task;
+                int child = task.heapIndex * 2;
+                for (int i = child; i <= Math.min(child + 1, size); i++) {
+                    frontier.push(heap[i], heap[i].priorityKey, heap[i].order);
+                }
+            }
+            return count;
+        }
+
         public void updatePriority(Task task) {
             int index = task.heapIndex;
             floatUp(index);
             sinkDown(index);
         }
 
-        public boolean hasTasks() {
+        public boolean contains(Task task) {
+            return task.heapIndex > 0;
+        }
+
+        public boolean isEmpty() {
             return size == 0;
         }
+
+        public int size() {
+            return size;
+        }
     }
 
+    /**
+     * A node of the pairing heap. The key is copied in so that
+     * updatePriority can tell an increase from a decrease.
+     */
+    private class PairingNode {
+        Task task;
+        long priorityKey;
+        PairingNode child;
+        PairingNode sibling;
+        PairingNode prev;
 
+        PairingNode(Task task) {
+            this.task = task;
+            this.priorityKey = task.priorityKey;
+        }
+    }
 
-    private MyHashMap taskMap;
-    private MaxHeap heap;
-    private int addOrderCounter;
+    private class PairingHeap implements ReadyQueue {
+        private PairingNode root;
+        private int size;
 
-    public TaskPrioritizer() {
-        taskMap = new MyHashMap();
-        heap = new MaxHeap(500000);
-        addOrderCounter = 0;
-    }
+        private boolean greater(PairingNode a, PairingNode b) {
+            return compareKeys(a.priorityKey, a.task.order, b.priorityKey, b.task.order) > 0;
+        }
 
-    /**
-     * A method to add a new task
-     *
-     * @param taskId       The string taskId of the task we want to add
-     * @param urgencyLevel The integer urgencyLevel of the task we want to add
-     * @param dependencies The array of taskIds of tasks the added task depends on
-     */
+        private PairingNode meld(PairingNode a, PairingNode b) {
+            if (a == null) {
+                return b;
+            }
+            if (b == null) {
+                return a;
+            }
+            if (greater(b, a)) {
+                PairingNode temp = a;
+                a = b;
+                b = temp;
+            }
+            b.prev = a;
+            b.sibling = a.child;
+            if (a.child != null) {
+                a.child.prev = b;
+            }
+            a.child = b;
+            a.sibling = null;
+            a.prev = null;
+            return a;
+        }
 
-     public void add(String taskId, int urgencyLevel, String[] dependencies) {
-        if (taskMap.hasTask(taskId)) {
-            return;
+        private void cut(PairingNode node) {
+            if (node.prev.child == node) {
+                node.prev.child = node.sibling;
+            } else {
+                node.prev.sibling = node.sibling;
+            }
+            if (node.sibling != null) {
+                node.sibling.prev = node.prev;
+            }
+            node.sibling = null;
+            node.prev = null;
         }
-    
-        Task newTask = new Task(taskId, urgencyLevel, addOrderCounter++, dependencies);
-        taskMap.addTask(taskId, newTask);
-        if (dependencies != null) {
-            for (String dependencyId : dependencies) {
-                Task dependencyTask = taskMap.getTask(dependencyId);
-                if (dependencyTask == null) {
-                    dependencyTask = new Task(dependencyId, 0, -1, null);
-                    taskMap.addTask(dependencyId, dependencyTask);
-                }
-                dependencyTask.dependents.add(newTask);
-                if (dependencyTask.resolved) {
-                    newTask.unresolvedCount--;
+
+        private PairingNode mergePairs(PairingNode first) {
+            // First pass: meld siblings left to right in pairs, chaining
+            // the results in reverse through the sibling pointer
+            PairingNode pairs = null;
+            while (first != null) {
+                PairingNode a = first;
+                PairingNode b = a.sibling;
+                first = (b == null) ? null : b.sibling;
+                a.sibling = null;
+                a.prev = null;
+                if (b != null) {
+                    b.sibling = null;
+                    b.prev = null;
                 }
+                PairingNode merged = meld(a, b);
+                merged.sibling = pairs;
+                pairs = merged;
             }
+            // Second pass: meld the pairs right to left into a single tree
+            PairingNode result = null;
+            while (pairs != null) {
+                PairingNode next = pairs.sibling;
+                pairs.sibling = null;
+                result = meld(result, pairs);
+                pairs = next;
+            }
+            return result;
         }
-        if (newTask.unresolvedCount == 0) {
-            heap.addTask(newTask);
+
+        private void insertNode(PairingNode node) {
+            node.task.node = node;
+            root = meld(root, node);
         }
-    }
 
-    /**
-     * A method to change the urgency of a task
-     *
-     * @param taskId       The string taskId of the task we want to change the
-     *                     urgency of
-     * @param urgencyLevel The new integer urgencyLevel of the task
-     */
+        private void popRoot() {
+            PairingNode oldRoot = root;
+            root = mergePairs(oldRoot.child);
+            oldRoot.child = null;
+        }
 
-    public void update(String taskId, int newUrgencyLevel) {
-        Task task = taskMap.getTask(taskId);
-        if (task == null || task.resolved) {
-            return;
+        public void addTask(Task task) {
+            insertNode(new PairingNode(task));
+            size++;
         }
-        task.urgencyLevel = newUrgencyLevel;
-        if (task.heapIndex > 0) {
-            heap.updatePriority(task);
+
+        /**
+         * Links the batch by repeated pairing, as a binomial heap would, so
+         * that no node of it gets more than log2(count) + 1 children and
+         * peek(k) stays cheap after a bulk add
+         */
+        public void addAll(Task[] tasks, int from, int count) {
+            if (count == 0) {
+                return;
+            }
+            PairingNode[] nodes = new PairingNode[count];
+            for (int i = 0; i < count; i++) {
+                nodes[i] = new PairingNode(tasks[from + i]);
+                tasks[from + i].node = nodes[i];
+            }
+            for (int n = count; n > 1; n = (n + 1) / 2) {
+                for (int i = 0; i < n / 2; i++) {
+                    nodes[i] = meld(nodes[2 * i], nodes[2 * i + 1]);
+                }
+                if ((n & 1) != 0) {
+                    nodes[n / 2] = nodes[n - 1];
+                }
+            }
+            root = meld(root, nodes[0]);
+            size += count;
         }
-    }
 
-    /**
-     * A method to resolve the greatest urgency task which has had all of its
-     * dependencies satisfied
-     *
-     * @return The taskId of the resolved task
-     * @return null if there are no unresolved tasks left
-     */
+        public Task removeHighestPriority() {
+            Task max = root.task;
+            popRoot();
+            max.node = null;
+            size--;
+            return max;
+        }
 
-    public String resolve() {
-        if (heap.hasTasks()) {
-            return null;
+        public Task peek() {
+            return (root == null) ? null : root.task;
         }
-    
-        Task highestPriorityTask = heap.removeHighestPriority();
-        highestPriorityTask.resolved = true;
 
-        for (Task dependent : highestPriorityTask.dependents) {
-            dependent.unresolvedCount--;
+        /**
+         * Walks the tree best-first from the root without consolidating it.
+         * Every child of a listed node joins the frontier, so the walk is
+         * O(m log m) where m is k plus the children of the nodes listed; the
+         * root alone may have many children until the next removal pairs
+         * them up.
+         */
+        public int peek(int k, Task[] out) {
+            if (size == 0 || k <= 0) {
+                return 0;
+            }
+            Frontier frontier = new Frontier(Math.min(k, size) + 1);
+            frontier.push(root, root.priorityKey, root.task.order);
+            int count = 0;
+            while (count < k && !frontier.isEmpty()) {
+                PairingNode node = (PairingNode) frontier.pop();
+                out[count++] = node.task;
+                for (PairingNode child = node.child; child != null; child = child.sibling) {
+                    frontier.push(child, child.priorityKey, child.task.order);
+                }
+            }
+            return count;
+        }
 
-            if (dependent.unresolvedCount == 0) {
-                heap.addTask(dependent);
+        /**
+         * Takes a node's subtree out of the heap and melds its children
+         * back in, leaving the node on its own
+         */
+        private void detach(PairingNode node) {
+            if (node == root) {
+                root = mergePairs(node.child);
+            } else {
+                cut(node);
+                root = meld(root, mergePairs(node.child));
             }
+            node.child = null;
         }
-    
-        return highestPriorityTask.taskId;
+
+        public void updatePriority(Task task) {
+            PairingNode node = task.node;
+            if (task.priorityKey >= node.priorityKey) {
+                // Increase-key: the subtree stays heap-ordered, so cut it and
+                // meld it back at the root
+                node.priorityKey = task.priorityKey;
+                if (node != root) {
+                    cut(node);
+                    root = meld(root, node);
+                }
+            } else {
+                // Decrease-key: the children may now outrank the node, so
+                // they are merged back in and the node reinserted alone
+                detach(node);
+                node.priorityKey = task.priorityKey;
+                root = meld(root, node);
+            }
+        }
+
+        public void remove(Task task) {
+            detach(task.node);
+            task.node = null;
+            size--;
+        }
+
+        public boolean contains(Task task) {
+            return task.node != null;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A ready queue split into independently locked stripes so that workers
+     * calling lease() and complete() do not serialize on one heap. A task
+     * always lives in the stripe chosen by its add order. Removal takes the
+     * best of the stripe tops seen during a scan, so the urgency order
+     * across stripes is only as fresh as that scan; with one stripe it is
+     * exact.
+     */
+    private class StripedReadyQueue implements ReadyQueue {
+        private final ReadyQueue[] stripes;
+        private final ReentrantLock[] locks;
+        private final AtomicInteger size;
+
+        StripedReadyQueue(Engine engine, int stripeCount) {
+            stripes = new ReadyQueue[stripeCount];
+            locks = new ReentrantLock[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = newQueue(engine);
+                locks[i] = new ReentrantLock();
+            }
+            size = new AtomicInteger();
+        }
+
+        private int stripeOf(Task task) {
+            return Math.floorMod(task.order, stripes.length);
+        }
+
+        public void addTask(Task task) {
+            int i = stripeOf(task);
+            locks[i].lock();
+            try {
+                stripes[i].addTask(task);
+            } finally {
+                locks[i].unlock();
+            }
+            size.incrementAndGet();
+        }
+
+        public Task removeHighestPriority() {
+            while (size.get() > 0) {
+                int best = -1;
+                Task bestTask = null;
+                for (int i = 0; i < stripes.length; i++) {
+                    Task top;
+                    locks[i].lock();
+                    try {
+                        top = stripes[i].peek();
+                    } finally {
+                        locks[i].unlock();
+                    }
+                    if (top != null && (bestTask == null || compareKeys(top.priorityKey, top.order,
+                            bestTask.priorityKey, bestTask.order) > 0)) {
+                        best = i;
+                        bestTask = top;
+                    }
+                }
+                if (bestTask == null) {
+                    return null;
+                }
+                locks[best].lock();
+                try {
+                    // Another worker may have taken the top since the scan
+                    if (stripes[best].peek() == bestTask) {
+                        stripes[best].removeHighestPriority();
+                        size.decrementAndGet();
+                        return bestTask;
+                    }
+                } finally {
+                    locks[best].unlock();
+                }
+            }
+            return null;
+        }
+
+        public Task peek() {
+            Task bestTask = null;
+            for (int i = 0; i < stripes.length; i++) {
+                locks[i].lock();
+                try {
+                    Task top = stripes[i].peek();
+                    if (top != null && (bestTask == null || compareKeys(top.priorityKey, top.order,
+                            bestTask.priorityKey, bestTask.order) > 0)) {
+                        bestTask = top;
+                    }
+                } finally {
+                    locks[i].unlock();
+                }
+            }
+            return bestTask;
+        }
+
+        /**
+         * Takes the top k of every stripe, each under its own lock, and keeps
+         * the best k of those
+         */
+        public int peek(int k, Task[] out) {
+            if (k <= 0) {
+                return 0;
+            }
+            Task[] candidates = new Task[Math.min(k, size.get() + 1)];
+            Task[] merged = new Task[0];
+            int mergedCount = 0;
+            for (int i = 0; i < stripes.length; i++) {
+                int count;
+                locks[i].lock();
+                try {
+                    count = stripes[i].peek(candidates.length, candidates);
+                } finally {
+                    locks[i].unlock();
+                }
+                if (mergedCount + count > merged.length) {
+                    merged = Arrays.copyOf(merged, Math.max(merged.length * 2, mergedCount + count));
+                }
+                System.arraycopy(candidates, 0, merged, mergedCount, count);
+                mergedCount += count;
+            }
+            Arrays.sort(merged, 0, mergedCount, (a, b) -> compareKeys(b.priorityKey, b.order,
+                    a.priorityKey, a.order));
+            int count = Math.min(k, mergedCount);
+            System.arraycopy(merged, 0, out, 0, count);
+            return count;
+        }
+
+        public void remove(Task task) {
+            int i = stripeOf(task);
+            locks[i].lock();
+            try {
+                stripes[i].remove(task);
+            } finally {
+                locks[i].unlock();
+            }
+            size.decrementAndGet();
+        }
+
+        public void updatePriority(Task task) {
+            int i = stripeOf(task);
+            locks[i].lock();
+            try {
+                stripes[i].updatePriority(task);
+            } finally {
+                locks[i].unlock();
+            }
+        }
+
+        public boolean contains(Task task) {
+            int i = stripeOf(task);
+            locks[i].lock();
+            try {
+                return stripes[i].contains(task);
+            } finally {
+                locks[i].unlock();
+            }
+        }
+
+        public boolean isEmpty() {
+            return size.get() == 0;
+        }
+
+        public int size() {
+            return size.get();
+        }
+    }
+
+    /**
+     * Counts ready tasks by effective urgency with a Fenwick tree over the
+     * ranks of the urgencies seen so far. A task whose urgency has no rank
+     * yet waits in a pending list; once that list is as long as the rank
+     * table, both are merged into a new table, dropping ranks no ready task
+     * uses, so filing a task stays O(log n) amortized.
+     */
+    private static final class ReadyCounter {
+        private int[] urgencies = new int[0];
+        private int[] counts = new int[0];
+        private int[] tree = new int[1];
+        private int ranks;
+        private int ranked;
+        private Task[] pending = new Task[16];
+        private int pendingCount;
+
+        synchronized void add(Task task) {
+            int urgency = task.effectiveUrgency;
+            task.countedUrgency = urgency;
+            int rank = Arrays.binarySearch(urgencies, 0, ranks, urgency);
+            if (rank >= 0) {
+                task.pendingIndex = -1;
+                increment(rank, 1);
+                return;
+            }
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            task.pendingIndex = pendingCount;
+            pending[pendingCount++] = task;
+            if (pendingCount >= Math.max(ranks, 16)) {
+                rebuild();
+            }
+        }
+
+        synchronized void remove(Task task) {
+            if (task.pendingIndex < 0) {
+                increment(Arrays.binarySearch(urgencies, 0, ranks, task.countedUrgency), -1);
+                return;
+            }
+            Task last = pending[--pendingCount];
+            pending[task.pendingIndex] = last;
+            last.pendingIndex = task.pendingIndex;
+            pending[pendingCount] = null;
+            task.pendingIndex = -1;
+        }
+
+        synchronized void refile(Task task) {
+            if (task.countedUrgency != task.effectiveUrgency) {
+                remove(task);
+                add(task);
+            }
+        }
+
+        synchronized int countAtLeast(int urgency) {
+            int rank = Arrays.binarySearch(urgencies, 0, ranks, urgency);
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            int count = ranked;
+            for (int i = rank; i > 0; i -= i & -i) {
+                count -= tree[i];
+            }
+            for (int i = 0; i < pendingCount; i++) {
+                if (pending[i].countedUrgency >= urgency) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void increment(int rank, int delta) {
+            counts[rank] += delta;
+            ranked += delta;
+            for (int i = rank + 1; i <= ranks; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        private void rebuild() {
+            int[] added = new int[pendingCount];
+            for (int i = 0; i < pendingCount; i++) {
+                added[i] = pending[i].countedUrgency;
+            }
+            Arrays.sort(added);
+            int[] newUrgencies = new int[ranks + pendingCount];
+            int[] newCounts = new int[newUrgencies.length];
+            int newRanks = 0;
+            int i = 0;
+            int j = 0;
+            while (i < ranks || j < pendingCount) {
+                if (j == pendingCount || (i < ranks && urgencies[i] <= added[j])) {
+                    if (counts[i] > 0) {
+                        newUrgencies[newRanks] = urgencies[i];
+                        newCounts[newRanks++] = counts[i];
+                    }
+                    i++;
+                } else {
+                    if (newRanks == 0 || newUrgencies[newRanks - 1] != added[j]) {
+                        newUrgencies[newRanks++] = added[j];
+                    }
+                    newCounts[newRanks - 1]++;
+                    j++;
+                }
+            }
+            // Linear-time Fenwick construction: each node passes its sum on
+            // to the next node whose range covers it
+            int[] newTree = new int[newRanks + 1];
+            for (int k = 1; k <= newRanks; k++) {
+                newTree[k] += newCounts[k - 1];
+                int parent = k + (k & -k);
+                if (parent <= newRanks) {
+                    newTree[parent] += newTree[k];
+                }
+            }
+            for (int k = 0; k < pendingCount; k++) {
+                pending[k].pendingIndex = -1;
+                pending[k] = null;
+            }
+            urgencies = newUrgencies;
+            counts = newCounts;
+            tree = newTree;
+            ranks = newRanks;
+            ranked += pendingCount;
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * A ready queue that files every task it holds with a ReadyCounter, so
+     * that countReadyAtLeast() never has to walk the queue
+     */
+    private static final class CountedReadyQueue implements ReadyQueue {
+        private final ReadyQueue queue;
+        private final ReadyCounter counter = new ReadyCounter();
+
+        CountedReadyQueue(ReadyQueue queue) {
+            this.queue = queue;
+        }
+
+        // Tasks are filed before they are queued, so that a worker leasing
+        // one at once cannot unfile it first
+        public void addTask(Task task) {
+            counter.add(task);
+            queue.addTask(task);
+        }
+
+        public void addAll(Task[] tasks, int from, int count) {
+            for (int i = from; i < from + count; i++) {
+                counter.add(tasks[i]);
+            }
+            queue.addAll(tasks, from, count);
+        }
+
+        public Task removeHighestPriority() {
+            Task task = queue.removeHighestPriority();
+            if (task != null) {
+                counter.remove(task);
+            }
+            return task;
+        }
+
+        public Task replaceTop(Task task) {
+            counter.add(task);
+            Task max = queue.replaceTop(task);
+            counter.remove(max);
+            return max;
+        }
+
+        public Task peek() {
+            return queue.peek();
+        }
+
+        public int peek(int k, Task[] out) {
+            return queue.peek(k, out);
+        }
+
+        public void remove(Task task) {
+            queue.remove(task);
+            counter.remove(task);
+        }
+
+        public void updatePriority(Task task) {
+            queue.updatePriority(task);
+            counter.refile(task);
+        }
+
+        public boolean contains(Task task) {
+            return queue.contains(task);
+        }
+
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        public int size() {
+            return queue.size();
+        }
+    }
+
+    /**
+     * The start time of a delayed task, linked into one slot of the timing
+     * wheel
+     */
+    private static class TimerNode {
+        final Task task;
+        final long notBeforeNanos;
+        // The first tick at or after notBeforeNanos
+        final long deadline;
+        TimerNode next;
+        TimerNode prev;
+        int level;
+        int slot;
+
+        TimerNode(Task task, long notBeforeNanos, long deadline) {
+            this.task = task;
+            this.notBeforeNanos = notBeforeNanos;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Hierarchical timing wheel holding the start times of delayed tasks.
+     * Level L has 64 slots of 64^L ticks each, and a timer sits at the level
+     * of the highest base-64 digit in which its deadline differs from the
+     * current tick. When the current tick reaches the start of an occupied
+     * slot, the slot's timers move down a level or expire, so a timer is
+     * touched at most once per level. A bitmap of occupied slots per level
+     * gives the next tick at which anything happens, so advancing jumps
+     * straight there instead of stepping through empty slots.
+     */
+    private class TimingWheel {
+        private static final int BITS = 6;
+        private static final int SLOTS = 1 << BITS;
+        // Enough levels for the deadline of any non-negative tick
+        private static final int LEVELS = 11;
+
+        private final TimerNode[][] slots = new TimerNode[LEVELS][SLOTS];
+        private final long[] occupied = new long[LEVELS];
+        private long current;
+        private long nextTick = Long.MAX_VALUE;
+
+        long tickOf(long nanos) {
+            return Math.max(nanos, 0L) / timerResolution;
+        }
+
+        /**
+         * Schedules a start time, rounded up to the next whole tick so that a
+         * timer never fires early
+         *
+         * @return false if the time has already been reached
+         */
+        boolean schedule(Task task, long notBeforeNanos) {
+            long nanos = Math.max(notBeforeNanos, 0L);
+            long deadline = nanos / timerResolution + ((nanos % timerResolution == 0) ? 0 : 1);
+            if (deadline <= current) {
+                return false;
+            }
+            task.timer = new TimerNode(task, notBeforeNanos, deadline);
+            place(task.timer);
+            return true;
+        }
+
+        private void place(TimerNode node) {
+            if (node.deadline <= current) {
+                node.task.timer = null;
+                expireTimer(node.task);
+                return;
+            }
+            int level = (63 - Long.numberOfLeadingZeros(node.deadline ^ current)) / BITS;
+            int slot = (int) (node.deadline >>> (level * BITS)) & (SLOTS - 1);
+            node.level = level;
+            node.slot = slot;
+            node.prev = null;
+            node.next = slots[level][slot];
+            if (node.next != null) {
+                node.next.prev = node;
+            }
+            slots[level][slot] = node;
+            occupied[level] |= 1L << slot;
+            nextTick = Math.min(nextTick, slotStart(level, slot));
+        }
+
+        void unlink(TimerNode node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                slots[node.level][node.slot] = node.next;
+                if (node.next == null) {
+                    occupied[node.level] &= ~(1L << node.slot);
+                }
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            }
+            node.task.timer = null;
+        }
+
+        /**
+         * The first tick covered by a slot in the current rotation of its
+         * level
+         */
+        private long slotStart(int level, int slot) {
+            int shift = level * BITS;
+            long rotation = (shift + BITS >= 64) ? 0L : current & (-1L << (shift + BITS));
+            return rotation | ((long) slot << shift);
+        }
+
+        /**
+         * Occupied slots always lie ahead of the current tick's digit at
+         * their level, so the next event is the earliest such slot start
+         */
+        private long findNextTick() {
+            long next = Long.MAX_VALUE;
+            for (int level = 0; level < LEVELS; level++) {
+                int digit = (int) (current >>> (level * BITS)) & (SLOTS - 1);
+                long ahead = (digit == SLOTS - 1) ? 0L : occupied[level] & (-1L << (digit + 1));
+                if (ahead != 0) {
+                    next = Math.min(next, slotStart(level, Long.numberOfTrailingZeros(ahead)));
+                }
+            }
+            return next;
+        }
+
+        boolean isDue(long nowNanos) {
+            return tickOf(nowNanos) >= nextTick;
+        }
+
+        /**
+         * Lists, without moving the wheel, the tasks that advance() would
+         * make ready at the given time: those whose deadline has been
+         * reached and that wait for nothing else. Only slots starting by
+         * then can hold such timers.
+         */
+        Task[] readyAt(long nowNanos) {
+            long target = tickOf(nowNanos);
+            if (nextTick > target) {
+                return NO_TASKS;
+            }
+            Task[] due = new Task[8];
+            int count = 0;
+            for (int level = 0; level < LEVELS; level++) {
+                for (long bits = occupied[level]; bits != 0; bits &= bits - 1) {
+                    int slot = Long.numberOfTrailingZeros(bits);
+                    if (slotStart(level, slot) > target) {
+                        continue;
+                    }
+                    for (TimerNode node = slots[level][slot]; node != null; node = node.next) {
+                        if (node.deadline <= target && (int) UNRESOLVED_COUNT.getVolatile(node.task) == 1) {
+                            if (count == due.length) {
+                                due = Arrays.copyOf(due, count * 2);
+                            }
+                            due[count++] = node.task;
+                        }
+                    }
+                }
+            }
+            return Arrays.copyOf(due, count);
+        }
+
+        /**
+         * Moves the wheel forward to the given time, expiring every timer
+         * whose deadline has been reached
+         */
+        void advance(long nowNanos) {
+            long target = tickOf(nowNanos);
+            while (nextTick <= target) {
+                current = nextTick;
+                // Cascade from the top so that timers moving down a level
+                // land in slots that are still ahead of the current tick
+                for (int level = LEVELS - 1; level >= 0; level--) {
+                    int shift = level * BITS;
+                    if ((current & ((1L << shift) - 1)) != 0) {
+                        continue;
+                    }
+                    int slot = (int) (current >>> shift) & (SLOTS - 1);
+                    TimerNode node = slots[level][slot];
+                    if (node == null) {
+                        continue;
+                    }
+                    slots[level][slot] = null;
+                    occupied[level] &= ~(1L << slot);
+                    while (node != null) {
+                        TimerNode next = node.next;
+                        place(node);
+                        node = next;
+                    }
+                }
+                nextTick = findNextTick();
+            }
+            current = Math.max(current, target);
+        }
+    }
+
+    /**
+     * A point-in-time view of a TaskPrioritizer's counters and histograms.
+     * Histogram bucket i counts values v with 2^(i-1) <= v < 2^i, and bucket
+     * 0 counts zeros. Latencies are in nanoseconds and come from one call
+     * in every SAMPLE_INTERVAL.
+     */
+    public static final class Metrics implements TaskPrioritizerMXBean {
+        public static final int SAMPLE_INTERVAL = SAMPLE_MASK + 1;
+
+        public final int readyTasks;
+        public final long blockedTasks;
+        // Blocked tasks still waiting for their start time
+        public final int delayedTasks;
+        public final int placeholderTasks;
+        public final int leasedTasks;
+        public final long resolvedTasks;
+        public final long cancelledTasks;
+        public final int tableCapacity;
+        // chainLengthCounts[i] is the number of buckets holding i entries;
+        // the last element counts every longer chain
+        public final long[] chainLengthCounts;
+        public final long[] addLatencyCounts;
+        public final long[] resolveLatencyCounts;
+        public final long[] fanOutCounts;
+
+        Metrics(int readyTasks, long blockedTasks, int delayedTasks, int placeholderTasks, int leasedTasks, long resolvedTasks,
+                long cancelledTasks, int tableCapacity, long[] chainLengthCounts, long[] addLatencyCounts,
+                long[] resolveLatencyCounts, long[] fanOutCounts) {
+            this.readyTasks = readyTasks;
+            this.blockedTasks = blockedTasks;
+            this.delayedTasks = delayedTasks;
+            this.placeholderTasks = placeholderTasks;
+            this.leasedTasks = leasedTasks;
+            this.resolvedTasks = resolvedTasks;
+            this.cancelledTasks = cancelledTasks;
+            this.tableCapacity = tableCapacity;
+            this.chainLengthCounts = chainLengthCounts;
+            this.addLatencyCounts = addLatencyCounts;
+            this.resolveLatencyCounts = resolveLatencyCounts;
+            this.fanOutCounts = fanOutCounts;
+        }
+
+        /**
+         * Estimates a percentile from a log2 histogram as the upper bound of
+         * the bucket it falls in
+         *
+         * @param counts     A histogram taken from this snapshot
+         * @param percentile The percentile, between 0 and 100
+         *
+         * @return The estimated value, or 0 if the histogram is empty
+         */
+        public static long percentile(long[] counts, double percentile) {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return (i == 0) ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                }
+            }
+            return 0;
+        }
+
+        public int getReadyTasks() {
+            return readyTasks;
+        }
+
+        public long getBlockedTasks() {
+            return blockedTasks;
+        }
+
+        public int getDelayedTasks() {
+            return delayedTasks;
+        }
+
+        public int getPlaceholderTasks() {
+            return placeholderTasks;
+        }
+
+        public int getLeasedTasks() {
+            return leasedTasks;
+        }
+
+        public long getResolvedTasks() {
+            return resolvedTasks;
+        }
+
+        public long getCancelledTasks() {
+            return cancelledTasks;
+        }
+
+        public int getTableCapacity() {
+            return tableCapacity;
+        }
+
+        public long[] getChainLengthCounts() {
+            return chainLengthCounts.clone();
+        }
+
+        public long[] getAddLatencyCounts() {
+            return addLatencyCounts.clone();
+        }
+
+        public long[] getResolveLatencyCounts() {
+            return resolveLatencyCounts.clone();
+        }
+
+        public long[] getFanOutCounts() {
+            return fanOutCounts.clone();
+        }
+
+        public long getAddLatencyP99Nanos() {
+            return percentile(addLatencyCounts, 99);
+        }
+
+        public long getResolveLatencyP99Nanos() {
+            return percentile(resolveLatencyCounts, 99);
+        }
+
+        public String toString() {
+            return "Metrics[ready=" + readyTasks + ", blocked=" + blockedTasks + ", delayed=" + delayedTasks
+                    + ", placeholders=" + placeholderTasks + ", leased=" + leasedTasks + ", resolved="
+                    + resolvedTasks + ", cancelled=" + cancelledTasks + ", addP99=" + getAddLatencyP99Nanos()
+                    + "ns, resolveP99=" + getResolveLatencyP99Nanos() + "ns]";
+        }
+    }
+
+    /**
+     * Live JMX view. Every attribute read takes a fresh snapshot of the
+     * counters, which costs O(1); only the chain length counts walk the
+     * task table, so a monitor polling the other attributes never does.
+     */
+    private class MetricsBean implements TaskPrioritizerMXBean {
+        public int getReadyTasks() {
+            return metrics(false).readyTasks;
+        }
+
+        public long getBlockedTasks() {
+            return metrics(false).blockedTasks;
+        }
+
+        public int getDelayedTasks() {
+            return metrics(false).delayedTasks;
+        }
+
+        public int getPlaceholderTasks() {
+            return metrics(false).placeholderTasks;
+        }
+
+        public int getLeasedTasks() {
+            return metrics(false).leasedTasks;
+        }
+
+        public long getResolvedTasks() {
+            return metrics(false).resolvedTasks;
+        }
+
+        public long getCancelledTasks() {
+            return metrics(false).cancelledTasks;
+        }
+
+        public int getTableCapacity() {
+            return metrics(false).tableCapacity;
+        }
+
+        public long[] getChainLengthCounts() {
+            return metrics(true).chainLengthCounts;
+        }
+
+        public long[] getAddLatencyCounts() {
+            return metrics(false).addLatencyCounts;
+        }
+
+        public long[] getResolveLatencyCounts() {
+            return metrics(false).resolveLatencyCounts;
+        }
+
+        public long[] getFanOutCounts() {
+            return metrics(false).fanOutCounts;
+        }
+
+        public long getAddLatencyP99Nanos() {
+            return metrics(false).getAddLatencyP99Nanos();
+        }
+
+        public long getResolveLatencyP99Nanos() {
+            return metrics(false).getResolveLatencyP99Nanos();
+        }
+    }
+
+    private static final int SAMPLE_MASK = 63;
+    private static final int HISTOGRAM_BUCKETS = 65;
+    private static final int MAX_CHAIN_BUCKET = 16;
+    private static final VarHandle HISTOGRAM_BUCKET = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final VarHandle UNRESOLVED_COUNT;
+    private static final VarHandle LEASED;
+    private static final VarHandle RESOLVED_SINCE_COMPACTION;
+    private static final VarHandle RESOLVED_COUNT;
+    private static final VarHandle LEASED_COUNT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            UNRESOLVED_COUNT = lookup.findVarHandle(Task.class, "unresolvedCount", int.class);
+            LEASED = lookup.findVarHandle(Task.class, "leased", boolean.class);
+            RESOLVED_SINCE_COMPACTION = lookup.findVarHandle(TaskPrioritizer.class, "resolvedSinceCompaction",
+                    int.class);
+            RESOLVED_COUNT = lookup.findVarHandle(TaskPrioritizer.class, "resolvedCount", long.class);
+            LEASED_COUNT = lookup.findVarHandle(TaskPrioritizer.class, "leasedCount", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+
+
+    private MyHashMap taskMap;
+    private ReadyQueue heap;
+    private int addOrderCounter;
+    private ReentrantReadWriteLock graphLock;
+    private Task[] released = new Task[16];
+    private static final Task[] NO_TASKS = new Task[0];
+    private TaskJournal journal;
+    private boolean inheritUrgency;
+    private ReadyCounter readyCounter;
+    // Aging adds one urgency level per agingPeriod ticks spent ready, where a
+    // tick is a resolution or, with agingByTime, a nanosecond; 0 disables it
+    private long agingPeriod;
+    private boolean agingByTime;
+    private long agingEpoch;
+    // With agingByTime, the tick every task made ready by the current
+    // exclusive operation gets. It is read from the clock once per operation
+    // and journaled, and while the journal is replayed it comes from the log.
+    private long clockTick;
+    private boolean replaying;
+    private Task[] propagation = new Task[16];
+    private LongSupplier clock = TaskPrioritizer::defaultClock;
+    private long timerResolution = DEFAULT_TIMER_RESOLUTION;
+    private TimingWheel timers;
+    // Volatile so that lease() can skip the timing wheel without locking
+    private volatile int delayedCount;
+
+    // Metrics. The call counters only pick which calls are timed, so lost
+    // updates between concurrent resolve() callers are harmless.
+    private long resolvedCount;
+    private long cancelledCount;
+    private int leasedCount;
+    private int placeholderCount;
+    private int addCalls;
+    private int resolveCalls;
+    // Whether latencies and fan-outs are sampled into the histograms
+    private boolean sampling = true;
+    private final long[] addLatency = new long[HISTOGRAM_BUCKETS];
+    private final long[] resolveLatency = new long[HISTOGRAM_BUCKETS];
+    private final long[] fanOut = new long[HISTOGRAM_BUCKETS];
+    private final Task resolvedTask = newResolvedTask();
+    private int resolvedSinceCompaction;
+
+    private static final int MIN_COMPACTION = 65536;
+    private static final long DEFAULT_TIMER_RESOLUTION = 1_000_000L;
+    private static final long EPOCH_OFFSET = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+    /**
+     * Constructor to initialize the TaskPrioritizer
+     */
+    public TaskPrioritizer() {
+        this(Engine.BINARY_HEAP);
+    }
+
+    /**
+     * Constructor to initialize the TaskPrioritizer with a specific ready
+     * queue implementation
+     *
+     * @param engine The priority queue used to order ready tasks
+     */
+    public TaskPrioritizer(Engine engine) {
+        this(engine, 0);
+    }
+
+    /**
+     * Constructor to initialize a TaskPrioritizer that may be shared by
+     * several worker threads through lease() and complete()
+     *
+     * @param engine       The priority queue used to order ready tasks
+     * @param readyStripes The number of independently locked ready queues,
+     *                     or 0 for a single-threaded prioritizer
+     */
+    public TaskPrioritizer(Engine engine, int readyStripes) {
+        if (readyStripes < 0) {
+            throw new IllegalArgumentException("readyStripes must be non-negative: " + readyStripes);
+        }
+        taskMap = new MyHashMap();
+        if (readyStripes > 0) {
+            heap = new StripedReadyQueue(engine, readyStripes);
+            graphLock = new ReentrantReadWriteLock();
+        } else {
+            heap = newQueue(engine);
+        }
+        addOrderCounter = 0;
+    }
+
+    /**
+     * A method to rebuild a TaskPrioritizer from a journal directory and keep
+     * journaling every later mutation to it. An empty directory yields an
+     * empty prioritizer.
+     *
+     * @param journal      The journal to recover from and append to
+     * @param engine       The priority queue used to order ready tasks
+     * @param readyStripes The number of independently locked ready queues,
+     *                     or 0 for a single-threaded prioritizer
+     *
+     * @return The recovered TaskPrioritizer
+     */
+    public static TaskPrioritizer recover(TaskJournal journal, Engine engine, int readyStripes) throws IOException {
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine, readyStripes);
+        prioritizer.attachJournal(journal);
+        return prioritizer;
+    }
+
+    /**
+     * A method to load the state held by a journal into this prioritizer,
+     * which must still be empty, and journal every later mutation to it. Use
+     * this instead of recover() when options have to be set first.
+     *
+     * @param journal The journal to recover from and append to
+     */
+    public void attachJournal(TaskJournal journal) throws IOException {
+        requireEmpty();
+        journal.recover(this);
+        if (graphLock != null) {
+            journal.deferWrites();
+        }
+        this.journal = journal;
+    }
+
+    /**
+     * A method to turn on aging by resolutions: a ready task gains one
+     * urgency level for every resolvesPerLevel tasks resolved while it
+     * waits, so low-urgency tasks cannot starve. Among tasks of equal aged
+     * urgency, the one that has been ready longest resolves first. Must be
+     * called before any task is added, and before a journal is attached.
+     *
+     * @param resolvesPerLevel The resolutions per urgency level gained,
+     *                         between 1 and 2^31
+     */
+    public void setAgingByResolves(long resolvesPerLevel) {
+        setAging(resolvesPerLevel, false);
+    }
+
+    /**
+     * A method to turn on aging by time: a ready task gains one urgency
+     * level for every nanosPerLevel nanoseconds it waits. With a journal,
+     * the clock is logged wherever it makes tasks ready, so that recovery
+     * gives them back the same age. Must be called before any task is
+     * added, and before a journal is attached.
+     *
+     * @param nanosPerLevel The nanoseconds per urgency level gained, between
+     *                      1 and 2^31
+     */
+    public void setAgingByTime(long nanosPerLevel) {
+        setAging(nanosPerLevel, true);
+    }
+
+    private void setAging(long period, boolean byTime) {
+        requireEmpty();
+        if (period < 1 || period > (1L << 31)) {
+            throw new IllegalArgumentException("Aging period must be between 1 and 2^31: " + period);
+        }
+        agingPeriod = period;
+        agingByTime = byTime;
+        agingEpoch = now();
+    }
+
+    /**
+     * A method to replace the clock used for start times and for aging by
+     * time, for example with a manually advanced clock in tests. Must be
+     * called before any task is added.
+     *
+     * @param clock Returns the current time in nanoseconds; it must never go
+     *              backwards, and negative times count as 0
+     */
+    public void setClock(LongSupplier clock) {
+        requireEmpty();
+        this.clock = clock;
+        if (agingByTime) {
+            agingEpoch = now();
+        }
+    }
+
+    /**
+     * A method to set the granularity of start times. A delayed task becomes
+     * ready on the first tick at or after its start time, so a coarser tick
+     * means fewer wheel operations but later releases. Must be called before
+     * any task is added.
+     *
+     * @param nanosPerTick The tick length in nanoseconds, 1 ms by default
+     */
+    public void setTimerResolution(long nanosPerTick) {
+        requireEmpty();
+        if (nanosPerTick < 1) {
+            throw new IllegalArgumentException("Timer resolution must be positive: " + nanosPerTick);
+        }
+        timerResolution = nanosPerTick;
+    }
+
+    /**
+     * Nanoseconds since the Unix epoch, taken from the monotonic clock and
+     * anchored to the wall clock once per JVM
+     */
+    private static long defaultClock() {
+        return System.nanoTime() + EPOCH_OFFSET;
+    }
+
+    private long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Since every ready task ages at the same rate, comparing
+     * urgency + (tick - readyTick) / period between two tasks is the same as
+     * comparing urgency * period - readyTick. The current tick drops out, so
+     * keys never change as time passes and the heap never needs rebuilding.
+     */
+    private long keyOf(Task task) {
+        if (agingPeriod == 0) {
+            return task.effectiveUrgency;
+        }
+        return task.effectiveUrgency * agingPeriod - task.readyTick;
+    }
+
+    private void markReady(Task task) {
+        markReady(task, clockTick);
+    }
+
+    private void markReady(Task task, long clockTick) {
+        if (agingPeriod != 0) {
+            task.readyTick = agingByTime ? clockTick : (long) RESOLVED_COUNT.getOpaque(this);
+        }
+        task.priorityKey = keyOf(task);
+    }
+
+    /**
+     * Reads the aging clock at the start of an exclusive operation that may
+     * make tasks ready, and journals the tick ahead of the operation's own
+     * record, so that replaying the log gives every task the tick it had
+     */
+    private void readAgingClock() {
+        if (!agingByTime || replaying) {
+            return;
+        }
+        clockTick = now() - agingEpoch;
+        if (journal != null) {
+            journal.logTick(clockTick);
+        }
+    }
+
+    private void requireEmpty() {
+        if (addOrderCounter != 0 || taskMap.size() != 0) {
+            throw new IllegalStateException("TaskPrioritizer options must be set before any task is added");
+        }
+    }
+
+    /**
+     * A method to turn on urgency inheritance, under which a task is ordered
+     * by the greatest urgency among itself and every task that transitively
+     * depends on it. This lets urgent work pull its dependencies forward.
+     * Must be called before any task is added.
+     *
+     * @param enabled Whether tasks inherit the urgency of their dependents
+     */
+    public void setUrgencyInheritance(boolean enabled) {
+        requireEmpty();
+        inheritUrgency = enabled;
+    }
+
+    /**
+     * A method to turn off the latency and fan-out histograms of metrics(),
+     * which then stay empty. The task counts are kept either way, since the
+     * prioritizer needs them itself. Must be called before any task is
+     * added.
+     *
+     * @param enabled Whether latencies and fan-outs are sampled
+     */
+    public void setMetricsSampling(boolean enabled) {
+        requireEmpty();
+        sampling = enabled;
+    }
+
+    /**
+     * A method to turn on counting of ready tasks by urgency, which
+     * countReadyAtLeast() needs. Every ready queue insertion and removal then
+     * also updates the count, at O(log n) amortized. Must be called before
+     * any task is added.
+     *
+     * @param enabled Whether ready tasks are counted by urgency
+     */
+    public void setReadyCounting(boolean enabled) {
+        requireEmpty();
+        if (enabled && readyCounter == null) {
+            CountedReadyQueue counted = new CountedReadyQueue(heap);
+            heap = counted;
+            readyCounter = counted.counter;
+        } else if (!enabled && readyCounter != null) {
+            heap = ((CountedReadyQueue) heap).queue;
+            readyCounter = null;
+        }
+    }
+
+    /**
+     * A method to write a snapshot of every unresolved task to the journal,
+     * after which recovery no longer needs the log written so far. Tasks that
+     * are leased but not completed are recorded as ready again.
+     */
+    public void snapshot() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("TaskPrioritizer has no journal; create it with recover()");
+        }
+        lockGraph(true);
+        try {
+            journal.snapshot(this);
+        } finally {
+            unlockGraph(true);
+        }
+    }
+
+    void writeSnapshot(TaskJournal.SnapshotWriter out) throws IOException {
+        // Number the live tasks so that edges can refer to them by position
+        // Finishing any rebuild leaves a single table to walk
+        taskMap.finishRebuild();
+        int live = 0;
+        int resolved = 0;
+        for (MyHashMap.Entry head : taskMap.table) {
+            for (MyHashMap.Entry e = head; e != null; e = e.next) {
+                if (e.value.resolved) {
+                    resolved++;
+                } else {
+                    e.value.snapshotIndex = live++;
+                }
+            }
+        }
+
+        out.writeInt(TaskJournal.SNAPSHOT_MAGIC);
+        out.writeInt(TaskJournal.SNAPSHOT_VERSION);
+        out.writeVarInt(addOrderCounter);
+        out.writeVarLong(cancelledCount);
+        out.writeVarLong((timers == null) ? 0L : timers.current);
+        out.writeVarLong(agingPeriod);
+        out.writeVarInt(agingByTime ? 1 : 0);
+        out.writeVarLong(TaskJournal.zigZag(agingEpoch));
+        out.writeVarLong(resolvedCount);
+        out.writeVarInt(live);
+        for (MyHashMap.Entry head : taskMap.table) {
+            for (MyHashMap.Entry e = head; e != null; e = e.next) {
+                Task task = e.value;
+                if (!task.resolved) {
+                    out.writeString(task.taskId);
+                    out.writeVarInt(TaskJournal.zigZag(task.urgencyLevel));
+                    out.writeVarInt(TaskJournal.zigZag(task.order));
+                    out.writeVarInt(task.unresolvedCount);
+                    if (task.timer == null) {
+                        out.writeVarInt(0);
+                    } else {
+                        out.writeVarInt(1);
+                        out.writeVarLong(TaskJournal.zigZag(task.timer.notBeforeNanos));
+                    }
+                    out.writeVarLong(TaskJournal.zigZag(task.readyTick));
+                    // Cancelled dependents stay listed until this task
+                    // resolves, but are no longer live
+                    int dependents = 0;
+                    for (Task dependent : task.dependents) {
+                        if (!dependent.resolved) {
+                            dependents++;
+                        }
+                    }
+                    out.writeVarInt(dependents);
+                    for (Task dependent : task.dependents) {
+                        if (!dependent.resolved) {
+                            out.writeVarInt(dependent.snapshotIndex);
+                        }
+                    }
+                }
+            }
+        }
+        // Resolved tasks still in the table are written with the ones
+        // compacted out of it
+        out.writeVarInt(resolved + taskMap.resolvedKeyCount());
+        for (MyHashMap.Entry head : taskMap.table) {
+            for (MyHashMap.Entry e = head; e != null; e = e.next) {
+                if (e.value.resolved) {
+                    out.writeString(e.key);
+                }
+            }
+        }
+        taskMap.writeResolvedKeys(out);
+    }
+
+    void readSnapshot(ByteBuffer in) throws IOException {
+        if (in.getInt() != TaskJournal.SNAPSHOT_MAGIC) {
+            throw new IOException("Not a TaskPrioritizer snapshot");
+        }
+        int version = in.getInt();
+        if (version != TaskJournal.SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported TaskPrioritizer snapshot version: " + version);
+        }
+        addOrderCounter = TaskJournal.getVarInt(in);
+        cancelledCount = TaskJournal.getVarLong(in);
+        timers = new TimingWheel();
+        timers.current = TaskJournal.getVarLong(in);
+        long period = TaskJournal.getVarLong(in);
+        boolean byTime = TaskJournal.getVarInt(in) != 0;
+        if (period != agingPeriod || (period != 0 && byTime != agingByTime)) {
+            throw new IllegalStateException("The journal was written with "
+                    + (period == 0 ? "no aging" : "aging by " + (byTime ? "time" : "resolves") + " every " + period)
+                    + "; set the same aging before attaching it");
+        }
+        long epoch = TaskJournal.unZigZag(TaskJournal.getVarLong(in));
+        if (agingByTime) {
+            agingEpoch = epoch;
+        }
+        resolvedCount = TaskJournal.getVarLong(in);
+        int live = TaskJournal.getVarInt(in);
+        taskMap.ensureCapacity(live);
+        Task[] tasks = new Task[live];
+        int[][] dependents = new int[live][];
+        for (int i = 0; i < live; i++) {
+            String taskId = TaskJournal.getString(in);
+            int urgencyLevel = TaskJournal.unZigZag(TaskJournal.getVarInt(in));
+            int order = TaskJournal.unZigZag(TaskJournal.getVarInt(in));
+            tasks[i] = new Task(taskId, urgencyLevel, order, null);
+            tasks[i].unresolvedCount = TaskJournal.getVarInt(in);
+            // The count already includes the start time while it is pending
+            if (TaskJournal.getVarInt(in) != 0
+                    && !scheduleTimer(tasks[i], TaskJournal.unZigZag(TaskJournal.getVarLong(in)))) {
+                tasks[i].unresolvedCount--;
+            }
+            // Ready tasks keep the ticks they were made ready at
+            tasks[i].readyTick = TaskJournal.unZigZag(TaskJournal.getVarLong(in));
+            dependents[i] = new int[TaskJournal.getVarInt(in)];
+            for (int j = 0; j < dependents[i].length; j++) {
+                dependents[i][j] = TaskJournal.getVarInt(in);
+            }
+            taskMap.addTask(taskId, tasks[i]);
+        }
+
+        Task[] ready = new Task[live];
+        int readyCount = 0;
+        for (int i = 0; i < live; i++) {
+            for (int dependent : dependents[i]) {
+                tasks[i].dependents.add(tasks[dependent]);
+                if (inheritUrgency) {
+                    tasks[dependent].dependencies.add(tasks[i]);
+                }
+            }
+            // Placeholders (order -1) were never added, so never ready
+            if (tasks[i].order < 0) {
+                placeholderCount++;
+            } else if (tasks[i].unresolvedCount == 0) {
+                ready[readyCount++] = tasks[i];
+            }
+        }
+        if (inheritUrgency) {
+            inheritSnapshotUrgency(tasks, dependents);
+        }
+        for (int i = 0; i < readyCount; i++) {
+            ready[i].priorityKey = keyOf(ready[i]);
+        }
+        heap.addAll(ready, 0, readyCount);
+
+        int resolved = TaskJournal.getVarInt(in);
+        for (int i = 0; i < resolved; i++) {
+            taskMap.addResolvedKey(TaskJournal.getString(in));
+        }
+    }
+
+    /**
+     * Computes effective urgencies for restored tasks in one pass, visiting
+     * each task only after all of its dependents (Kahn's algorithm on the
+     * dependent edges)
+     */
+    private void inheritSnapshotUrgency(Task[] tasks, int[][] dependents) {
+        int[] pendingDependents = new int[tasks.length];
+        int[] queue = new int[tasks.length];
+        int tail = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i].snapshotIndex = i;
+            pendingDependents[i] = dependents[i].length;
+            if (pendingDependents[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            Task task = tasks[queue[head]];
+            for (Task dependency : task.dependencies) {
+                dependency.effectiveUrgency = Math.max(dependency.effectiveUrgency, task.effectiveUrgency);
+                if (--pendingDependents[dependency.snapshotIndex] == 0) {
+                    queue[tail++] = dependency.snapshotIndex;
+                }
+            }
+        }
+    }
+
+    void replay(ByteBuffer batch) {
+        replaying = true;
+        try {
+            replayRecords(batch);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    private void replayRecords(ByteBuffer batch) {
+        while (batch.hasRemaining()) {
+            byte type = batch.get();
+            switch (type) {
+                case TaskJournal.ADD: {
+                    String taskId = TaskJournal.getString(batch);
+                    int urgencyLevel = TaskJournal.unZigZag(TaskJournal.getVarInt(batch));
+                    addTask(taskId, urgencyLevel, TaskJournal.getDependencies(batch));
+                    break;
+                }
+                case TaskJournal.UPDATE: {
+                    String taskId = TaskJournal.getString(batch);
+                    updateTask(taskId, TaskJournal.unZigZag(TaskJournal.getVarInt(batch)));
+                    break;
+                }
+                // A resolve names its task, since leases are not journaled
+                // and the task on top may be one that was leased
+                case TaskJournal.RESOLVE:
+                case TaskJournal.COMPLETE: {
+                    Task task = taskMap.getTask(TaskJournal.getString(batch));
+                    if (task != null && !task.resolved && heap.contains(task)) {
+                        heap.remove(task);
+                        releaseDependents(task, clockTick);
+                        maybeCompact();
+                    }
+                    break;
+                }
+                case TaskJournal.ADD_ALL: {
+                    int count = TaskJournal.getVarInt(batch);
+                    String[] taskIds = new String[count];
+                    int[] urgencyLevels = new int[count];
+                    String[][] dependencies = new String[count][];
+                    for (int i = 0; i < count; i++) {
+                        taskIds[i] = TaskJournal.getString(batch);
+                        urgencyLevels[i] = TaskJournal.unZigZag(TaskJournal.getVarInt(batch));
+                        dependencies[i] = TaskJournal.getDependencies(batch);
+                    }
+                    addAllTasks(taskIds, urgencyLevels, dependencies);
+                    break;
+                }
+                case TaskJournal.ADD_DELAYED: {
+                    String taskId = TaskJournal.getString(batch);
+                    int urgencyLevel = TaskJournal.unZigZag(TaskJournal.getVarInt(batch));
+                    String[] dependencies = TaskJournal.getDependencies(batch);
+                    addTask(taskId, urgencyLevel, dependencies,
+                            TaskJournal.unZigZag(TaskJournal.getVarLong(batch)));
+                    break;
+                }
+                case TaskJournal.ADVANCE:
+                    if (timers == null) {
+                        timers = new TimingWheel();
+                    }
+                    timers.advance(TaskJournal.unZigZag(TaskJournal.getVarLong(batch)));
+                    break;
+                case TaskJournal.CANCEL: {
+                    String taskId = TaskJournal.getString(batch);
+                    cancelTask(taskId, batch.get() != 0);
+                    break;
+                }
+                case TaskJournal.TICK:
+                    clockTick = TaskJournal.unZigZag(TaskJournal.getVarLong(batch));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record type: " + type);
+            }
+        }
+    }
+
+    private Task newResolvedTask() {
+        Task task = new Task(null, 0, -1, null);
+        task.resolved = true;
+        task.dependents = null;
+        return task;
+    }
+
+    private ReadyQueue newQueue(Engine engine) {
+        return (engine == Engine.PAIRING_HEAP) ? new PairingHeap() : new MaxHeap(500000);
+    }
+
+    private void lockGraph(boolean exclusive) {
+        if (graphLock != null) {
+            (exclusive ? graphLock.writeLock() : graphLock.readLock()).lock();
+        }
+    }
+
+    private void unlockGraph(boolean exclusive) {
+        if (graphLock != null) {
+            (exclusive ? graphLock.writeLock() : graphLock.readLock()).unlock();
+            writeJournal();
+        }
+    }
+
+    /**
+     * Writes the journal batches sealed while the graph lock was held, once
+     * this thread holds it no more, so that other threads never wait on the
+     * disk for the lock
+     */
+    private void writeJournal() {
+        if (journal != null && journal.hasSealed() && graphLock.getReadHoldCount() == 0
+                && !graphLock.isWriteLockedByCurrentThread()) {
+            journal.writeSealed();
+        }
+    }
+
+    /**
+     * A method to add a new task
+     *
+     * @param taskId       The string taskId of the task we want to add
+     * @param urgencyLevel The integer urgencyLevel of the task we want to add
+     * @param dependencies The array of taskIds of tasks the added task depends on
+     */
+
+     public void add(String taskId, int urgencyLevel, String[] dependencies) {
+        lockGraph(true);
+        try {
+            boolean sampled = sampling && (addCalls++ & SAMPLE_MASK) == 0;
+            long start = sampled ? System.nanoTime() : 0L;
+            readAgingClock();
+            addTask(taskId, urgencyLevel, dependencies);
+            if (journal != null) {
+                journal.logAdd(taskId, urgencyLevel, dependencies);
+            }
+            if (sampled) {
+                recordSample(addLatency, System.nanoTime() - start);
+            }
+        } finally {
+            unlockGraph(true);
+        }
+    }
+
+    /**
+     * A method to add a new task that must not become ready before a given
+     * time, even once its dependencies are resolved
+     *
+     * @param taskId         The string taskId of the task we want to add
+     * @param urgencyLevel   The integer urgencyLevel of the task we want to add
+     * @param dependencies   The array of taskIds of tasks the added task depends on
+     * @param notBeforeNanos The earliest time, on this prioritizer's clock, at
+     *                       which the task may be resolved or leased
+     */
+    public void add(String taskId, int urgencyLevel, String[] dependencies, long notBeforeNanos) {
+        lockGraph(true);
+        try {
+            readAgingClock();
+            addTask(taskId, urgencyLevel, dependencies, notBeforeNanos);
+            if (journal != null) {
+                journal.logAddDelayed(taskId, urgencyLevel, dependencies, notBeforeNanos);
+            }
+        } finally {
+            unlockGraph(true);
+        }
+    }
+
+    private void addTask(String taskId, int urgencyLevel, String[] dependencies) {
+        addTask(taskId, urgencyLevel, dependencies, Long.MIN_VALUE);
+    }
+
+    private void addTask(String taskId, int urgencyLevel, String[] dependencies, long notBeforeNanos) {
+        if (taskMap.hasTask(taskId)) {
+            return;
+        }
+    
+        Task newTask = new Task(taskId, urgencyLevel, addOrderCounter++, dependencies);
+        taskMap.addTask(taskId, newTask);
+        if (dependencies != null) {
+            for (String dependencyId : dependencies) {
+                linkDependency(newTask, dependencyId);
+            }
+        }
+        // Only the wheel's own tick is consulted here, never the clock, so
+        // that replaying the journal makes the same decisions
+        if (notBeforeNanos != Long.MIN_VALUE && scheduleTimer(newTask, notBeforeNanos)) {
+            newTask.unresolvedCount++;
+        }
+        if (newTask.unresolvedCount == 0) {
+            markReady(newTask);
+            heap.addTask(newTask);
+        }
+        maybeCompact();
+    }
+
+    private void linkDependency(Task newTask, String dependencyId) {
+        Task dependencyTask = taskMap.getTask(dependencyId);
+        if (dependencyTask == null) {
+            dependencyTask = new Task(dependencyId, 0, -1, null);
+            taskMap.addTask(dependencyId, dependencyTask);
+            placeholderCount++;
+        }
+        if (dependencyTask.resolved) {
+            newTask.unresolvedCount--;
+        } else {
+            dependencyTask.dependents.add(newTask);
+            if (inheritUrgency) {
+                newTask.dependencies.add(dependencyTask);
+                raiseUrgency(dependencyTask, newTask.effectiveUrgency);
+            }
+        }
+    }
+
+    /**
+     * Moves a few more buckets if the task map is being rebuilt, and starts
+     * compacting it once the resolved tasks it still holds make up half of
+     * it. Resolved tasks have already dropped their dependents, so this
+     * reclaims the Task objects and map entries themselves. Compaction runs
+     * a few buckets per call, so no call waits for a pass over the table.
+     */
+    private void maybeCompact() {
+        if (taskMap.rebuilding()) {
+            taskMap.rebuildStep();
+        } else if (resolvedSinceCompaction >= MIN_COMPACTION && resolvedSinceCompaction >= taskMap.size() / 2) {
+            taskMap.compactResolved(taskMap.size() - resolvedSinceCompaction);
+            resolvedSinceCompaction = 0;
+        }
+    }
+
+    /**
+     * A method to add many tasks at once. All new taskIds are registered
+     * before any dependency is looked up, and the tasks that are ready
+     * immediately are heapified together rather than inserted one by one.
+     * The resolve order is the same as calling add() for each task in array
+     * order, provided every dependency is added before its dependents.
+     *
+     * @param taskIds       The string taskIds of the tasks we want to add
+     * @param urgencyLevels The integer urgencyLevels, parallel to taskIds
+     * @param dependencies  The arrays of dependency taskIds, parallel to
+     *                      taskIds; the array or any element may be null
+     */
+    public void addAll(String[] taskIds, int[] urgencyLevels, String[][] dependencies) {
+        if (urgencyLevels.length != taskIds.length
+                || (dependencies != null && dependencies.length != taskIds.length)) {
+            throw new IllegalArgumentException("taskIds, urgencyLevels and dependencies must have the same length");
+        }
+        lockGraph(true);
+        try {
+            readAgingClock();
+            addAllTasks(taskIds, urgencyLevels, dependencies);
+            if (journal != null) {
+                journal.logAddAll(taskIds, urgencyLevels, dependencies);
+            }
+        } finally {
+            unlockGraph(true);
+        }
+    }
+
+    /**
+     * A method to compute the complete resolve order of a frozen task graph
+     * without building a prioritizer. The order is the one that addAll()
+     * into a new default TaskPrioritizer followed by resolve() until it
+     * returns null would give, but it is computed on primitive arrays, with
+     * the per-task preprocessing spread over the common fork/join pool.
+     *
+     * @param taskIds       The taskIds of the tasks, in add order
+     * @param urgencyLevels The urgencyLevel of each task
+     * @param dependencies  The taskIds each task depends on, or null if no
+     *                      task has dependencies
+     *
+     * @return The indices into taskIds of the tasks in resolve order; tasks
+     *         that would never resolve, and repeated taskIds, are left out
+     */
+    public static int[] computeSchedule(String[] taskIds, int[] urgencyLevels, String[][] dependencies) {
+        if (urgencyLevels.length != taskIds.length
+                || (dependencies != null && dependencies.length != taskIds.length)) {
+            throw new IllegalArgumentException("taskIds, urgencyLevels and dependencies must have the same length");
+        }
+        return new StaticSchedule(taskIds, urgencyLevels, dependencies).compute();
+    }
+
+    private void addAllTasks(String[] taskIds, int[] urgencyLevels, String[][] dependencies) {
+        int n = taskIds.length;
+        taskMap.ensureCapacity(n);
+
+        Task[] added = new Task[n];
+        for (int i = 0; i < n; i++) {
+            if (taskMap.hasTask(taskIds[i])) {
+                continue;
+            }
+            String[] taskDependencies = (dependencies == null) ? null : dependencies[i];
+            added[i] = new Task(taskIds[i], urgencyLevels[i], addOrderCounter++, taskDependencies);
+            taskMap.addTask(taskIds[i], added[i]);
+        }
+
+        Task[] ready = new Task[n];
+        int readyCount = 0;
+        for (int i = 0; i < n; i++) {
+            Task newTask = added[i];
+            if (newTask == null) {
+                continue;
+            }
+            String[] taskDependencies = (dependencies == null) ? null : dependencies[i];
+            if (taskDependencies != null) {
+                for (String dependencyId : taskDependencies) {
+                    linkDependency(newTask, dependencyId);
+                }
+            }
+            if (newTask.unresolvedCount == 0) {
+                ready[readyCount++] = newTask;
+            }
+        }
+        for (int i = 0; i < readyCount; i++) {
+            markReady(ready[i]);
+        }
+        heap.addAll(ready, 0, readyCount);
+        maybeCompact();
+    }
+
+    /**
+     * A method to change the urgency of a task
+     *
+     * @param taskId       The string taskId of the task we want to change the
+     *                     urgency of
+     * @param urgencyLevel The new integer urgencyLevel of the task
+     */
+
+    public void update(String taskId, int newUrgencyLevel) {
+        lockGraph(true);
+        try {
+            updateTask(taskId, newUrgencyLevel);
+            if (journal != null) {
+                journal.logUpdate(taskId, newUrgencyLevel);
+            }
+        } finally {
+            unlockGraph(true);
+        }
+    }
+
+    private void updateTask(String taskId, int newUrgencyLevel) {
+        Task task = taskMap.getTask(taskId);
+        if (task == null || task.resolved) {
+            return;
+        }
+        task.urgencyLevel = newUrgencyLevel;
+        if (!inheritUrgency) {
+            task.effectiveUrgency = newUrgencyLevel;
+            reposition(task);
+        } else if (newUrgencyLevel > task.effectiveUrgency) {
+            raiseUrgency(task, newUrgencyLevel);
+        } else {
+            recomputeUrgency(task);
+        }
+    }
+
+    private void reposition(Task task) {
+        task.priorityKey = keyOf(task);
+        if (heap.contains(task)) {
+            heap.updatePriority(task);
+        }
+    }
+
+    private Task[] pushPropagation(Task[] stack, int top, Task task) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        stack[top] = task;
+        return stack;
+    }
+
+    /**
+     * Raises the effective urgency of a task and its unresolved transitive
+     * dependencies to at least the given urgency, stopping along every path
+     * at the first task that is already that urgent
+     */
+    private void raiseUrgency(Task task, int urgency) {
+        Task[] stack = propagation;
+        int top = 0;
+        stack = pushPropagation(stack, top++, task);
+        while (top > 0) {
+            Task current = stack[--top];
+            stack[top] = null;
+            if (current.resolved || current.effectiveUrgency >= urgency) {
+                continue;
+            }
+            current.effectiveUrgency = urgency;
+            reposition(current);
+            for (Task dependency : current.dependencies) {
+                stack = pushPropagation(stack, top++, dependency);
+            }
+        }
+        propagation = stack;
+    }
+
+    /**
+     * Recomputes the effective urgency of a task from its own urgency and its
+     * dependents after either may have dropped, and carries any change on to
+     * its dependencies
+     */
+    private void recomputeUrgency(Task task) {
+        Task[] stack = propagation;
+        int top = 0;
+        stack = pushPropagation(stack, top++, task);
+        while (top > 0) {
+            Task current = stack[--top];
+            stack[top] = null;
+            if (current.resolved) {
+                continue;
+            }
+            int urgency = current.urgencyLevel;
+            for (Task dependent : current.dependents) {
+                if (!dependent.resolved) {
+                    urgency = Math.max(urgency, dependent.effectiveUrgency);
+                }
+            }
+            if (urgency == current.effectiveUrgency) {
+                continue;
+            }
+            current.effectiveUrgency = urgency;
+            reposition(current);
+            for (Task dependency : current.dependencies) {
+                stack = pushPropagation(stack, top++, dependency);
+            }
+        }
+        propagation = stack;
+    }
+
+    /**
+     * Drops resolved tasks from the dependencies of a dependent that is still
+     * waiting, so that they can be collected. The list is emptied once
+     * nothing is left to wait for, and otherwise compacted whenever resolved
+     * tasks make up more than half of it, which keeps the cost per resolve
+     * constant on average.
+     */
+    private void pruneDependencies(Task dependent) {
+        List<Task> dependencies = dependent.dependencies;
+        if (dependencies == null) {
+            return;
+        }
+        // A pending start time counts as an unresolved dependency but is
+        // not listed
+        int waiting = (int) UNRESOLVED_COUNT.getVolatile(dependent) - ((dependent.timer == null) ? 0 : 1);
+        if (waiting <= 0) {
+            dependencies.clear();
+        } else if (dependencies.size() > 2 * waiting) {
+            dependencies.removeIf(dependency -> dependency.resolved);
+        }
+    }
+
+    private boolean scheduleTimer(Task task, long notBeforeNanos) {
+        if (timers == null) {
+            timers = new TimingWheel();
+        }
+        if (!timers.schedule(task, notBeforeNanos)) {
+            return false;
+        }
+        delayedCount++;
+        return true;
+    }
+
+    /**
+     * Called by the timing wheel once a task's start time has been reached
+     */
+    private void expireTimer(Task task) {
+        delayedCount--;
+        if (--task.unresolvedCount == 0) {
+            markReady(task);
+            heap.addTask(task);
+        }
+    }
+
+    /**
+     * Releases every delayed task whose start time has been reached. Checking
+     * costs one read of the clock and nothing at all while no task is
+     * delayed; expiring takes the write lock when the prioritizer is shared.
+     */
+    private void expireTimers() {
+        if (delayedCount == 0) {
+            return;
+        }
+        long now = now();
+        if (graphLock == null) {
+            advanceTimers(now);
+            return;
+        }
+        graphLock.readLock().lock();
+        boolean due;
+        try {
+            due = timers.isDue(now);
+        } finally {
+            graphLock.readLock().unlock();
+        }
+        if (due) {
+            graphLock.writeLock().lock();
+            try {
+                advanceTimers(now);
+            } finally {
+                graphLock.writeLock().unlock();
+            }
+            writeJournal();
+        }
+    }
+
+    private void advanceTimers(long now) {
+        if (!timers.isDue(now)) {
+            return;
+        }
+        readAgingClock();
+        timers.advance(now);
+        if (journal != null) {
+            journal.logAdvance(now);
+        }
+    }
+
+    private boolean pollReady() {
+        expireTimers();
+        return !heap.isEmpty();
+    }
+
+    /**
+     * A method to resolve the greatest urgency task which has had all of its
+     * dependencies satisfied
+     *
+     * @return The taskId of the resolved task
+     * @return null if there are no unresolved tasks left
+     */
+
+    public String resolve() {
+        boolean sampled = sampling && (resolveCalls++ & SAMPLE_MASK) == 0;
+        long start = sampled ? System.nanoTime() : 0L;
+        String taskId = resolveNext();
+        if (sampled) {
+            recordSample(resolveLatency, System.nanoTime() - start);
+        }
+        return taskId;
+    }
+
+    private String resolveNext() {
+        if (graphLock != null) {
+            String taskId = lease();
+            if (taskId != null) {
+                complete(taskId);
+            }
+            return taskId;
+        }
+        if (!pollReady()) {
+            return null;
+        }
+        return resolveHighestPriority().taskId;
+    }
+
+    /**
+     * A method to resolve up to max tasks in one call. Each task is chosen
+     * exactly as resolve() would choose it, so dependents released by an
+     * earlier task in the batch compete with everything already ready.
+     *
+     * @param max The maximum number of tasks to resolve
+     * @param out The array that receives the resolved taskIds, in order
+     *
+     * @return The number of tasks resolved, which is less than max only if
+     *         no tasks were left to resolve or out is shorter than max
+     */
+    public int resolve(int max, String[] out) {
+        int limit = Math.min(max, out.length);
+        int count = 0;
+        if (graphLock != null) {
+            String taskId;
+            while (count < limit && (taskId = resolve()) != null) {
+                out[count++] = taskId;
+            }
+            return count;
+        }
+        while (count < limit && pollReady()) {
+            out[count++] = resolveHighestPriority().taskId;
+        }
+        return count;
+    }
+
+    /**
+     * A method to resolve every task that can be resolved, passing each
+     * taskId to the consumer in resolve order
+     *
+     * @param consumer The consumer that receives the resolved taskIds
+     *
+     * @return The number of tasks resolved
+     */
+    public int drainTo(Consumer<? super String> consumer) {
+        return drainTo(consumer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * A method to resolve up to max tasks, passing each taskId to the
+     * consumer in resolve order
+     *
+     * @param consumer The consumer that receives the resolved taskIds
+     * @param max      The maximum number of tasks to resolve
+     *
+     * @return The number of tasks resolved
+     */
+    public int drainTo(Consumer<? super String> consumer, int max) {
+        int count = 0;
+        if (graphLock != null) {
+            String taskId;
+            while (count < max && (taskId = resolve()) != null) {
+                consumer.accept(taskId);
+                count++;
+            }
+            return count;
+        }
+        while (count < max && pollReady()) {
+            consumer.accept(resolveHighestPriority().taskId);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Resolves the top of the ready queue. The first dependent it releases
+     * takes the top's place in a single sift, and the rest are added as
+     * one batch.
+     */
+    private Task resolveHighestPriority() {
+        Task highestPriorityTask = heap.peek();
+        highestPriorityTask.resolved = true;
+        readAgingClock();
+        if (journal != null) {
+            journal.logResolve(highestPriorityTask.taskId);
+        }
+
+        int releasedCount = 0;
+        for (Task dependent : highestPriorityTask.dependents) {
+            // A cancelled dependent is marked resolved and must stay out
+            if (dependent.resolved) {
+                continue;
+            }
+            dependent.unresolvedCount--;
+            pruneDependencies(dependent);
+
+            if (dependent.unresolvedCount == 0) {
+                markReady(dependent);
+                if (releasedCount == released.length) {
+                    released = Arrays.copyOf(released, releasedCount * 2);
+                }
+                released[releasedCount++] = dependent;
+            }
+        }
+
+        if (sampling) {
+            recordSample(fanOut, highestPriorityTask.dependents.size());
+        }
+        highestPriorityTask.dependents = null;
+        highestPriorityTask.dependencies = null;
+        resolvedCount++;
+
+        if (releasedCount == 0) {
+            heap.removeHighestPriority();
+        } else {
+            heap.replaceTop(released[0]);
+            heap.addAll(released, 1, releasedCount - 1);
+            Arrays.fill(released, 0, releasedCount, null);
+        }
+        resolvedSinceCompaction++;
+        maybeCompact();
+        return highestPriorityTask;
+    }
+
+    /**
+     * A method to check whether any task is ready to be resolved or leased
+     *
+     * @return true if at least one task has all of its dependencies resolved
+     */
+    public boolean hasReadyTasks() {
+        lockGraph(false);
+        try {
+            return !heap.isEmpty() || dueTasks().length > 0;
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    /**
+     * A method to check whether a task has been resolved or cancelled
+     *
+     * @param taskId The taskId of the task
+     *
+     * @return true if the task was resolved or cancelled, false if it is
+     *         still pending or has never been seen
+     */
+    public boolean isResolved(String taskId) {
+        lockGraph(false);
+        try {
+            Task task = taskMap.getTask(taskId);
+            return task != null && task.resolved;
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    /**
+     * A method to look at the task that resolve() or lease() would take
+     * next, without taking it. Like every read, it changes no state: a
+     * delayed task whose start time has passed counts as ready, but stays
+     * where it is until a mutating call moves it to the ready queue.
+     *
+     * @return The taskId of the next task
+     * @return null if no task is currently ready
+     */
+    public String peek() {
+        lockGraph(false);
+        try {
+            Task task = peekTop();
+            return (task == null) ? null : task.taskId;
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    /**
+     * A method to look at the k tasks that resolve() or lease() would take
+     * next if nothing changed in between, without taking them. The ready
+     * queue is walked best-first: in O(k log k) with the binary heap, and
+     * with the pairing heap in O(m log m), where m is k plus the children
+     * of the tasks listed.
+     *
+     * @param k The maximum number of taskIds to return
+     *
+     * @return The taskIds of up to k ready tasks, most urgent first
+     */
+    public String[] peek(int k) {
+        lockGraph(false);
+        try {
+            Task[] tasks = peekReady(k);
+            String[] taskIds = new String[tasks.length];
+            for (int i = 0; i < tasks.length; i++) {
+                taskIds[i] = tasks[i].taskId;
+            }
+            return taskIds;
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    /**
+     * The task peek() returns, found without changing any state. Call with
+     * the graph lock held.
+     */
+    private Task peekTop() {
+        if (delayedCount == 0) {
+            return heap.peek();
+        }
+        Task[] top = peekReady(1);
+        return (top.length == 0) ? null : top[0];
+    }
+
+    /**
+     * Lists the k tasks resolve() would take next, counting tasks whose
+     * start time has passed as ready although the timing wheel has not
+     * moved them to the ready queue yet, and without moving them, so that
+     * reads never change state. Call with the graph lock held.
+     */
+    private Task[] peekReady(int k) {
+        Task[] ready = new Task[Math.max(0, Math.min(k, heap.size()))];
+        int readyCount = heap.peek(ready.length, ready);
+        Task[] due = dueTasks();
+        if (due.length == 0 || k <= 0) {
+            return (readyCount == ready.length) ? ready : Arrays.copyOf(ready, readyCount);
+        }
+        // Due tasks would all be made ready at the same tick, so their keys
+        // rank them as their urgencies do
+        Arrays.sort(due, (a, b) -> compareKeys(b.effectiveUrgency, b.order, a.effectiveUrgency, a.order));
+        long tick = (agingPeriod == 0) ? 0L
+                : agingByTime ? now() - agingEpoch : (long) RESOLVED_COUNT.getOpaque(this);
+        Task[] merged = new Task[Math.min(k, readyCount + due.length)];
+        int i = 0;
+        int j = 0;
+        for (int n = 0; n < merged.length; n++) {
+            if (j < due.length && (i == readyCount || compareKeys(dueKey(due[j], tick), due[j].order,
+                    ready[i].priorityKey, ready[i].order) > 0)) {
+                merged[n] = due[j++];
+            } else {
+                merged[n] = ready[i++];
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * The tasks expireTimers() would make ready now, left where they are
+     */
+    private Task[] dueTasks() {
+        return (delayedCount == 0) ? NO_TASKS : timers.readyAt(now());
+    }
+
+    /**
+     * The key a due task would be given by markReady at the given tick
+     */
+    private long dueKey(Task task, long tick) {
+        return (agingPeriod == 0) ? task.effectiveUrgency : task.effectiveUrgency * agingPeriod - tick;
+    }
+
+    /**
+     * A method to count the ready tasks whose urgency, before aging, is at
+     * least the given urgency. Requires setReadyCounting(true). Delayed
+     * tasks whose start time has passed are counted as peek() lists them.
+     *
+     * @param urgencyLevel The least urgency counted
+     *
+     * @return The number of ready tasks at least that urgent
+     */
+    public int countReadyAtLeast(int urgencyLevel) {
+        if (readyCounter == null) {
+            throw new IllegalStateException("Ready counting is off; call setReadyCounting(true) first");
+        }
+        lockGraph(false);
+        try {
+            int count = readyCounter.countAtLeast(urgencyLevel);
+            for (Task task : dueTasks()) {
+                if (task.effectiveUrgency >= urgencyLevel) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    /**
+     * The urgency, before aging, of the task peek() would return, or
+     * Integer.MIN_VALUE if no task is ready
+     */
+    int peekUrgency() {
+        lockGraph(false);
+        try {
+            Task task = peekTop();
+            return (task == null) ? Integer.MIN_VALUE : task.effectiveUrgency;
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    /**
+     * A method to claim the greatest urgency task which has had all of its
+     * dependencies satisfied, without releasing its dependents. Each ready
+     * task is leased to exactly one caller; it stays unresolved until
+     * complete() is called for it.
+     *
+     * @return The taskId of the leased task
+     * @return null if no task is currently ready
+     */
+    public String lease() {
+        expireTimers();
+        lockGraph(false);
+        try {
+            if (heap.isEmpty()) {
+                return null;
+            }
+            Task task = heap.removeHighestPriority();
+            if (task == null) {
+                return null;
+            }
+            task.leased = true;
+            LEASED_COUNT.getAndAdd(this, 1);
+            return task.taskId;
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    /**
+     * A method to finish a leased task, resolving it and making any
+     * dependents whose dependencies are now all resolved available to lease()
+     *
+     * @param taskId The taskId of a task previously returned by lease()
+     *
+     * @return true if the task was leased and is now resolved, false otherwise
+     */
+    public boolean complete(String taskId) {
+        lockGraph(false);
+        try {
+            Task task = taskMap.getTask(taskId);
+            if (task == null || !LEASED.compareAndSet(task, true, false)) {
+                return false;
+            }
+            LEASED_COUNT.getAndAdd(this, -1);
+            // Completions run concurrently, so each reads the aging clock
+            // for itself and journals it together with its record
+            long tick = agingByTime ? now() - agingEpoch : 0L;
+            // Logged before any dependent is published, so that a dependent's
+            // own completion can never precede this record in the log
+            if (journal != null) {
+                if (agingByTime) {
+                    journal.logComplete(taskId, tick);
+                } else {
+                    journal.logComplete(taskId);
+                }
+            }
+            releaseDependents(task, tick);
+            return true;
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    private void releaseDependents(Task task, long clockTick) {
+        task.resolved = true;
+        for (Task dependent : task.dependents) {
+            if (dependent.resolved) {
+                continue;
+            }
+            boolean ready = (int) UNRESOLVED_COUNT.getAndAdd(dependent, -1) == 1;
+            if (dependent.dependencies != null) {
+                // Completions of the dependent's other dependencies may run
+                // at the same time
+                synchronized (dependent) {
+                    pruneDependencies(dependent);
+                }
+            }
+            if (ready) {
+                markReady(dependent, clockTick);
+                heap.addTask(dependent);
+            }
+        }
+        if (sampling) {
+            recordSample(fanOut, task.dependents.size());
+        }
+        task.dependents = null;
+        task.dependencies = null;
+        RESOLVED_COUNT.getAndAdd(this, 1L);
+        // Compaction needs the write lock, so it is left to the next add()
+        RESOLVED_SINCE_COMPACTION.getAndAdd(this, 1);
+    }
+
+    /**
+     * A method to cancel a task that is neither resolved nor leased. A ready
+     * task leaves the ready queue at once. With cascade, every task that
+     * transitively depends on it is cancelled as well; without it, its
+     * dependents stop waiting for it as if it had been resolved. Tasks added
+     * later treat a cancelled taskId as a resolved dependency.
+     *
+     * @param taskId  The taskId of the task to cancel
+     * @param cascade Whether to cancel every transitive dependent as well
+     *
+     * @return The number of tasks cancelled, or 0 if the task is unknown,
+     *         already resolved or cancelled, or currently leased
+     */
+    public int cancel(String taskId, boolean cascade) {
+        lockGraph(true);
+        try {
+            readAgingClock();
+            int cancelled = cancelTask(taskId, cascade);
+            if (cancelled > 0 && journal != null) {
+                journal.logCancel(taskId, cascade);
+            }
+            return cancelled;
+        } finally {
+            unlockGraph(true);
+        }
+    }
+
+    /**
+     * Cancelled tasks are marked resolved, which keeps them out of the ready
+     * queue and out of inherited urgencies, and lets compaction reclaim them.
+     * A dependents list that still holds a cancelled task skips it until its
+     * owner resolves and drops the list.
+     */
+    private int cancelTask(String taskId, boolean cascade) {
+        Task task = taskMap.getTask(taskId);
+        if (task == null || task.resolved || task.leased) {
+            return 0;
+        }
+        // Only the root can be ready, since every dependent still waits on it
+        if (heap.contains(task)) {
+            heap.remove(task);
+        }
+
+        List<Task> survivors = inheritUrgency ? new ArrayList<>() : null;
+        Task[] stack = propagation;
+        int top = 0;
+        int cancelled = 0;
+        task.resolved = true;
+        stack = pushPropagation(stack, top++, task);
+        while (top > 0) {
+            Task current = stack[--top];
+            stack[top] = null;
+            cancelled++;
+            if (current.timer != null) {
+                timers.unlink(current.timer);
+                delayedCount--;
+            }
+            if (current.order < 0) {
+                placeholderCount--;
+            } else {
+                cancelledCount++;
+            }
+            for (Task dependent : current.dependents) {
+                if (dependent.resolved) {
+                    continue;
+                }
+                if (cascade) {
+                    dependent.resolved = true;
+                    stack = pushPropagation(stack, top++, dependent);
+                } else {
+                    dependent.unresolvedCount--;
+                    pruneDependencies(dependent);
+                    if (dependent.unresolvedCount == 0) {
+                        markReady(dependent);
+                        heap.addTask(dependent);
+                    }
+                }
+            }
+            if (survivors != null) {
+                survivors.addAll(current.dependencies);
+            }
+            current.dependents = null;
+            current.dependencies = null;
+        }
+        propagation = stack;
+
+        // Dependencies that inherited urgency from a cancelled task fall back
+        // to what their remaining dependents ask for
+        if (survivors != null) {
+            for (Task dependency : survivors) {
+                recomputeUrgency(dependency);
+            }
+        }
+        resolvedSinceCompaction += cancelled;
+        maybeCompact();
+        return cancelled;
+    }
+
+    private void recordSample(long[] histogram, long value) {
+        int bucket = 64 - Long.numberOfLeadingZeros(value);
+        if (graphLock == null) {
+            histogram[bucket]++;
+        } else {
+            HISTOGRAM_BUCKET.getAndAdd(histogram, bucket, 1L);
+        }
+    }
+
+    /**
+     * A method to take a snapshot of the prioritizer's operational metrics.
+     * Counters are maintained as tasks move through the prioritizer; the
+     * hash-chain distribution is computed by walking the task table, so
+     * this call is O(table capacity).
+     *
+     * @return The current metrics
+     */
+    public Metrics metrics() {
+        return metrics(true);
+    }
+
+    /**
+     * Takes a metrics snapshot, leaving out the hash-chain distribution
+     * (as null) unless withChains is set, which makes it O(1)
+     */
+    private Metrics metrics(boolean withChains) {
+        lockGraph(false);
+        try {
+            long[] chains = null;
+            if (withChains) {
+                chains = new long[MAX_CHAIN_BUCKET + 1];
+                // While a rebuild runs, both tables' chains are counted
+                for (MyHashMap.Entry[] table : taskMap.tables()) {
+                    for (MyHashMap.Entry head : table) {
+                        int length = 0;
+                        for (MyHashMap.Entry e = head; e != null; e = e.next) {
+                            length++;
+                        }
+                        chains[Math.min(length, MAX_CHAIN_BUCKET)]++;
+                    }
+                }
+            }
+            int ready = heap.size();
+            int leased = (int) LEASED_COUNT.getVolatile(this);
+            long resolved = (long) RESOLVED_COUNT.getVolatile(this);
+            long blocked = addOrderCounter - resolved - cancelledCount - ready - leased;
+            return new Metrics(ready, blocked, delayedCount, placeholderCount, leased, resolved, cancelledCount,
+                    taskMap.table.length, chains,
+                    addLatency.clone(), resolveLatency.clone(), fanOut.clone());
+        } finally {
+            unlockGraph(false);
+        }
+    }
+
+    /**
+     * A method to publish this prioritizer's metrics through the platform
+     * MBean server
+     *
+     * @param objectName The JMX object name to register under, for example
+     *                   "scheduler:type=TaskPrioritizer,name=main"
+     *
+     * @return The registered object name
+     */
+    public ObjectName registerMBean(String objectName) throws JMException {
+        ObjectName name = new ObjectName(objectName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), name);
+        return name;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+/**
+ * The JMX management interface for TaskPrioritizer metrics. See
+ * TaskPrioritizer.Metrics for the meaning of each attribute.
+ */
+public interface TaskPrioritizerMXBean {
+    int getReadyTasks();
+
+    long getBlockedTasks();
+
+    int getDelayedTasks();
+
+    int getPlaceholderTasks();
+
+    int getLeasedTasks();
+
+    long getResolvedTasks();
+
+    long getCancelledTasks();
+
+    int getTableCapacity();
+
+    long[] getChainLengthCounts();
+
+    long[] getAddLatencyCounts();
+
+    long[] getResolveLatencyCounts();
+
+    long[] getFanOutCounts();
+
+    long getAddLatencyP99Nanos();
+
+    long getResolveLatencyP99Nanos();
+}
@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * TimerCheck runs a seeded mix of adds, delayed adds, updates, cancels and
+ * resolves on a manually advanced clock, and checks every resolve against
+ * a plain model of the graph. In the model, a delayed task becomes ready on
+ * the first tick at or after its start time once its dependencies are
+ * resolved, and each resolve scans the ready tasks for the most urgent,
+ * then the earliest added. Start times range from the past to tens of
+ * millions of ticks ahead, and the clock mostly creeps but sometimes jumps
+ * far, so timers cascade through several levels of the wheel, and some
+ * expire in the same jump that reaches them. After each resolve, the
+ * number of delayed tasks the metrics report must match the model.
+ *
+ * Usage: TimerCheck [seed] [operations]
+ *
+ * The seed defaults to 1 and the number of operations to 8000. Exits with
+ * status 1 if any check fails.
+ */
+public class TimerCheck {
+    private static final int RECENT = 48;
+    private static final long RESOLUTION = 1000;
+
+    private final long seed;
+    private final int operations;
+    private int failures;
+    private long now;
+
+    private TimerCheck(long seed, int operations) {
+        this.seed = seed;
+        this.operations = operations;
+    }
+
+    /**
+     * The graph as plain arrays, indexed by add order
+     */
+    private static final class Model {
+        final int[] urgencyLevels;
+        final List<List<Integer>> dependents = new ArrayList<>();
+        final int[] unresolvedCounts;
+        // The first tick at or after the start time, or -1 if none
+        final long[] deadlines;
+        // Resolved or cancelled
+        final boolean[] done;
+        int size;
+
+        Model(int capacity) {
+            urgencyLevels = new int[capacity];
+            unresolvedCounts = new int[capacity];
+            deadlines = new long[capacity];
+            done = new boolean[capacity];
+        }
+
+        void add(int urgencyLevel, int[] dependencies, long deadline) {
+            int task = size++;
+            urgencyLevels[task] = urgencyLevel;
+            deadlines[task] = deadline;
+            dependents.add(new ArrayList<>());
+            for (int dependency : dependencies) {
+                if (!done[dependency]) {
+                    dependents.get(dependency).add(task);
+                    unresolvedCounts[task]++;
+                }
+            }
+        }
+
+        void release(int task) {
+            done[task] = true;
+            for (int dependent : dependents.get(task)) {
+                if (!done[dependent]) {
+                    unresolvedCounts[dependent]--;
+                }
+            }
+        }
+
+        /**
+         * @return The add index of the resolved task, or -1 if none is ready
+         *         at the tick
+         */
+        int resolve(long tick) {
+            int best = -1;
+            for (int task = 0; task < size; task++) {
+                if (!done[task] && unresolvedCounts[task] == 0 && deadlines[task] <= tick
+                        && (best < 0 || urgencyLevels[task] > urgencyLevels[best])) {
+                    best = task;
+                }
+            }
+            if (best >= 0) {
+                release(best);
+            }
+            return best;
+        }
+
+        int delayed(long tick) {
+            int count = 0;
+            for (int task = 0; task < size; task++) {
+                if (!done[task] && deadlines[task] > tick) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * A start time relative to now: in the past, on an exact tick, or ahead
+     * by a number of ticks drawn from one of the first four wheel levels
+     */
+    private long startTime(Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+                return now - random.nextInt(100) * RESOLUTION;
+            case 1:
+                return (now / RESOLUTION + random.nextInt(64)) * RESOLUTION;
+            default:
+                int level = random.nextInt(4);
+                long ticks = 1 + (long) (random.nextDouble() * (1L << (6 * (level + 1))));
+                return now + ticks * RESOLUTION - random.nextInt((int) RESOLUTION);
+        }
+    }
+
+    private static long deadlineOf(long notBeforeNanos) {
+        long nanos = Math.max(notBeforeNanos, 0L);
+        return nanos / RESOLUTION + ((nanos % RESOLUTION == 0) ? 0 : 1);
+    }
+
+    private void check(TaskPrioritizer.Engine engine, boolean striped) {
+        String name = engine.name().toLowerCase() + (striped ? ", ready stripes" : "");
+        Random random = new Random(seed);
+        now = 123_456_789L;
+        TaskPrioritizer prioritizer = new TaskPrioritizer(engine, striped ? 2 : 0);
+        prioritizer.setClock(() -> now);
+        prioritizer.setTimerResolution(RESOLUTION);
+        Model model = new Model(operations);
+        int[] recent = new int[RECENT];
+        int resolves = 0;
+        int delayedResolves = 0;
+        for (int i = 0; i < operations; i++) {
+            int step = random.nextInt(100);
+            if (step < 2) {
+                now += (long) random.nextInt(1 << 22) * RESOLUTION;
+            } else if (step < 10) {
+                now += (long) random.nextInt(1 << 14) * RESOLUTION;
+            } else {
+                now += random.nextInt(64) * RESOLUTION + random.nextInt((int) RESOLUTION);
+            }
+            int choice = random.nextInt(100);
+            int added = model.size;
+            if (choice < 45 || added == 0) {
+                int urgencyLevel = random.nextInt(30);
+                int[] dependencies = new int[Math.min(added, random.nextInt(3))];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencies[j] = recent[(added - 1 - random.nextInt(Math.min(added, RECENT))) % RECENT];
+                }
+                // A repeated dependency would count twice in the model
+                dependencies = Arrays.stream(dependencies).distinct().toArray();
+                String[] dependencyIds = new String[dependencies.length];
+                for (int j = 0; j < dependencies.length; j++) {
+                    dependencyIds[j] = "T" + dependencies[j];
+                }
+                if (random.nextInt(3) == 0) {
+                    model.add(urgencyLevel, dependencies, -1);
+                    prioritizer.add("T" + added, urgencyLevel, dependencyIds);
+                } else {
+                    long notBefore = startTime(random);
+                    model.add(urgencyLevel, dependencies, deadlineOf(notBefore));
+                    prioritizer.add("T" + added, urgencyLevel, dependencyIds, notBefore);
+                }
+                recent[added % RECENT] = added;
+            } else if (choice < 55) {
+                int target = recent[random.nextInt(Math.min(added, RECENT))];
+                int urgencyLevel = random.nextInt(30);
+                if (!model.done[target]) {
+                    model.urgencyLevels[target] = urgencyLevel;
+                }
+                prioritizer.update("T" + target, urgencyLevel);
+            } else if (choice < 60) {
+                int target = recent[random.nextInt(Math.min(added, RECENT))];
+                if (!model.done[target]) {
+                    model.release(target);
+                }
+                prioritizer.cancel("T" + target, false);
+            } else {
+                long tick = now / RESOLUTION;
+                int want = model.resolve(tick);
+                String got = prioritizer.resolve();
+                String wantId = (want < 0) ? null : "T" + want;
+                if (wantId == null ? got != null : !wantId.equals(got)) {
+                    fail(name + ": resolve " + resolves + " at tick " + tick + " returned " + got + " instead of "
+                            + wantId + ((want < 0 || model.deadlines[want] < 0) ? ""
+                                    : ", due at tick " + model.deadlines[want]));
+                    return;
+                }
+                int delayed = prioritizer.metrics().delayedTasks;
+                if (delayed != model.delayed(tick)) {
+                    fail(name + ": after resolve " + resolves + ", the metrics count " + delayed
+                            + " delayed tasks instead of " + model.delayed(tick));
+                    return;
+                }
+                if (want >= 0 && model.deadlines[want] >= 0) {
+                    delayedResolves++;
+                }
+                resolves++;
+            }
+        }
+        System.out.println("PASS " + name + ": " + resolves + " resolves matched the model, " + delayedResolves
+                + " of them of delayed tasks");
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    public static void main(String[] args) {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 8000;
+        TimerCheck check = new TimerCheck(seed, operations);
+        for (TaskPrioritizer.Engine engine : TaskPrioritizer.Engine.values()) {
+            check.check(engine, false);
+            check.check(engine, true);
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+}
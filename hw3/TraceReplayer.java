@@ -0,0 +1,317 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * TraceReplayer runs a call trace written by RecordingTaskPrioritizer
+ * against a fresh TaskPrioritizer, as fast as it will go, and checks that
+ * every resolve returns what it returned when the trace was recorded. The
+ * whole trace is decoded before the clock starts, so a replay measures the
+ * prioritizer alone and not the file.
+ *
+ * Usage: TraceReplayer [--engine=name|all] [--stripes=n] [--repeats=n] [--overhead] trace
+ *
+ * The engine defaults to BINARY_HEAP, and all runs each engine in turn.
+ * Every engine is replayed repeats times, 5 by default, and the fastest run
+ * is reported. --overhead also replays each run through a
+ * RecordingTaskPrioritizer, to a temporary file, and reports how much
+ * slower recording made it. Exits with status 1 if any run diverges from
+ * the trace.
+ */
+public class TraceReplayer {
+    private static final String[] NO_DEPENDENCIES = new String[0];
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // One entry per call: its type, its urgency for adds and updates, its
+    // taskId for adds and updates or the taskId recorded for resolves, and
+    // its dependencies for adds
+    private int[] types = new int[1024];
+    private int[] urgencies = new int[1024];
+    private String[] taskIds = new String[1024];
+    private String[][] dependencies = new String[1024][];
+    private int count;
+    private boolean complete;
+    // The table of recent taskIds, as RecordingTaskPrioritizer keeps it;
+    // only kept while decoding
+    private String[] recent = new String[RecordingTaskPrioritizer.RECENT_TASK_IDS];
+
+    /**
+     * Constructor to decode a whole call trace
+     *
+     * @param filepath The path to the call trace
+     */
+    public TraceReplayer(String filepath) throws IOException {
+        try (CaseParser parser = new CaseParser(filepath)) {
+            parser.expectHeader(RecordingTaskPrioritizer.MAGIC, RecordingTaskPrioritizer.VERSION);
+            while (parser.peek() != -1) {
+                int type = parser.nextVarint();
+                if (type == RecordingTaskPrioritizer.END) {
+                    complete = true;
+                    break;
+                }
+                if (type < RecordingTaskPrioritizer.ADD || type > RecordingTaskPrioritizer.RESOLVE) {
+                    throw new IllegalArgumentException("Invalid call type " + type + " at call " + count);
+                }
+                if (count == types.length) {
+                    grow();
+                }
+                try {
+                    types[count] = type;
+                    taskIds[count] = readTaskId(parser);
+                    if (type != RecordingTaskPrioritizer.RESOLVE) {
+                        urgencies[count] = parser.nextSignedVarint();
+                    }
+                    if (type == RecordingTaskPrioritizer.ADD) {
+                        int dependencyCount = parser.nextVarint();
+                        String[] ids = (dependencyCount == 0) ? NO_DEPENDENCIES : new String[dependencyCount];
+                        for (int j = 0; j < dependencyCount; j++) {
+                            ids[j] = readTaskId(parser);
+                        }
+                        dependencies[count] = ids;
+                    }
+                } catch (NoSuchElementException e) {
+                    // A call cut short by the end of the file is the torn
+                    // tail of a recording that never finished; it is
+                    // dropped and the calls before it are kept
+                    if (parser.peek() == -1) {
+                        break;
+                    }
+                    throw e;
+                }
+                count++;
+            }
+        }
+        recent = null;
+    }
+
+    /**
+     * Reads a taskId written by RecordingTaskPrioritizer, keeping it in the
+     * table of recent taskIds if it was written out
+     */
+    private String readTaskId(CaseParser parser) {
+        int id = parser.nextVarint();
+        if (id == 0) {
+            return null;
+        }
+        if (id == 1) {
+            String taskId = parser.nextString();
+            recent[RecordingTaskPrioritizer.slot(taskId)] = taskId;
+            return taskId;
+        }
+        if (id - 2 >= recent.length || recent[id - 2] == null) {
+            throw new IllegalArgumentException("TaskId slot " + (id - 2) + " is empty at call " + count);
+        }
+        return recent[id - 2];
+    }
+
+    private void grow() {
+        int capacity = count * 2;
+        types = Arrays.copyOf(types, capacity);
+        urgencies = Arrays.copyOf(urgencies, capacity);
+        taskIds = Arrays.copyOf(taskIds, capacity);
+        dependencies = Arrays.copyOf(dependencies, capacity);
+    }
+
+    /**
+     * @return The number of calls in the trace
+     */
+    public int calls() {
+        return count;
+    }
+
+    /**
+     * @return false if the trace was cut short before its end marker, as
+     *         happens when the recording process dies before close()
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * A method to run every call of the trace against a prioritizer
+     *
+     * @param prioritizer A fresh TaskPrioritizer
+     *
+     * @return The index of the first call whose result differs from the
+     *         trace, or -1 if every result matches
+     */
+    public int replay(TaskPrioritizer prioritizer) {
+        return replay(prioritizer, null);
+    }
+
+    /**
+     * Runs every call through recorder if it is not null, and otherwise
+     * straight against prioritizer, so that both are timed on the same loop
+     */
+    private int replay(TaskPrioritizer prioritizer, RecordingTaskPrioritizer recorder) {
+        int[] types = this.types;
+        int[] urgencies = this.urgencies;
+        String[] taskIds = this.taskIds;
+        String[][] dependencies = this.dependencies;
+        for (int i = 0; i < count; i++) {
+            switch (types[i]) {
+                case RecordingTaskPrioritizer.ADD:
+                    if (recorder != null) {
+                        recorder.add(taskIds[i], urgencies[i], dependencies[i]);
+                    } else {
+                        prioritizer.add(taskIds[i], urgencies[i], dependencies[i]);
+                    }
+                    break;
+                case RecordingTaskPrioritizer.UPDATE:
+                    if (recorder != null) {
+                        recorder.update(taskIds[i], urgencies[i]);
+                    } else {
+                        prioritizer.update(taskIds[i], urgencies[i]);
+                    }
+                    break;
+                default:
+                    String result = (recorder != null) ? recorder.resolve() : prioritizer.resolve();
+                    String expected = taskIds[i];
+                    if (result != expected && (result == null || !result.equals(expected))) {
+                        System.out.println("Call " + i + ": resolve returned " + result + " but the trace recorded "
+                                + expected);
+                        return i;
+                    }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if other holds the same calls as this trace
+     */
+    boolean sameCalls(TraceReplayer other) {
+        if (other.count != count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (other.types[i] != types[i] || !String.valueOf(other.taskIds[i]).equals(String.valueOf(taskIds[i]))
+                    || (types[i] != RecordingTaskPrioritizer.RESOLVE && other.urgencies[i] != urgencies[i])
+                    || (types[i] == RecordingTaskPrioritizer.ADD
+                            && !Arrays.equals(other.dependencies[i], dependencies[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        TaskPrioritizer.Engine[] engines = { TaskPrioritizer.Engine.BINARY_HEAP };
+        int stripes = 0;
+        int repeats = 5;
+        boolean overhead = false;
+        String filepath = null;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                String name = arg.substring("--engine=".length()).toUpperCase();
+                engines = name.equals("ALL") ? TaskPrioritizer.Engine.values()
+                        : new TaskPrioritizer.Engine[] { TaskPrioritizer.Engine.valueOf(name) };
+            } else if (arg.startsWith("--stripes=")) {
+                stripes = Integer.parseInt(arg.substring("--stripes=".length()));
+            } else if (arg.startsWith("--repeats=")) {
+                repeats = Integer.parseInt(arg.substring("--repeats=".length()));
+            } else if (arg.equals("--overhead")) {
+                overhead = true;
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else if (filepath == null) {
+                filepath = arg;
+            } else {
+                throw new IllegalArgumentException("Only one trace can be replayed at a time: " + arg);
+            }
+        }
+        if (filepath == null || repeats < 1) {
+            System.out.println("Usage: java TraceReplayer [--engine=name|all] [--stripes=n] [--repeats=n]"
+                    + " [--overhead] trace");
+            return;
+        }
+
+        long start = System.nanoTime();
+        TraceReplayer trace = new TraceReplayer(filepath);
+        System.out.println(String.format("Loaded %d calls from %s in %.1f ms", trace.calls(), filepath,
+                (System.nanoTime() - start) / 1e6));
+        if (!trace.isComplete()) {
+            System.out.println("The trace has no end marker, so its recording was cut short");
+        }
+
+        boolean passed = true;
+        File recording = overhead ? File.createTempFile("replay", ".trace") : null;
+        try {
+            for (TaskPrioritizer.Engine engine : engines) {
+                passed &= trace.run(engine, stripes, repeats, recording);
+            }
+        } finally {
+            if (recording != null) {
+                recording.delete();
+            }
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Replays the trace repeats times on one engine and prints the fastest
+     * run, and the fastest recorded run if recording is not null
+     *
+     * @return true if every run matched the trace
+     */
+    private boolean run(TaskPrioritizer.Engine engine, int stripes, int repeats, File recording) throws IOException {
+        String name = engine.name().toLowerCase() + (stripes > 0 ? ", " + stripes + " stripes" : "");
+        // The fastest wall time and calling thread CPU time of plain runs,
+        // then of recorded runs
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int i = 0; i < repeats; i++) {
+            if (!time(new TaskPrioritizer(engine, stripes), null, best, 0)) {
+                System.out.println(name + ": diverged from the trace");
+                return false;
+            }
+            if (recording == null) {
+                continue;
+            }
+            try (RecordingTaskPrioritizer recorder = new RecordingTaskPrioritizer(
+                    new TaskPrioritizer(engine, stripes), recording.getPath())) {
+                if (!time(null, recorder, best, 2)) {
+                    System.out.println(name + ": diverged from the trace while recording");
+                    return false;
+                }
+            }
+        }
+        System.out.println(String.format("%s: %d calls in %.1f ms, %.2f M calls/s, %.1f ns/call, results match",
+                name, count, best[0] / 1e6, count * 1e3 / best[0], (double) best[0] / count));
+        if (recording == null) {
+            return true;
+        }
+        // The writer thread shares the calling thread's core on a machine
+        // with only one, so the calling thread's CPU time is also shown:
+        // that is what recording costs the caller when the writer has a
+        // core of its own
+        boolean roundTrip = sameCalls(new TraceReplayer(recording.getPath()));
+        System.out.println(String.format("%s: recording %.1f ms, %+.1f%% wall time, %+.1f%% calling thread CPU,"
+                + " %.1f MB trace%s", name, best[2] / 1e6, 100.0 * (best[2] - best[0]) / best[0],
+                100.0 * (best[3] - best[1]) / best[1], recording.length() / 1e6,
+                roundTrip ? "" : ", but the recorded calls differ from the trace"));
+        return roundTrip;
+    }
+
+    /**
+     * Replays the trace once, keeping the lower of each time in best[at]
+     * and best[at + 1]
+     *
+     * @return true if the run matched the trace
+     */
+    private boolean time(TaskPrioritizer prioritizer, RecordingTaskPrioritizer recorder, long[] best, int at) {
+        // Start every run from an empty heap, so that one run does not pay
+        // for collecting the garbage of the last
+        System.gc();
+        long start = System.nanoTime();
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        int diverged = replay(prioritizer, recorder);
+        best[at + 1] = Math.min(best[at + 1], THREADS.getCurrentThreadCpuTime() - cpuStart);
+        best[at] = Math.min(best[at], System.nanoTime() - start);
+        return diverged < 0;
+    }
+}